@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2017 IBM Corporation and others.
+ * Copyright (c) 2007, 2020 IBM Corporation and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -50,6 +50,7 @@ public class Activator implements BundleActivator {
 
 	@Override
 	public void stop(BundleContext aContext) throws Exception {
+		MirrorStatistics.shutdown();
 		Activator.context = null;
 		Activator.instance = null;
 		this.locationCache = null;
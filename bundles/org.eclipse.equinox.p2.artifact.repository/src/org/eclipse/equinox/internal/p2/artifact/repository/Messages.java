@@ -66,6 +66,14 @@ public class Messages extends NLS {
 	public static String retryRequest;
 
 	public static String error_copying_local_file;
+	public static String sharedStore_unavailable;
+	public static String error_writing_partial_download;
+	public static String downloading_segments;
+	public static String segment_incomplete;
+	public static String segmented_download_failed;
+	public static String mirrorStatistics_unreadable;
+	public static String mirrorStatistics_unwritable;
+	public static String journal_unwritable;
 
 	public static String calculateChecksum_file;
 	public static String calculateChecksum_ok;
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2018 IBM Corporation and others.
+ * Copyright (c) 2008, 2020 IBM Corporation and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -133,6 +133,11 @@ public class MirrorSelector {
 
 	private final Transport transport;
 
+	/**
+	 * The statistics of earlier sessions, or <code>null</code> if they are not kept.
+	 */
+	private final MirrorStatistics statistics;
+
 	/**
 	 * Constructs a mirror support class for the given repository. Mirrors are
 	 * not contacted and the mirrorsURL document is not parsed until a
@@ -141,6 +146,7 @@ public class MirrorSelector {
 	public MirrorSelector(IRepository<?> repository, Transport transport) {
 		this.repository = repository;
 		this.transport = transport;
+		this.statistics = MirrorStatistics.getStatistics(repository.getProvisioningAgent());
 		try {
 			String base = repository.getProperties().get(IRepository.PROP_MIRRORS_BASE_URL);
 			if (base != null) {
@@ -283,6 +289,11 @@ public class MirrorSelector {
 		}
 		//p2: add the base site as the last resort mirror so we can track download speed and failure rate
 		infos[mirrorCount] = new MirrorInfo(baseURI.toString(), mirrorCount);
+		// start with what earlier sessions learned about the mirrors
+		if (statistics != null) {
+			for (MirrorInfo info : infos)
+				statistics.seed(info);
+		}
 		return infos;
 	}
 
@@ -329,12 +340,49 @@ public class MirrorSelector {
 			return inputLocation;
 		if (Tracing.DEBUG_MIRRORS)
 			Tracing.debug("Selected mirror for artifact " + inputLocation + ": " + selectedMirror); //$NON-NLS-1$ //$NON-NLS-2$
+		URI mirrorLocation = getMirrorLocation(selectedMirror, inputLocation, relativeLocation);
+		return mirrorLocation != null ? mirrorLocation : inputLocation;
+	}
+
+	/**
+	 * Returns up to <code>count</code> distinct locations equivalent to the given artifact
+	 * location in the base repository, best mirror first. Mirrors with multiple failures
+	 * are left out. Falls back to just the given input location in case of failure to
+	 * compute mirrors. Never returns null.
+	 */
+	public synchronized URI[] getMirrorLocations(URI inputLocation, int count, IProgressMonitor monitor) {
+		Assert.isNotNull(inputLocation);
+		if (baseURI == null)
+			return new URI[] {inputLocation};
+		URI relativeLocation = baseURI.relativize(inputLocation);
+		if (relativeLocation == null || relativeLocation.isAbsolute())
+			return new URI[] {inputLocation};
+		initMirrors(monitor);
+		if (mirrors == null || mirrors.length == 0)
+			return new URI[] {inputLocation};
+		Arrays.sort(mirrors, getComparator());
+		List<URI> locations = new ArrayList<>(count);
+		for (int i = 0; i < mirrors.length && locations.size() < count; i++) {
+			if (mirrors[i].failureCount > 1)
+				continue;
+			URI mirrorLocation = getMirrorLocation(mirrors[i], inputLocation, relativeLocation);
+			if (mirrorLocation != null)
+				locations.add(mirrorLocation);
+		}
+		if (locations.isEmpty())
+			return new URI[] {inputLocation};
+		if (Tracing.DEBUG_MIRRORS)
+			Tracing.debug("Selected mirrors for artifact " + inputLocation + ": " + locations); //$NON-NLS-1$ //$NON-NLS-2$
+		return locations.toArray(new URI[locations.size()]);
+	}
+
+	private URI getMirrorLocation(MirrorInfo mirror, URI inputLocation, URI relativeLocation) {
 		try {
-			return new URI(selectedMirror.locationString + relativeLocation.getPath());
+			return new URI(mirror.locationString + relativeLocation.getPath());
 		} catch (URISyntaxException e) {
-			log("Unable to make location " + inputLocation + " relative to mirror " + selectedMirror.locationString, e); //$NON-NLS-1$ //$NON-NLS-2$
+			log("Unable to make location " + inputLocation + " relative to mirror " + mirror.locationString, e); //$NON-NLS-1$ //$NON-NLS-2$
 		}
-		return inputLocation;
+		return null;
 	}
 
 	/**
@@ -390,6 +438,8 @@ public class MirrorSelector {
 						newRate = (oldRate + newRate) / 2;
 					mirror.setBytesPerSecond(newRate);
 				}
+				if (statistics != null && result.getSeverity() != IStatus.CANCEL)
+					statistics.record(mirror);
 				if (Tracing.DEBUG_MIRRORS)
 					Tracing.debug("Updated mirror " + mirror); //$NON-NLS-1$
 				return;
@@ -0,0 +1,328 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.artifact.repository;
+
+import java.io.*;
+import java.net.URI;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.*;
+import java.util.*;
+import org.eclipse.core.runtime.*;
+import org.eclipse.equinox.internal.p2.artifact.repository.MirrorSelector.MirrorInfo;
+import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
+import org.eclipse.equinox.internal.p2.repository.DownloadStatus;
+import org.eclipse.equinox.p2.core.IAgentLocation;
+import org.eclipse.equinox.p2.core.IProvisioningAgent;
+import org.eclipse.osgi.util.NLS;
+import org.osgi.framework.BundleContext;
+
+/**
+ * Remembers the transfer rate and failure count of mirrors across sessions, so that
+ * a fresh {@link MirrorSelector} can start with the mirrors that performed well
+ * before instead of a random one. The statistics are kept in the data area of the
+ * agent and shared by all processes that use it, each save merges the entries other
+ * processes wrote in the meantime. Failures are forgiven over time, old transfer rates
+ * weigh less than recent ones and entries that have not been updated for a long time
+ * are dropped.
+ */
+public class MirrorStatistics {
+	/**
+	 * A boolean property controlling whether mirror statistics are kept across sessions.
+	 */
+	public static final String PROP_ENABLED = "eclipse.p2.mirrorStatistics"; //$NON-NLS-1$
+
+	static final String FILE_NAME = "mirrors.properties"; //$NON-NLS-1$
+
+	private static final String LOCK_SUFFIX = ".lock"; //$NON-NLS-1$
+
+	/**
+	 * Entries that have not been updated for this long are dropped.
+	 */
+	static final long EXPIRY_AGE = 30L * 24 * 60 * 60 * 1000;
+
+	/**
+	 * One recorded failure is forgiven per elapsed interval of this length.
+	 */
+	static final long FAILURE_DECAY_INTERVAL = 60 * 60 * 1000;
+
+	/**
+	 * A transfer rate loses half of its weight against a newer one per elapsed interval of this length.
+	 */
+	static final long RATE_HALF_LIFE = 24L * 60 * 60 * 1000;
+
+	/**
+	 * Updates are written out together after this delay.
+	 */
+	private static final long SAVE_DELAY = 1000;
+
+	private static final Map<File, MirrorStatistics> instances = new HashMap<>();
+	private static Timer saveTimer;
+
+	static final class Entry {
+		final long bytesPerSecond;
+		final int failureCount;
+		final long timestamp;
+
+		Entry(long bytesPerSecond, int failureCount, long timestamp) {
+			this.bytesPerSecond = bytesPerSecond;
+			this.failureCount = failureCount;
+			this.timestamp = timestamp;
+		}
+
+		/**
+		 * Returns the failure count after forgiving the failures that lie far enough in the past.
+		 */
+		int getFailureCount(long now) {
+			long forgiven = Math.max(0, now - timestamp) / FAILURE_DECAY_INTERVAL;
+			return (int) Math.max(0, failureCount - forgiven);
+		}
+
+		/**
+		 * Returns the weight of the transfer rate, which halves every {@link #RATE_HALF_LIFE}.
+		 */
+		double getRateWeight(long now) {
+			return Math.pow(0.5, (double) Math.max(0, now - timestamp) / RATE_HALF_LIFE);
+		}
+
+		/**
+		 * Combines this entry with the entry another process recorded for the same mirror.
+		 * The transfer rates are averaged by their decayed weights, the failure count of
+		 * the newer entry is kept.
+		 */
+		Entry merge(Entry other, long now) {
+			Entry newer = other.timestamp > timestamp ? other : this;
+			long rate = newer.bytesPerSecond;
+			if (bytesPerSecond > 0 && other.bytesPerSecond > 0) {
+				double weight = getRateWeight(now);
+				double otherWeight = other.getRateWeight(now);
+				rate = Math.round((bytesPerSecond * weight + other.bytesPerSecond * otherWeight) / (weight + otherWeight));
+			}
+			return new Entry(rate, newer.failureCount, newer.timestamp);
+		}
+	}
+
+	private final File file;
+	private final Map<String, Entry> entries = new HashMap<>();
+	/**
+	 * The entries as this process last read or wrote them, to recognize the ones other processes changed.
+	 */
+	private final Map<String, Entry> stored = new HashMap<>();
+	private boolean saveScheduled;
+
+	/**
+	 * Returns the statistics kept for the given agent, or <code>null</code> if they are
+	 * disabled or the agent has no data area.
+	 */
+	public static MirrorStatistics getStatistics(IProvisioningAgent agent) {
+		BundleContext context = Activator.getContext();
+		if (agent == null || context == null || "false".equals(context.getProperty(PROP_ENABLED))) //$NON-NLS-1$
+			return null;
+		IAgentLocation location = agent.getService(IAgentLocation.class);
+		if (location == null)
+			return null;
+		URI dataArea = location.getDataArea(Activator.ID);
+		if (dataArea == null || !URIUtil.isFileURI(dataArea))
+			return null;
+		return getStatistics(new File(URIUtil.toFile(dataArea), FILE_NAME));
+	}
+
+	/**
+	 * Returns the statistics stored in the given file. All callers in this process
+	 * share the same instance for a file.
+	 */
+	public static MirrorStatistics getStatistics(File file) {
+		File key = file.getAbsoluteFile();
+		synchronized (instances) {
+			MirrorStatistics statistics = instances.get(key);
+			if (statistics == null) {
+				statistics = new MirrorStatistics(key);
+				instances.put(key, statistics);
+			}
+			return statistics;
+		}
+	}
+
+	private MirrorStatistics(File file) {
+		this.file = file;
+		load(System.currentTimeMillis());
+	}
+
+	/**
+	 * Initializes the given mirror from the statistics recorded in earlier sessions.
+	 * A mirror that failed repeatedly is seeded with a single failure, so it is tried
+	 * last but not excluded for the whole session.
+	 */
+	public synchronized void seed(MirrorInfo mirror) {
+		Entry entry = entries.get(mirror.locationString);
+		if (entry == null)
+			return;
+		synchronized (mirror) {
+			if (entry.bytesPerSecond > 0)
+				mirror.bytesPerSecond = entry.bytesPerSecond;
+			mirror.failureCount = Math.min(1, entry.getFailureCount(System.currentTimeMillis()));
+		}
+	}
+
+	/**
+	 * Records the current transfer rate and failure count of the given mirror.
+	 */
+	public synchronized void record(MirrorInfo mirror) {
+		long now = System.currentTimeMillis();
+		long bytesPerSecond;
+		int failureCount;
+		synchronized (mirror) {
+			bytesPerSecond = mirror.bytesPerSecond;
+			failureCount = mirror.failureCount;
+		}
+		Entry previous = entries.get(mirror.locationString);
+		if (bytesPerSecond == DownloadStatus.UNKNOWN_RATE && previous != null)
+			bytesPerSecond = previous.bytesPerSecond;
+		entries.put(mirror.locationString, new Entry(bytesPerSecond, failureCount, now));
+		if (!saveScheduled) {
+			saveScheduled = true;
+			scheduleSave(this);
+		}
+	}
+
+	private static void scheduleSave(final MirrorStatistics statistics) {
+		synchronized (instances) {
+			if (saveTimer == null)
+				saveTimer = new Timer("p2 mirror statistics", true); //$NON-NLS-1$
+			saveTimer.schedule(new TimerTask() {
+				@Override
+				public void run() {
+					statistics.save();
+				}
+			}, SAVE_DELAY);
+		}
+	}
+
+	/**
+	 * Writes the updates that are still waiting for the save delay and stops the thread
+	 * that saves them. Called when the bundle stops.
+	 */
+	public static void shutdown() {
+		List<MirrorStatistics> pending;
+		synchronized (instances) {
+			if (saveTimer != null) {
+				saveTimer.cancel();
+				saveTimer = null;
+			}
+			pending = new ArrayList<>(instances.values());
+			instances.clear();
+		}
+		for (MirrorStatistics statistics : pending)
+			statistics.saveIfScheduled();
+	}
+
+	private synchronized void saveIfScheduled() {
+		if (saveScheduled)
+			save();
+	}
+
+	synchronized Entry getEntry(String location) {
+		return entries.get(location);
+	}
+
+	private void load(long now) {
+		entries.putAll(read(now));
+		stored.putAll(entries);
+	}
+
+	private Map<String, Entry> read(long now) {
+		Map<String, Entry> result = new HashMap<>();
+		if (!file.isFile())
+			return result;
+		Properties properties = new Properties();
+		try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+			properties.load(in);
+		} catch (IOException e) {
+			LogHelper.log(new Status(IStatus.WARNING, Activator.ID, NLS.bind(Messages.mirrorStatistics_unreadable, file), e));
+			return result;
+		}
+		for (String location : properties.stringPropertyNames()) {
+			String[] values = properties.getProperty(location).split(","); //$NON-NLS-1$
+			if (values.length != 3)
+				continue;
+			try {
+				Entry entry = new Entry(Long.parseLong(values[0]), Integer.parseInt(values[1]), Long.parseLong(values[2]));
+				if (now - entry.timestamp < EXPIRY_AGE)
+					result.put(location, entry);
+			} catch (NumberFormatException e) {
+				// skip the damaged entry
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Merges the statistics with the ones other processes saved in the meantime and writes
+	 * them to a temporary file that replaces the old one, so that concurrent readers never
+	 * see a partial file. A lock file keeps other processes from saving at the same time.
+	 */
+	synchronized void save() {
+		saveScheduled = false;
+		File temp = new File(file.getParentFile(), file.getName() + ".tmp"); //$NON-NLS-1$
+		try {
+			file.getParentFile().mkdirs();
+			try (FileChannel channel = FileChannel.open(new File(file.getParentFile(), file.getName() + LOCK_SUFFIX).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+				FileLock lock = channel.lock();
+				try {
+					long now = System.currentTimeMillis();
+					merge(read(now), now);
+					write(temp, now);
+				} finally {
+					lock.release();
+				}
+			}
+		} catch (IOException e) {
+			temp.delete();
+			LogHelper.log(new Status(IStatus.WARNING, Activator.ID, NLS.bind(Messages.mirrorStatistics_unwritable, file), e));
+		}
+	}
+
+	/**
+	 * Takes over the entries another process saved since this process last read or wrote them.
+	 */
+	private void merge(Map<String, Entry> saved, long now) {
+		for (Map.Entry<String, Entry> next : saved.entrySet()) {
+			Entry other = next.getValue();
+			Entry known = stored.get(next.getKey());
+			if (known != null && known.timestamp == other.timestamp && known.bytesPerSecond == other.bytesPerSecond)
+				continue;
+			Entry own = entries.get(next.getKey());
+			entries.put(next.getKey(), own == null ? other : own.merge(other, now));
+		}
+	}
+
+	private void write(File temp, long now) throws IOException {
+		Properties properties = new Properties();
+		for (Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<String, Entry> next = it.next();
+			Entry entry = next.getValue();
+			if (now - entry.timestamp >= EXPIRY_AGE) {
+				it.remove();
+				continue;
+			}
+			properties.setProperty(next.getKey(), entry.bytesPerSecond + "," + entry.failureCount + ',' + entry.timestamp); //$NON-NLS-1$
+		}
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(temp))) {
+			properties.store(out, null);
+		}
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		stored.clear();
+		stored.putAll(entries);
+	}
+}
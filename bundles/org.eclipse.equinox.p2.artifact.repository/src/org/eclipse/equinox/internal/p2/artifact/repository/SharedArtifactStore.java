@@ -0,0 +1,410 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.artifact.repository;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.*;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import org.eclipse.core.runtime.*;
+import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
+import org.eclipse.equinox.internal.p2.repository.DownloadStatus;
+import org.eclipse.equinox.internal.p2.repository.helpers.ChecksumHelper;
+import org.eclipse.equinox.internal.provisional.p2.repository.IStateful;
+import org.eclipse.equinox.p2.repository.artifact.IArtifactDescriptor;
+import org.eclipse.osgi.util.NLS;
+import org.osgi.framework.BundleContext;
+
+/**
+ * A content addressed store of downloaded artifacts that can be shared by all
+ * provisioning agents of a machine. Entries are keyed by the SHA-256 download
+ * checksum of the artifact descriptor and only ever hold content whose digest
+ * matches that key. Entries are published with atomic renames so readers need no
+ * locking, while additions and evictions of different processes are coordinated
+ * with a lock file in the root of the store. The least recently used entries are
+ * evicted once the store grows beyond its maximum size.
+ * <p>
+ * The store is disabled unless the {@link #PROP_LOCATION} property is set.
+ */
+public class SharedArtifactStore {
+	/**
+	 * The key for a property specifying the directory of the shared artifact store.
+	 */
+	public static final String PROP_LOCATION = "eclipse.p2.sharedArtifactStore"; //$NON-NLS-1$
+
+	/**
+	 * The key for a property specifying the maximum size of the shared artifact store in megabytes.
+	 */
+	public static final String PROP_MAX_SIZE = "eclipse.p2.sharedArtifactStore.maxSize"; //$NON-NLS-1$
+
+	/**
+	 * The code of the status returned by {@link #read} when the destination failed, or
+	 * when an entry failed to be read after part of it was written to the destination.
+	 */
+	public static final int CODE_PARTIAL_READ = 1;
+
+	private static final long DEFAULT_MAX_SIZE = 4096;
+	private static final long MEGABYTE = 1024 * 1024;
+
+	private static final String CHECKSUM_ID = "sha-256"; //$NON-NLS-1$
+	private static final String CHECKSUM_ALGORITHM = "SHA-256"; //$NON-NLS-1$
+	private static final int CHECKSUM_LENGTH = 64;
+
+	private static final String LOCK_FILE = ".lock"; //$NON-NLS-1$
+	private static final String TEMP_SUFFIX = ".tmp"; //$NON-NLS-1$
+
+	/**
+	 * Temporary files older than this are left over from crashed processes.
+	 */
+	private static final long STALE_TEMP_AGE = 24 * 60 * 60 * 1000;
+
+	/**
+	 * Other processes add to the store as well, so its size is recomputed
+	 * after this many additions.
+	 */
+	private static final int RESCAN_INTERVAL = 100;
+
+	/**
+	 * Fraction of the maximum size an eviction shrinks the store to.
+	 */
+	private static final double EVICTION_LOW_WATER_MARK = 0.9;
+
+	private static final Map<File, SharedArtifactStore> stores = new HashMap<>();
+
+	private final File root;
+	private final long maxSize;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong additions = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	// guarded by this
+	private long approximateSize = -1;
+	private int additionsSinceScan;
+
+	/**
+	 * Returns the store configured through {@link #PROP_LOCATION}, or <code>null</code>
+	 * if no store is configured.
+	 */
+	public static SharedArtifactStore getDefault() {
+		BundleContext context = Activator.getContext();
+		String location = context == null ? null : context.getProperty(PROP_LOCATION);
+		if (location == null || location.length() == 0)
+			return null;
+		long maxSize = DEFAULT_MAX_SIZE;
+		try {
+			String maxSizeString = context.getProperty(PROP_MAX_SIZE);
+			if (maxSizeString != null)
+				maxSize = Math.max(1, Long.parseLong(maxSizeString));
+		} catch (NumberFormatException e) {
+			// use the default size
+		}
+		return getStore(new File(location), maxSize * MEGABYTE);
+	}
+
+	/**
+	 * Returns the store rooted at the given directory. All callers in this process
+	 * share the same instance for a directory.
+	 */
+	public static SharedArtifactStore getStore(File root, long maxSize) {
+		File key = root.getAbsoluteFile();
+		synchronized (stores) {
+			SharedArtifactStore store = stores.get(key);
+			if (store == null) {
+				store = new SharedArtifactStore(key, maxSize);
+				stores.put(key, store);
+			}
+			return store;
+		}
+	}
+
+	/**
+	 * Returns the key of the artifact in the store, or <code>null</code> if the
+	 * descriptor does not have a usable download checksum.
+	 */
+	public static String getKey(IArtifactDescriptor descriptor) {
+		String checksum = ChecksumHelper.getChecksums(descriptor, IArtifactDescriptor.DOWNLOAD_CHECKSUM).get(CHECKSUM_ID);
+		if (checksum == null || checksum.length() != CHECKSUM_LENGTH)
+			return null;
+		checksum = checksum.toLowerCase(Locale.ENGLISH);
+		for (int i = 0; i < checksum.length(); i++) {
+			if (Character.digit(checksum.charAt(i), 16) < 0)
+				return null;
+		}
+		return checksum;
+	}
+
+	SharedArtifactStore(File root, long maxSize) {
+		this.root = root;
+		this.maxSize = maxSize;
+	}
+
+	public File getRoot() {
+		return root;
+	}
+
+	public long getHitCount() {
+		return hits.get();
+	}
+
+	public long getMissCount() {
+		return misses.get();
+	}
+
+	public long getAdditionCount() {
+		return additions.get();
+	}
+
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+
+	File getFile(String key) {
+		return new File(new File(root, key.substring(0, 2)), key);
+	}
+
+	/**
+	 * Copies the entry with the given key to the destination. An entry that cannot be
+	 * read is removed from the store. The returned error has the code
+	 * {@link #CODE_PARTIAL_READ} if the destination failed or already received part
+	 * of the entry.
+	 *
+	 * @return the status of the copy, or <code>null</code> if the store has no such entry
+	 */
+	public IStatus read(String key, OutputStream destination, IProgressMonitor monitor) {
+		File file = getFile(key);
+		long start = System.currentTimeMillis();
+		long size = 0;
+		try (InputStream in = new FileInputStream(file)) {
+			// the modification time orders the entries for eviction
+			file.setLastModified(start);
+			byte[] buffer = new byte[16 * 1024];
+			int len;
+			while ((len = in.read(buffer)) != -1) {
+				if (monitor.isCanceled())
+					return Status.CANCEL_STATUS;
+				try {
+					destination.write(buffer, 0, len);
+				} catch (IOException e) {
+					// the entry is fine, the destination failed
+					return new Status(IStatus.ERROR, Activator.ID, CODE_PARTIAL_READ, NLS.bind(Messages.error_copying_local_file, file.getAbsolutePath()), e);
+				}
+				size += len;
+			}
+		} catch (FileNotFoundException e) {
+			misses.incrementAndGet();
+			return null;
+		} catch (IOException e) {
+			if (file.delete())
+				evictions.incrementAndGet();
+			return new Status(IStatus.ERROR, Activator.ID, size > 0 ? CODE_PARTIAL_READ : 0, NLS.bind(Messages.error_copying_local_file, file.getAbsolutePath()), e);
+		}
+		hits.incrementAndGet();
+		DownloadStatus status = new DownloadStatus(IStatus.OK, Activator.ID, Status.OK_STATUS.getMessage());
+		status.setFileSize(size);
+		status.setTransferRate(size / Math.max(System.currentTimeMillis() - start, 1) * 1000);
+		return status;
+	}
+
+	/**
+	 * Returns a stream that writes to the given destination and records what is
+	 * written so it can be added to the store under the given key, or
+	 * <code>null</code> if the content cannot be recorded.
+	 */
+	public Recorder record(String key, OutputStream destination) {
+		try {
+			mkdirs(root);
+			File temp = File.createTempFile(key, TEMP_SUFFIX, root);
+			return new Recorder(key, destination, temp);
+		} catch (IOException | NoSuchAlgorithmException e) {
+			LogHelper.log(new Status(IStatus.WARNING, Activator.ID, NLS.bind(Messages.sharedStore_unavailable, root), e));
+			return null;
+		}
+	}
+
+	@SuppressWarnings("try") // the lock is only held, never referenced
+	void add(String key, File temp, long size) {
+		File target = getFile(key);
+		synchronized (this) {
+			try (FileChannel channel = openLockFile(); FileLock lock = channel.lock(0, Long.MAX_VALUE, true)) {
+				mkdirs(target.getParentFile());
+				Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				// another process added the same content or the store is not writable
+				temp.delete();
+				return;
+			}
+			additions.incrementAndGet();
+			if (approximateSize >= 0)
+				approximateSize += size;
+			if (approximateSize < 0 || approximateSize > maxSize || ++additionsSinceScan >= RESCAN_INTERVAL)
+				evict();
+		}
+	}
+
+	/**
+	 * Recomputes the size of the store and removes the least recently used entries
+	 * if it is larger than the maximum size.
+	 */
+	@SuppressWarnings("try") // the lock is only held, never referenced
+	private void evict() {
+		try (FileChannel channel = openLockFile(); FileLock lock = channel.lock()) {
+			List<File> entries = new ArrayList<>();
+			long total = 0;
+			long now = System.currentTimeMillis();
+			File[] folders = root.listFiles();
+			if (folders != null) {
+				for (File folder : folders) {
+					File[] files = folder.isDirectory() ? folder.listFiles() : null;
+					if (files == null) {
+						if (folder.getName().endsWith(TEMP_SUFFIX) && now - folder.lastModified() > STALE_TEMP_AGE)
+							folder.delete();
+						continue;
+					}
+					for (File file : files) {
+						entries.add(file);
+						total += file.length();
+					}
+				}
+			}
+			if (total > maxSize) {
+				entries.sort(Comparator.comparingLong(File::lastModified));
+				long lowWaterMark = (long) (maxSize * EVICTION_LOW_WATER_MARK);
+				for (Iterator<File> iterator = entries.iterator(); iterator.hasNext() && total > lowWaterMark;) {
+					File entry = iterator.next();
+					long length = entry.length();
+					if (entry.delete()) {
+						total -= length;
+						evictions.incrementAndGet();
+					}
+				}
+			}
+			approximateSize = total;
+			additionsSinceScan = 0;
+		} catch (IOException e) {
+			LogHelper.log(new Status(IStatus.WARNING, Activator.ID, NLS.bind(Messages.sharedStore_unavailable, root), e));
+		}
+	}
+
+	private FileChannel openLockFile() throws IOException {
+		mkdirs(root);
+		return FileChannel.open(new File(root, LOCK_FILE).toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+	}
+
+	private static void mkdirs(File dir) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory())
+			throw new IOException(NLS.bind(Messages.sharedStore_unavailable, dir));
+	}
+
+	@Override
+	public String toString() {
+		return "SharedArtifactStore(" + root + ", hits=" + hits + ", misses=" + misses + ", additions=" + additions + ", evictions=" + evictions + ')'; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+	}
+
+	/**
+	 * An output stream that passes everything to its destination and keeps a copy
+	 * to add to the store once the transfer is complete. The status of the transfer
+	 * is forwarded to the destination when it is {@link IStateful}. Closing the
+	 * recorder does not close the destination.
+	 */
+	public final class Recorder extends OutputStream implements IStateful {
+		private final String key;
+		private final OutputStream destination;
+		private final File temp;
+		private final OutputStream copy;
+		private final MessageDigest digest;
+		private IStatus status = Status.OK_STATUS;
+		private long size;
+		private boolean failed;
+
+		Recorder(String key, OutputStream destination, File temp) throws IOException, NoSuchAlgorithmException {
+			this.key = key;
+			this.destination = destination;
+			this.temp = temp;
+			this.digest = MessageDigest.getInstance(CHECKSUM_ALGORITHM);
+			this.copy = new BufferedOutputStream(new FileOutputStream(temp));
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			destination.write(b);
+			if (!failed) {
+				try {
+					copy.write(b);
+					digest.update((byte) b);
+					size++;
+				} catch (IOException e) {
+					failed = true;
+				}
+			}
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			destination.write(b, off, len);
+			if (!failed) {
+				try {
+					copy.write(b, off, len);
+					digest.update(b, off, len);
+					size += len;
+				} catch (IOException e) {
+					failed = true;
+				}
+			}
+		}
+
+		@Override
+		public void flush() throws IOException {
+			destination.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			copy.close();
+		}
+
+		@Override
+		public IStatus getStatus() {
+			return destination instanceof IStateful ? ((IStateful) destination).getStatus() : status;
+		}
+
+		@Override
+		public void setStatus(IStatus status) {
+			if (destination instanceof IStateful)
+				((IStateful) destination).setStatus(status);
+			else
+				this.status = status == null ? Status.OK_STATUS : status;
+		}
+
+		/**
+		 * Adds the recorded content to the store if the transfer completed and the
+		 * content matches the key, and discards it otherwise.
+		 */
+		public void finish(boolean completed) {
+			try {
+				copy.close();
+			} catch (IOException e) {
+				failed = true;
+			}
+			if (completed && !failed && key.equals(ChecksumHelper.toHexString(digest.digest())))
+				add(key, temp, size);
+			else
+				temp.delete();
+		}
+	}
+}
@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.artifact.repository.simple;
+
+/**
+ * Bounds the number of downloads running at the same time. When the minimum and
+ * maximum differ, the limit is tuned by hill climbing: after every window of
+ * completed downloads the observed throughput is compared with the previous window,
+ * and the limit keeps moving in the same direction while throughput improves and
+ * turns around when it drops.
+ */
+public class AdaptiveConcurrencyLimit {
+	/**
+	 * Relative change of throughput that is considered noise.
+	 */
+	private static final double TOLERANCE = 0.05;
+
+	/**
+	 * Minimum number of completed downloads in a sampling window.
+	 */
+	private static final int MIN_SAMPLES = 4;
+
+	private final int minimum;
+	private final int maximum;
+	private int limit;
+	private int active;
+	private int direction = 1;
+	private double lastThroughput = -1;
+
+	private long windowStart = System.nanoTime();
+	private long windowWeight;
+	private int windowCompletions;
+
+	/**
+	 * Creates a limit that starts at <code>initial</code> and stays within
+	 * <code>[minimum, maximum]</code>.
+	 */
+	public AdaptiveConcurrencyLimit(int initial, int minimum, int maximum) {
+		this.minimum = Math.max(1, minimum);
+		this.maximum = Math.max(this.minimum, maximum);
+		this.limit = Math.max(this.minimum, Math.min(this.maximum, initial));
+	}
+
+	public synchronized int getLimit() {
+		return limit;
+	}
+
+	public int getMaximum() {
+		return maximum;
+	}
+
+	/**
+	 * Waits until fewer downloads than the current limit are running and
+	 * registers a new one.
+	 */
+	public synchronized void acquire() throws InterruptedException {
+		while (active >= limit)
+			wait();
+		active++;
+	}
+
+	/**
+	 * Unregisters a download that did not complete any work.
+	 */
+	public synchronized void release() {
+		active--;
+		notifyAll();
+	}
+
+	/**
+	 * Unregisters a completed download of the given weight, typically its size in bytes.
+	 */
+	public synchronized void release(long weight) {
+		windowWeight += weight;
+		if (++windowCompletions >= Math.max(MIN_SAMPLES, limit)) {
+			long now = System.nanoTime();
+			update(windowWeight / (double) Math.max(1, now - windowStart));
+			windowStart = now;
+			windowWeight = 0;
+			windowCompletions = 0;
+		}
+		release();
+	}
+
+	/**
+	 * Adjusts the limit from the throughput observed over the last window.
+	 */
+	public synchronized void update(double throughput) {
+		if (minimum == maximum)
+			return;
+		if (lastThroughput >= 0) {
+			if (throughput < lastThroughput * (1 - TOLERANCE))
+				direction = -direction;
+			else if (throughput <= lastThroughput * (1 + TOLERANCE)) {
+				// no significant change, hold the current limit
+				lastThroughput = throughput;
+				return;
+			}
+		}
+		lastThroughput = throughput;
+		limit = Math.max(minimum, Math.min(maximum, limit + direction));
+		notifyAll();
+	}
+}
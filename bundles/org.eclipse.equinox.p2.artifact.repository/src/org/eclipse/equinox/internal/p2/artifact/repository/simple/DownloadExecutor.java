@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.artifact.repository.simple;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * Runs the workers of a {@link DownloadScheduler} concurrently.
+ */
+public abstract class DownloadExecutor {
+	/**
+	 * Runs every worker in a system {@link DownloadJob}. This is the default.
+	 */
+	public static final String JOBS = "jobs"; //$NON-NLS-1$
+
+	/**
+	 * Runs every worker in a virtual thread. Falls back to {@link #JOBS} when
+	 * the running JRE does not support virtual threads.
+	 */
+	public static final String VIRTUAL_THREADS = "virtualThreads"; //$NON-NLS-1$
+
+	/**
+	 * Starts the given worker asynchronously.
+	 *
+	 * @param name a human readable name for the worker
+	 * @param worker the worker to run
+	 */
+	public abstract void execute(String name, Runnable worker);
+
+	/**
+	 * Returns the executor of the given kind, or the job based executor if the kind
+	 * is <code>null</code>, unknown or not supported by the running JRE.
+	 */
+	public static DownloadExecutor create(String kind) {
+		if (VIRTUAL_THREADS.equals(kind)) {
+			DownloadExecutor executor = VirtualThreadExecutor.create();
+			if (executor != null)
+				return executor;
+		}
+		return new JobExecutor();
+	}
+
+	static final class JobExecutor extends DownloadExecutor {
+		@Override
+		public void execute(String name, Runnable worker) {
+			new DownloadJob(name, worker).schedule();
+		}
+	}
+
+	/**
+	 * Starts virtual threads through reflection so that this bundle still runs on
+	 * JREs without virtual thread support.
+	 */
+	static final class VirtualThreadExecutor extends DownloadExecutor {
+		private final Method startVirtualThread;
+
+		private VirtualThreadExecutor(Method startVirtualThread) {
+			this.startVirtualThread = startVirtualThread;
+		}
+
+		static VirtualThreadExecutor create() {
+			try {
+				return new VirtualThreadExecutor(Thread.class.getMethod("startVirtualThread", Runnable.class)); //$NON-NLS-1$
+			} catch (NoSuchMethodException e) {
+				return null;
+			}
+		}
+
+		@Override
+		public void execute(String name, Runnable worker) {
+			try {
+				startVirtualThread.invoke(null, worker);
+			} catch (IllegalAccessException | InvocationTargetException e) {
+				// virtual threads are a preview feature that is not enabled
+				new DownloadJob(name, worker).schedule();
+			}
+		}
+	}
+}
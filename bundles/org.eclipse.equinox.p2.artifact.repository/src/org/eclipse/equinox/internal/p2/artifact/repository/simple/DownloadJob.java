@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2017 Genuitec, LLC and others.
+ * Copyright (c) 2008, 2020 Genuitec, LLC and others.
  *
  * This
  * program and the accompanying materials are made available under the terms of
@@ -14,29 +14,21 @@
  ******************************************************************************/
 package org.eclipse.equinox.internal.p2.artifact.repository.simple;
 
-import java.util.LinkedList;
 import org.eclipse.core.runtime.*;
 import org.eclipse.core.runtime.jobs.Job;
-import org.eclipse.equinox.p2.repository.artifact.IArtifactRequest;
 
+/**
+ * A system job running one worker of a {@link DownloadScheduler}.
+ */
 public class DownloadJob extends Job {
 	static final Object FAMILY = new Object();
 
-	private LinkedList<IArtifactRequest> requestsPending;
-	private SimpleArtifactRepository repository;
-	private IProgressMonitor masterMonitor;
-	private MultiStatus overallStatus;
+	private final Runnable worker;
 
-	DownloadJob(String name) {
+	DownloadJob(String name, Runnable worker) {
 		super(name);
 		setSystem(true);
-	}
-
-	void initialize(SimpleArtifactRepository repository, LinkedList<IArtifactRequest> requestsPending, IProgressMonitor masterMonitor, MultiStatus overallStatus) {
-		this.repository = repository;
-		this.requestsPending = requestsPending;
-		this.masterMonitor = masterMonitor;
-		this.overallStatus = overallStatus;
+		this.worker = worker;
 	}
 
 	@Override
@@ -46,33 +38,12 @@ public class DownloadJob extends Job {
 
 	@Override
 	protected IStatus run(IProgressMonitor jobMonitor) {
-		jobMonitor.beginTask("Downloading software", IProgressMonitor.UNKNOWN);
-		do {
-			// get the request we are going to process
-			IArtifactRequest request;
-			synchronized (requestsPending) {
-				if (requestsPending.isEmpty())
-					break;
-				request = requestsPending.removeFirst();
-			}
-			if (masterMonitor.isCanceled())
-				return Status.CANCEL_STATUS;
-			// process the actual request
-			SubMonitor subMonitor = SubMonitor.convert(masterMonitor, 1);
-			subMonitor.beginTask("", 1); //$NON-NLS-1$
-			try {
-				IStatus status = repository.getArtifact(request, subMonitor);
-				if (!status.isOK()) {
-					synchronized (overallStatus) {
-						overallStatus.add(status);
-					}
-				}
-			} finally {
-				subMonitor.done();
-			}
-		} while (true);
-
-		jobMonitor.done();
+		jobMonitor.beginTask("Downloading software", IProgressMonitor.UNKNOWN); //$NON-NLS-1$
+		try {
+			worker.run();
+		} finally {
+			jobMonitor.done();
+		}
 		return Status.OK_STATUS;
 	}
 }
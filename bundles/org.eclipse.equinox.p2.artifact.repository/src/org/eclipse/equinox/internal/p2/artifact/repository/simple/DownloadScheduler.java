@@ -0,0 +1,165 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.artifact.repository.simple;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.CountDownLatch;
+import org.eclipse.core.runtime.*;
+import org.eclipse.equinox.internal.p2.artifact.repository.Messages;
+import org.eclipse.equinox.p2.metadata.IArtifactKey;
+import org.eclipse.equinox.p2.repository.artifact.IArtifactDescriptor;
+import org.eclipse.equinox.p2.repository.artifact.IArtifactRequest;
+
+/**
+ * Processes the requests of a {@link SimpleArtifactRepository#getArtifacts} call
+ * with a set of workers. Every worker owns a queue of requests, largest artifacts
+ * first, and steals from the tail of the other queues once its own is empty, so one
+ * slow download never leaves the remaining workers idle. The number of workers
+ * downloading at any time is bounded by an {@link AdaptiveConcurrencyLimit}.
+ */
+public class DownloadScheduler {
+	static final class ScheduledRequest {
+		final IArtifactRequest request;
+		final long size;
+		long weight;
+
+		ScheduledRequest(IArtifactRequest request, long size) {
+			this.request = request;
+			this.size = size;
+			this.weight = size;
+		}
+	}
+
+	private final SimpleArtifactRepository repository;
+	private final AdaptiveConcurrencyLimit limit;
+	private final DownloadExecutor executor;
+	private final List<Deque<ScheduledRequest>> queues;
+
+	public DownloadScheduler(SimpleArtifactRepository repository, IArtifactRequest[] requests, AdaptiveConcurrencyLimit limit, DownloadExecutor executor) {
+		this.repository = repository;
+		this.limit = limit;
+		this.executor = executor;
+
+		List<ScheduledRequest> scheduled = new ArrayList<>(requests.length);
+		boolean sizesKnown = true;
+		for (IArtifactRequest request : requests) {
+			ScheduledRequest next = new ScheduledRequest(request, getDownloadSize(request));
+			sizesKnown &= next.size >= 0;
+			scheduled.add(next);
+		}
+		// without the size of every artifact the throughput is measured in artifacts rather than bytes
+		if (!sizesKnown) {
+			for (ScheduledRequest next : scheduled)
+				next.weight = 1;
+		}
+		scheduled.sort((r1, r2) -> Long.compare(r2.size, r1.size));
+
+		int workers = Math.max(1, Math.min(requests.length, limit.getMaximum()));
+		queues = new ArrayList<>(workers);
+		for (int i = 0; i < workers; i++)
+			queues.add(new ConcurrentLinkedDeque<ScheduledRequest>());
+		for (int i = 0; i < scheduled.size(); i++)
+			queues.get(i % workers).addLast(scheduled.get(i));
+	}
+
+	/**
+	 * Runs all requests and waits for them to complete. Failures are added to the
+	 * given status.
+	 */
+	public void run(IProgressMonitor monitor, MultiStatus overallStatus) {
+		CountDownLatch done = new CountDownLatch(queues.size());
+		for (int i = 0; i < queues.size(); i++) {
+			int index = i;
+			executor.execute(Messages.sar_downloadJobName + i, () -> {
+				try {
+					work(index, monitor, overallStatus);
+				} finally {
+					done.countDown();
+				}
+			});
+		}
+		try {
+			done.await();
+		} catch (InterruptedException e) {
+			// the workers still write to the status, stop them before returning
+			monitor.setCanceled(true);
+			awaitUninterruptibly(done);
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	static void awaitUninterruptibly(CountDownLatch latch) {
+		while (true) {
+			try {
+				latch.await();
+				return;
+			} catch (InterruptedException e) {
+				// keep waiting, the caller restores the interrupt
+			}
+		}
+	}
+
+	private void work(int index, IProgressMonitor monitor, MultiStatus overallStatus) {
+		while (!monitor.isCanceled()) {
+			try {
+				limit.acquire();
+			} catch (InterruptedException e) {
+				return;
+			}
+			ScheduledRequest next = take(index);
+			if (next == null || monitor.isCanceled()) {
+				limit.release();
+				return;
+			}
+			// process the actual request
+			SubMonitor subMonitor = SubMonitor.convert(monitor, 1);
+			subMonitor.beginTask("", 1); //$NON-NLS-1$
+			try {
+				IStatus status = repository.getArtifact(next.request, subMonitor);
+				if (!status.isOK()) {
+					synchronized (overallStatus) {
+						overallStatus.add(status);
+					}
+				}
+			} finally {
+				subMonitor.done();
+				limit.release(next.weight);
+			}
+		}
+	}
+
+	/**
+	 * Returns the next request from the worker's own queue, or steals the smallest
+	 * remaining request of another worker.
+	 */
+	private ScheduledRequest take(int index) {
+		ScheduledRequest next = queues.get(index).pollFirst();
+		for (int i = 1; next == null && i < queues.size(); i++)
+			next = queues.get((index + i) % queues.size()).pollLast();
+		return next;
+	}
+
+	private long getDownloadSize(IArtifactRequest request) {
+		IArtifactKey key = request.getArtifactKey();
+		if (key == null)
+			return -1;
+		for (IArtifactDescriptor descriptor : repository.getArtifactDescriptors(key)) {
+			long size = SimpleArtifactRepository.getDownloadSize(descriptor);
+			if (size >= 0)
+				return size;
+		}
+		return -1;
+	}
+}
@@ -0,0 +1,251 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.artifact.repository.simple;
+
+import java.io.*;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.eclipse.core.runtime.*;
+import org.eclipse.equinox.internal.p2.artifact.repository.Activator;
+import org.eclipse.equinox.internal.p2.artifact.repository.MirrorSelector;
+import org.eclipse.equinox.internal.p2.artifact.repository.Messages;
+import org.eclipse.equinox.internal.p2.repository.*;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * Downloads a single artifact as consecutive byte ranges that are fetched from
+ * several mirrors at the same time and written in place into one file. A segment
+ * that fails is resumed from its last byte on the next mirror. The throughput of
+ * every segment is reported to the {@link MirrorSelector}.
+ * <p>
+ * The transport can only be asked for everything from a start position onwards, so a
+ * segment stops its transfer by canceling it once it has received its share. A mirror
+ * that ignores the start position is asked for the whole file again, and the bytes before
+ * the position of the segment are skipped.
+ * </p>
+ */
+public class SegmentedDownload {
+	/**
+	 * How many locations a segment is tried on before it gives up.
+	 */
+	private static final int MAX_SEGMENT_ATTEMPTS = 3;
+
+	private static final long PROGRESS_INTERVAL = 200;
+
+	final class Segment implements Runnable {
+		final int index;
+		final long start;
+		final long length;
+		volatile long written;
+		IStatus status = Status.OK_STATUS;
+
+		Segment(int index, long start, long length) {
+			this.index = index;
+			this.start = start;
+			this.length = length;
+		}
+
+		boolean isComplete() {
+			return written >= length;
+		}
+
+		@Override
+		public void run() {
+			try {
+				for (int attempt = 0; attempt < MAX_SEGMENT_ATTEMPTS && !isComplete(); attempt++) {
+					if (canceled) {
+						status = Status.CANCEL_STATUS;
+						return;
+					}
+					status = download(locations[(index + attempt) % locations.length]);
+				}
+			} finally {
+				done.countDown();
+			}
+		}
+
+		private IStatus download(URI location) {
+			long before = written;
+			long begin = System.currentTimeMillis();
+			long position = start + written;
+			IStatus result;
+			IProgressMonitor segmentMonitor = new SegmentMonitor(this);
+			if (position > 0) {
+				result = transport.download(location, new SegmentOutputStream(this, 0), position, segmentMonitor);
+				if (RangeNotHonoredException.isCause(result))
+					result = transport.download(location, new SegmentOutputStream(this, position), segmentMonitor);
+			} else
+				result = transport.download(location, new SegmentOutputStream(this, 0), segmentMonitor);
+			if (isComplete()) {
+				// the cancellation was ours, report the throughput of this segment
+				DownloadStatus complete = new DownloadStatus(IStatus.OK, Activator.ID, Status.OK_STATUS.getMessage());
+				complete.setFileSize(length);
+				complete.setTransferRate((written - before) * 1000 / Math.max(System.currentTimeMillis() - begin, 1));
+				result = complete;
+			} else if (result.isOK())
+				result = new Status(IStatus.ERROR, Activator.ID, NLS.bind(Messages.segment_incomplete, location));
+			if (mirrors != null && result.getSeverity() != IStatus.CANCEL)
+				mirrors.reportResult(location.toString(), result);
+			return result;
+		}
+	}
+
+	/**
+	 * Writes the bytes of a segment at their position in the file and discards
+	 * everything past the end of the segment, and the given number of leading bytes.
+	 */
+	final class SegmentOutputStream extends OutputStream {
+		private final Segment segment;
+		private long skip;
+
+		SegmentOutputStream(Segment segment, long skip) {
+			this.segment = segment;
+			this.skip = skip;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] {(byte) b}, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (skip > 0) {
+				int skipped = (int) Math.min(len, skip);
+				skip -= skipped;
+				off += skipped;
+				len -= skipped;
+			}
+			int count = (int) Math.min(len, segment.length - segment.written);
+			if (count <= 0)
+				return;
+			ByteBuffer buffer = ByteBuffer.wrap(b, off, count);
+			long position = segment.start + segment.written;
+			while (buffer.hasRemaining())
+				position += channel.write(buffer, position);
+			segment.written += count;
+		}
+	}
+
+	/**
+	 * Cancels the transfer of a segment once it is complete or the whole download is canceled.
+	 */
+	final class SegmentMonitor extends NullProgressMonitor {
+		private final Segment segment;
+
+		SegmentMonitor(Segment segment) {
+			this.segment = segment;
+		}
+
+		@Override
+		public boolean isCanceled() {
+			return canceled || segment.isComplete();
+		}
+	}
+
+	private final Transport transport;
+	private final MirrorSelector mirrors;
+	private final URI[] locations;
+	private final DownloadExecutor executor;
+	private FileChannel channel;
+	private CountDownLatch done;
+	volatile boolean canceled;
+
+	/**
+	 * @param transport the transport to fetch the segments with
+	 * @param mirrors the selector to report the throughput of the segments to, may be <code>null</code>
+	 * @param locations equivalent locations of the artifact, best first
+	 * @param executor runs the segments concurrently
+	 */
+	public SegmentedDownload(Transport transport, MirrorSelector mirrors, URI[] locations, DownloadExecutor executor) {
+		Assert.isLegal(locations.length > 0);
+		this.transport = transport;
+		this.mirrors = mirrors;
+		this.locations = locations;
+		this.executor = executor;
+	}
+
+	/**
+	 * Downloads <code>size</code> bytes into the given file, one segment per location.
+	 */
+	public IStatus run(File file, long size, IProgressMonitor monitor) {
+		int count = (int) Math.min(locations.length, size);
+		Segment[] segments = new Segment[count];
+		long segmentLength = size / count;
+		for (int i = 0; i < count; i++) {
+			long start = i * segmentLength;
+			segments[i] = new Segment(i, start, i == count - 1 ? size - start : segmentLength);
+		}
+		SubMonitor sub = SubMonitor.convert(monitor, NLS.bind(Messages.downloading_segments, file.getName()), (int) Math.min(size, Integer.MAX_VALUE));
+		try (RandomAccessFile out = new RandomAccessFile(file, "rw")) { //$NON-NLS-1$
+			out.setLength(size);
+			channel = out.getChannel();
+			done = new CountDownLatch(count);
+			int started = 0;
+			try {
+				for (; started < count; started++)
+					executor.execute(Messages.sar_downloadJobName + started, segments[started]);
+				long reported = 0;
+				while (!done.await(PROGRESS_INTERVAL, TimeUnit.MILLISECONDS)) {
+					if (sub.isCanceled())
+						canceled = true;
+					reported = reportProgress(sub, segments, reported);
+				}
+				reportProgress(sub, segments, reported);
+			} finally {
+				if (done.getCount() > 0) {
+					// the segments write through the channel, stop them before it is closed
+					canceled = true;
+					for (; started < count; started++)
+						done.countDown();
+					DownloadScheduler.awaitUninterruptibly(done);
+				}
+			}
+		} catch (IOException e) {
+			return new Status(IStatus.ERROR, Activator.ID, NLS.bind(Messages.error_writing_partial_download, file.getAbsolutePath()), e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return Status.CANCEL_STATUS;
+		}
+		if (canceled)
+			return Status.CANCEL_STATUS;
+		MultiStatus failures = new MultiStatus(Activator.ID, IStatus.OK, NLS.bind(Messages.segmented_download_failed, locations[0]), null);
+		long rate = 0;
+		for (Segment segment : segments) {
+			if (!segment.isComplete())
+				failures.add(segment.status);
+			else if (segment.status instanceof DownloadStatus)
+				rate += ((DownloadStatus) segment.status).getTransferRate();
+		}
+		if (!failures.isOK())
+			return failures;
+		DownloadStatus result = new DownloadStatus(IStatus.OK, Activator.ID, Status.OK_STATUS.getMessage());
+		result.setFileSize(size);
+		result.setTransferRate(rate);
+		return result;
+	}
+
+	private long reportProgress(SubMonitor sub, Segment[] segments, long reported) {
+		long total = 0;
+		for (Segment segment : segments)
+			total += segment.written;
+		total = Math.min(total, Integer.MAX_VALUE);
+		if (total > reported)
+			sub.worked((int) (total - reported));
+		return total;
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2018 IBM Corporation and others.
+ * Copyright (c) 2007, 2020 IBM Corporation and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -24,22 +24,25 @@ import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.jar.JarEntry;
 import java.util.jar.JarOutputStream;
 import org.eclipse.core.runtime.*;
-import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.equinox.internal.p2.artifact.processors.checksum.ChecksumUtilities;
 import org.eclipse.equinox.internal.p2.artifact.repository.*;
 import org.eclipse.equinox.internal.p2.artifact.repository.Messages;
 import org.eclipse.equinox.internal.p2.core.helpers.FileUtils;
+import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
 import org.eclipse.equinox.internal.p2.metadata.ArtifactKey;
 import org.eclipse.equinox.internal.p2.metadata.expression.CompoundIterator;
 import org.eclipse.equinox.internal.p2.metadata.index.IndexProvider;
 import org.eclipse.equinox.internal.p2.repository.DownloadStatus;
 import org.eclipse.equinox.internal.p2.repository.Transport;
 import org.eclipse.equinox.internal.p2.repository.helpers.ChecksumHelper;
+import org.eclipse.equinox.internal.p2.repository.helpers.Journal;
 import org.eclipse.equinox.internal.provisional.p2.artifact.repository.processing.*;
 import org.eclipse.equinox.internal.provisional.p2.repository.IStateful;
+import org.eclipse.equinox.p2.core.IAgentLocation;
 import org.eclipse.equinox.p2.core.IProvisioningAgent;
 import org.eclipse.equinox.p2.core.ProvisionException;
 import org.eclipse.equinox.p2.metadata.IArtifactKey;
@@ -85,6 +88,24 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 
 	public static final String CONTENT_FILENAME = "artifacts"; //$NON-NLS-1$
 
+	/**
+	 * The key for a boolean repository property that makes added and removed descriptors be
+	 * appended to a journal next to the artifacts file instead of rewriting the whole file.
+	 * Readers replay the journal on load. It is folded back into the artifacts file once it
+	 * has grown to a fraction of its size, and whenever anything other than the descriptors
+	 * changes. Only readers of the local file system see the journal, so remote clients of a
+	 * journaled repository are only up to date after a compaction.
+	 */
+	public static final String PROP_JOURNAL = "p2.journal"; //$NON-NLS-1$
+
+	static final String JOURNAL_FILENAME = CONTENT_FILENAME + ".journal"; //$NON-NLS-1$
+
+	/**
+	 * The journal is compacted once it is larger than the artifacts file divided by this
+	 * ratio, which keeps the amortized cost of a change independent of the repository size.
+	 */
+	private static final int JOURNAL_COMPACTION_RATIO = 2;
+
 	/**
 	 * The key for a integer property controls the maximum number
 	 * of threads that should be used when optimizing downloads from a remote
@@ -97,6 +118,64 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 	 */
 	public static final String PROP_FORCE_THREADING = "eclipse.p2.force.threading"; //$NON-NLS-1$
 
+	/**
+	 * The key for a boolean property that lets the number of concurrent downloads
+	 * from a remote artifact repository adapt to the observed throughput. The number
+	 * starts at the maximum number of threads and varies between one and
+	 * {@link #ADAPTIVE_THREADS_FACTOR} times that maximum.
+	 */
+	public static final String PROP_ADAPTIVE_THREADS = "eclipse.p2.adaptive.threads"; //$NON-NLS-1$
+
+	/**
+	 * The key for a property selecting how concurrent downloads are run, either
+	 * {@link DownloadExecutor#JOBS} (the default) or {@link DownloadExecutor#VIRTUAL_THREADS}.
+	 */
+	public static final String PROP_DOWNLOAD_EXECUTOR = "eclipse.p2.download.executor"; //$NON-NLS-1$
+
+	/**
+	 * The key for a long property giving the download size, in bytes, from which a remote
+	 * artifact is transferred through a partial file in the agent's data area. A failed
+	 * transfer keeps the partial file and is resumed from its last byte instead of starting
+	 * over. A negative value disables resumable downloads.
+	 */
+	public static final String PROP_RESUMABLE_THRESHOLD = "eclipse.p2.resumable.threshold"; //$NON-NLS-1$
+
+	private static final long DEFAULT_RESUMABLE_THRESHOLD = 1024 * 1024;
+
+	/**
+	 * How many times a transfer that keeps making progress is resumed before giving up.
+	 */
+	private static final int MAX_RESUME_ATTEMPTS = 10;
+
+	private static final String PARTIAL_DOWNLOAD_EXTENSION = ".part"; //$NON-NLS-1$
+
+	/**
+	 * The key for a long property giving the download size, in bytes, from which a remote
+	 * artifact is split into byte ranges that are fetched from the best mirrors in parallel.
+	 * A negative value disables segmented downloads.
+	 */
+	public static final String PROP_SEGMENTED_THRESHOLD = "eclipse.p2.segmented.threshold"; //$NON-NLS-1$
+
+	/**
+	 * The key for an integer property giving the number of mirrors a segmented download
+	 * is spread over.
+	 */
+	public static final String PROP_MAX_SEGMENTS = "eclipse.p2.max.segments"; //$NON-NLS-1$
+
+	private static final long DEFAULT_SEGMENTED_THRESHOLD = 100 * 1024 * 1024;
+
+	private static final int DEFAULT_MAX_SEGMENTS = 4;
+
+	/**
+	 * The partial files currently being written, shared by all repositories of this agent.
+	 */
+	private static final Set<File> partialDownloads = new HashSet<>();
+
+	/**
+	 * How many times the maximum number of threads an adaptive download limit can grow to.
+	 */
+	public static final int ADAPTIVE_THREADS_FACTOR = 4;
+
 	/**
 	 * Location of the repository lock
 	 */
@@ -110,14 +189,14 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 	/**
 	 * Does this instance of the repository currently hold a lock
 	 */
-	private boolean holdsLock = false;
+	private volatile boolean holdsLock = false;
 	/**
 	 * Does this instance of the repository can be locked.
 	 * It will be initialized when initializing the location for repository
 	 */
-	private Boolean canLock = null;
+	private volatile Boolean canLock = null;
 
-	private long cacheTimestamp = 0l;
+	private volatile long cacheTimestamp = 0l;
 
 	public class ArtifactOutputStream extends OutputStream implements IStateful {
 		private boolean closed;
@@ -272,26 +351,43 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 
 	static final private Integer REPOSITORY_VERSION = 1;
 	private static final String XML_EXTENSION = ".xml"; //$NON-NLS-1$
-	protected Set<SimpleArtifactDescriptor> artifactDescriptors = new HashSet<>();
+	/**
+	 * The descriptors of this repository. Reads don't lock, all modifications are made while
+	 * holding the monitor of this repository.
+	 */
+	protected volatile Set<SimpleArtifactDescriptor> artifactDescriptors = ConcurrentHashMap.newKeySet();
 	/**
 	 * Map<IArtifactKey,List<IArtifactDescriptor>> containing the index of artifacts in the repository.
+	 * The lists are never modified but replaced, so readers can use them without locking while
+	 * the monitor of this repository serializes the modifications.
 	 */
-	private Map<IArtifactKey, List<IArtifactDescriptor>> artifactMap = new HashMap<>();
-	private transient BlobStore blobStore;
-	transient private Mapper mapper = new Mapper();
-	private KeyIndex keyIndex;
-	private boolean snapshotNeeded = false;
+	private volatile Map<IArtifactKey, List<IArtifactDescriptor>> artifactMap = new ConcurrentHashMap<>();
+	private transient volatile BlobStore blobStore;
+	transient private volatile Mapper mapper = new Mapper();
+	private volatile KeyIndex keyIndex;
 
 	static final private String PUBLISH_PACK_FILES_AS_SIBLINGS = "publishPackFilesAsSiblings"; //$NON-NLS-1$
 
 	private static final int DEFAULT_MAX_THREADS = 4;
 
-	protected String[][] mappingRules = DEFAULT_MAPPING_RULES;
+	protected volatile String[][] mappingRules = DEFAULT_MAPPING_RULES;
 
 	private MirrorSelector mirrors;
 
 	private boolean disableSave = false;
 
+	/**
+	 * The descriptor changes since the last save, appended to the journal by the next save
+	 * unless a full save is needed anyway.
+	 */
+	private List<SimpleArtifactRepositoryIO.JournalEntry> pendingChanges = new ArrayList<>();
+	private boolean fullSaveNeeded = true;
+
+	/**
+	 * The number of bytes of the journal that hold complete records.
+	 */
+	private long journalLength = 0;
+
 	static void delete(File toDelete) {
 		if (toDelete.isDirectory()) {
 			File[] children = toDelete.listFiles();
@@ -325,20 +421,43 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		this.mappingRules = mappingRules;
 		for (SimpleArtifactDescriptor desc : artifactDescriptors)
 			mapDescriptor(desc);
+		this.fullSaveNeeded = false;
+	}
+
+	/*
+	 * This is only called by the parser when it replays the journal of a repository.
+	 */
+	synchronized void replay(SimpleArtifactRepositoryIO.JournalEntry change) {
+		if (change.added) {
+			if (artifactDescriptors.add(change.descriptor))
+				mapDescriptor(change.descriptor);
+		} else if (artifactDescriptors.remove(change.descriptor))
+			unmapDescriptor(change.descriptor);
+	}
+
+	/*
+	 * This is only called by the parser after it replayed the journal of a repository.
+	 */
+	synchronized void setJournalLength(long journalLength, boolean corrupt) {
+		this.journalLength = journalLength;
+		// the next save folds what could be replayed into the artifacts file
+		if (corrupt)
+			fullSaveNeeded = true;
 	}
 
 	private synchronized void mapDescriptor(IArtifactDescriptor descriptor) {
 		IArtifactKey key = descriptor.getArtifactKey();
-		if (snapshotNeeded) {
-			cloneAritfactMap();
-			snapshotNeeded = false;
-		}
 		List<IArtifactDescriptor> descriptors = artifactMap.get(key);
-		if (descriptors == null) {
-			descriptors = new ArrayList<>();
-			artifactMap.put(key, descriptors);
-		}
-		descriptors.add(descriptor);
+		List<IArtifactDescriptor> updated;
+		if (descriptors == null)
+			updated = Collections.singletonList(descriptor);
+		else {
+			updated = new ArrayList<>(descriptors.size() + 1);
+			updated.addAll(descriptors);
+			updated.add(descriptor);
+			updated = Collections.unmodifiableList(updated);
+		}
+		artifactMap.put(key, updated);
 		keyIndex = null;
 	}
 
@@ -348,24 +467,15 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		if (descriptors == null)
 			return;
 
-		if (snapshotNeeded) {
-			cloneAritfactMap();
-			snapshotNeeded = false;
-			descriptors = artifactMap.get(key);
-		}
-		descriptors.remove(descriptor);
-		if (descriptors.isEmpty())
+		List<IArtifactDescriptor> updated = new ArrayList<>(descriptors);
+		updated.remove(descriptor);
+		if (updated.isEmpty())
 			artifactMap.remove(key);
+		else
+			artifactMap.put(key, Collections.unmodifiableList(updated));
 		keyIndex = null;
 	}
 
-	private void cloneAritfactMap() {
-		HashMap<IArtifactKey, List<IArtifactDescriptor>> clone = new HashMap<>(artifactMap.size());
-		for (Entry<IArtifactKey, List<IArtifactDescriptor>> entry : artifactMap.entrySet())
-			clone.put(entry.getKey(), new ArrayList<>(entry.getValue()));
-		artifactMap = clone;
-	}
-
 	public SimpleArtifactRepository(IProvisioningAgent agent, String repositoryName, URI location, Map<String, String> properties) {
 		super(agent, repositoryName, REPOSITORY_TYPE, REPOSITORY_VERSION.toString(), location, null, null, properties);
 
@@ -415,6 +525,7 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 			SimpleArtifactDescriptor internalDescriptor = createInternalDescriptor(toAdd);
 			artifactDescriptors.add(internalDescriptor);
 			mapDescriptor(internalDescriptor);
+			pendingChanges.add(new SimpleArtifactRepositoryIO.JournalEntry(true, internalDescriptor));
 			save();
 		} finally {
 			if (lockAcquired)
@@ -464,6 +575,7 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 				SimpleArtifactDescriptor internalDescriptor = createInternalDescriptor(descriptor);
 				artifactDescriptors.add(internalDescriptor);
 				mapDescriptor(internalDescriptor);
+				pendingChanges.add(new SimpleArtifactRepositoryIO.JournalEntry(true, internalDescriptor));
 			}
 			save();
 		} finally {
@@ -534,7 +646,7 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 	}
 
 	@Override
-	public synchronized boolean contains(IArtifactDescriptor descriptor) {
+	public boolean contains(IArtifactDescriptor descriptor) {
 		if (!holdsLock() && URIUtil.isFileURI(getLocation())) {
 			load(new NullProgressMonitor());
 		}
@@ -543,14 +655,14 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 	}
 
 	@Override
-	public synchronized boolean contains(IArtifactKey key) {
+	public boolean contains(IArtifactKey key) {
 		if (!holdsLock() && URIUtil.isFileURI(getLocation())) {
 			load(new NullProgressMonitor());
 		}
 		return artifactMap.containsKey(key);
 	}
 
-	public synchronized URI createLocation(ArtifactDescriptor descriptor) {
+	public URI createLocation(ArtifactDescriptor descriptor) {
 		if (flatButPackedEnabled(descriptor)) {
 			return getLocationForPackedButFlatArtifacts(descriptor);
 		}
@@ -596,8 +708,11 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 			}
 		}
 		boolean result = artifactDescriptors.remove(descriptor);
-		if (result)
+		if (result) {
 			unmapDescriptor(descriptor);
+			// only an equal SimpleArtifactDescriptor can have been removed
+			pendingChanges.add(new SimpleArtifactRepositoryIO.JournalEntry(false, simple));
+		}
 
 		return result;
 	}
@@ -640,8 +755,32 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		URI baseLocation = getLocation(descriptor);
 		if (baseLocation == null)
 			return new Status(IStatus.ERROR, Activator.ID, NLS.bind(Messages.no_location, descriptor));
+		SharedArtifactStore store = isLocal() ? null : SharedArtifactStore.getDefault();
+		String storeKey = store == null ? null : SharedArtifactStore.getKey(descriptor);
+		SharedArtifactStore.Recorder recorder = null;
+		if (storeKey != null) {
+			IStatus stored = store.read(storeKey, destination, monitor);
+			if (stored != null) {
+				if (stored.isOK() || stored.getSeverity() == IStatus.CANCEL || stored.getCode() == SharedArtifactStore.CODE_PARTIAL_READ)
+					return reportStatus(descriptor, destination, stored);
+				// the unreadable entry is gone and nothing reached the destination, download the artifact
+				LogHelper.log(stored);
+			}
+			recorder = store.record(storeKey, destination);
+		}
 		URI mirrorLocation = getMirror(baseLocation, monitor);
-		IStatus status = downloadArtifact(mirrorLocation, destination, monitor);
+		OutputStream target = recorder != null ? recorder : destination;
+		URI[] segmentLocations = getSegmentLocations(descriptor, baseLocation, monitor);
+		File partialFile = segmentLocations == null ? getPartialDownloadFile(descriptor, baseLocation) : null;
+		IStatus status;
+		if (segmentLocations != null)
+			status = downloadSegmented(descriptor, segmentLocations, target, monitor);
+		else if (partialFile != null)
+			status = downloadResumable(mirrorLocation, partialFile, getDownloadSize(descriptor), target, monitor);
+		else
+			status = downloadArtifact(mirrorLocation, target, monitor);
+		if (recorder != null)
+			recorder.finish(status.isOK());
 		IStatus result = reportStatus(descriptor, destination, status);
 		// if the original download went reasonably but the reportStatus found some issues
 		// (e..g, in the processing steps/validators) then mark the mirror as bad and return
@@ -712,10 +851,16 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 	}
 
 	private IStatus downloadArtifact(URI mirrorLocation, OutputStream destination, IProgressMonitor monitor) {
+		return downloadArtifact(mirrorLocation, destination, -1, monitor);
+	}
+
+	private IStatus downloadArtifact(URI mirrorLocation, OutputStream destination, long startPos, IProgressMonitor monitor) {
 		//Bug 340352: transport has performance overhead of 100ms and more, bypass it for local copies
 		IStatus result = Status.OK_STATUS;
 		if (SimpleArtifactRepositoryFactory.PROTOCOL_FILE.equals(mirrorLocation.getScheme()))
 			result = copyFileToStream(new File(mirrorLocation), destination, monitor);
+		else if (startPos > 0)
+			result = getTransport().download(mirrorLocation, destination, startPos, monitor);
 		else
 			result = getTransport().download(mirrorLocation, destination, monitor);
 		if (mirrors != null)
@@ -733,6 +878,188 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		return result;
 	}
 
+	/**
+	 * Downloads an artifact into the given partial file, resuming from the bytes already
+	 * in it, and copies the completed file to the destination. The partial file is kept
+	 * when the transfer fails so that a later attempt can resume it.
+	 */
+	private IStatus downloadResumable(URI mirrorLocation, File partialFile, long size, OutputStream destination, IProgressMonitor monitor) {
+		synchronized (partialDownloads) {
+			// someone else is already downloading this artifact, don't interfere with the partial file
+			if (!partialDownloads.add(partialFile))
+				return downloadArtifact(mirrorLocation, destination, monitor);
+		}
+		try {
+			IStatus status = Status.CANCEL_STATUS;
+			for (int attempt = 0; attempt < MAX_RESUME_ATTEMPTS; attempt++) {
+				long startPos = partialFile.length();
+				if (startPos == size) {
+					// completed by an earlier attempt that failed to copy it, the download
+					// checksums verify it when the destination processes it
+					status = Status.OK_STATUS;
+					break;
+				}
+				if (startPos > size) {
+					// left over from a different version of the artifact
+					partialFile.delete();
+					startPos = 0;
+				}
+				status = downloadPart(mirrorLocation, partialFile, startPos, monitor);
+				if (status.getSeverity() == IStatus.CANCEL || monitor.isCanceled())
+					return status;
+				if (startPos > 0 && (status.isOK() ? partialFile.length() != size : partialFile.length() <= startPos)) {
+					// the server ignored or refused the range request, start over
+					partialFile.delete();
+					continue;
+				}
+				if (status.isOK() || partialFile.length() <= startPos)
+					break;
+			}
+			if (!status.isOK())
+				return status;
+			IStatus copied = copyFileToStream(partialFile, destination, monitor);
+			if (copied instanceof DownloadStatus && status instanceof DownloadStatus)
+				((DownloadStatus) copied).setTransferRate(((DownloadStatus) status).getTransferRate());
+			// whatever the processing steps make of it, the bytes have been consumed
+			partialFile.delete();
+			return copied;
+		} finally {
+			synchronized (partialDownloads) {
+				partialDownloads.remove(partialFile);
+			}
+		}
+	}
+
+	private IStatus downloadPart(URI mirrorLocation, File partialFile, long startPos, IProgressMonitor monitor) {
+		try (OutputStream out = new BufferedOutputStream(new FileOutputStream(partialFile, startPos > 0))) {
+			return downloadArtifact(mirrorLocation, out, startPos, monitor);
+		} catch (IOException e) {
+			return new Status(IStatus.ERROR, Activator.ID, NLS.bind(Messages.error_writing_partial_download, partialFile.getAbsolutePath()), e);
+		}
+	}
+
+	/**
+	 * Downloads the byte ranges of an artifact from several mirrors at once into a
+	 * temporary file and copies the reassembled file to the destination.
+	 */
+	private IStatus downloadSegmented(IArtifactDescriptor descriptor, URI[] locations, OutputStream destination, IProgressMonitor monitor) {
+		File folder = getDownloadFolder();
+		File file = null;
+		try {
+			file = File.createTempFile("p2_" + descriptor.getArtifactKey().getId(), ".segments", folder); //$NON-NLS-1$ //$NON-NLS-2$
+			DownloadExecutor executor = DownloadExecutor.create(Activator.getContext().getProperty(PROP_DOWNLOAD_EXECUTOR));
+			IStatus status = new SegmentedDownload(getTransport(), mirrors, locations, executor).run(file, getDownloadSize(descriptor), monitor);
+			if (!status.isOK())
+				return status;
+			IStatus copied = copyFileToStream(file, destination, monitor);
+			if (copied instanceof DownloadStatus && status instanceof DownloadStatus)
+				((DownloadStatus) copied).setTransferRate(((DownloadStatus) status).getTransferRate());
+			return copied;
+		} catch (IOException e) {
+			return new Status(IStatus.ERROR, Activator.ID, NLS.bind(Messages.error_writing_partial_download, folder), e);
+		} finally {
+			if (file != null)
+				file.delete();
+		}
+	}
+
+	/**
+	 * Returns the mirror locations a remote artifact is downloaded from in segments, or
+	 * <code>null</code> if the artifact should be downloaded from a single location.
+	 */
+	private URI[] getSegmentLocations(IArtifactDescriptor descriptor, URI baseLocation, IProgressMonitor monitor) {
+		if (!MIRRORS_ENABLED || isLocal() || SimpleArtifactRepositoryFactory.PROTOCOL_FILE.equals(baseLocation.getScheme()))
+			return null;
+		long threshold = getLongProperty(PROP_SEGMENTED_THRESHOLD, DEFAULT_SEGMENTED_THRESHOLD);
+		long size = getDownloadSize(descriptor);
+		int maxSegments = (int) getLongProperty(PROP_MAX_SEGMENTS, DEFAULT_MAX_SEGMENTS);
+		if (threshold < 0 || size <= 0 || size < threshold || maxSegments < 2)
+			return null;
+		MirrorSelector selector;
+		synchronized (this) {
+			if (mirrors == null)
+				mirrors = new MirrorSelector(this, getTransport());
+			selector = mirrors;
+		}
+		URI[] locations = selector.getMirrorLocations(baseLocation, maxSegments, monitor);
+		return locations.length > 1 ? locations : null;
+	}
+
+	/**
+	 * Returns the partial file a remote artifact is downloaded to, or <code>null</code>
+	 * if the artifact should be streamed directly to its destination.
+	 */
+	private File getPartialDownloadFile(IArtifactDescriptor descriptor, URI baseLocation) {
+		if (isLocal() || SimpleArtifactRepositoryFactory.PROTOCOL_FILE.equals(baseLocation.getScheme()))
+			return null;
+		long threshold = getLongProperty(PROP_RESUMABLE_THRESHOLD, DEFAULT_RESUMABLE_THRESHOLD);
+		long size = getDownloadSize(descriptor);
+		if (threshold < 0 || size <= 0 || size < threshold)
+			return null;
+		File folder = getDownloadFolder();
+		if (folder == null)
+			return null;
+		IArtifactKey key = descriptor.getArtifactKey();
+		StringBuilder name = new StringBuilder();
+		name.append(key.getClassifier()).append('_').append(key.getId()).append('_').append(key.getVersion());
+		String format = descriptor.getProperty(IArtifactDescriptor.FORMAT);
+		if (format != null)
+			name.append('.').append(format);
+		// mirrors serve the same bytes as the base location, other repositories might not
+		name.append('-').append(Integer.toHexString(baseLocation.toString().hashCode())).append(PARTIAL_DOWNLOAD_EXTENSION);
+		return new File(folder, name.toString());
+	}
+
+	/**
+	 * Returns the folder in the agent's data area that downloads in progress are kept in,
+	 * or <code>null</code> if there is none.
+	 */
+	private File getDownloadFolder() {
+		IAgentLocation agentLocation = getProvisioningAgent().getService(IAgentLocation.class);
+		if (agentLocation == null)
+			return null;
+		URI dataArea = agentLocation.getDataArea(Activator.ID + "/downloads/"); //$NON-NLS-1$
+		if (dataArea == null || !URIUtil.isFileURI(dataArea))
+			return null;
+		File folder = URIUtil.toFile(dataArea);
+		if (!folder.isDirectory() && !folder.mkdirs())
+			return null;
+		return folder;
+	}
+
+	private static long getLongProperty(String key, long defaultValue) {
+		String value = Activator.getContext().getProperty(key);
+		if (value == null)
+			return defaultValue;
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Returns the download size of the given descriptor, or -1 if it is not known.
+	 */
+	static long getDownloadSize(IArtifactDescriptor descriptor) {
+		String size = descriptor.getProperty(IArtifactDescriptor.DOWNLOAD_SIZE);
+		if (size == null)
+			return -1;
+		try {
+			return Long.parseLong(size);
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Sets the selector that chooses the mirrors artifacts are downloaded from.
+	 * This method is only public for testing purposes.
+	 */
+	public synchronized void setMirrorSelector(MirrorSelector selector) {
+		mirrors = selector;
+	}
+
 	/**
 	 * Returns an equivalent mirror location for the given artifact location.
 	 * @param baseLocation The location of the artifact in this repository
@@ -787,7 +1114,7 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 	}
 
 	@Override
-	public synchronized IArtifactDescriptor[] getArtifactDescriptors(IArtifactKey key) {
+	public IArtifactDescriptor[] getArtifactDescriptors(IArtifactKey key) {
 		if (!holdsLock() && URIUtil.isFileURI(getLocation())) {
 			load(new NullProgressMonitor());
 		}
@@ -824,9 +1151,9 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 			return Status.CANCEL_STATUS;
 
 		final MultiStatus overallStatus = new MultiStatus(Activator.ID, IStatus.OK, NLS.bind(Messages.message_problemReadingArtifact, getLocation()), null);
-		LinkedList<IArtifactRequest> requestsPending = new LinkedList<>(Arrays.asList(requests));
 
-		int numberOfJobs = Math.min(requests.length, getMaximumThreads());
+		int maxThreads = getMaximumThreads();
+		int numberOfJobs = Math.min(requests.length, maxThreads);
 		if (numberOfJobs <= 1 || (!isForceThreading() && isLocal())) {
 			SubMonitor subMonitor = SubMonitor.convert(monitor, requests.length);
 			try {
@@ -841,21 +1168,15 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 				subMonitor.done();
 			}
 		} else {
-			// initialize the various jobs needed to process the get artifact requests
 			monitor.beginTask(NLS.bind(Messages.sar_downloading, Integer.toString(requests.length)), requests.length);
 			try {
-				DownloadJob jobs[] = new DownloadJob[numberOfJobs];
-				for (int i = 0; i < numberOfJobs; i++) {
-					jobs[i] = new DownloadJob(Messages.sar_downloadJobName + i);
-					jobs[i].initialize(this, requestsPending, monitor, overallStatus);
-					jobs[i].schedule();
-				}
-				// wait for all the jobs to complete
-				try {
-					Job.getJobManager().join(DownloadJob.FAMILY, null);
-				} catch (InterruptedException e) {
-					//ignore
-				}
+				AdaptiveConcurrencyLimit limit;
+				if (isAdaptiveThreading())
+					limit = new AdaptiveConcurrencyLimit(numberOfJobs, 1, Math.min(requests.length, maxThreads * ADAPTIVE_THREADS_FACTOR));
+				else
+					limit = new AdaptiveConcurrencyLimit(numberOfJobs, numberOfJobs, numberOfJobs);
+				DownloadExecutor executor = DownloadExecutor.create(Activator.getContext().getProperty(PROP_DOWNLOAD_EXECUTOR));
+				new DownloadScheduler(this, requests, limit, executor).run(monitor, overallStatus);
 			} finally {
 				monitor.done();
 			}
@@ -869,7 +1190,7 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 			return overallStatus;
 	}
 
-	public synchronized IArtifactDescriptor getCompleteArtifactDescriptor(IArtifactKey key) {
+	public IArtifactDescriptor getCompleteArtifactDescriptor(IArtifactKey key) {
 		if (!holdsLock() && URIUtil.isFileURI(getLocation())) {
 			load(new NullProgressMonitor());
 		}
@@ -885,7 +1206,7 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		return null;
 	}
 
-	public synchronized Set<SimpleArtifactDescriptor> getDescriptors() {
+	public Set<SimpleArtifactDescriptor> getDescriptors() {
 		if (!holdsLock() && URIUtil.isFileURI(getLocation())) {
 			load(new NullProgressMonitor());
 		}
@@ -910,7 +1231,7 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		return mapper.map(getLocation(), key.getClassifier(), key.getId(), key.getVersion().toString(), descriptor.getProperty(IArtifactDescriptor.FORMAT));
 	}
 
-	public synchronized URI getLocation(IArtifactDescriptor descriptor) {
+	public URI getLocation(IArtifactDescriptor descriptor) {
 		// if the artifact has a uuid then use it
 		String uuid = descriptor.getProperty(ARTIFACT_UUID);
 		if (uuid != null)
@@ -1054,7 +1375,7 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		throw new ProvisionException(new Status(IStatus.ERROR, Activator.ID, ProvisionException.REPOSITORY_FAILED_WRITE, msg, e));
 	}
 
-	public synchronized String[][] getRules() {
+	public String[][] getRules() {
 		if (!holdsLock() && URIUtil.isFileURI(getLocation())) {
 			load(new NullProgressMonitor());
 		}
@@ -1111,6 +1432,10 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		return Boolean.parseBoolean(descriptor.getProperty(ARTIFACT_FOLDER));
 	}
 
+	private boolean isAdaptiveThreading() {
+		return Boolean.parseBoolean(Activator.getContext().getProperty(PROP_ADAPTIVE_THREADS)) || "true".equals(getProperties().get(PROP_ADAPTIVE_THREADS)); //$NON-NLS-1$
+	}
+
 	private boolean isForceThreading() {
 		return "true".equals(getProperties().get(PROP_FORCE_THREADING)); //$NON-NLS-1$
 	}
@@ -1145,8 +1470,11 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 			boolean changed = false;
 			for (IArtifactDescriptor element : toRemove)
 				changed |= doRemoveArtifact(element);
-			if (changed)
+			if (changed) {
+				// the emptied repository is smaller than a journal of the removals
+				fullSaveNeeded = true;
 				save();
+			}
 		} finally {
 			if (lockAcquired)
 				unlock();
@@ -1286,8 +1614,10 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		save(compress);
 	}
 
-	private void save(boolean compress) {
+	private synchronized void save(boolean compress) {
 		assertModifiable();
+		if (!fullSaveNeeded && !pendingChanges.isEmpty() && appendJournal(compress))
+			return;
 		OutputStream os = null;
 		try {
 			try {
@@ -1316,6 +1646,11 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 				}
 				super.setProperty(IRepository.PROP_TIMESTAMP, Long.toString(System.currentTimeMillis()), new NullProgressMonitor());
 				new SimpleArtifactRepositoryIO(getProvisioningAgent()).write(this, os);
+				// the artifacts file now holds everything the journal did
+				getJournal().delete();
+				journalLength = 0;
+				pendingChanges.clear();
+				fullSaveNeeded = false;
 			} catch (IOException e) {
 				// TODO proper exception handling
 				e.printStackTrace();
@@ -1329,6 +1664,37 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		}
 	}
 
+	/**
+	 * Appends the pending descriptor changes to the journal. Returns <code>false</code> if
+	 * the repository is not journaled or the journal is due for compaction, in which case
+	 * the caller has to write the whole repository.
+	 */
+	private boolean appendJournal(boolean compress) {
+		if (!"true".equalsIgnoreCase(getProperty(PROP_JOURNAL))) //$NON-NLS-1$
+			return false;
+		File snapshot = URIUtil.toFile(getActualLocation(getLocation(), compress));
+		if (!snapshot.isFile() || journalLength > snapshot.length() / JOURNAL_COMPACTION_RATIO)
+			return false;
+		Journal journal = getJournal();
+		try {
+			long length = journal.append(journalLength, new SimpleArtifactRepositoryIO(getProvisioningAgent()).writeJournal(pendingChanges));
+			// the journal was changed behind our back, start over from a full save
+			if (length < 0)
+				return false;
+			journalLength = length;
+		} catch (IOException e) {
+			LogHelper.log(new Status(IStatus.WARNING, Activator.ID, NLS.bind(Messages.journal_unwritable, journal.getFile()), e));
+			return false;
+		}
+		pendingChanges.clear();
+		updateTimestamp();
+		return true;
+	}
+
+	private Journal getJournal() {
+		return new Journal(URIUtil.toFile(URIUtil.append(getLocation(), JOURNAL_FILENAME)));
+	}
+
 	private String doSetProperty(String key, String newValue, IProgressMonitor monitor, boolean save) {
 		String oldValue = super.setProperty(key, newValue, new NullProgressMonitor());
 		if (oldValue == newValue || (oldValue != null && oldValue.equals(newValue)))
@@ -1343,8 +1709,10 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 				initializeMapper();
 			}
 		}
-		if (save)
+		if (save) {
+			fullSaveNeeded = true;
 			save();
+		}
 		return oldValue;
 	}
 
@@ -1366,6 +1734,7 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 
 	public synchronized void setRules(String[][] rules) {
 		mappingRules = rules;
+		fullSaveNeeded = true;
 	}
 
 	@Override
@@ -1376,11 +1745,8 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 	@Override
 	public IQueryable<IArtifactDescriptor> descriptorQueryable() {
 		return (query, monitor) -> {
-			synchronized (SimpleArtifactRepository.this) {
-				snapshotNeeded = true;
-				Collection<List<IArtifactDescriptor>> descs = SimpleArtifactRepository.this.artifactMap.values();
-				return query.perform(new CompoundIterator<IArtifactDescriptor>(descs.iterator()));
-			}
+			Collection<List<IArtifactDescriptor>> descs = SimpleArtifactRepository.this.artifactMap.values();
+			return query.perform(new CompoundIterator<IArtifactDescriptor>(descs.iterator()));
 		};
 	}
 
@@ -1389,12 +1755,16 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		return IndexProvider.query(this, query, monitor);
 	}
 
+	/**
+	 * Returns an iterator over the keys of this repository. The iterator is weakly
+	 * consistent: it never fails, but it may or may not reflect artifacts that are
+	 * added or removed while it is used.
+	 */
 	@Override
-	public synchronized Iterator<IArtifactKey> everything() {
+	public Iterator<IArtifactKey> everything() {
 		if (!holdsLock() && URIUtil.isFileURI(getLocation())) {
 			load(new NullProgressMonitor());
 		}
-		snapshotNeeded = true;
 		return artifactMap.keySet().iterator();
 	}
 
@@ -1438,15 +1808,20 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 	}
 
 	@Override
-	public synchronized IIndex<IArtifactKey> getIndex(String memberName) {
+	public IIndex<IArtifactKey> getIndex(String memberName) {
 		if (!holdsLock() && URIUtil.isFileURI(getLocation())) {
 			load(new NullProgressMonitor());
 		}
 		if (ArtifactKey.MEMBER_ID.equals(memberName)) {
-			snapshotNeeded = true;
-			if (keyIndex == null)
-				keyIndex = new KeyIndex(artifactMap.keySet());
-			return keyIndex;
+			KeyIndex index = keyIndex;
+			if (index != null)
+				return index;
+			// build under the lock so that no modification can slip in between
+			synchronized (this) {
+				if (keyIndex == null)
+					keyIndex = new KeyIndex(artifactMap.keySet());
+				return keyIndex;
+			}
 		}
 		return null;
 	}
@@ -1570,14 +1945,35 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 	 * Loads the repository from disk. This method will do nothing
 	 * if this instance of SimpleArtifactRepository holds the lock
 	 * because it will have loaded the repo when it acquired the lock.
+	 * The repository monitor is only taken when the file on disk changed,
+	 * so that concurrent lookups don't wait for each other.
 	 *
 	 * @param monitor
 	 */
 	private void load(IProgressMonitor monitor) {
-		if (!holdsLock())
-			doLoad(monitor);
-		else
+		if (holdsLock() || !isStale()) {
 			monitor.done();
+			return;
+		}
+		synchronized (this) {
+			if (!holdsLock())
+				doLoad(monitor);
+			else
+				monitor.done();
+		}
+	}
+
+	/**
+	 * Returns whether the repository on disk was modified since it was last loaded or saved.
+	 */
+	private boolean isStale() {
+		try {
+			File localFile = new SimpleArtifactRepositoryFactory().getLocalFile(getLocation(), new NullProgressMonitor());
+			return getLastModified(localFile) > cacheTimestamp;
+		} catch (Exception e) {
+			// doLoad() would not load it either
+			return false;
+		}
 	}
 
 	private void updateTimestamp() {
@@ -1586,7 +1982,7 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		try {
 			SimpleArtifactRepositoryFactory repositoryFactory = new SimpleArtifactRepositoryFactory();
 			File localFile = repositoryFactory.getLocalFile(getLocation(), new NullProgressMonitor());
-			long lastModified = localFile.lastModified();
+			long lastModified = getLastModified(localFile);
 			if (lastModified > 0)
 				cacheTimestamp = lastModified;
 		} catch (Exception e) {
@@ -1594,6 +1990,13 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 		}
 	}
 
+	/**
+	 * Returns when the given artifacts file or the journal next to it was last modified.
+	 */
+	private long getLastModified(File localFile) {
+		return Math.max(localFile.lastModified(), new File(localFile.getParentFile(), JOURNAL_FILENAME).lastModified());
+	}
+
 	/**
 	 * Loads the repository from disk. If the last modified timestamp on the file <=
 	 * to our cache, then this method does nothing.  Otherwise the artifact repository
@@ -1609,7 +2012,7 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 			SubMonitor subMonitor = SubMonitor.convert(monitor, 4);
 			try {
 				File localFile = repositoryFactory.getLocalFile(getLocation(), subMonitor.newChild(1));
-				long lastModified = localFile.lastModified();
+				long lastModified = getLastModified(localFile);
 				if (lastModified <= cacheTimestamp)
 					return;
 				cacheTimestamp = lastModified;
@@ -1645,6 +2048,10 @@ public class SimpleArtifactRepository extends AbstractArtifactRepository impleme
 				//
 				this.artifactDescriptors = ((SimpleArtifactRepository) repositoryOnDisk).artifactDescriptors;
 				this.artifactMap = ((SimpleArtifactRepository) repositoryOnDisk).artifactMap;
+				this.journalLength = ((SimpleArtifactRepository) repositoryOnDisk).journalLength;
+				if (((SimpleArtifactRepository) repositoryOnDisk).fullSaveNeeded)
+					this.fullSaveNeeded = true;
+				this.keyIndex = null;
 			}
 		} finally {
 			monitor.done();
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2017 IBM Corporation and others.
+ * Copyright (c) 2007, 2020 IBM Corporation and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -109,7 +109,8 @@ public class SimpleArtifactRepositoryFactory extends ArtifactRepositoryFactory {
 				sub.setWorkRemaining(100);
 				InputStream descriptorStream = jarStream != null ? jarStream : inStream;
 				SimpleArtifactRepositoryIO io = new SimpleArtifactRepositoryIO(getAgent());
-				SimpleArtifactRepository result = (SimpleArtifactRepository) io.read(location, descriptorStream, sub.newChild(100), acquireLock);
+				File journal = PROTOCOL_FILE.equals(location.getScheme()) ? new File(localFile.getParentFile(), SimpleArtifactRepository.JOURNAL_FILENAME) : null;
+				SimpleArtifactRepository result = (SimpleArtifactRepository) io.read(location, descriptorStream, journal, sub.newChild(100), acquireLock);
 				result.initializeAfterLoad(location);
 				if (result != null && (flags & IRepositoryManager.REPOSITORY_HINT_MODIFIABLE) > 0 && !result.isModifiable())
 					return null;
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2018 IBM Corporation and others.
+ * Copyright (c) 2007, 2020 IBM Corporation and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -25,6 +25,7 @@ import org.eclipse.equinox.internal.p2.core.helpers.OrderedProperties;
 import org.eclipse.equinox.internal.p2.metadata.ArtifactKey;
 import org.eclipse.equinox.internal.p2.persistence.XMLParser;
 import org.eclipse.equinox.internal.p2.persistence.XMLWriter;
+import org.eclipse.equinox.internal.p2.repository.helpers.Journal;
 import org.eclipse.equinox.p2.core.IProvisioningAgent;
 import org.eclipse.equinox.p2.core.ProvisionException;
 import org.eclipse.equinox.p2.metadata.*;
@@ -51,6 +52,19 @@ public class SimpleArtifactRepositoryIO {
 	private Location lockLocation = null;
 	static final IProcessingStepDescriptor[] EMPTY_STEPS = new ProcessingStepDescriptor[0];
 
+	/**
+	 * A single change recorded in the journal of a repository.
+	 */
+	static final class JournalEntry {
+		final boolean added;
+		final SimpleArtifactDescriptor descriptor;
+
+		JournalEntry(boolean added, SimpleArtifactDescriptor descriptor) {
+			this.added = added;
+			this.descriptor = descriptor;
+		}
+	}
+
 	public SimpleArtifactRepositoryIO(IProvisioningAgent agent) {
 		this.agent = agent;
 	}
@@ -77,6 +91,15 @@ public class SimpleArtifactRepositoryIO {
 		}
 	}
 
+	/**
+	 * Returns a journal record holding the given changes, which is a small artifact document.
+	 */
+	public byte[] writeJournal(List<JournalEntry> changes) {
+		ByteArrayOutputStream record = new ByteArrayOutputStream();
+		new Writer(record).writeJournal(changes);
+		return record.toByteArray();
+	}
+
 	/**
 	 * Reads the artifact repository from the given stream,
 	 * and returns the contained array of abstract artifact repositories.
@@ -84,6 +107,17 @@ public class SimpleArtifactRepositoryIO {
 	 * This method performs buffering, and closes the stream when finished.
 	 */
 	public IArtifactRepository read(URI location, InputStream input, IProgressMonitor monitor, boolean acquireLock) throws ProvisionException {
+		return read(location, input, null, monitor, acquireLock);
+	}
+
+	/**
+	 * Reads the artifact repository from the given stream and replays the changes
+	 * recorded in the given journal file on it, if that file exists. Both are read
+	 * while holding the repository lock, so that no compaction can happen in between.
+	 * 
+	 * This method performs buffering, and closes the stream when finished.
+	 */
+	public IArtifactRepository read(URI location, InputStream input, File journal, IProgressMonitor monitor, boolean acquireLock) throws ProvisionException {
 		BufferedInputStream bufferedInput = null;
 		try {
 			try {
@@ -98,12 +132,14 @@ public class SimpleArtifactRepositoryIO {
 						if (lock) {
 							repositoryParser.parse(input);
 							result = repositoryParser.getStatus();
+							replayJournal(repositoryParser, journal);
 						} else {
 							result = Status.CANCEL_STATUS;
 						}
 					} else {
 						repositoryParser.parse(input);
 						result = repositoryParser.getStatus();
+						replayJournal(repositoryParser, journal);
 					}
 				} finally {
 					if (lock)
@@ -133,6 +169,19 @@ public class SimpleArtifactRepositoryIO {
 		}
 	}
 
+	private void replayJournal(Parser repositoryParser, File file) throws IOException {
+		SimpleArtifactRepository repository = repositoryParser.getRepository();
+		if (repository == null || file == null || !file.isFile())
+			return;
+		Journal journal = new Journal(file);
+		long length = journal.replay(record -> {
+			Parser journalParser = new Parser(Activator.getContext(), Activator.ID);
+			for (JournalEntry change : journalParser.parseJournal(new ByteArrayInputStream(record)))
+				repository.replay(change);
+		});
+		repository.setJournalLength(length, journal.isCorrupt());
+	}
+
 	private synchronized boolean canLock(URI repositoryLocation) {
 		if (!URIUtil.isFileURI(repositoryLocation))
 			return false;
@@ -209,6 +258,9 @@ public class SimpleArtifactRepositoryIO {
 		public static final String ARTIFACT_ELEMENT = "artifact"; //$NON-NLS-1$
 		public static final String PROCESSING_STEPS_ELEMENT = "processing"; //$NON-NLS-1$
 		public static final String PROCESSING_STEP_ELEMENT = "step"; //$NON-NLS-1$
+		public static final String JOURNAL_ELEMENT = "journal"; //$NON-NLS-1$
+		public static final String ADDED_ELEMENT = "added"; //$NON-NLS-1$
+		public static final String REMOVED_ELEMENT = "removed"; //$NON-NLS-1$
 
 		public static final String MAPPING_RULE_FILTER_ATTRIBUTE = "filter"; //$NON-NLS-1$
 		public static final String MAPPING_RULE_OUTPUT_ATTRIBUTE = "output"; //$NON-NLS-1$
@@ -259,23 +311,42 @@ public class SimpleArtifactRepositoryIO {
 			}
 		}
 
+		/**
+		 * Write the given changes as one journal record.
+		 */
+		public void writeJournal(List<JournalEntry> changes) {
+			start(JOURNAL_ELEMENT);
+			attribute(COLLECTION_SIZE_ATTRIBUTE, changes.size());
+			for (JournalEntry change : changes) {
+				String element = change.added ? ADDED_ELEMENT : REMOVED_ELEMENT;
+				start(element);
+				writeArtifact(change.descriptor);
+				end(element);
+			}
+			end(JOURNAL_ELEMENT);
+			flush();
+		}
+
 		private void writeArtifacts(Set<SimpleArtifactDescriptor> artifactDescriptors) {
 			start(ARTIFACTS_ELEMENT);
 			attribute(COLLECTION_SIZE_ATTRIBUTE, artifactDescriptors.size());
-			for (SimpleArtifactDescriptor descriptor : artifactDescriptors) {
-				IArtifactKey key = descriptor.getArtifactKey();
-				start(ARTIFACT_ELEMENT);
-				attribute(ARTIFACT_CLASSIFIER_ATTRIBUTE, key.getClassifier());
-				attribute(ID_ATTRIBUTE, key.getId());
-				attribute(VERSION_ATTRIBUTE, key.getVersion());
-				writeProcessingSteps(descriptor.getProcessingSteps());
-				writeProperties(descriptor.getProperties());
-				writeProperties(REPOSITORY_PROPERTIES_ELEMENT, descriptor.getRepositoryProperties());
-				end(ARTIFACT_ELEMENT);
-			}
+			for (SimpleArtifactDescriptor descriptor : artifactDescriptors)
+				writeArtifact(descriptor);
 			end(ARTIFACTS_ELEMENT);
 		}
 
+		private void writeArtifact(SimpleArtifactDescriptor descriptor) {
+			IArtifactKey key = descriptor.getArtifactKey();
+			start(ARTIFACT_ELEMENT);
+			attribute(ARTIFACT_CLASSIFIER_ATTRIBUTE, key.getClassifier());
+			attribute(ID_ATTRIBUTE, key.getId());
+			attribute(VERSION_ATTRIBUTE, key.getVersion());
+			writeProcessingSteps(descriptor.getProcessingSteps());
+			writeProperties(descriptor.getProperties());
+			writeProperties(REPOSITORY_PROPERTIES_ELEMENT, descriptor.getRepositoryProperties());
+			end(ARTIFACT_ELEMENT);
+		}
+
 		private void writeProcessingSteps(IProcessingStepDescriptor[] processingSteps) {
 			if (processingSteps.length > 0) {
 				start(PROCESSING_STEPS_ELEMENT);
@@ -329,6 +400,32 @@ public class SimpleArtifactRepositoryIO {
 			}
 		}
 
+		/**
+		 * Parses one journal record and returns the changes it holds, in order.
+		 */
+		public synchronized List<JournalEntry> parseJournal(InputStream stream) throws IOException {
+			this.status = null;
+			try {
+				getParser();
+				JournalHandler journalHandler = new JournalHandler();
+				xmlReader.setContentHandler(new RepositoryDocHandler(JOURNAL_ELEMENT, journalHandler));
+				xmlReader.parse(new InputSource(stream));
+				if (!isValidXML())
+					throw new IOException(getStatus().getMessage());
+				return journalHandler.getChanges();
+			} catch (SAXException e) {
+				IOException ioException = new IOException(e.getMessage());
+				ioException.initCause(e);
+				throw ioException;
+			} catch (ParserConfigurationException e) {
+				IOException ioException = new IOException(e.getMessage());
+				ioException.initCause(e);
+				throw ioException;
+			} finally {
+				stream.close();
+			}
+		}
+
 		public SimpleArtifactRepository getRepository() {
 			return theRepository;
 		}
@@ -427,6 +524,57 @@ public class SimpleArtifactRepositoryIO {
 			}
 		}
 
+		private final class JournalHandler extends RootHandler {
+
+			private List<JournalEntry> changes;
+
+			public List<JournalEntry> getChanges() {
+				return changes;
+			}
+
+			@Override
+			protected void handleRootAttributes(Attributes attributes) {
+				String size = parseOptionalAttribute(attributes, COLLECTION_SIZE_ATTRIBUTE);
+				changes = (size != null ? new ArrayList<>(Integer.parseInt(size)) : new ArrayList<>(4));
+			}
+
+			@Override
+			public void startElement(String name, Attributes attributes) {
+				if (ADDED_ELEMENT.equals(name) || REMOVED_ELEMENT.equals(name)) {
+					new ChangeHandler(this, name, changes);
+				} else {
+					invalidElement(name, attributes);
+				}
+			}
+		}
+
+		protected class ChangeHandler extends AbstractHandler {
+
+			private final List<JournalEntry> changes;
+			private final Set<SimpleArtifactDescriptor> artifacts = new LinkedHashSet<>(2);
+
+			public ChangeHandler(AbstractHandler parentHandler, String name, List<JournalEntry> changes) {
+				super(parentHandler, name);
+				this.changes = changes;
+			}
+
+			@Override
+			public void startElement(String name, Attributes attributes) {
+				if (ARTIFACT_ELEMENT.equals(name)) {
+					new ArtifactHandler(this, attributes, artifacts);
+				} else {
+					invalidElement(name, attributes);
+				}
+			}
+
+			@Override
+			protected void finished() {
+				boolean added = ADDED_ELEMENT.equals(elementHandled);
+				for (SimpleArtifactDescriptor artifact : artifacts)
+					changes.add(new JournalEntry(added, artifact));
+			}
+		}
+
 		protected class MappingRulesHandler extends AbstractHandler {
 
 			private List<String[]> mappingRules;
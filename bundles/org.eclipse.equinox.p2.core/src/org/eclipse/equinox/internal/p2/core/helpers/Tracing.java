@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2015 IBM Corporation and others.
+ *  Copyright (c) 2007, 2020 IBM Corporation and others.
  *
  *  This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License 2.0
@@ -42,6 +42,7 @@ public class Tracing {
 	public static boolean DEBUG_UPDATE_CHECK = false;
 	public static boolean DEBUG_EVENTS_CLIENT = false;
 	public static boolean DEBUG_DEFAULT_UI = false;
+	public static boolean DEBUG_BACKUP_STORE = false;
 
 	static {
 		DebugOptions options = ServiceHelper.getService(Activator.context, DebugOptions.class);
@@ -63,6 +64,7 @@ public class Tracing {
 				DEBUG_REMOVE_REPO = options.getBooleanOption(Activator.ID + "/core/removeRepo", false); //$NON-NLS-1$
 				DEBUG_UPDATE_CHECK = options.getBooleanOption(Activator.ID + "/updatechecker", false); //$NON-NLS-1$
 				DEBUG_DEFAULT_UI = options.getBooleanOption(Activator.ID + "/ui/default", false); //$NON-NLS-1$
+				DEBUG_BACKUP_STORE = options.getBooleanOption(Activator.ID + "/touchpoint/backupstore", false); //$NON-NLS-1$
 			}
 		}
 	}
@@ -0,0 +1,77 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.director;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.metadata.IRequirement;
+import org.eclipse.equinox.p2.metadata.expression.IMatchExpression;
+
+/**
+ * Evaluates the filters of installable units and requirements against one selection
+ * context and remembers the outcome of each filter.
+ * <p>
+ * The outcomes are kept by the value of the filter, so the few distinct filters of a
+ * repository are evaluated once instead of once per unit and requirement, also when
+ * equal filters were parsed into different instances.
+ */
+public class FilterEvaluator {
+	private final IInstallableUnit selectionContext;
+	private final Map<IMatchExpression<IInstallableUnit>, Boolean> results = new HashMap<>();
+	private int evaluationCount;
+
+	public FilterEvaluator(IInstallableUnit selectionContext) {
+		this.selectionContext = selectionContext;
+	}
+
+	public IInstallableUnit getSelectionContext() {
+		return selectionContext;
+	}
+
+	/**
+	 * Returns whether the given filter matches the selection context. A <code>null</code>
+	 * filter always matches.
+	 */
+	public boolean isMatch(IMatchExpression<IInstallableUnit> filter) {
+		if (filter == null)
+			return true;
+		synchronized (results) {
+			Boolean result = results.get(filter);
+			if (result == null) {
+				result = Boolean.valueOf(filter.isMatch(selectionContext));
+				results.put(filter, result);
+				evaluationCount++;
+			}
+			return result.booleanValue();
+		}
+	}
+
+	public boolean isApplicable(IInstallableUnit iu) {
+		return isMatch(iu.getFilter());
+	}
+
+	public boolean isApplicable(IRequirement req) {
+		return isMatch(req.getFilter());
+	}
+
+	/**
+	 * Returns the number of filters that were evaluated against the selection context.
+	 */
+	public int getEvaluationCount() {
+		synchronized (results) {
+			return evaluationCount;
+		}
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2010 IBM Corporation and others.
+ *  Copyright (c) 2007, 2020 IBM Corporation and others.
  *
  *  This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License 2.0
@@ -63,6 +63,8 @@ public class Messages extends NLS {
 	public static String Planner_Unsatisfied_dependency;
 	public static String Planner_NoSolution;
 	public static String Planner_Unexpected_problem;
+	public static String Planner_solver_wins_unreadable;
+	public static String Planner_solver_wins_unwritable;
 	public static String Planner_actions_and_software_incompatible;
 	public static String Planner_can_not_install_preq;
 	public static String Planner_no_profile_registry;
@@ -54,6 +54,23 @@ public class Projector {
 	 * The default SAT solver timeout (in number of conflicts). See bug 372529 for discussion.
 	 */
 	private static final int DEFAULT_SOLVER_TIMEOUT = 10000;
+	/**
+	 * The number of conflicts added to the solver timeout for each installable unit of the
+	 * problem when the timeout is scaled, so that large problems are not given up on as
+	 * early as small ones.
+	 */
+	private static final int SOLVER_TIMEOUT_PER_IU = 2;
+	/**
+	 * The solver configurations known to the projector.
+	 */
+	public static final String SOLVER_ECLIPSE_P2 = "eclipseP2"; //$NON-NLS-1$
+	public static final String SOLVER_RESOLUTION_HT = "resolutionHT"; //$NON-NLS-1$
+	/**
+	 * The name of a Java system property specifying how long (in milliseconds) the search for
+	 * the cause of a failure may take before a partial explanation is returned. The search is
+	 * not bounded when the property is not set.
+	 */
+	private static final String PROP_EXPLANATION_TIMEOUT = "eclipse.p2.projector.explanationTimeout"; //$NON-NLS-1$
 	static boolean DEBUG = Tracing.DEBUG_PLANNER_PROJECTOR;
 	private static boolean DEBUG_ENCODING = Tracing.DEBUG_PLANNER_PROJECTOR_ENCODING;
 	private IQueryable<IInstallableUnit> picker;
@@ -65,6 +82,7 @@ public class Projector {
 	private Map<String, Map<Version, IInstallableUnit>> slice; //The IUs that have been considered to be part of the problem
 
 	private IInstallableUnit selectionContext;
+	private FilterEvaluator filterEvaluator;
 
 	DependencyHelper<Object, Explanation> dependencyHelper;
 	private Collection<IInstallableUnit> solution;
@@ -86,6 +104,29 @@ public class Projector {
 
 	private boolean emptyBecauseFiltered;
 	private boolean userDefinedFunction;
+	private String solverConfiguration = SOLVER_ECLIPSE_P2;
+	private boolean scaleTimeout;
+	private volatile boolean stopped;
+
+	//The applicable matches of the requirements, keyed by their match expression
+	private Map<IMatchExpression<IInstallableUnit>, ApplicableMatches> applicableMatches = new HashMap<>();
+	private int matchesCacheHits;
+	private int matchesCacheMisses;
+
+	//The requirements found missing while encoding, used when the explanation can not be completed in time
+	private Set<Explanation.MissingIU> missingRequirements = new LinkedHashSet<>();
+	private long explanationTime = -1;
+	private boolean explanationPartial;
+
+	private static final class ApplicableMatches {
+		final IInstallableUnit[] matches;
+		final boolean filtered;
+
+		ApplicableMatches(IInstallableUnit[] matches, boolean filtered) {
+			this.matches = matches;
+			this.filtered = filtered;
+		}
+	}
 
 	static class AbstractVariable {
 		//		private String name;
@@ -169,6 +210,7 @@ public class Projector {
 		picker = q;
 		slice = new HashMap<>();
 		selectionContext = InstallableUnit.contextIU(context);
+		filterEvaluator = new FilterEvaluator(selectionContext);
 		abstractVariables = new ArrayList<>();
 		allOptionalAbstractRequirements = new ArrayList<>();
 		result = new MultiStatus(DirectorActivator.PI_DIRECTOR, IStatus.OK, Messages.Planner_Problems_resolving_plan, null);
@@ -182,6 +224,10 @@ public class Projector {
 		alreadyInstalledIUs = Arrays.asList(alreadyExistingRoots);
 		lastState = installedIUs;
 		this.entryPoint = entryPointIU;
+		applicableMatches.clear();
+		matchesCacheHits = 0;
+		matchesCacheMisses = 0;
+		missingRequirements.clear();
 		try {
 			long start = 0;
 			if (DEBUG) {
@@ -198,9 +244,12 @@ public class Projector {
 					mysolver.setRestartStrategy(new LubyRestarts(512));
 					solver = mysolver;
 				} else {
-					solver = SolverFactory.newEclipseP2();
+					solver = createOptimizer(solverConfiguration);
 				}
 			}
+			IQueryResult<IInstallableUnit> queryResult = picker.query(QueryUtil.createIUAnyQuery(), null);
+			List<IInstallableUnit> iusToOrder = new ArrayList<>(queryResult.toSet());
+			iusToOrder.sort(null);
 			int timeout = DEFAULT_SOLVER_TIMEOUT;
 			String timeoutString = null;
 			try {
@@ -216,12 +265,16 @@ public class Projector {
 				System.err.println("Ignoring user-specified 'eclipse.p2.projector.timeout' value of: " + timeoutString); //$NON-NLS-1$
 				e.printStackTrace();
 			}
+			// give large problems more room than the default allows for
+			if (scaleTimeout)
+				timeout = Math.max(timeout, DEFAULT_SOLVER_TIMEOUT + SOLVER_TIMEOUT_PER_IU * iusToOrder.size());
+			if (DEBUG)
+				Tracing.debug("Solver " + solverConfiguration + " with a timeout of " + timeout + " conflicts"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 			if (userDefinedFunction)
 				solver.setTimeoutOnConflicts(timeout / 4);
 			else
 				solver.setTimeoutOnConflicts(timeout);
 
-			IQueryResult<IInstallableUnit> queryResult = picker.query(QueryUtil.createIUAnyQuery(), null);
 			if (DEBUG_ENCODING) {
 				dependencyHelper = new LexicoHelper<>(solver, false);
 				((UserFriendlyPBStringSolver<Object>) solver).setMapping(dependencyHelper.getMappingToDomain());
@@ -231,8 +284,6 @@ public class Projector {
 				else
 					dependencyHelper = new DependencyHelper<>(solver);
 			}
-			List<IInstallableUnit> iusToOrder = new ArrayList<>(queryResult.toSet());
-			iusToOrder.sort(null);
 			for (IInstallableUnit iu : iusToOrder) {
 				if (monitor.isCanceled()) {
 					result.merge(Status.CANCEL_STATUS);
@@ -252,6 +303,7 @@ public class Projector {
 			if (DEBUG) {
 				long stop = System.currentTimeMillis();
 				Tracing.debug("Projection complete: " + (stop - start)); //$NON-NLS-1$
+				Tracing.debug("Requirement matches reused: " + matchesCacheHits + ", queried: " + matchesCacheMisses); //$NON-NLS-1$ //$NON-NLS-2$
 			}
 			if (DEBUG_ENCODING) {
 				System.out.println(solver.toString());
@@ -327,18 +379,19 @@ public class Projector {
 		if (DEBUG) {
 			Tracing.debug(iu + "=0"); //$NON-NLS-1$
 		}
-		dependencyHelper.setFalse(iu, new Explanation.MissingIU(iu, req, iu == this.entryPoint));
+		Explanation.MissingIU explanation = new Explanation.MissingIU(iu, req, iu == this.entryPoint);
+		if (req != null)
+			missingRequirements.add(explanation);
+		dependencyHelper.setFalse(iu, explanation);
 	}
 
 	// Check whether the requirement is applicable
 	private boolean isApplicable(IRequirement req) {
-		IMatchExpression<IInstallableUnit> filter = req.getFilter();
-		return filter == null || filter.isMatch(selectionContext);
+		return filterEvaluator.isApplicable(req);
 	}
 
 	private boolean isApplicable(IInstallableUnit iu) {
-		IMatchExpression<IInstallableUnit> filter = iu.getFilter();
-		return filter == null || filter.isMatch(selectionContext);
+		return filterEvaluator.isApplicable(iu);
 	}
 
 	private void expandNegatedRequirement(IRequirement req, IInstallableUnit iu, List<AbstractVariable> optionalAbstractRequirements, boolean isRootIu) throws ContradictionException {
@@ -805,15 +858,26 @@ public class Projector {
 	 * @return a list of mandatory requirements if any, an empty list if req.isOptional().
 	 */
 	private List<IInstallableUnit> getApplicableMatches(IRequirement req) {
-		List<IInstallableUnit> target = new ArrayList<>();
-		IQueryResult<IInstallableUnit> matches = picker.query(QueryUtil.createMatchQuery(req.getMatches()), null);
-		for (IInstallableUnit match : matches) {
-			if (isApplicable(match)) {
-				target.add(match);
+		// requirements that differ only in their cardinality, greediness or filter share their matches
+		IMatchExpression<IInstallableUnit> matchExpression = req.getMatches();
+		ApplicableMatches cached = applicableMatches.get(matchExpression);
+		if (cached == null) {
+			List<IInstallableUnit> target = new ArrayList<>();
+			IQueryResult<IInstallableUnit> matches = picker.query(QueryUtil.createMatchQuery(matchExpression), null);
+			for (IInstallableUnit match : matches) {
+				if (isApplicable(match)) {
+					target.add(match);
+				}
 			}
+			cached = new ApplicableMatches(target.toArray(new IInstallableUnit[target.size()]), !matches.isEmpty() && target.isEmpty());
+			applicableMatches.put(matchExpression, cached);
+			matchesCacheMisses++;
+		} else {
+			matchesCacheHits++;
 		}
-		emptyBecauseFiltered = !matches.isEmpty() && target.isEmpty();
-		return target;
+		emptyBecauseFiltered = cached.filtered;
+		// the callers add patches to the list they get
+		return new ArrayList<>(Arrays.asList(cached.matches));
 	}
 
 	//Return a new array of requirements representing the application of the patch
@@ -964,7 +1028,7 @@ public class Projector {
 		if (DEBUG)
 			Tracing.debug("Invoking solver: " + start); //$NON-NLS-1$
 		try {
-			if (monitor.isCanceled())
+			if (stopped || monitor.isCanceled())
 				return Status.CANCEL_STATUS;
 			if (dependencyHelper.hasASolution(assumptions)) {
 				if (DEBUG) {
@@ -1024,11 +1088,16 @@ public class Projector {
 	}
 
 	public Set<Explanation> getExplanation(IProgressMonitor monitor) {
+		long start = System.currentTimeMillis();
+		long timeout = getExplanationTimeout();
+		explanationPartial = false;
 		ExplanationJob job = new ExplanationJob();
 		job.schedule();
 		monitor.setTaskName(Messages.Planner_NoSolution);
 		IProgressMonitor pm = new InfiniteProgress(monitor);
 		pm.beginTask(Messages.Planner_NoSolution, 1000);
+		Set<Explanation> explanation;
+		boolean timedOut = false;
 		try {
 			synchronized (job) {
 				while (job.getExplanationResult() == null && job.getState() != Job.NONE) {
@@ -1036,19 +1105,81 @@ public class Projector {
 						job.cancel();
 						throw new OperationCanceledException();
 					}
+					long wait = 100;
+					if (timeout > 0) {
+						wait = Math.min(wait, start + timeout - System.currentTimeMillis());
+						if (wait <= 0) {
+							if (DEBUG)
+								Tracing.debug("Explanation not found in " + timeout + "ms"); //$NON-NLS-1$ //$NON-NLS-2$
+							job.cancel();
+							timedOut = true;
+							break;
+						}
+					}
 					pm.worked(1);
 					try {
-						job.wait(100);
+						job.wait(wait);
 					} catch (InterruptedException e) {
 						if (DEBUG)
 							Tracing.debug("Interrupted while computing explanations"); //$NON-NLS-1$
 					}
 				}
 			}
+			explanation = job.getExplanationResult();
+			// the search may still have completed after the timeout expired
+			if (timedOut && (explanation == null || explanation.isEmpty())) {
+				explanation = getPartialExplanation();
+				explanationPartial = true;
+			}
 		} finally {
+			explanationTime = System.currentTimeMillis() - start;
 			monitor.done();
 		}
-		return job.getExplanationResult();
+		if (DEBUG)
+			Tracing.debug("Explanation time: " + explanationTime + "ms" + (explanationPartial ? " (partial)" : "")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+		return explanation;
+	}
+
+	/**
+	 * Returns the requirements found missing while encoding. When a requirement of the entry
+	 * point is missing, that alone explains the failure.
+	 */
+	private Set<Explanation> getPartialExplanation() {
+		Set<Explanation> partial = new LinkedHashSet<>();
+		for (Explanation.MissingIU missing : missingRequirements) {
+			if (missing.isEntryPoint)
+				partial.add(missing);
+		}
+		return partial.isEmpty() ? new LinkedHashSet<>(missingRequirements) : partial;
+	}
+
+	private static long getExplanationTimeout() {
+		String timeoutString = null;
+		try {
+			timeoutString = DirectorActivator.context.getProperty(PROP_EXPLANATION_TIMEOUT);
+			if (timeoutString != null)
+				return Long.parseLong(timeoutString);
+		} catch (Exception e) {
+			// intentionally catch all errors (npe, number format, etc)
+			System.err.println("Ignoring user-specified 'eclipse.p2.projector.explanationTimeout' value of: " + timeoutString); //$NON-NLS-1$
+		}
+		return 0;
+	}
+
+	/**
+	 * Returns the time in milliseconds the last call to {@link #getExplanation(IProgressMonitor)}
+	 * took, or <code>-1</code> when no explanation was computed.
+	 */
+	public long getExplanationTime() {
+		return explanationTime;
+	}
+
+	/**
+	 * Returns whether the last explanation only lists the missing requirements because the
+	 * search for the cause of the failure did not complete.
+	 */
+	public boolean isExplanationPartial() {
+		return explanationPartial;
 	}
 
 	public Map<IInstallableUnitFragment, List<IInstallableUnit>> getFragmentAssociation() {
@@ -1078,6 +1209,74 @@ public class Projector {
 		existingMatches.retainAll(matches);
 	}
 
+	/**
+	 * Sets the configuration of the solver the problem is encoded for. This has no effect
+	 * for user defined optimization functions.
+	 *
+	 * @param configuration one of the <code>SOLVER_*</code> constants
+	 */
+	public void setSolverConfiguration(String configuration) {
+		solverConfiguration = configuration;
+	}
+
+	public String getSolverConfiguration() {
+		return solverConfiguration;
+	}
+
+	/**
+	 * Sets whether the solver timeout grows with the number of installable units of the
+	 * problem. This is only done for the solver portfolio, which races its configurations
+	 * instead of relying on a single one to finish in time.
+	 */
+	public void setScaleTimeout(boolean scale) {
+		scaleTimeout = scale;
+	}
+
+	// the eclipse configuration already comes wrapped to optimize the objective function
+	static IPBSolver createOptimizer(String configuration) {
+		switch (configuration) {
+		case SOLVER_ECLIPSE_P2:
+			return SolverFactory.newEclipseP2();
+		case SOLVER_RESOLUTION_HT: {
+			IPBSolver solver = SolverFactory.newCompetPBResHTMixedConstraintsObjectiveExpSimp();
+			solver.setVerbose(false);
+			return new OptToPBSATAdapter(new PseudoOptDecorator(solver));
+		}
+		default:
+			throw new IllegalArgumentException(configuration);
+		}
+	}
+
+	/**
+	 * Returns whether the solution found by the last call to {@link #invokeSolver(IProgressMonitor)}
+	 * is known to be optimal, as opposed to the best one found before the solver timed out.
+	 */
+	public boolean isSolutionOptimal() {
+		IPBSolver solver = dependencyHelper.getSolver();
+		return !(solver instanceof OptToPBSATAdapter) || ((OptToPBSATAdapter) solver).isOptimal();
+	}
+
+	/**
+	 * Returns the value of the objective function for the solution found by the last call to
+	 * {@link #invokeSolver(IProgressMonitor)}, lower being better, or <code>null</code> if it
+	 * is not known.
+	 */
+	public Number getObjectiveValue() {
+		IPBSolver solver = dependencyHelper.getSolver();
+		return solver instanceof OptToPBSATAdapter ? ((OptToPBSATAdapter) solver).getCurrentObjectiveValue() : null;
+	}
+
+	/**
+	 * Asks a running solver to give up on the problem. A solver that has not been
+	 * invoked yet will not start.
+	 */
+	public void stopSolver() {
+		stopped = true;
+		DependencyHelper<Object, Explanation> helper = dependencyHelper;
+		if (helper != null)
+			helper.stopSolver();
+	}
+
 	public void setUserDefined(boolean containsKey) {
 		userDefinedFunction = containsKey;
 	}
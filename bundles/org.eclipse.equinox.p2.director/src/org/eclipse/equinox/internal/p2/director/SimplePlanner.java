@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2017 IBM Corporation and others.
+ * Copyright (c) 2007, 2020 IBM Corporation and others.
  *
  * This
  * program and the accompanying materials are made available under the terms of
@@ -25,16 +25,19 @@ import static org.eclipse.equinox.internal.provisional.p2.director.RequestStatus
 import java.lang.reflect.Method;
 import java.net.URI;
 import java.util.*;
+import java.util.function.BiFunction;
 import java.util.stream.Stream;
 import org.eclipse.core.runtime.*;
 import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
 import org.eclipse.equinox.internal.p2.core.helpers.Tracing;
 import org.eclipse.equinox.internal.p2.director.Explanation.MissingIU;
 import org.eclipse.equinox.internal.p2.director.Explanation.Singleton;
+import org.eclipse.equinox.internal.p2.director.UniverseCache.Universe;
 import org.eclipse.equinox.internal.p2.metadata.IRequiredCapability;
 import org.eclipse.equinox.internal.p2.metadata.query.UpdateQuery;
 import org.eclipse.equinox.internal.p2.rollback.FormerState;
 import org.eclipse.equinox.internal.provisional.p2.director.PlannerStatus;
+import org.eclipse.equinox.internal.provisional.p2.core.eventbus.IProvisioningEventBus;
 import org.eclipse.equinox.internal.provisional.p2.director.RequestStatus;
 import org.eclipse.equinox.p2.core.IAgentLocation;
 import org.eclipse.equinox.p2.core.IProvisioningAgent;
@@ -42,8 +45,10 @@ import org.eclipse.equinox.p2.engine.*;
 import org.eclipse.equinox.p2.engine.query.IUProfilePropertyQuery;
 import org.eclipse.equinox.p2.metadata.*;
 import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitDescription;
+import org.eclipse.equinox.p2.metadata.expression.ExpressionUtil;
 import org.eclipse.equinox.p2.planner.*;
 import org.eclipse.equinox.p2.query.*;
+import org.eclipse.equinox.p2.repository.metadata.IMetadataRepository;
 import org.eclipse.osgi.util.NLS;
 
 public class SimplePlanner implements IPlanner {
@@ -55,12 +60,15 @@ public class SimplePlanner implements IPlanner {
 	private static final String ID_IU_FOR_ACTIONS = "org.eclipse.equinox.p2.engine.actions.root"; //$NON-NLS-1$
 	private static final String EXPLANATION = "org.eclipse.equinox.p2.director.explain"; //$NON-NLS-1$
 	private static final String CONSIDER_METAREQUIREMENTS = "org.eclipse.equinox.p2.planner.resolveMetaRequirements"; //$NON-NLS-1$
+	private static final String CACHE_UNIVERSE = "org.eclipse.equinox.p2.director.cacheUniverse"; //$NON-NLS-1$
+	private static final String SOLVER_PORTFOLIO = "org.eclipse.equinox.p2.director.solverPortfolio"; //$NON-NLS-1$
 
 	static final int UNSATISFIABLE = 1; // status code indicating that the problem is not satisfiable
 
 	private final IProvisioningAgent agent;
 	private final IProfileRegistry profileRegistry;
 	private final IEngine engine;
+	private UniverseCache universeCache;
 
 	private IProvisioningPlan generateProvisioningPlan(Collection<IInstallableUnit> fromState,
 			Collection<IInstallableUnit> toState, ProfileChangeRequest changeRequest, IProvisioningPlan installerPlan,
@@ -336,6 +344,46 @@ public class SimplePlanner implements IPlanner {
 		return result;
 	}
 
+	private IQueryable<IInstallableUnit> getAvailableInstallableUnits(IInstallableUnit[] additionalSource,
+			ProvisioningContext context, IProgressMonitor monitor) {
+		if (context == null || !Boolean.parseBoolean(context.getProperty(CACHE_UNIVERSE)) || providesOwnMetadata(context))
+			return new QueryableArray(gatherAvailableInstallableUnits(additionalSource, context, monitor));
+		SubMonitor sub = SubMonitor.convert(monitor, 1000);
+		IQueryable<IMetadataRepository> repositories = context.getMetadataRepositories(sub.newChild(500));
+		Universe universe = getUniverseCache().getUniverse(repositories
+				.query(QueryUtil.createMatchQuery(IMetadataRepository.class, ExpressionUtil.TRUE_EXPRESSION), null)
+				.toUnmodifiableSet(), sub.newChild(500));
+		List<IInstallableUnit> additions = new ArrayList<>(Arrays.asList(additionalSource));
+		additions.addAll(context.getExtraInstallableUnits());
+		return universe.getQueryable(additions.toArray(new IInstallableUnit[additions.size()]));
+	}
+
+	/**
+	 * Returns whether the given context answers {@link ProvisioningContext#getMetadata(IProgressMonitor)}
+	 * with something else than the units of its repositories, which the universe cache knows nothing of.
+	 */
+	private static boolean providesOwnMetadata(ProvisioningContext context) {
+		try {
+			return context.getClass().getMethod("getMetadata", IProgressMonitor.class).getDeclaringClass() != ProvisioningContext.class; //$NON-NLS-1$
+		} catch (NoSuchMethodException e) {
+			return true;
+		}
+	}
+
+	/**
+	 * Returns the cache of the units available from the repositories, which listens
+	 * to the repository events once it was created.
+	 */
+	public synchronized UniverseCache getUniverseCache() {
+		if (universeCache == null) {
+			universeCache = new UniverseCache();
+			IProvisioningEventBus eventBus = agent.getService(IProvisioningEventBus.class);
+			if (eventBus != null)
+				eventBus.addListener(universeCache);
+		}
+		return universeCache;
+	}
+
 	private IInstallableUnit[] gatherAvailableInstallableUnits(IInstallableUnit[] additionalSource,
 			ProvisioningContext context, IProgressMonitor monitor) {
 		Map<String, IInstallableUnit> resultsMap = new HashMap<>();
@@ -368,7 +416,7 @@ public class SimplePlanner implements IPlanner {
 		return results.toArray(new IInstallableUnit[results.size()]);
 	}
 
-	private static boolean hasHigherFidelity(IInstallableUnit iu, IInstallableUnit currentIU) {
+	static boolean hasHigherFidelity(IInstallableUnit iu, IInstallableUnit currentIU) {
 		if (Boolean.parseBoolean(currentIU.getProperty(IInstallableUnit.PROP_PARTIAL_IU))
 				&& !Boolean.parseBoolean(iu.getProperty(IInstallableUnit.PROP_PARTIAL_IU)))
 			return true;
@@ -397,6 +445,34 @@ public class SimplePlanner implements IPlanner {
 		return satisfyMetaRequirements(p.getProperties());
 	}
 
+	/**
+	 * Returns the solver configurations to resolve with. The provisioning context can ask
+	 * for the whole portfolio with <code>true</code>, or name the configurations to race,
+	 * separated by commas. A single name picks the configuration without racing.
+	 *
+	 * @return the configurations, or <code>null</code> if the portfolio is not enabled
+	 */
+	private static List<String> getSolverPortfolio(ProvisioningContext context) {
+		String value = context == null ? null : context.getProperty(SOLVER_PORTFOLIO);
+		if (value == null || Boolean.FALSE.toString().equalsIgnoreCase(value))
+			return null;
+		List<String> configurations = new ArrayList<>();
+		if (Boolean.TRUE.toString().equalsIgnoreCase(value)) {
+			configurations.addAll(SolverPortfolio.DEFAULT_CONFIGURATIONS);
+		} else {
+			for (String configuration : value.split(",")) { //$NON-NLS-1$
+				configuration = configuration.trim();
+				if (SolverPortfolio.DEFAULT_CONFIGURATIONS.contains(configuration) && !configurations.contains(configuration))
+					configurations.add(configuration);
+			}
+		}
+		// racing more configurations than there are processors only slows all of them down
+		int processors = Runtime.getRuntime().availableProcessors();
+		if (configurations.size() > processors)
+			configurations = configurations.subList(0, processors);
+		return configurations;
+	}
+
 	/**
 	 * Performs a provisioning request resolution
 	 *
@@ -431,9 +507,9 @@ public class SimplePlanner implements IPlanner {
 				}
 			}
 
-			IInstallableUnit[] availableIUs = gatherAvailableInstallableUnits(
+			IQueryable<IInstallableUnit> availableIUs = getAvailableInstallableUnits(
 					extraIUs.stream().toArray(IInstallableUnit[]::new), context, sub.newChild(ExpandWork / 4));
-			Slicer slicer = new Slicer(new QueryableArray(availableIUs), newSelectionContext,
+			Slicer slicer = new Slicer(availableIUs, newSelectionContext,
 					satisfyMetaRequirements(profileChangeRequest.getProfileProperties()));
 			IQueryable<IInstallableUnit> slice = slicer
 					.slice(new IInstallableUnit[] { (IInstallableUnit) updatedPlan[0] }, sub.newChild(ExpandWork / 4));
@@ -448,13 +524,35 @@ public class SimplePlanner implements IPlanner {
 					new QueryableArray(profileChangeRequest.getAdditions().stream().toArray(IInstallableUnit[]::new)) };
 			slice = new CompoundQueryable<>(queryables);
 
-			Projector projector = new Projector(slice, newSelectionContext, slicer.getNonGreedyIUs(),
-					satisfyMetaRequirements(profileChangeRequest.getProfileProperties()));
-			projector.setUserDefined(profileChangeRequest.getPropertiesToAdd().containsKey("_internal_user_defined_")); //$NON-NLS-1$
-			projector.encode((IInstallableUnit) updatedPlan[0], (IInstallableUnit[]) updatedPlan[1], profile,
-					profileChangeRequest.getAdditions(), sub.newChild(ExpandWork / 4));
-
-			IStatus s = projector.invokeSolver(sub.newChild(ExpandWork / 4));
+			IQueryable<IInstallableUnit> problem = slice;
+			boolean userDefined = profileChangeRequest.getPropertiesToAdd().containsKey("_internal_user_defined_"); //$NON-NLS-1$
+			List<String> configurations = getSolverPortfolio(context);
+			BiFunction<String, IProgressMonitor, Projector> encoder = (configuration, pm) -> {
+				Projector p = new Projector(problem, newSelectionContext, slicer.getNonGreedyIUs(),
+						satisfyMetaRequirements(profileChangeRequest.getProfileProperties()));
+				p.setUserDefined(userDefined);
+				p.setSolverConfiguration(configuration);
+				p.setScaleTimeout(configurations != null);
+				p.encode((IInstallableUnit) updatedPlan[0], (IInstallableUnit[]) updatedPlan[1], profile,
+						profileChangeRequest.getAdditions(), pm);
+				return p;
+			};
+			Projector projector;
+			IStatus s;
+			if (configurations != null && configurations.size() > 1 && !userDefined) {
+				SolverPortfolio portfolio = new SolverPortfolio(configurations, SolverPortfolio.getWinsFile(agent));
+				s = portfolio.solve(encoder, sub.newChild(ExpandWork / 2));
+				projector = portfolio.getProjector();
+				if (projector == null) {
+					IProvisioningPlan plan = engine.createPlan(profile, context);
+					plan.setStatus(s);
+					return plan;
+				}
+			} else {
+				projector = encoder.apply(configurations == null || configurations.isEmpty() ? Projector.SOLVER_ECLIPSE_P2 : configurations.get(0),
+						sub.newChild(ExpandWork / 4));
+				s = projector.invokeSolver(sub.newChild(ExpandWork / 4));
+			}
 			switch (s.getSeverity()) {
 			case CANCEL: {
 				IProvisioningPlan plan = engine.createPlan(profile, context);
@@ -480,7 +578,8 @@ public class SimplePlanner implements IPlanner {
 				Map<IInstallableUnit, RequestStatus> requestChanges = (changes == null) ? null : changes[0];
 				Map<IInstallableUnit, RequestStatus> requestSideEffects = (changes == null) ? null : changes[1];
 				PlannerStatus plannerStatus = new PlannerStatus(explanationStatus,
-						new RequestStatus(null, REMOVED, ERROR, explanation), requestChanges, requestSideEffects, null);
+						new RequestStatus(null, REMOVED, ERROR, explanation), requestChanges, requestSideEffects, null,
+						projector.getExplanationTime(), projector.isExplanationPartial());
 
 				IProvisioningPlan plan = engine.createPlan(profile, context);
 				plan.setStatus(plannerStatus);
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2017 IBM Corporation and others.
+ *  Copyright (c) 2007, 2020 IBM Corporation and others.
  *
  *  This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License 2.0
@@ -15,13 +15,14 @@
 package org.eclipse.equinox.internal.p2.director;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import org.eclipse.core.runtime.*;
 import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
 import org.eclipse.equinox.internal.p2.core.helpers.Tracing;
 import org.eclipse.equinox.internal.p2.metadata.InstallableUnit;
 import org.eclipse.equinox.internal.p2.metadata.InstallableUnitPatch;
 import org.eclipse.equinox.p2.metadata.*;
-import org.eclipse.equinox.p2.metadata.expression.IMatchExpression;
 import org.eclipse.equinox.p2.query.*;
 import org.eclipse.osgi.util.NLS;
 
@@ -30,11 +31,13 @@ public class Slicer {
 	private final IQueryable<IInstallableUnit> possibilites;
 	private final boolean considerMetaRequirements;
 	protected final IInstallableUnit selectionContext;
+	private final FilterEvaluator filterEvaluator;
 	private final Map<String, Map<Version, IInstallableUnit>> slice; //The IUs that have been considered to be part of the problem
 	private final MultiStatus result;
 
-	private LinkedList<IInstallableUnit> toProcess;
+	private Queue<IInstallableUnit> toProcess;
 	private Set<IInstallableUnit> considered; //IUs to add to the slice
+	private boolean parallel;
 	private Set<IInstallableUnit> nonGreedyIUs = new HashSet<>(); //IUs that are brought in by non greedy dependencies
 
 	public Slicer(IQueryable<IInstallableUnit> input, Map<String, String> context, boolean considerMetaRequirements) {
@@ -44,11 +47,22 @@ public class Slicer {
 	public Slicer(IQueryable<IInstallableUnit> possibilites, IInstallableUnit selectionContext, boolean considerMetaRequirements) {
 		this.possibilites = possibilites;
 		this.selectionContext = selectionContext;
+		this.filterEvaluator = new FilterEvaluator(selectionContext);
 		this.considerMetaRequirements = considerMetaRequirements;
-		slice = new HashMap<>();
+		slice = new ConcurrentHashMap<>();
 		result = new MultiStatus(DirectorActivator.PI_DIRECTOR, IStatus.OK, Messages.Planner_Problems_resolving_plan, null);
 	}
 
+	/**
+	 * Sets whether the requirements of the units are expanded on several threads. The
+	 * resulting slice is the same, but the queryable given to this slicer must support
+	 * concurrent queries, and {@link #processIU(IInstallableUnit)} and the other methods
+	 * subclasses override are called concurrently.
+	 */
+	public void setParallel(boolean parallel) {
+		this.parallel = parallel;
+	}
+
 	public IQueryable<IInstallableUnit> slice(IInstallableUnit[] ius, IProgressMonitor monitor) {
 		try {
 			long start = 0;
@@ -58,14 +72,18 @@ public class Slicer {
 			}
 
 			validateInput(ius);
-			considered = new HashSet<>(Arrays.asList(ius));
-			toProcess = new LinkedList<>(considered);
-			while (!toProcess.isEmpty()) {
-				if (monitor.isCanceled()) {
-					result.merge(Status.CANCEL_STATUS);
-					throw new OperationCanceledException();
+			if (parallel) {
+				sliceInParallel(ius, monitor);
+			} else {
+				considered = new HashSet<>(Arrays.asList(ius));
+				toProcess = new LinkedList<>(considered);
+				while (!toProcess.isEmpty()) {
+					if (monitor.isCanceled()) {
+						result.merge(Status.CANCEL_STATUS);
+						throw new OperationCanceledException();
+					}
+					processIU(toProcess.remove());
 				}
-				processIU(toProcess.removeFirst());
 			}
 			computeNonGreedyIUs();
 			if (DEBUG) {
@@ -82,6 +100,30 @@ public class Slicer {
 		return new QueryableArray(considered.toArray(new IInstallableUnit[considered.size()]));
 	}
 
+	/**
+	 * Expands the units level by level. The units of a level are processed on the common
+	 * fork/join pool and the units they newly bring in form the next level.
+	 */
+	private void sliceInParallel(IInstallableUnit[] ius, IProgressMonitor monitor) {
+		considered = ConcurrentHashMap.newKeySet();
+		considered.addAll(Arrays.asList(ius));
+		List<IInstallableUnit> level = new ArrayList<>(considered);
+		try {
+			while (!level.isEmpty()) {
+				toProcess = new ConcurrentLinkedQueue<>();
+				level.parallelStream().forEach(iu -> {
+					if (monitor.isCanceled())
+						throw new OperationCanceledException();
+					processIU(iu);
+				});
+				level = new ArrayList<>(toProcess);
+			}
+		} catch (OperationCanceledException e) {
+			result.merge(Status.CANCEL_STATUS);
+			throw e;
+		}
+	}
+
 	private void computeNonGreedyIUs() {
 		IQueryable<IInstallableUnit> queryable = new QueryableArray(considered.toArray(new IInstallableUnit[considered.size()]));
 		Iterator<IInstallableUnit> it = queryable.query(QueryUtil.ALL_UNITS, new NullProgressMonitor()).iterator();
@@ -113,25 +155,17 @@ public class Slicer {
 
 	// Check whether the requirement is applicable
 	protected boolean isApplicable(IRequirement req) {
-		IMatchExpression<IInstallableUnit> filter = req.getFilter();
-		return filter == null || filter.isMatch(selectionContext);
+		return filterEvaluator.isApplicable(req);
 	}
 
 	protected boolean isApplicable(IInstallableUnit iu) {
-		IMatchExpression<IInstallableUnit> filter = iu.getFilter();
-		return filter == null || filter.isMatch(selectionContext);
+		return filterEvaluator.isApplicable(iu);
 	}
 
 	protected void processIU(IInstallableUnit iu) {
 		iu = iu.unresolved();
 
-		Map<Version, IInstallableUnit> iuSlice = slice.get(iu.getId());
-		if (iuSlice == null) {
-
-			iuSlice = new HashMap<>();
-			slice.put(iu.getId(), iuSlice);
-		}
-		iuSlice.put(iu.getVersion(), iu);
+		slice.computeIfAbsent(iu.getId(), id -> new ConcurrentHashMap<>()).put(iu.getVersion(), iu);
 		if (!isApplicable(iu)) {
 			return;
 		}
@@ -196,18 +230,27 @@ public class Slicer {
 		}
 
 		if (validMatches == 0) {
-			if (req.getMin() == 0) {
-				if (DEBUG)
-					System.out.println("No IU found to satisfy optional dependency of " + iu + " on req " + req); //$NON-NLS-1$//$NON-NLS-2$
-			} else {
-				result.add(new Status(IStatus.WARNING, DirectorActivator.PI_DIRECTOR, NLS.bind(Messages.Planner_Unsatisfied_dependency, iu, req)));
+			IStatus problem = unsatisfied(iu, req);
+			if (problem != null) {
+				synchronized (result) {
+					result.add(problem);
+				}
 			}
 		}
 	}
 
+	private IStatus unsatisfied(IInstallableUnit iu, IRequirement req) {
+		if (req.getMin() == 0) {
+			if (DEBUG)
+				System.out.println("No IU found to satisfy optional dependency of " + iu + " on req " + req); //$NON-NLS-1$//$NON-NLS-2$
+			return null;
+		}
+		return new Status(IStatus.WARNING, DirectorActivator.PI_DIRECTOR, NLS.bind(Messages.Planner_Unsatisfied_dependency, iu, req));
+	}
+
 	private void consider(IInstallableUnit match) {
 		if (considered.add(match))
-			toProcess.addLast(match);
+			toProcess.add(match);
 	}
 
 	Set<IInstallableUnit> getNonGreedyIUs() {
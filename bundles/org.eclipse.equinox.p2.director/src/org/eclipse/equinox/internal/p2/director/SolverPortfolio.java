@@ -0,0 +1,269 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.director;
+
+import java.io.*;
+import java.math.BigInteger;
+import java.net.URI;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import org.eclipse.core.runtime.*;
+import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
+import org.eclipse.equinox.internal.p2.core.helpers.Tracing;
+import org.eclipse.equinox.p2.core.IAgentLocation;
+import org.eclipse.equinox.p2.core.IProvisioningAgent;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * Solves one problem with several solver configurations in parallel and keeps the
+ * projector of the first configuration that gives a definite answer.
+ * <p>
+ * Each configuration encodes the problem into its own solver, so a portfolio of
+ * <code>n</code> configurations needs <code>n</code> times the memory of a single one.
+ * The number of wins of each configuration is counted in the data area of the agent,
+ * so the default configuration can be tuned from real requests.
+ */
+public class SolverPortfolio {
+	/**
+	 * The configurations used when none are given.
+	 */
+	public static final List<String> DEFAULT_CONFIGURATIONS = Collections.unmodifiableList(Arrays.asList(Projector.SOLVER_ECLIPSE_P2, Projector.SOLVER_RESOLUTION_HT));
+
+	/**
+	 * The name of the file in the data area of the agent that counts the wins of each configuration.
+	 */
+	public static final String WINS_FILE = "solverPortfolio.properties"; //$NON-NLS-1$
+
+	private static final Map<String, AtomicInteger> wins = new ConcurrentHashMap<>();
+
+	private final List<String> configurations;
+	private final File winsFile;
+	private final List<Projector> projectors = new ArrayList<>();
+	private volatile boolean done;
+	private Projector winner;
+
+	private class Attempt implements Callable<IStatus> {
+		final String configuration;
+		final BiFunction<String, IProgressMonitor, Projector> encoder;
+		Projector projector;
+
+		Attempt(String configuration, BiFunction<String, IProgressMonitor, Projector> encoder) {
+			this.configuration = configuration;
+			this.encoder = encoder;
+		}
+
+		@Override
+		public IStatus call() {
+			// the losers are stopped through their monitor while they are still encoding
+			IProgressMonitor monitor = new NullProgressMonitor() {
+				@Override
+				public boolean isCanceled() {
+					return done || super.isCanceled();
+				}
+			};
+			try {
+				projector = encoder.apply(configuration, monitor);
+				synchronized (projectors) {
+					if (done)
+						return Status.CANCEL_STATUS;
+					projectors.add(projector);
+				}
+				// stopSolver keeps a projector that is added but not yet solving from starting
+				return projector.invokeSolver(monitor);
+			} catch (OperationCanceledException e) {
+				return Status.CANCEL_STATUS;
+			}
+		}
+	}
+
+	/**
+	 * Creates a portfolio of the given configurations.
+	 *
+	 * @param configurations the configurations to race
+	 * @param winsFile the file counting the wins of each configuration, or <code>null</code>
+	 * to count them for the life of the bundle only
+	 */
+	public SolverPortfolio(List<String> configurations, File winsFile) {
+		this.configurations = configurations;
+		this.winsFile = winsFile;
+	}
+
+	/**
+	 * Returns the file counting the wins of each configuration in the data area of the
+	 * given agent, or <code>null</code> if the agent has no local data area.
+	 */
+	public static File getWinsFile(IProvisioningAgent agent) {
+		IAgentLocation location = agent.getService(IAgentLocation.class);
+		if (location == null)
+			return null;
+		URI dataArea = location.getDataArea(DirectorActivator.PI_DIRECTOR);
+		if (dataArea == null || !URIUtil.isFileURI(dataArea))
+			return null;
+		return new File(URIUtil.toFile(dataArea), WINS_FILE);
+	}
+
+	/**
+	 * Encodes and solves the problem once per configuration and returns the status of the
+	 * first definite answer, that is an optimal solution or a proof that there is none. When
+	 * every configuration times out, the best solution found wins.
+	 *
+	 * @param encoder creates the projector for a configuration and encodes the problem
+	 * with it, honoring the given monitor
+	 * @param monitor the progress monitor of the whole race
+	 * @return the status of the winning projector
+	 */
+	public IStatus solve(BiFunction<String, IProgressMonitor, Projector> encoder, IProgressMonitor monitor) {
+		long start = System.currentTimeMillis();
+		SubMonitor sub = SubMonitor.convert(monitor, 1000);
+		ExecutorService executor = Executors.newFixedThreadPool(configurations.size(), r -> {
+			Thread thread = new Thread(r, "p2 solver portfolio"); //$NON-NLS-1$
+			thread.setDaemon(true);
+			return thread;
+		});
+		CompletionService<IStatus> completion = new ExecutorCompletionService<>(executor);
+		Map<Future<IStatus>, Attempt> attempts = new HashMap<>();
+		try {
+			for (String configuration : configurations) {
+				Attempt attempt = new Attempt(configuration, encoder);
+				attempts.put(completion.submit(attempt), attempt);
+			}
+			Attempt best = null;
+			IStatus bestStatus = null;
+			for (int remaining = attempts.size(); remaining > 0;) {
+				if (sub.isCanceled())
+					return Status.CANCEL_STATUS;
+				Future<IStatus> future = completion.poll(100, TimeUnit.MILLISECONDS);
+				sub.setWorkRemaining(1000).worked(1);
+				if (future == null)
+					continue;
+				remaining--;
+				Attempt attempt = attempts.get(future);
+				IStatus status = getStatus(future);
+				if (attempt.projector == null || status.getSeverity() == IStatus.CANCEL)
+					continue;
+				if (status.getSeverity() == IStatus.ERROR) {
+					if (status.getCode() == SimplePlanner.UNSATISFIABLE)
+						return win(attempt, status, start);
+				} else if (attempt.projector.isSolutionOptimal()) {
+					return win(attempt, status, start);
+				}
+				if (best == null || isBetter(attempt, status, best, bestStatus)) {
+					best = attempt;
+					bestStatus = status;
+				}
+			}
+			if (best == null)
+				return Status.CANCEL_STATUS;
+			return win(best, bestStatus, start);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return Status.CANCEL_STATUS;
+		} finally {
+			done = true;
+			synchronized (projectors) {
+				for (Projector projector : projectors) {
+					if (projector != winner)
+						projector.stopSolver();
+				}
+			}
+			executor.shutdownNow();
+			sub.done();
+		}
+	}
+
+	private IStatus win(Attempt attempt, IStatus status, long start) {
+		winner = attempt.projector;
+		wins.computeIfAbsent(attempt.configuration, c -> new AtomicInteger()).incrementAndGet();
+		if (winsFile != null)
+			saveWin(winsFile, attempt.configuration);
+		if (Tracing.DEBUG_PLANNER_PROJECTOR)
+			Tracing.debug("Solver portfolio won by " + attempt.configuration + " in " + (System.currentTimeMillis() - start) + "ms, wins so far: " + getWins()); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		return status;
+	}
+
+	// the planners of one process share the file, so they take turns updating it, and the file lock keeps other processes out meanwhile
+	private static synchronized void saveWin(File file, String configuration) {
+		file.getParentFile().mkdirs();
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			// released when the channel is closed
+			channel.lock();
+			Properties properties = new Properties();
+			try {
+				properties.load(new BufferedInputStream(Channels.newInputStream(channel)));
+			} catch (IOException | IllegalArgumentException e) {
+				LogHelper.log(new Status(IStatus.WARNING, DirectorActivator.PI_DIRECTOR, NLS.bind(Messages.Planner_solver_wins_unreadable, file), e));
+				properties.clear();
+			}
+			int count = 0;
+			try {
+				count = Integer.parseInt(properties.getProperty(configuration, "0")); //$NON-NLS-1$
+			} catch (NumberFormatException e) {
+				// start counting again
+			}
+			properties.setProperty(configuration, Integer.toString(count + 1));
+			channel.truncate(0);
+			channel.position(0);
+			OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel));
+			properties.store(out, null);
+			out.flush();
+		} catch (IOException e) {
+			LogHelper.log(new Status(IStatus.WARNING, DirectorActivator.PI_DIRECTOR, NLS.bind(Messages.Planner_solver_wins_unwritable, file), e));
+		}
+	}
+
+	private static IStatus getStatus(Future<IStatus> future) {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			return new Status(IStatus.ERROR, DirectorActivator.PI_DIRECTOR, Messages.Planner_Unexpected_problem, e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return Status.CANCEL_STATUS;
+		}
+	}
+
+	// a solution beats a failure, and a solution with a lower objective value beats a higher one
+	private static boolean isBetter(Attempt attempt, IStatus status, Attempt best, IStatus bestStatus) {
+		if (status.getSeverity() == IStatus.ERROR)
+			return false;
+		if (bestStatus.getSeverity() == IStatus.ERROR)
+			return true;
+		Number value = attempt.projector.getObjectiveValue();
+		Number bestValue = best.projector.getObjectiveValue();
+		return value != null && bestValue != null && new BigInteger(value.toString()).compareTo(new BigInteger(bestValue.toString())) < 0;
+	}
+
+	/**
+	 * Returns the projector of the configuration that won the last race, or
+	 * <code>null</code> if no configuration completed.
+	 */
+	public Projector getProjector() {
+		return winner;
+	}
+
+	/**
+	 * Returns how many races each configuration has won in this process. The wins that
+	 * are saved in the file of an agent also count those of earlier and other processes.
+	 */
+	public static Map<String, Integer> getWins() {
+		Map<String, Integer> result = new TreeMap<>();
+		wins.forEach((configuration, count) -> result.put(configuration, count.get()));
+		return result;
+	}
+}
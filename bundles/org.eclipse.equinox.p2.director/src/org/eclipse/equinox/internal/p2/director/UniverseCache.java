@@ -0,0 +1,377 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.director;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.SubMonitor;
+import org.eclipse.equinox.internal.p2.core.helpers.Tracing;
+import org.eclipse.equinox.internal.p2.metadata.IUMap;
+import org.eclipse.equinox.internal.p2.metadata.InstallableUnit;
+import org.eclipse.equinox.internal.p2.metadata.TranslationSupport;
+import org.eclipse.equinox.internal.p2.metadata.expression.CompoundIterator;
+import org.eclipse.equinox.internal.p2.metadata.expression.MatchIteratorFilter;
+import org.eclipse.equinox.internal.p2.metadata.index.CompoundIndex;
+import org.eclipse.equinox.internal.p2.metadata.index.IndexProvider;
+import org.eclipse.equinox.internal.provisional.p2.core.eventbus.SynchronousProvisioningListener;
+import org.eclipse.equinox.internal.provisional.p2.repository.RepositoryEvent;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.metadata.KeyWithLocale;
+import org.eclipse.equinox.p2.metadata.expression.IEvaluationContext;
+import org.eclipse.equinox.p2.metadata.expression.IExpression;
+import org.eclipse.equinox.p2.metadata.expression.IMatchExpression;
+import org.eclipse.equinox.p2.metadata.index.IIndex;
+import org.eclipse.equinox.p2.query.*;
+import org.eclipse.equinox.p2.repository.IRepository;
+import org.eclipse.equinox.p2.repository.metadata.IMetadataRepository;
+
+/**
+ * Keeps the installable units of the metadata repositories consulted by a planner
+ * between provisioning plans, together with the indexes of the {@link QueryableArray}
+ * that holds them.
+ * <p>
+ * A universe is keyed by the instances of its repositories and their timestamps. It is
+ * dropped when a {@link RepositoryEvent} reports that one of its repositories was added,
+ * changed, removed or enabled or disabled. A repository that is modified in place
+ * without a new timestamp or an event is not noticed, so the planner only uses this
+ * cache when the provisioning context asks for it.
+ * <p>
+ * Only the units and the requirement lookups are kept between plans. The slice, its
+ * SAT encoding and the solver are built again for each plan: the entry point and the
+ * objective function depend on the roots of the request, and the dependency helper
+ * cannot take back the constraints of an earlier plan.
+ */
+public class UniverseCache implements SynchronousProvisioningListener {
+	private static final boolean DEBUG = Tracing.DEBUG_PLANNER_OPERANDS;
+	private static final int MAX_UNIVERSES = 4;
+
+	private final Map<Key, Universe> universes = new LinkedHashMap<Key, Universe>(MAX_UNIVERSES, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, Universe> eldest) {
+			return size() > MAX_UNIVERSES;
+		}
+	};
+
+	private long hitCount;
+	private long missCount;
+
+	/**
+	 * Identifies a set of repository instances in the state given by their timestamps.
+	 */
+	private static final class Key {
+		final IdentityHashMap<IMetadataRepository, String> timestamps = new IdentityHashMap<>();
+		private final int hashCode;
+
+		Key(Collection<IMetadataRepository> repositories) {
+			int hash = 0;
+			for (IMetadataRepository repository : repositories) {
+				String timestamp = repository.getProperty(IRepository.PROP_TIMESTAMP);
+				timestamps.put(repository, timestamp);
+				hash += System.identityHashCode(repository) ^ Objects.hashCode(timestamp);
+			}
+			hashCode = hash;
+		}
+
+		boolean contains(Object location) {
+			for (IMetadataRepository repository : timestamps.keySet())
+				if (location.equals(repository.getLocation()))
+					return true;
+			return false;
+		}
+
+		@Override
+		public int hashCode() {
+			return hashCode;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof Key))
+				return false;
+			Key other = (Key) obj;
+			if (hashCode != other.hashCode || timestamps.size() != other.timestamps.size())
+				return false;
+			for (Map.Entry<IMetadataRepository, String> entry : timestamps.entrySet()) {
+				if (!other.timestamps.containsKey(entry.getKey()) || !Objects.equals(entry.getValue(), other.timestamps.get(entry.getKey())))
+					return false;
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * The installable units of a set of repositories. A unit contained in several
+	 * repositories is kept once, preferring a unit that is not partial.
+	 * <p>
+	 * The units of a universe never change, so it also remembers the units that match the
+	 * requirements the planner looked up. A later plan against the same universe reuses
+	 * these lookups and only queries the requirements it has not seen before. The lookups
+	 * used least recently are forgotten once more than {@link #MAX_MATCHES} are kept.
+	 */
+	public static final class Universe {
+		private final IUMap units = new IUMap();
+		private final QueryableArray queryable;
+		private final ExtendedUniverse unchanged;
+		private static final int MAX_MATCHES = 20000;
+
+		private final Map<IMatchExpression<IInstallableUnit>, IInstallableUnit[]> matches = new LinkedHashMap<IMatchExpression<IInstallableUnit>, IInstallableUnit[]>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<IMatchExpression<IInstallableUnit>, IInstallableUnit[]> eldest) {
+				return size() > MAX_MATCHES;
+			}
+		};
+		private final AtomicLong matchHitCount = new AtomicLong();
+
+		Universe(Collection<IMetadataRepository> repositories, IProgressMonitor monitor) {
+			SubMonitor sub = SubMonitor.convert(monitor, repositories.size());
+			int count = 0;
+			for (IMetadataRepository repository : repositories) {
+				for (IInstallableUnit iu : repository.query(QueryUtil.createIUAnyQuery(), sub.newChild(1))) {
+					IInstallableUnit current = units.get(iu.getId(), iu.getVersion());
+					if (current == null) {
+						units.add(iu);
+						count++;
+					} else if (SimplePlanner.hasHigherFidelity(iu, current)) {
+						units.remove(current);
+						units.add(iu);
+					}
+				}
+			}
+			IInstallableUnit[] array = new IInstallableUnit[count];
+			Iterator<IInstallableUnit> itor = units.iterator();
+			for (int i = 0; i < count; i++)
+				array[i] = itor.next();
+			queryable = new QueryableArray(array);
+			unchanged = new ExtendedUniverse(this, Collections.emptySet(), null);
+		}
+
+		/**
+		 * Returns a queryable over the units of this universe and the given additional
+		 * units. An additional unit replaces the unit of this universe with the same id
+		 * and version, unless only the additional unit is partial.
+		 */
+		public IQueryable<IInstallableUnit> getQueryable(IInstallableUnit[] additions) {
+			if (additions.length == 0)
+				return unchanged;
+			IUMap added = new IUMap();
+			Set<IInstallableUnit> hidden = Collections.newSetFromMap(new IdentityHashMap<>());
+			// a later addition replaces an earlier one
+			for (int i = additions.length; --i >= 0;) {
+				IInstallableUnit addition = additions[i];
+				if (added.get(addition.getId(), addition.getVersion()) != null)
+					continue;
+				IInstallableUnit current = units.get(addition.getId(), addition.getVersion());
+				if (current == null) {
+					added.add(addition);
+				} else if (!SimplePlanner.hasHigherFidelity(current, addition)) {
+					added.add(addition);
+					hidden.add(current);
+				}
+			}
+			if (hidden.isEmpty() && !added.iterator().hasNext())
+				return unchanged;
+			List<IInstallableUnit> addedUnits = new ArrayList<>();
+			added.iterator().forEachRemaining(addedUnits::add);
+			return new ExtendedUniverse(this, hidden, new QueryableArray(addedUnits.toArray(new IInstallableUnit[addedUnits.size()])));
+		}
+
+		/**
+		 * Returns the units of this universe that match the given query.
+		 */
+		IInstallableUnit[] getMatches(ExpressionMatchQuery<IInstallableUnit> query) {
+			IMatchExpression<IInstallableUnit> expression = query.getExpression();
+			IInstallableUnit[] result;
+			synchronized (matches) {
+				result = matches.get(expression);
+			}
+			if (result != null) {
+				matchHitCount.incrementAndGet();
+				return result;
+			}
+			// the query runs outside of the lock, so that concurrent lookups do not wait for each other
+			result = queryable.query(query, null).toArray(IInstallableUnit.class);
+			synchronized (matches) {
+				matches.put(expression, result);
+			}
+			return result;
+		}
+
+		/**
+		 * Returns the number of lookups that were answered from the remembered matches.
+		 */
+		public long getMatchHitCount() {
+			return matchHitCount.get();
+		}
+	}
+
+	/**
+	 * The units of a universe without the hidden ones, and some added units.
+	 */
+	private static final class ExtendedUniverse extends IndexProvider<IInstallableUnit> {
+		private static final IMatchExpression<IInstallableUnit> ALL_UNITS = ((ExpressionMatchQuery<IInstallableUnit>) QueryUtil.createIUAnyQuery()).getExpression();
+
+		private final Universe universe;
+		private final Set<IInstallableUnit> hidden;
+		private final QueryableArray added;
+		private TranslationSupport translationSupport;
+
+		ExtendedUniverse(Universe universe, Set<IInstallableUnit> hidden, QueryableArray added) {
+			this.universe = universe;
+			this.hidden = hidden;
+			this.added = added;
+		}
+
+		Iterator<IInstallableUnit> filter(Iterator<IInstallableUnit> iterator) {
+			if (hidden.isEmpty())
+				return iterator;
+			return new MatchIteratorFilter<IInstallableUnit>(iterator) {
+				@Override
+				protected boolean isMatch(IInstallableUnit val) {
+					return !hidden.contains(val);
+				}
+			};
+		}
+
+		@Override
+		public IQueryResult<IInstallableUnit> query(IQuery<IInstallableUnit> query, IProgressMonitor monitor) {
+			// the matches of a requirement only depend on the units, so the lookups of the universe are kept
+			if (!isRequirementLookup(query))
+				return super.query(query, monitor);
+			// keep the order of the units, which the solutions depend on
+			Set<IInstallableUnit> result = new LinkedHashSet<>();
+			for (IInstallableUnit match : universe.getMatches((ExpressionMatchQuery<IInstallableUnit>) query))
+				if (!hidden.contains(match))
+					result.add(match);
+			if (added != null)
+				for (IInstallableUnit match : added.query(query, monitor))
+					result.add(match);
+			return result.isEmpty() ? Collector.emptyCollector() : new CollectionResult<>(result);
+		}
+
+		/**
+		 * Returns whether the query matches units by an expression that is worth remembering.
+		 * A query for all units is answered by iterating over them instead.
+		 */
+		private static boolean isRequirementLookup(IQuery<IInstallableUnit> query) {
+			if (!(query instanceof ExpressionMatchQuery<?>) || ((ExpressionMatchQuery<IInstallableUnit>) query).getMatchingClass() != IInstallableUnit.class)
+				return false;
+			return !ALL_UNITS.equals(((ExpressionMatchQuery<IInstallableUnit>) query).getExpression());
+		}
+
+		@Override
+		public IIndex<IInstallableUnit> getIndex(String memberName) {
+			IIndex<IInstallableUnit> universeIndex = universe.queryable.getIndex(memberName);
+			if (added == null || universeIndex == null)
+				return universeIndex;
+			IIndex<IInstallableUnit> addedIndex = added.getIndex(memberName);
+			if (addedIndex == null)
+				return null;
+			IIndex<IInstallableUnit> filteredIndex = new IIndex<IInstallableUnit>() {
+				@Override
+				public Iterator<IInstallableUnit> getCandidates(IEvaluationContext ctx, IExpression variable, IExpression booleanExpr) {
+					Iterator<IInstallableUnit> candidates = universeIndex.getCandidates(ctx, variable, booleanExpr);
+					return candidates == null ? null : filter(candidates);
+				}
+			};
+			return new CompoundIndex<>(Arrays.asList(filteredIndex, addedIndex));
+		}
+
+		@Override
+		public Iterator<IInstallableUnit> everything() {
+			Iterator<IInstallableUnit> everything = filter(universe.queryable.everything());
+			if (added == null)
+				return everything;
+			return new CompoundIterator<>(Arrays.asList(everything, added.everything()).iterator());
+		}
+
+		@Override
+		public synchronized Object getManagedProperty(Object client, String memberName, Object key) {
+			if (!(client instanceof IInstallableUnit))
+				return null;
+			IInstallableUnit iu = (IInstallableUnit) client;
+			if (InstallableUnit.MEMBER_TRANSLATED_PROPERTIES.equals(memberName)) {
+				if (translationSupport == null)
+					translationSupport = new TranslationSupport(this);
+				return key instanceof KeyWithLocale ? translationSupport.getIUProperty(iu, (KeyWithLocale) key) : translationSupport.getIUProperty(iu, key.toString());
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the universe of the given repositories, collecting it if it is not kept
+	 * yet or one of the repositories changed its timestamp since.
+	 */
+	public synchronized Universe getUniverse(Collection<IMetadataRepository> repositories, IProgressMonitor monitor) {
+		Key key = new Key(repositories);
+		Universe universe = universes.get(key);
+		if (universe != null) {
+			hitCount++;
+			return universe;
+		}
+		missCount++;
+		long start = System.currentTimeMillis();
+		universe = new Universe(repositories, monitor);
+		universes.put(key, universe);
+		if (DEBUG)
+			Tracing.debug("Collected the planner universe of " + repositories.size() + " repositories, time (ms): " + (System.currentTimeMillis() - start)); //$NON-NLS-1$ //$NON-NLS-2$
+		return universe;
+	}
+
+	/**
+	 * Returns the number of universes that were found in this cache.
+	 */
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * Returns the number of universes that had to be collected.
+	 */
+	public synchronized long getMissCount() {
+		return missCount;
+	}
+
+	/**
+	 * Returns the number of requirement lookups that were answered from the matches the
+	 * kept universes remember.
+	 */
+	public synchronized long getMatchHitCount() {
+		long count = 0;
+		for (Universe universe : universes.values())
+			count += universe.getMatchHitCount();
+		return count;
+	}
+
+	public synchronized void clear() {
+		universes.clear();
+	}
+
+	@Override
+	public void notify(EventObject o) {
+		if (!(o instanceof RepositoryEvent))
+			return;
+		RepositoryEvent event = (RepositoryEvent) o;
+		if (event.getRepositoryType() != IRepository.TYPE_METADATA || event.getKind() == RepositoryEvent.DISCOVERED)
+			return;
+		synchronized (this) {
+			universes.keySet().removeIf(key -> key.contains(event.getRepositoryLocation()));
+		}
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2011, 2017 IBM Corporation and others.
+ * Copyright (c) 2011, 2020 IBM Corporation and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -26,15 +26,23 @@ public class PlannerStatus implements IStatus {
 	private final Map<IInstallableUnit, RequestStatus> requestChanges;
 	private final Map<IInstallableUnit, RequestStatus> requestSideEffects;
 	private final IQueryable<IInstallableUnit> plannedState;
+	private final long explanationTime;
+	private final boolean explanationPartial;
 
 	private static final IQueryable<IInstallableUnit> EMPTY_IU_QUERYABLE = (query, monitor) -> Collector.emptyCollector();
 
 	public PlannerStatus(IStatus status, RequestStatus globalRequestStatus, Map<IInstallableUnit, RequestStatus> requestChanges, Map<IInstallableUnit, RequestStatus> requestSideEffects, IQueryable<IInstallableUnit> plannedState) {
+		this(status, globalRequestStatus, requestChanges, requestSideEffects, plannedState, -1, false);
+	}
+
+	public PlannerStatus(IStatus status, RequestStatus globalRequestStatus, Map<IInstallableUnit, RequestStatus> requestChanges, Map<IInstallableUnit, RequestStatus> requestSideEffects, IQueryable<IInstallableUnit> plannedState, long explanationTime, boolean explanationPartial) {
 		this.status = status;
 		this.globalRequestStatus = globalRequestStatus;
 		this.requestChanges = requestChanges;
 		this.requestSideEffects = requestSideEffects;
 		this.plannedState = (plannedState == null) ? EMPTY_IU_QUERYABLE : plannedState;
+		this.explanationTime = explanationTime;
+		this.explanationPartial = explanationPartial;
 	}
 
 	/**
@@ -86,6 +94,25 @@ public class PlannerStatus implements IStatus {
 		return plannedState;
 	}
 
+	/**
+	 * Returns the time spent explaining why the request could not be resolved.
+	 *
+	 * @return The time in milliseconds, or <code>-1</code> if no explanation was computed.
+	 */
+	public long getExplanationTime() {
+		return explanationTime;
+	}
+
+	/**
+	 * Returns whether the explanation only lists the missing requirements because the
+	 * search for the cause of the failure ran out of time.
+	 *
+	 * @return <code>true</code> if the explanation is partial, <code>false</code> otherwise.
+	 */
+	public boolean isExplanationPartial() {
+		return explanationPartial;
+	}
+
 	// Remaining Methods Delegate to wrapped Status
 	@Override
 	public IStatus[] getChildren() {
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2017 IBM Corporation and others.
+ * Copyright (c) 2007, 2020 IBM Corporation and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -16,6 +16,7 @@ package org.eclipse.equinox.internal.p2.engine;
 
 import java.util.*;
 import org.eclipse.core.runtime.*;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.equinox.internal.p2.engine.phases.Collect;
 import org.eclipse.equinox.internal.provisional.p2.core.eventbus.IProvisioningEventBus;
 import org.eclipse.equinox.p2.core.IProvisioningAgent;
@@ -24,8 +25,17 @@ import org.eclipse.equinox.p2.metadata.expression.ExpressionUtil;
 import org.eclipse.equinox.p2.query.*;
 import org.eclipse.equinox.p2.repository.artifact.IArtifactRepository;
 import org.eclipse.equinox.p2.repository.artifact.IArtifactRequest;
+import org.osgi.framework.BundleContext;
 
 public class DownloadManager {
+	/**
+	 * System property specifying the maximum number of artifact repositories that are
+	 * downloaded from concurrently. The default value of 1 fetches from one repository
+	 * at a time.
+	 */
+	public static final String PROP_MAX_REPOSITORY_THREADS = "eclipse.p2.max.repository.threads"; //$NON-NLS-1$
+	private static final int DEFAULT_MAX_REPOSITORY_THREADS = 1;
+
 	private ProvisioningContext provContext = null;
 	ArrayList<IArtifactRequest> requestsToProcess = new ArrayList<>();
 	private IProvisioningAgent agent = null;
@@ -120,6 +130,11 @@ public class DownloadManager {
 	}
 
 	private void fetch(IArtifactRepository[] repositories, IProgressMonitor mon) {
+		int maxThreads = getMaximumRepositoryThreads();
+		if (maxThreads > 1 && repositories.length > 1) {
+			fetchInParallel(repositories, maxThreads, mon);
+			return;
+		}
 		SubMonitor monitor = SubMonitor.convert(mon, requestsToProcess.size());
 		for (int i = 0; i < repositories.length && !requestsToProcess.isEmpty() && !monitor.isCanceled(); i++) {
 			IArtifactRequest[] requests = getRequestsForRepository(repositories[i]);
@@ -133,6 +148,227 @@ public class DownloadManager {
 		}
 	}
 
+	/**
+	 * Assigns every pending request to the next repository that contains its artifact and
+	 * downloads from up to <code>maxThreads</code> repositories at once. Requests that fail
+	 * are assigned to the following repository in the next round.
+	 */
+	private void fetchInParallel(IArtifactRepository[] repositories, int maxThreads, IProgressMonitor mon) {
+		SubMonitor monitor = SubMonitor.convert(mon, requestsToProcess.size());
+		Map<IArtifactRequest, Integer> nextRepository = new IdentityHashMap<>();
+		while (!requestsToProcess.isEmpty() && !monitor.isCanceled()) {
+			LinkedList<RepositoryFetch> pending = assignRequests(repositories, nextRepository);
+			if (pending.isEmpty())
+				return;
+			int work = 0;
+			for (RepositoryFetch repositoryFetch : pending)
+				work += repositoryFetch.requests.length;
+			SubMonitor roundMonitor = SubMonitor.convert(monitor.newChild(work), work);
+			List<RepositoryFetch> round = new ArrayList<>(pending);
+
+			int numberOfJobs = Math.min(maxThreads, pending.size());
+			RepositoryFetchJob[] jobs = new RepositoryFetchJob[numberOfJobs];
+			for (int i = 0; i < numberOfJobs; i++) {
+				jobs[i] = new RepositoryFetchJob(Messages.download_artifact, pending, roundMonitor);
+				jobs[i].schedule();
+			}
+			if (!joinAll(jobs)) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			for (RepositoryFetch repositoryFetch : round) {
+				if (repositoryFetch.status != null && repositoryFetch.status.getSeverity() == IStatus.CANCEL)
+					return;
+			}
+			filterUnfetched();
+			monitor.setWorkRemaining(requestsToProcess.size());
+		}
+	}
+
+	/**
+	 * Waits for all jobs to finish. If the calling thread is interrupted, the jobs that are
+	 * still running are canceled and waited for before returning.
+	 * @return <code>false</code> if the calling thread was interrupted
+	 */
+	private static boolean joinAll(RepositoryFetchJob[] jobs) {
+		boolean interrupted = false;
+		for (int i = 0; i < jobs.length; i++) {
+			try {
+				jobs[i].join();
+			} catch (InterruptedException e) {
+				if (!interrupted) {
+					interrupted = true;
+					for (RepositoryFetchJob job : jobs)
+						job.cancel();
+				}
+				i--;
+			}
+		}
+		return !interrupted;
+	}
+
+	/**
+	 * Groups the pending requests by the first repository, at or after the position recorded
+	 * in <code>nextRepository</code>, that contains the requested artifact.
+	 */
+	private LinkedList<RepositoryFetch> assignRequests(IArtifactRepository[] repositories, Map<IArtifactRequest, Integer> nextRepository) {
+		Map<IArtifactRepository, List<IArtifactRequest>> assignments = new LinkedHashMap<>();
+		for (IArtifactRequest request : requestsToProcess) {
+			Integer start = nextRepository.get(request);
+			for (int i = start == null ? 0 : start.intValue(); i < repositories.length; i++) {
+				if (repositories[i].contains(request.getArtifactKey())) {
+					nextRepository.put(request, Integer.valueOf(i + 1));
+					List<IArtifactRequest> assigned = assignments.get(repositories[i]);
+					if (assigned == null) {
+						assigned = new ArrayList<>();
+						assignments.put(repositories[i], assigned);
+					}
+					assigned.add(request);
+					break;
+				}
+			}
+		}
+		// keep the local first ordering so local repositories are started first
+		LinkedList<RepositoryFetch> result = new LinkedList<>();
+		for (IArtifactRepository repository : repositories) {
+			List<IArtifactRequest> assigned = assignments.get(repository);
+			if (assigned != null)
+				result.add(new RepositoryFetch(repository, assigned.toArray(new IArtifactRequest[assigned.size()])));
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the maximum number of artifact repositories to download from concurrently.
+	 */
+	private int getMaximumRepositoryThreads() {
+		BundleContext context = EngineActivator.getContext();
+		String value = context == null ? null : context.getProperty(PROP_MAX_REPOSITORY_THREADS);
+		if (value == null)
+			return DEFAULT_MAX_REPOSITORY_THREADS;
+		try {
+			return Math.max(1, Integer.parseInt(value));
+		} catch (NumberFormatException e) {
+			return DEFAULT_MAX_REPOSITORY_THREADS;
+		}
+	}
+
+	/**
+	 * The requests assigned to one repository during a round of <code>fetchInParallel</code>.
+	 */
+	static final class RepositoryFetch {
+		final IArtifactRepository repository;
+		final IArtifactRequest[] requests;
+		volatile IStatus status;
+
+		RepositoryFetch(IArtifactRepository repository, IArtifactRequest[] requests) {
+			this.repository = repository;
+			this.requests = requests;
+		}
+	}
+
+	/**
+	 * A job that takes repositories from a shared queue and downloads the requests assigned to them.
+	 */
+	final class RepositoryFetchJob extends Job {
+		private final LinkedList<RepositoryFetch> pending;
+		private final SubMonitor roundMonitor;
+
+		RepositoryFetchJob(String name, LinkedList<RepositoryFetch> pending, SubMonitor roundMonitor) {
+			super(name);
+			setSystem(true);
+			this.pending = pending;
+			this.roundMonitor = roundMonitor;
+		}
+
+		@Override
+		protected IStatus run(IProgressMonitor jobMonitor) {
+			do {
+				RepositoryFetch repositoryFetch;
+				synchronized (pending) {
+					if (pending.isEmpty())
+						break;
+					repositoryFetch = pending.removeFirst();
+				}
+				if (roundMonitor.isCanceled() || jobMonitor.isCanceled())
+					return Status.CANCEL_STATUS;
+				IProgressMonitor fetchMonitor = new SharedProgressMonitor(roundMonitor, jobMonitor, repositoryFetch.requests.length);
+				try {
+					publishDownloadEvent(new CollectEvent(CollectEvent.TYPE_REPOSITORY_START, repositoryFetch.repository, provContext, repositoryFetch.requests));
+					repositoryFetch.status = repositoryFetch.repository.getArtifacts(repositoryFetch.requests, fetchMonitor);
+					publishDownloadEvent(new CollectEvent(CollectEvent.TYPE_REPOSITORY_END, repositoryFetch.repository, provContext, repositoryFetch.requests));
+				} finally {
+					fetchMonitor.done();
+				}
+			} while (true);
+			return Status.OK_STATUS;
+		}
+	}
+
+	/**
+	 * A progress monitor that forwards its progress, scaled to a fixed number of ticks,
+	 * to a monitor shared between several threads. Only the first call to
+	 * {@link #beginTask(String, int)} is honored. The monitor is canceled when either
+	 * the shared monitor or the monitor of the running job is canceled.
+	 */
+	static final class SharedProgressMonitor extends NullProgressMonitor {
+		private final SubMonitor shared;
+		private final IProgressMonitor jobMonitor;
+		private final int ticks;
+		private double totalWork = -1;
+		private double progress;
+		private int reported;
+
+		SharedProgressMonitor(SubMonitor shared, IProgressMonitor jobMonitor, int ticks) {
+			this.shared = shared;
+			this.jobMonitor = jobMonitor;
+			this.ticks = ticks;
+		}
+
+		@Override
+		public synchronized void beginTask(String name, int work) {
+			if (totalWork < 0)
+				totalWork = work;
+		}
+
+		@Override
+		public void worked(int work) {
+			internalWorked(work);
+		}
+
+		@Override
+		public synchronized void internalWorked(double work) {
+			if (totalWork <= 0)
+				return;
+			progress += work;
+			report((int) Math.min(ticks, progress * ticks / totalWork));
+		}
+
+		@Override
+		public synchronized void done() {
+			report(ticks);
+		}
+
+		@Override
+		public boolean isCanceled() {
+			return shared.isCanceled() || jobMonitor.isCanceled();
+		}
+
+		@Override
+		public void setCanceled(boolean canceled) {
+			shared.setCanceled(canceled);
+		}
+
+		private void report(int target) {
+			if (target <= reported)
+				return;
+			synchronized (shared) {
+				shared.worked(target - reported);
+			}
+			reported = target;
+		}
+	}
+
 	private void publishDownloadEvent(CollectEvent event) {
 		IProvisioningEventBus bus = agent.getService(IProvisioningEventBus.class);
 		if (bus != null)
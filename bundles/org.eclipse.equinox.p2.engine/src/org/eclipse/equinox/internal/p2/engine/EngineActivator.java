@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2017 IBM Corporation and others.
+ *  Copyright (c) 2007, 2020 IBM Corporation and others.
  *
  *  This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License 2.0
@@ -51,6 +51,33 @@ public class EngineActivator implements BundleActivator {
 	 */
 	public static final String PROFILE_FORMAT_UNCOMPRESSED = "uncompressed"; //$NON-NLS-1$
 
+	/**
+	 * System property describing how the profile registry keeps the history of a profile
+	 */
+	public static final String PROP_PROFILE_HISTORY = "eclipse.p2.profileHistory"; //$NON-NLS-1$
+
+	/**
+	 * Value for the PROP_PROFILE_HISTORY system property specifying that a state of a
+	 * profile is saved as its changes from the previous state, with a complete state saved
+	 * at regular intervals. Releases of p2 that do not know this value only see the complete
+	 * states.
+	 */
+	public static final String PROFILE_HISTORY_DELTA = "delta"; //$NON-NLS-1$
+
+	/**
+	 * System property specifying how many states of a profile are saved between two
+	 * complete states when the history is kept as deltas. The default is 10.
+	 */
+	public static final String PROP_PROFILE_CHECKPOINT_INTERVAL = "eclipse.p2.profileHistory.checkpointInterval"; //$NON-NLS-1$
+
+	/**
+	 * System property specifying how many threads a phase may use to run the independent
+	 * actions of its operands. Phases run one action at a time when this property is not
+	 * set or is lower than 2.
+	 * @see IIndependentAction
+	 */
+	public static final String PROP_PHASE_PARALLELISM = "eclipse.p2.engine.phaseParallelism"; //$NON-NLS-1$
+
 	/**
 	 * System property specifying how the engine should handle unsigned artifacts.
 	 * If this property is undefined, the default value is assumed to be "prompt".
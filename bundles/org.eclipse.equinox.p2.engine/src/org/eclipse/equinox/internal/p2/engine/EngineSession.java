@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2017 IBM Corporation and others.
+ *  Copyright (c) 2007, 2020 IBM Corporation and others.
  *
  *  This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License 2.0
@@ -332,6 +332,33 @@ public class EngineSession {
 			debugOperandEnd(operand);
 	}
 
+	/**
+	 * Records an operand whose actions were not run between a start and an end of the
+	 * operand, for example because they ran at the same time as the actions of other
+	 * operands. The actions are the ones that were started, in the order they were started.
+	 */
+	void recordOperand(Operand operand, List<ProvisioningAction> actions) {
+		if (operand == null)
+			throw new IllegalArgumentException(Messages.null_operand);
+
+		if (currentRecord != null)
+			throw new IllegalStateException(Messages.operand_started);
+
+		ActionsRecord record = new ActionsRecord(operand);
+		record.actions.addAll(actions);
+		currentActionRecords.add(record);
+		for (ProvisioningAction action : actions) {
+			Touchpoint touchpoint = action.getTouchpoint();
+			if (touchpoint != null)
+				touchpoints.add(touchpoint);
+		}
+
+		if (DebugHelper.DEBUG_ENGINE_SESSION) {
+			debugOperandStart(operand);
+			debugOperandEnd(operand);
+		}
+	}
+
 	void recordActionExecute(ProvisioningAction action, Map<String, Object> parameters) {
 		if (action == null)
 			throw new IllegalArgumentException(Messages.null_action);
@@ -0,0 +1,29 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.engine;
+
+/**
+ * Marks a provisioning action whose execution only changes the state of its own operand,
+ * such as files in locations that no other operand writes to or the properties of its own
+ * installable unit. Any other object the action uses, such as a backup store shared by
+ * the touchpoint, must be safe to use from several threads.
+ * <p>
+ * When the {@link EngineActivator#PROP_PHASE_PARALLELISM} property allows it, a phase
+ * runs the independent actions of consecutive operands at the same time. The other
+ * actions of these operands still run one after another, in the order of the operands.
+ * Undoing an action is never done in parallel.
+ */
+public interface IIndependentAction {
+	// marker interface
+}
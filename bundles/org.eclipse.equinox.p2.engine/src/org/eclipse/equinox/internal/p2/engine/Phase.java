@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2017 IBM Corporation and others.
+ *  Copyright (c) 2007, 2020 IBM Corporation and others.
  *
  *  This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License 2.0
@@ -15,6 +15,7 @@
 package org.eclipse.equinox.internal.p2.engine;
 
 import java.util.*;
+import java.util.concurrent.*;
 import org.eclipse.core.runtime.*;
 import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
 import org.eclipse.equinox.internal.provisional.p2.core.eventbus.IProvisioningEventBus;
@@ -51,6 +52,8 @@ public abstract class Phase {
 	private Map<Touchpoint, Map<String, Object>> touchpointToTouchpointOperandParameters = new HashMap<>();
 	ActionManager actionManager; // injected from phaseset
 	protected boolean isPaused = false;
+	// set when the operands performed in parallel must stop
+	private volatile boolean stopped;
 
 	protected Phase(String phaseId, int weight, boolean forced) {
 		if (phaseId == null || phaseId.length() == 0)
@@ -123,99 +126,413 @@ public abstract class Phase {
 	}
 
 	private void mainPerform(MultiStatus status, EngineSession session, Operand[] operands, SubMonitor subMonitor) {
+		int parallelism = getParallelism();
+		if (parallelism > 1) {
+			mainPerformParallel(status, session, operands, parallelism, subMonitor);
+			return;
+		}
 		IProfile profile = session.getProfile();
 		subMonitor.beginTask(null, operands.length);
 		for (int i = 0; i < operands.length; i++) {
 			subMonitor.setWorkRemaining(operands.length - i);
+			if (!checkPaused(status, subMonitor))
+				return;
+			Operand operand = operands[i];
+			if (!isApplicable(operand))
+				continue;
+
+			if (!performOperand(status, session, profile, operand, getActions(operand), subMonitor))
+				return;
+		}
+	}
+
+	/*
+	 * Throws an exception when the phase is canceled and waits while it is paused. Returns
+	 * false if the wait is interrupted.
+	 */
+	private boolean checkPaused(MultiStatus status, SubMonitor subMonitor) {
+		if (subMonitor.isCanceled())
+			throw new OperationCanceledException();
+		while (isPaused) {
+			try {
+				Thread.sleep(1000);
+			} catch (InterruptedException e) {
+				mergeStatus(status, new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.phase_thread_interrupted_error, phaseId), e));
+				return false;
+			}
 			if (subMonitor.isCanceled())
 				throw new OperationCanceledException();
-			while (isPaused) {
+		}
+		return true;
+	}
+
+	/*
+	 * Performs all the actions of an operand one after another. Returns false if the phase
+	 * must stop.
+	 */
+	private boolean performOperand(MultiStatus status, EngineSession session, IProfile profile, Operand operand, List<ProvisioningAction> actions, SubMonitor subMonitor) {
+		session.recordOperandStart(operand);
+		operandParameters = new HashMap<>(phaseParameters);
+		operandParameters.put(PARM_OPERAND, operand);
+		mergeStatus(status, initializeOperand(profile, operand, operandParameters, subMonitor));
+		if (status.matches(IStatus.ERROR | IStatus.CANCEL)) {
+			operandParameters = null;
+			return false;
+		}
+
+		Touchpoint operandTouchpoint = (Touchpoint) operandParameters.get(PARM_TOUCHPOINT);
+		if (operandTouchpoint != null) {
+			mergeStatus(status, initializeTouchpointParameters(profile, operand, operandTouchpoint, subMonitor));
+			if (status.matches(IStatus.ERROR | IStatus.CANCEL))
+				return false;
+
+			operandParameters = touchpointToTouchpointOperandParameters.get(operandTouchpoint);
+		}
+
+		if (actions != null) {
+			Object lastResult = null;
+			for (ProvisioningAction action : actions) {
+				Touchpoint touchpoint = action.getTouchpoint();
+				if (touchpoint != null) {
+					mergeStatus(status, initializeTouchpointParameters(profile, operand, touchpoint, subMonitor));
+					if (status.matches(IStatus.ERROR | IStatus.CANCEL))
+						return false;
+				}
+				Map<String, Object> parameters = getActionParameters(operandParameters, touchpointToTouchpointOperandParameters, action, lastResult);
+				session.recordActionExecute(action, parameters);
+				mergeStatus(status, executeAction(session, operand, action, parameters));
+				if (status.matches(IStatus.ERROR | IStatus.CANCEL))
+					return false;
+				lastResult = action.getResult();
+			}
+		}
+		mergeStatus(status, touchpointCompleteOperand(profile, operand, operandParameters, subMonitor));
+		mergeStatus(status, completeOperand(profile, operand, operandParameters, subMonitor));
+		if (status.matches(IStatus.ERROR | IStatus.CANCEL))
+			return false;
+		operandParameters = null;
+		session.recordOperandEnd(operand);
+		subMonitor.worked(1);
+		return true;
+	}
+
+	private static Map<String, Object> getActionParameters(Map<String, Object> operandParams, Map<Touchpoint, Map<String, Object>> touchpointParams, ProvisioningAction action, Object lastResult) {
+		Map<String, Object> parameters = operandParams;
+		Touchpoint touchpoint = action.getTouchpoint();
+		if (touchpoint != null)
+			parameters = touchpointParams.get(touchpoint);
+		if (lastResult != null) {
+			parameters = new HashMap<>(parameters);
+			parameters.put(LAST_RESULT_INTERNAL_NAME, lastResult);
+		}
+		return Collections.unmodifiableMap(parameters);
+	}
+
+	private IStatus executeAction(EngineSession session, Operand operand, ProvisioningAction action, Map<String, Object> parameters) {
+		IStatus actionStatus = null;
+		try {
+			actionStatus = action.execute(parameters);
+		} catch (RuntimeException e) {
+			if (!forced)
+				throw e;
+			// "action.execute" calls user code and might throw an unchecked exception
+			// we catch the error here to gather information on where the problem occurred.
+			actionStatus = new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.forced_action_execute_error, action.getClass().getName()), e);
+		} catch (LinkageError e) {
+			if (!forced)
+				throw e;
+			// Catch linkage errors as these are generally recoverable but let other Errors propagate (see bug 222001)
+			actionStatus = new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.forced_action_execute_error, action.getClass().getName()), e);
+		}
+		if (forced && actionStatus != null && actionStatus.matches(IStatus.ERROR)) {
+			MultiStatus result = new MultiStatus(EngineActivator.ID, IStatus.ERROR, getProblemMessage(), null);
+			result.add(new Status(IStatus.ERROR, EngineActivator.ID, session.getContextString(this, operand, action), null));
+			LogHelper.log(result);
+			actionStatus = Status.OK_STATUS;
+		}
+		return actionStatus;
+	}
+
+	private static int getParallelism() {
+		String parallelism = EngineActivator.getContext().getProperty(EngineActivator.PROP_PHASE_PARALLELISM);
+		if (parallelism != null) {
+			try {
+				return Integer.parseInt(parallelism.trim());
+			} catch (NumberFormatException e) {
+				// run one action at a time
+			}
+		}
+		return 1;
+	}
+
+	/*
+	 * An operand whose independent actions follow each other. The actions before them run
+	 * on the thread of the phase when the operand is started, the independent actions run
+	 * on a thread of the pool and the actions after them run on the thread of the phase
+	 * when the operand is finished.
+	 */
+	private class OperandTask implements Runnable {
+		final Operand operand;
+		final List<ProvisioningAction> actions;
+		final int first;
+		final int last;
+		// the actions that were started, in the order they were started
+		final List<ProvisioningAction> executed = new ArrayList<>();
+		final MultiStatus status = new MultiStatus(EngineActivator.ID, IStatus.OK, null, null);
+		EngineSession session;
+		Map<String, Object> operandParams;
+		Map<Touchpoint, Map<String, Object>> touchpointParams;
+		Object lastResult;
+		Future<?> future;
+		boolean recorded;
+
+		OperandTask(Operand operand, List<ProvisioningAction> actions, int[] independentRange) {
+			this.operand = operand;
+			this.actions = actions;
+			this.first = independentRange[0];
+			this.last = independentRange[1];
+		}
+
+		@Override
+		public void run() {
+			for (int i = first; i <= last; i++) {
+				if (stopped)
+					return;
+				boolean failed = true;
 				try {
-					Thread.sleep(1000);
-				} catch (InterruptedException e) {
-					mergeStatus(status, new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.phase_thread_interrupted_error, phaseId), e));
+					mergeStatus(status, execute(actions.get(i)));
+					failed = status.matches(IStatus.ERROR | IStatus.CANCEL);
+				} finally {
+					// the other operands stop at their next action
+					if (failed)
+						stopped = true;
+				}
+				if (failed)
 					return;
+			}
+		}
+
+		IStatus execute(ProvisioningAction action) {
+			Map<String, Object> parameters = getActionParameters(operandParams, touchpointParams, action, lastResult);
+			executed.add(action);
+			IStatus actionStatus = executeAction(session, operand, action, parameters);
+			lastResult = action.getResult();
+			return actionStatus;
+		}
+	}
+
+	/*
+	 * Performs the operands like mainPerform, except that the independent actions of
+	 * consecutive operands run on a pool of threads. Everything else runs on the thread of the
+	 * phase: the actions before the independent ones in the order of the operands, and then
+	 * the actions after them in the same order. Operands without independent actions, or with
+	 * other actions between them, are performed alone once the operands before them are
+	 * finished. Each operand is recorded in the session when it is finished or when the phase
+	 * stops, with the actions that were started, so that a rollback undoes them.
+	 */
+	private void mainPerformParallel(MultiStatus status, EngineSession session, Operand[] operands, int parallelism, SubMonitor subMonitor) {
+		IProfile profile = session.getProfile();
+		subMonitor.beginTask(null, operands.length);
+		stopped = false;
+		ExecutorService executor = Executors.newFixedThreadPool(parallelism, r -> {
+			Thread thread = new Thread(r, "p2 phase " + phaseId); //$NON-NLS-1$
+			thread.setDaemon(true);
+			return thread;
+		});
+		Deque<OperandTask> started = new ArrayDeque<>();
+		try {
+			for (int i = 0; i < operands.length; i++) {
+				subMonitor.setWorkRemaining(operands.length - i + started.size());
+				if (!checkPaused(status, subMonitor))
+					return;
+				Operand operand = operands[i];
+				if (!isApplicable(operand))
+					continue;
+
+				List<ProvisioningAction> actions = getActions(operand);
+				int[] independentRange = getIndependentRange(actions);
+				if (independentRange == null) {
+					if (!finishOperands(status, session, profile, started, 0, subMonitor))
+						return;
+					if (!performOperand(status, session, profile, operand, actions, subMonitor))
+						return;
+					continue;
 				}
-				if (subMonitor.isCanceled())
-					throw new OperationCanceledException();
+				OperandTask task = new OperandTask(operand, actions, independentRange);
+				started.add(task);
+				if (!startOperand(status, session, profile, task, subMonitor))
+					return;
+				task.future = executor.submit(task);
+				if (!finishOperands(status, session, profile, started, 2 * parallelism, subMonitor))
+					return;
 			}
-			Operand operand = operands[i];
-			if (!isApplicable(operand))
+			finishOperands(status, session, profile, started, 0, subMonitor);
+		} finally {
+			stopped = true;
+			// wait for the actions still running and record what they did
+			for (OperandTask task : started) {
+				if (task.future != null) {
+					try {
+						task.future.get();
+					} catch (ExecutionException e) {
+						// the first failure is reported
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				recordOperand(session, task);
+			}
+			executor.shutdown();
+		}
+	}
+
+	/*
+	 * Returns the first and last of the independent actions of an operand, or null if there are
+	 * none or if other actions come between them.
+	 */
+	private static int[] getIndependentRange(List<ProvisioningAction> actions) {
+		if (actions == null)
+			return null;
+		int first = -1;
+		int last = -1;
+		for (int i = 0; i < actions.size(); i++) {
+			ProvisioningAction action = actions.get(i);
+			if (action instanceof ParameterizedProvisioningAction)
+				action = ((ParameterizedProvisioningAction) action).getAction();
+			if (!(action instanceof IIndependentAction))
 				continue;
+			if (first == -1)
+				first = i;
+			else if (last != i - 1)
+				return null;
+			last = i;
+		}
+		return first == -1 ? null : new int[] {first, last};
+	}
 
-			session.recordOperandStart(operand);
-			List<ProvisioningAction> actions = getActions(operand);
-			operandParameters = new HashMap<>(phaseParameters);
-			operandParameters.put(PARM_OPERAND, operand);
+	/*
+	 * Initializes an operand and runs the actions before its independent actions. The
+	 * parameters of the operand are kept by the task, so that the next operand can be started
+	 * before this one is finished.
+	 */
+	private boolean startOperand(MultiStatus status, EngineSession session, IProfile profile, OperandTask task, SubMonitor subMonitor) {
+		Operand operand = task.operand;
+		operandParameters = new HashMap<>(phaseParameters);
+		operandParameters.put(PARM_OPERAND, operand);
+		try {
 			mergeStatus(status, initializeOperand(profile, operand, operandParameters, subMonitor));
-			if (status.matches(IStatus.ERROR | IStatus.CANCEL)) {
-				operandParameters = null;
-				return;
-			}
+			if (status.matches(IStatus.ERROR | IStatus.CANCEL))
+				return false;
 
 			Touchpoint operandTouchpoint = (Touchpoint) operandParameters.get(PARM_TOUCHPOINT);
 			if (operandTouchpoint != null) {
 				mergeStatus(status, initializeTouchpointParameters(profile, operand, operandTouchpoint, subMonitor));
 				if (status.matches(IStatus.ERROR | IStatus.CANCEL))
-					return;
+					return false;
 
 				operandParameters = touchpointToTouchpointOperandParameters.get(operandTouchpoint);
 			}
+			for (ProvisioningAction action : task.actions) {
+				Touchpoint touchpoint = action.getTouchpoint();
+				if (touchpoint != null) {
+					mergeStatus(status, initializeTouchpointParameters(profile, operand, touchpoint, subMonitor));
+					if (status.matches(IStatus.ERROR | IStatus.CANCEL))
+						return false;
+				}
+			}
+			task.session = session;
+			task.operandParams = operandParameters;
+			task.touchpointParams = new HashMap<>(touchpointToTouchpointOperandParameters);
+			for (int i = 0; i < task.first; i++) {
+				mergeStatus(status, task.execute(task.actions.get(i)));
+				if (status.matches(IStatus.ERROR | IStatus.CANCEL))
+					return false;
+			}
+			return true;
+		} finally {
+			operandParameters = null;
+			touchpointToTouchpointOperandParameters.clear();
+		}
+	}
 
-			if (actions != null) {
-				Object lastResult = null;
-				for (ProvisioningAction action : actions) {
-					Map<String, Object> parameters = operandParameters;
-					Touchpoint touchpoint = action.getTouchpoint();
-					if (touchpoint != null) {
-						mergeStatus(status, initializeTouchpointParameters(profile, operand, touchpoint, subMonitor));
-						if (status.matches(IStatus.ERROR | IStatus.CANCEL))
-							return;
-
-						parameters = touchpointToTouchpointOperandParameters.get(touchpoint);
-					}
-					if (lastResult != null) {
-						parameters = new HashMap<>(parameters);
-						parameters.put(LAST_RESULT_INTERNAL_NAME, lastResult);
-					}
-					parameters = Collections.unmodifiableMap(parameters);
-
-					IStatus actionStatus = null;
-					try {
-						session.recordActionExecute(action, parameters);
-						actionStatus = action.execute(parameters);
-						lastResult = action.getResult();
-					} catch (RuntimeException e) {
-						if (!forced)
-							throw e;
-						// "action.execute" calls user code and might throw an unchecked exception
-						// we catch the error here to gather information on where the problem occurred.
-						actionStatus = new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.forced_action_execute_error, action.getClass().getName()), e);
-					} catch (LinkageError e) {
-						if (!forced)
-							throw e;
-						// Catch linkage errors as these are generally recoverable but let other Errors propagate (see bug 222001)
-						actionStatus = new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.forced_action_execute_error, action.getClass().getName()), e);
-					}
-					if (forced && actionStatus != null && actionStatus.matches(IStatus.ERROR)) {
-						MultiStatus result = new MultiStatus(EngineActivator.ID, IStatus.ERROR, getProblemMessage(), null);
-						result.add(new Status(IStatus.ERROR, EngineActivator.ID, session.getContextString(this, operand, action), null));
-						LogHelper.log(result);
-						actionStatus = Status.OK_STATUS;
+	/*
+	 * Finishes the started operands whose independent actions are done, in the order they
+	 * were started, and waits for more of them while more than the given number are started.
+	 * This keeps the actions run ahead of a failure, and undone after it, to a few operands.
+	 * Returns false if the phase must stop.
+	 */
+	private boolean finishOperands(MultiStatus status, EngineSession session, IProfile profile, Deque<OperandTask> started, int maxStarted, SubMonitor subMonitor) {
+		while (!started.isEmpty()) {
+			OperandTask task = started.peek();
+			if (started.size() <= maxStarted && !task.future.isDone())
+				return true;
+			try {
+				waitFor(task);
+				if (stopped) {
+					// an operand failed, not necessarily this one
+					for (OperandTask other : started) {
+						waitFor(other);
+						mergeStatus(status, other.status);
 					}
-					mergeStatus(status, actionStatus);
-					if (status.matches(IStatus.ERROR | IStatus.CANCEL))
-						return;
+					return false;
 				}
+			} catch (InterruptedException e) {
+				mergeStatus(status, new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.phase_thread_interrupted_error, phaseId), e));
+				return false;
+			}
+			mergeStatus(status, task.status);
+			started.remove();
+			try {
+				if (!finishOperand(status, profile, task, subMonitor))
+					return false;
+			} finally {
+				recordOperand(session, task);
 			}
-			mergeStatus(status, touchpointCompleteOperand(profile, operand, operandParameters, subMonitor));
-			mergeStatus(status, completeOperand(profile, operand, operandParameters, subMonitor));
+		}
+		return true;
+	}
+
+	// runs the actions after the independent actions of an operand and completes it
+	private boolean finishOperand(MultiStatus status, IProfile profile, OperandTask task, SubMonitor subMonitor) {
+		operandParameters = task.operandParams;
+		touchpointToTouchpointOperandParameters.putAll(task.touchpointParams);
+		try {
+			for (int i = task.last + 1; i < task.actions.size(); i++) {
+				mergeStatus(status, task.execute(task.actions.get(i)));
+				if (status.matches(IStatus.ERROR | IStatus.CANCEL))
+					return false;
+			}
+			mergeStatus(status, touchpointCompleteOperand(profile, task.operand, operandParameters, subMonitor));
+			mergeStatus(status, completeOperand(profile, task.operand, operandParameters, subMonitor));
 			if (status.matches(IStatus.ERROR | IStatus.CANCEL))
-				return;
+				return false;
+		} finally {
 			operandParameters = null;
-			session.recordOperandEnd(operand);
-			subMonitor.worked(1);
+			touchpointToTouchpointOperandParameters.clear();
 		}
+		subMonitor.worked(1);
+		return true;
+	}
+
+	// rethrows what the independent actions of the operand threw
+	private static void waitFor(OperandTask task) throws InterruptedException {
+		try {
+			task.future.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof Error)
+				throw (Error) cause;
+			throw new IllegalStateException(cause);
+		}
+	}
+
+	private static void recordOperand(EngineSession session, OperandTask task) {
+		if (task.recorded)
+			return;
+		task.recorded = true;
+		session.recordOperand(task.operand, task.executed);
 	}
 
 	private IStatus initializeTouchpointParameters(IProfile profile, Operand operand, Touchpoint touchpoint, IProgressMonitor monitor) {
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2018 IBM Corporation and others.
+ * Copyright (c) 2007, 2020 IBM Corporation and others.
  *
  * This
  * program and the accompanying materials are made available under the terms of
@@ -42,7 +42,10 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 	class ProfilePropertyIndex implements IIndex<IInstallableUnit> {
 		@Override
 		public Iterator<IInstallableUnit> getCandidates(IEvaluationContext ctx, IExpression variable, IExpression booleanExpr) {
-			return iuProperties.keySet().iterator();
+			// a snapshot, as the properties may change while the candidates are iterated
+			synchronized (Profile.this) {
+				return new ArrayList<>(iuProperties.keySet()).iterator();
+			}
 		}
 	}
 
@@ -71,6 +74,7 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 	private OrderedProperties storage = new OrderedProperties();
 
 	private IUMap ius = new IUMap();
+	// guarded by this, as independent actions may set the properties of their units in parallel
 	final Map<IInstallableUnit, OrderedProperties> iuProperties = new HashMap<>();
 	private boolean changed = false;
 
@@ -223,7 +227,7 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 	}
 
 	@Override
-	public String getInstallableUnitProperty(IInstallableUnit iu, String key) {
+	public synchronized String getInstallableUnitProperty(IInstallableUnit iu, String key) {
 		OrderedProperties properties = iuProperties.get(iu);
 		if (properties == null)
 			return null;
@@ -231,7 +235,7 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 		return properties.getProperty(key);
 	}
 
-	public String setInstallableUnitProperty(IInstallableUnit iu, String key, String value) {
+	public synchronized String setInstallableUnitProperty(IInstallableUnit iu, String key, String value) {
 		//		String iuKey = createIUKey(iu);
 		OrderedProperties properties = iuProperties.get(iu);
 		if (properties == null) {
@@ -243,7 +247,7 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 		return (String) properties.setProperty(key, value);
 	}
 
-	public String removeInstallableUnitProperty(IInstallableUnit iu, String key) {
+	public synchronized String removeInstallableUnitProperty(IInstallableUnit iu, String key) {
 		//		String iuKey = createIUKey(iu);
 		OrderedProperties properties = iuProperties.get(iu);
 		if (properties == null)
@@ -305,7 +309,7 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 	}
 
 	@Override
-	public Map<String, String> getInstallableUnitProperties(IInstallableUnit iu) {
+	public synchronized Map<String, String> getInstallableUnitProperties(IInstallableUnit iu) {
 		OrderedProperties properties = iuProperties.get(iu);
 		if (properties == null)
 			properties = new OrderedProperties();
@@ -326,7 +330,7 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 		changed = isChanged;
 	}
 
-	public void clearInstallableUnits() {
+	public synchronized void clearInstallableUnits() {
 		ius.clear();
 		iuProperties.clear();
 		changed = true;
@@ -365,12 +369,12 @@ public class Profile extends IndexProvider<IInstallableUnit> implements IProfile
 		}
 	}
 
-	public void clearInstallableUnitProperties(IInstallableUnit iu) {
+	public synchronized void clearInstallableUnitProperties(IInstallableUnit iu) {
 		iuProperties.remove(iu);
 		changed = true;
 	}
 
-	public void clearOrphanedInstallableUnitProperties() {
+	public synchronized void clearOrphanedInstallableUnitProperties() {
 		Set<IInstallableUnit> keys = iuProperties.keySet();
 		//		Set orphans = new HashSet();
 		Collection<IInstallableUnit> toRemove = new ArrayList<>();
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2017 IBM Corporation and others.
+ *  Copyright (c) 2007, 2020 IBM Corporation and others.
  *
  *  This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License 2.0
@@ -13,11 +13,11 @@
  *******************************************************************************/
 package org.eclipse.equinox.internal.p2.engine;
 
-import java.util.LinkedHashMap;
-import java.util.Map;
+import java.util.*;
 import org.eclipse.equinox.internal.p2.metadata.repository.io.MetadataParser;
 import org.eclipse.equinox.p2.metadata.IInstallableUnit;
 import org.eclipse.equinox.p2.metadata.Version;
+import org.eclipse.equinox.p2.metadata.VersionedId;
 import org.osgi.framework.BundleContext;
 import org.xml.sax.Attributes;
 
@@ -126,6 +126,139 @@ public abstract class ProfileParser extends MetadataParser implements ProfileXML
 		}
 	}
 
+	/**
+	 * Handler for the changes between two states of a profile, as written by
+	 * {@link ProfileWriter#writeProfileDelta(org.eclipse.equinox.p2.engine.IProfile, org.eclipse.equinox.p2.engine.IProfile)}.
+	 */
+	protected class ProfileDeltaHandler extends RootHandler {
+
+		private final String[] required = new String[] {ID_ATTRIBUTE, TIMESTAMP_ATTRIBUTE, BASE_TIMESTAMP_ATTRIBUTE};
+
+		private String profileId;
+		private long timestamp;
+		private long baseTimestamp;
+		private PropertiesHandler propertiesHandler;
+		private InstallableUnitsHandler unitsHandler;
+		private RemovedUnitsHandler removedUnitsHandler;
+		private IUsPropertiesHandler iusPropertiesHandler;
+
+		@Override
+		protected void handleRootAttributes(Attributes attributes) {
+			String[] values = parseRequiredAttributes(attributes, required);
+			profileId = values[0];
+			try {
+				timestamp = Long.parseLong(values[1]);
+				baseTimestamp = Long.parseLong(values[2]);
+			} catch (NumberFormatException e) {
+				invalidAttributeValue(PROFILE_DELTA_ELEMENT, TIMESTAMP_ATTRIBUTE, values[1]);
+			}
+		}
+
+		@Override
+		public void startElement(String name, Attributes attributes) {
+			if (PROPERTIES_ELEMENT.equals(name)) {
+				if (propertiesHandler == null) {
+					propertiesHandler = new PropertiesHandler(this, attributes);
+				} else {
+					duplicateElement(this, name, attributes);
+				}
+			} else if (INSTALLABLE_UNITS_ELEMENT.equals(name)) {
+				if (unitsHandler == null) {
+					unitsHandler = new InstallableUnitsHandler(this, attributes);
+				} else {
+					duplicateElement(this, name, attributes);
+				}
+			} else if (REMOVED_UNITS_ELEMENT.equals(name)) {
+				if (removedUnitsHandler == null) {
+					removedUnitsHandler = new RemovedUnitsHandler(this, attributes);
+				} else {
+					duplicateElement(this, name, attributes);
+				}
+			} else if (IUS_PROPERTIES_ELEMENT.equals(name)) {
+				if (iusPropertiesHandler == null) {
+					iusPropertiesHandler = new IUsPropertiesHandler(this, attributes);
+				} else {
+					duplicateElement(this, name, attributes);
+				}
+			} else {
+				invalidElement(name, attributes);
+			}
+		}
+
+		public String getProfileId() {
+			return profileId;
+		}
+
+		public long getTimestamp() {
+			return timestamp;
+		}
+
+		/**
+		 * Returns the timestamp of the state the changes apply to.
+		 */
+		public long getBaseTimestamp() {
+			return baseTimestamp;
+		}
+
+		public Map<String, String> getProperties() {
+			if (propertiesHandler == null)
+				return Collections.emptyMap();
+			return propertiesHandler.getProperties();
+		}
+
+		public IInstallableUnit[] getAddedInstallableUnits() {
+			if (unitsHandler == null)
+				return new IInstallableUnit[0];
+			return unitsHandler.getUnits();
+		}
+
+		public List<VersionedId> getRemovedInstallableUnits() {
+			if (removedUnitsHandler == null)
+				return Collections.emptyList();
+			return removedUnitsHandler.getUnits();
+		}
+
+		/**
+		 * Returns all the properties of the given unit if they changed, and <code>null</code>
+		 * if they did not.
+		 */
+		public Map<String, String> getIUProperties(IInstallableUnit iu) {
+			if (iusPropertiesHandler == null)
+				return null;
+			String iuIdentity = iu.getId() + "_" + iu.getVersion().toString(); //$NON-NLS-1$
+			return iusPropertiesHandler.getIUsPropertiesMap().get(iuIdentity);
+		}
+	}
+
+	protected class RemovedUnitsHandler extends AbstractHandler {
+
+		private final String[] required = new String[] {ID_ATTRIBUTE, VERSION_ATTRIBUTE};
+
+		private List<VersionedId> units;
+
+		public RemovedUnitsHandler(AbstractHandler parentHandler, Attributes attributes) {
+			super(parentHandler, REMOVED_UNITS_ELEMENT);
+			String sizeStr = parseOptionalAttribute(attributes, COLLECTION_SIZE_ATTRIBUTE);
+			units = new ArrayList<>(sizeStr != null ? Integer.parseInt(sizeStr) : 4);
+		}
+
+		public List<VersionedId> getUnits() {
+			return units;
+		}
+
+		@Override
+		public void startElement(String name, Attributes attributes) {
+			if (name.equals(INSTALLABLE_UNIT_ELEMENT)) {
+				String values[] = parseRequiredAttributes(attributes, required);
+				units.add(new VersionedId(values[0], checkVersion(INSTALLABLE_UNIT_ELEMENT, VERSION_ATTRIBUTE, values[1])));
+				// the unit has no content
+				new IgnoringHandler(this);
+			} else {
+				invalidElement(name, attributes);
+			}
+		}
+	}
+
 	protected class IUPropertiesHandler extends AbstractHandler {
 
 		private final String[] required = new String[] {ID_ATTRIBUTE, VERSION_ATTRIBUTE};
@@ -22,6 +22,14 @@ import org.eclipse.equinox.p2.query.QueryUtil;
 
 public class ProfileWriter extends MetadataWriter implements ProfileXMLConstants {
 
+	private static final Comparator<IInstallableUnit> BY_ID_AND_VERSION = (iu1, iu2) -> {
+		int IdCompare = iu1.getId().compareTo(iu2.getId());
+		if (IdCompare != 0)
+			return IdCompare;
+
+		return iu1.getVersion().compareTo(iu2.getVersion());
+	};
+
 	public ProfileWriter(OutputStream output, ProcessingInstruction[] processingInstructions) {
 		super(output, processingInstructions);
 	}
@@ -32,19 +40,94 @@ public class ProfileWriter extends MetadataWriter implements ProfileXMLConstants
 		attribute(TIMESTAMP_ATTRIBUTE, Long.toString(profile.getTimestamp()));
 		writeProperties(profile.getProperties());
 		ArrayList<IInstallableUnit> ius = new ArrayList<>(profile.query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet());
-		ius.sort((iu1, iu2) -> {
-			int IdCompare = iu1.getId().compareTo(iu2.getId());
-			if (IdCompare != 0)
-				return IdCompare;
-
-			return iu1.getVersion().compareTo(iu2.getVersion());
-		});
+		ius.sort(BY_ID_AND_VERSION);
 		writeInstallableUnits(ius.iterator(), ius.size());
 		writeInstallableUnitsProperties(ius.iterator(), ius.size(), profile);
 		end(PROFILE_ELEMENT);
 		flush();
 	}
 
+	/**
+	 * Writes the changes between two states of a profile: the properties of the profile, the
+	 * units that were added and removed, and the properties of the units whose properties
+	 * changed. Replaying the changes on the base state gives the state of the profile.
+	 *
+	 * @param base the previous state of the profile
+	 * @param profile the current state of the profile
+	 */
+	public void writeProfileDelta(IProfile base, IProfile profile) {
+		start(PROFILE_DELTA_ELEMENT);
+		attribute(ID_ATTRIBUTE, profile.getProfileId());
+		attribute(TIMESTAMP_ATTRIBUTE, Long.toString(profile.getTimestamp()));
+		attribute(BASE_TIMESTAMP_ATTRIBUTE, Long.toString(base.getTimestamp()));
+		// the properties are few, so all of them are written
+		writeProperties(profile.getProperties());
+
+		Set<IInstallableUnit> baseIUs = base.query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet();
+		Set<IInstallableUnit> ius = profile.query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet();
+		ArrayList<IInstallableUnit> added = new ArrayList<>();
+		ArrayList<IInstallableUnit> changed = new ArrayList<>();
+		for (IInstallableUnit iu : ius) {
+			if (!baseIUs.contains(iu)) {
+				added.add(iu);
+				if (!profile.getInstallableUnitProperties(iu).isEmpty())
+					changed.add(iu);
+			} else if (!profile.getInstallableUnitProperties(iu).equals(base.getInstallableUnitProperties(iu))) {
+				changed.add(iu);
+			}
+		}
+		ArrayList<IInstallableUnit> removed = new ArrayList<>();
+		for (IInstallableUnit iu : baseIUs) {
+			if (!ius.contains(iu))
+				removed.add(iu);
+		}
+		added.sort(BY_ID_AND_VERSION);
+		removed.sort(BY_ID_AND_VERSION);
+		changed.sort(BY_ID_AND_VERSION);
+		writeInstallableUnits(added.iterator(), added.size());
+		writeRemovedUnits(removed);
+		writeChangedInstallableUnitsProperties(changed, profile);
+		end(PROFILE_DELTA_ELEMENT);
+		flush();
+	}
+
+	private void writeRemovedUnits(List<IInstallableUnit> removed) {
+		if (removed.isEmpty())
+			return;
+		start(REMOVED_UNITS_ELEMENT);
+		attribute(COLLECTION_SIZE_ATTRIBUTE, removed.size());
+		for (IInstallableUnit iu : removed) {
+			start(INSTALLABLE_UNIT_ELEMENT);
+			attribute(ID_ATTRIBUTE, iu.getId());
+			attribute(VERSION_ATTRIBUTE, iu.getVersion().toString());
+			end(INSTALLABLE_UNIT_ELEMENT);
+		}
+		end(REMOVED_UNITS_ELEMENT);
+	}
+
+	// unlike a whole profile, the delta keeps units whose properties were all removed
+	private void writeChangedInstallableUnitsProperties(List<IInstallableUnit> changed, IProfile profile) {
+		if (changed.isEmpty())
+			return;
+		start(IUS_PROPERTIES_ELEMENT);
+		attribute(COLLECTION_SIZE_ATTRIBUTE, changed.size());
+		for (IInstallableUnit iu : changed) {
+			Map<String, String> properties = profile.getInstallableUnitProperties(iu);
+			start(IU_PROPERTIES_ELEMENT);
+			attribute(ID_ATTRIBUTE, iu.getId());
+			attribute(VERSION_ATTRIBUTE, iu.getVersion().toString());
+			if (properties.isEmpty()) {
+				start(PROPERTIES_ELEMENT);
+				attribute(COLLECTION_SIZE_ATTRIBUTE, 0);
+				end(PROPERTIES_ELEMENT);
+			} else {
+				writeProperties(properties);
+			}
+			end(IU_PROPERTIES_ELEMENT);
+		}
+		end(IUS_PROPERTIES_ELEMENT);
+	}
+
 	private void writeInstallableUnitsProperties(Iterator<IInstallableUnit> it, int size, IProfile profile) {
 		if (size == 0)
 			return;
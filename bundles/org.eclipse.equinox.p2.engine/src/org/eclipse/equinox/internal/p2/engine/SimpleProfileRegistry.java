@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2018 IBM Corporation and others.
+ * Copyright (c) 2007, 2020 IBM Corporation and others.
  *
  * This
  * program and the accompanying materials are made available under the terms of
@@ -19,6 +19,8 @@ package org.eclipse.equinox.internal.p2.engine;
 import java.io.*;
 import java.lang.ref.SoftReference;
 import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.Map.Entry;
 import java.util.zip.GZIPInputStream;
@@ -33,6 +35,7 @@ import org.eclipse.equinox.p2.core.*;
 import org.eclipse.equinox.p2.core.spi.IAgentService;
 import org.eclipse.equinox.p2.engine.*;
 import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.query.IQuery;
 import org.eclipse.equinox.p2.query.IQueryResult;
 import org.eclipse.equinox.p2.query.QueryUtil;
 import org.eclipse.osgi.service.datalocation.Location;
@@ -50,6 +53,8 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 
 	private static final String PROFILE_EXT = ".profile"; //$NON-NLS-1$
 	private static final String PROFILE_GZ_EXT = ".profile.gz"; //$NON-NLS-1$
+	private static final String PROFILE_DELTA_EXT = ".profile.delta.gz"; //$NON-NLS-1$
+	private static final int DEFAULT_CHECKPOINT_INTERVAL = 10;
 	public static final String DEFAULT_STORAGE_DIR = "profileRegistry"; //$NON-NLS-1$
 	private static final String DATA_EXT = ".data"; //$NON-NLS-1$
 
@@ -208,22 +213,100 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 		if (!profileDirectory.isDirectory())
 			return null;
 
-		File profileFile = new File(profileDirectory, Long.toString(timestamp) + PROFILE_GZ_EXT);
-		if (!profileFile.exists()) {
-			profileFile = new File(profileDirectory, Long.toString(timestamp) + PROFILE_EXT);
-			if (!profileFile.exists())
-				return null;
+		File profileFile = findProfileFile(profileDirectory, timestamp);
+		if (profileFile == null)
+			return null;
+		return readState(id, profileDirectory, profileFile);
+	}
+
+	/*
+	 * Returns the file holding the state of a profile with the given timestamp, or null if
+	 * there is no such state.
+	 */
+	private File findProfileFile(File profileDirectory, long timestamp) {
+		for (String extension : new String[] {PROFILE_GZ_EXT, PROFILE_EXT, PROFILE_DELTA_EXT}) {
+			File profileFile = new File(profileDirectory, Long.toString(timestamp) + extension);
+			if (profileFile.exists())
+				return profileFile;
 		}
+		return null;
+	}
 
+	/*
+	 * Reads the state of a profile saved in the given file, replaying the deltas from the
+	 * last complete state when the file is a delta.
+	 */
+	private Profile readState(String id, File profileDirectory, File profileFile) {
+		List<File> stateFiles = getStateFiles(id, profileDirectory, profileFile);
+		if (stateFiles.isEmpty())
+			return null;
 		Parser parser = new Parser(EngineActivator.getContext(), EngineActivator.ID);
-		try {
-			parser.parse(profileFile);
-		} catch (IOException e) {
-			LogHelper.log(new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.error_parsing_profile, profileFile), e));
+		for (File stateFile : stateFiles) {
+			try {
+				parser.parse(stateFile);
+			} catch (IOException e) {
+				LogHelper.log(new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.error_parsing_profile, stateFile), e));
+			}
 		}
 		return parser.getProfileMap().get(id);
 	}
 
+	/*
+	 * Returns the files to read for the state saved in the given file: the last complete state
+	 * up to it, followed by the deltas after that state. Returns an empty list if the deltas
+	 * have no complete state to apply to.
+	 */
+	private List<File> getStateFiles(String id, File profileDirectory, File profileFile) {
+		LinkedList<File> stateFiles = new LinkedList<>();
+		stateFiles.add(profileFile);
+		if (!isDelta(profileFile))
+			return stateFiles;
+		long timestamp = getTimestamp(profileFile);
+		for (File previous : listStateFiles(profileDirectory).headMap(timestamp, false).descendingMap().values()) {
+			stateFiles.addFirst(previous);
+			if (!isDelta(previous))
+				return stateFiles;
+		}
+		LogHelper.log(new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.SimpleProfileRegistry_Missing_Complete_State, id, timestamp)));
+		return Collections.emptyList();
+	}
+
+	/*
+	 * Returns the files holding the states of a profile, by timestamp. A complete state is
+	 * preferred to a delta with the same timestamp.
+	 */
+	private NavigableMap<Long, File> listStateFiles(File profileDirectory) {
+		NavigableMap<Long, File> stateFiles = new TreeMap<>();
+		File[] profileFiles = profileDirectory.listFiles((FileFilter) pathname -> isProfileFile(pathname.getName()) && pathname.isFile());
+		// protect against NPE
+		if (profileFiles == null)
+			return stateFiles;
+		for (File profileFile : profileFiles) {
+			try {
+				long timestamp = getTimestamp(profileFile);
+				File other = stateFiles.get(timestamp);
+				if (other == null || isDelta(other))
+					stateFiles.put(timestamp, profileFile);
+			} catch (NumberFormatException e) {
+				// ignore
+			}
+		}
+		return stateFiles;
+	}
+
+	private static boolean isProfileFile(String name) {
+		return name.endsWith(PROFILE_EXT) || name.endsWith(PROFILE_GZ_EXT) || name.endsWith(PROFILE_DELTA_EXT);
+	}
+
+	private static boolean isDelta(File profileFile) {
+		return profileFile.getName().endsWith(PROFILE_DELTA_EXT);
+	}
+
+	private static long getTimestamp(File profileFile) {
+		String fileName = profileFile.getName();
+		return Long.parseLong(fileName.substring(0, fileName.indexOf(PROFILE_EXT)));
+	}
+
 	@Override
 	public synchronized long[] listProfileTimestamps(String id) {
 		if (SELF.equals(id))
@@ -236,7 +319,7 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 		if (!profileDirectory.isDirectory())
 			return new long[0];
 
-		File[] profileFiles = profileDirectory.listFiles((FileFilter) pathname -> (pathname.getName().endsWith(PROFILE_EXT) || pathname.getName().endsWith(PROFILE_GZ_EXT)) && pathname.isFile() && !pathname.getName().startsWith("._"));
+		File[] profileFiles = profileDirectory.listFiles((FileFilter) pathname -> isProfileFile(pathname.getName()) && pathname.isFile() && !pathname.getName().startsWith("._"));
 
 		long[] timestamps = new long[profileFiles.length];
 		for (int i = 0; i < profileFiles.length; i++) {
@@ -249,7 +332,8 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 			}
 		}
 		Arrays.sort(timestamps);
-		return timestamps;
+		// a delta being replaced by a complete state can briefly share its timestamp
+		return Arrays.stream(timestamps).distinct().toArray();
 	}
 
 	/**
@@ -395,6 +479,8 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 		ProfileLock lock = profileLocks.get(id);
 		lock.checkLocked();
 
+		// the state being replaced, to save the new state as its changes
+		Profile base = isDeltaHistory() ? current.snapshot() : null;
 		current.clearLocalProperties();
 		current.clearInstallableUnits();
 
@@ -406,7 +492,7 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 			if (iuProperties != null)
 				current.addInstallableUnitProperties(iu, iuProperties);
 		}
-		saveProfile(current);
+		saveProfile(current, base);
 		profile.clearOrphanedInstallableUnitProperties();
 		profile.setTimestamp(current.getTimestamp());
 		broadcastChangeEvent(id, IProfileEvent.CHANGED);
@@ -496,12 +582,10 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 		if (!profileDirectory.isDirectory())
 			return;
 
-		File profileFile = new File(profileDirectory, Long.toString(timestamp) + PROFILE_GZ_EXT);
-		if (!profileFile.exists()) {
-			profileFile = new File(profileDirectory, Long.toString(timestamp) + PROFILE_EXT);
-			if (!profileFile.exists())
-				return;
-		}
+		File profileFile = findProfileFile(profileDirectory, timestamp);
+		if (profileFile == null)
+			return;
+		rebaseNextState(id, profileDirectory, timestamp);
 		FileUtils.deleteAll(profileFile);
 		// Ignore the return value here. If there was a problem removing the profile state
 		// properties we don't want to fail the whole operation since the profile state itself
@@ -540,12 +624,14 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 			boolean locked = false;
 			if (lock.processHoldsLock() || (locked = lock.lock())) {
 				try {
-					File profileFile = findLatestProfileFile(profileDirectorie);
-					if (profileFile != null) {
-						try {
-							parser.parse(profileFile);
-						} catch (IOException e) {
-							LogHelper.log(new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.error_parsing_profile, profileFile), e));
+					File latestFile = findLatestProfileFile(profileDirectorie);
+					if (latestFile != null) {
+						for (File profileFile : getStateFiles(profileId, profileDirectorie, latestFile)) {
+							try {
+								parser.parse(profileFile);
+							} catch (IOException e) {
+								LogHelper.log(new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.error_parsing_profile, profileFile), e));
+							}
 						}
 					}
 				} finally {
@@ -563,15 +649,14 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 	private File findLatestProfileFile(File profileDirectory) {
 		File latest = null;
 		long latestTimestamp = 0;
-		File[] profileFiles = profileDirectory.listFiles((FileFilter) pathname -> (pathname.getName().endsWith(PROFILE_GZ_EXT) || pathname.getName().endsWith(PROFILE_EXT)) && !pathname.isDirectory());
+		File[] profileFiles = profileDirectory.listFiles((FileFilter) pathname -> isProfileFile(pathname.getName()) && !pathname.isDirectory());
 		// protect against NPE
 		if (profileFiles == null)
 			return null;
 		for (File profileFile : profileFiles) {
-			String fileName = profileFile.getName();
 			try {
-				long timestamp = Long.parseLong(fileName.substring(0, fileName.indexOf(PROFILE_EXT)));
-				if (timestamp > latestTimestamp) {
+				long timestamp = getTimestamp(profileFile);
+				if (timestamp > latestTimestamp || (timestamp == latestTimestamp && latest != null && isDelta(latest))) {
 					latestTimestamp = timestamp;
 					latest = profileFile;
 				}
@@ -583,6 +668,14 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 	}
 
 	private void saveProfile(Profile profile) {
+		saveProfile(profile, null);
+	}
+
+	/*
+	 * Saves the profile as a new state. When a base state is given and the history is kept as
+	 * deltas, the state is saved as its changes from the base state.
+	 */
+	private void saveProfile(Profile profile, Profile base) {
 		File profileDirectory = getProfileFolder(profile.getProfileId());
 		profileDirectory.mkdir();
 
@@ -591,7 +684,10 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 		if (currentTimestamp <= previousTimestamp)
 			currentTimestamp = previousTimestamp + 1;
 		boolean shouldGzipFile = shouldGzipFile(profile);
-		File profileFile = new File(profileDirectory, Long.toString(currentTimestamp) + (shouldGzipFile ? PROFILE_GZ_EXT : PROFILE_EXT));
+		// releases that do not gzip the profile cannot read deltas either
+		if (base != null && !(shouldGzipFile && shouldSaveDelta(profileDirectory, base.getTimestamp())))
+			base = null;
+		File profileFile = new File(profileDirectory, Long.toString(currentTimestamp) + (base != null ? PROFILE_DELTA_EXT : shouldGzipFile ? PROFILE_GZ_EXT : PROFILE_EXT));
 
 		// Log a stack trace to see who is writing the profile.
 		if (DebugHelper.DEBUG_PROFILE_REGISTRY)
@@ -599,28 +695,143 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 
 		profile.setTimestamp(currentTimestamp);
 		profile.setChanged(false);
-		OutputStream os = null;
 		try {
-			if (shouldGzipFile)
-				os = new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(profileFile)));
-			else
-				os = new BufferedOutputStream(new FileOutputStream(profileFile));
-			Writer writer = new Writer(os);
-			writer.writeProfile(profile);
+			writeProfile(profileFile, profile, base);
 		} catch (IOException e) {
 			profile.setTimestamp(previousTimestamp);
 			profileFile.delete();
 			LogHelper.log(new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.error_persisting_profile, profile.getProfileId()), e));
+		}
+	}
+
+	/*
+	 * Writes the profile to the given file, as its changes from the base state if one is given.
+	 */
+	private void writeProfile(File profileFile, Profile profile, Profile base) throws IOException {
+		OutputStream os;
+		if (profileFile.getName().endsWith(PROFILE_EXT))
+			os = new BufferedOutputStream(new FileOutputStream(profileFile));
+		else
+			os = new BufferedOutputStream(new GZIPOutputStream(new FileOutputStream(profileFile)));
+		try {
+			Writer writer = new Writer(os);
+			if (base != null)
+				writer.writeProfileDelta(base, profile);
+			else
+				writer.writeProfile(profile);
 		} finally {
 			try {
-				if (os != null)
-					os.close();
+				os.close();
 			} catch (IOException e) {
 				// ignore
 			}
 		}
 	}
 
+	/*
+	 * A delta is only saved on top of the latest state, and a complete state is saved at the
+	 * checkpoint interval so that no state needs too many deltas to be read.
+	 */
+	private boolean shouldSaveDelta(File profileDirectory, long baseTimestamp) {
+		NavigableMap<Long, File> stateFiles = listStateFiles(profileDirectory);
+		if (stateFiles.isEmpty() || stateFiles.lastKey() != baseTimestamp)
+			return false;
+		int deltas = 0;
+		for (File stateFile : stateFiles.descendingMap().values()) {
+			if (!isDelta(stateFile))
+				break;
+			deltas++;
+		}
+		return deltas + 1 < getCheckpointInterval();
+	}
+
+	/*
+	 * Before a state is removed, saves the state after it as a delta from the state before it,
+	 * or as a complete state if there is none, so that the deltas after it still apply.
+	 */
+	private void rebaseNextState(String id, File profileDirectory, long timestamp) {
+		NavigableMap<Long, File> stateFiles = listStateFiles(profileDirectory);
+		Entry<Long, File> next = stateFiles.higherEntry(timestamp);
+		if (next == null || !isDelta(next.getValue()))
+			return;
+		Profile nextState = readState(id, profileDirectory, next.getValue());
+		if (nextState == null)
+			return;
+		Entry<Long, File> previous = stateFiles.lowerEntry(timestamp);
+		Profile base = previous != null ? readState(id, profileDirectory, previous.getValue()) : null;
+		File profileFile = new File(profileDirectory, next.getKey() + (base != null ? PROFILE_DELTA_EXT : PROFILE_GZ_EXT));
+		File tempFile = new File(profileDirectory, profileFile.getName() + ".tmp"); //$NON-NLS-1$
+		try {
+			writeProfile(tempFile, nextState, base);
+			Files.move(tempFile.toPath(), profileFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			if (!profileFile.equals(next.getValue()))
+				FileUtils.deleteAll(next.getValue());
+		} catch (IOException e) {
+			tempFile.delete();
+			LogHelper.log(new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.error_persisting_profile, id), e));
+		}
+	}
+
+	/**
+	 * Saves the complete states of the given profile as their changes from the previous state,
+	 * keeping a complete state at the checkpoint interval. This migrates a history saved before
+	 * it was kept as deltas. The timestamps of the states, and so their state properties, do not
+	 * change.
+	 *
+	 * @param id the id of the profile
+	 */
+	public synchronized void compactProfileHistory(String id) {
+		if (SELF.equals(id))
+			id = self;
+		Profile internalProfile = internalGetProfile(id);
+		if (internalProfile == null)
+			throw new IllegalArgumentException(NLS.bind(Messages.profile_does_not_exist, id));
+		if (!internalLockProfile(internalProfile))
+			throw new IllegalStateException(Messages.SimpleProfileRegistry_Profile_in_use);
+		try {
+			File profileDirectory = getProfileFolder(id);
+			int interval = getCheckpointInterval();
+			Profile previous = null;
+			int deltas = 0;
+			for (File profileFile : listStateFiles(profileDirectory).values()) {
+				Profile state = isDelta(profileFile) && previous != null ? readDelta(profileFile, previous) : readState(id, profileDirectory, profileFile);
+				if (state == null) {
+					previous = null;
+					continue;
+				}
+				if (isDelta(profileFile)) {
+					deltas++;
+				} else if (previous != null && deltas + 1 < interval && shouldGzipFile(state)) {
+					writeProfile(new File(profileDirectory, state.getTimestamp() + PROFILE_DELTA_EXT), state, previous);
+					FileUtils.deleteAll(profileFile);
+					deltas++;
+				} else {
+					deltas = 0;
+				}
+				previous = state;
+			}
+		} catch (IOException e) {
+			LogHelper.log(new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.error_persisting_profile, id), e));
+		} finally {
+			internalUnlockProfile(internalProfile);
+		}
+	}
+
+	/*
+	 * Applies the delta saved in the given file to a copy of the given state.
+	 */
+	private Profile readDelta(File profileFile, Profile base) {
+		Parser parser = new Parser(EngineActivator.getContext(), EngineActivator.ID);
+		try {
+			parser.parse(profileFile);
+		} catch (IOException e) {
+			LogHelper.log(new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.error_parsing_profile, profileFile), e));
+			return null;
+		}
+		Profile state = base.snapshot();
+		return parser.applyDeltas(state) ? state : null;
+	}
+
 	public void setEventBus(IProvisioningEventBus bus) {
 		this.eventBus = bus;
 	}
@@ -638,6 +849,26 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 		return profile.available(QueryUtil.createIUQuery("org.eclipse.equinox.p2.engine", VersionRange.create("[0.0.0, 1.0.101)")), null).isEmpty(); //$NON-NLS-1$//$NON-NLS-2$
 	}
 
+	/**
+	 * Returns whether new states of a profile are saved as their changes from the previous state.
+	 */
+	private boolean isDeltaHistory() {
+		String history = EngineActivator.getContext().getProperty(EngineActivator.PROP_PROFILE_HISTORY);
+		return EngineActivator.PROFILE_HISTORY_DELTA.equals(history);
+	}
+
+	private int getCheckpointInterval() {
+		String interval = EngineActivator.getContext().getProperty(EngineActivator.PROP_PROFILE_CHECKPOINT_INTERVAL);
+		if (interval != null) {
+			try {
+				return Math.max(1, Integer.parseInt(interval));
+			} catch (NumberFormatException e) {
+				// use the default
+			}
+		}
+		return DEFAULT_CHECKPOINT_INTERVAL;
+	}
+
 	private void deleteProfile(String profileId) {
 		File profileDirectory = getProfileFolder(profileId);
 		FileUtils.deleteAll(profileDirectory);
@@ -704,6 +935,7 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 	 */
 	class Parser extends ProfileParser {
 		private final Map<String, ProfileHandler> profileHandlers = new HashMap<>();
+		private final Map<String, List<ProfileDeltaHandler>> deltaHandlers = new HashMap<>();
 
 		public Map<String, ProfileHandler> getProfileHandlers() {
 			return Collections.unmodifiableMap(profileHandlers);
@@ -719,7 +951,10 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 
 		public void parse(File file) throws IOException {
 			InputStream is;
-			if (file.getName().endsWith(PROFILE_GZ_EXT)) {
+			if (file.getName().endsWith(PROFILE_DELTA_EXT)) {
+				parseDelta(new BufferedInputStream(new GZIPInputStream(new FileInputStream(file))));
+				return;
+			} else if (file.getName().endsWith(PROFILE_GZ_EXT)) {
 				is = new BufferedInputStream(new GZIPInputStream(new FileInputStream(file)));
 			} else { // backward compatibility. SimpleProfileRegistry doesn't write non-gzipped profiles any more.
 				is = new BufferedInputStream(new FileInputStream(file));
@@ -728,15 +963,29 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 		}
 
 		public synchronized void parse(InputStream stream) throws IOException {
+			ProfileHandler profileHandler = new ProfileHandler();
+			parse(stream, PROFILE_ELEMENT, profileHandler);
+			profileHandlers.put(profileHandler.getProfileId(), profileHandler);
+		}
+
+		/**
+		 * Parses the changes to a profile. They are applied, in the order they were parsed,
+		 * to the complete state of the same profile.
+		 */
+		public synchronized void parseDelta(InputStream stream) throws IOException {
+			ProfileDeltaHandler deltaHandler = new ProfileDeltaHandler();
+			parse(stream, PROFILE_DELTA_ELEMENT, deltaHandler);
+			deltaHandlers.computeIfAbsent(deltaHandler.getProfileId(), id -> new ArrayList<>()).add(deltaHandler);
+		}
+
+		private void parse(InputStream stream, String rootName, RootHandler rootHandler) throws IOException {
 			this.status = null;
 			try {
 				// TODO: currently not caching the parser since we make no assumptions
 				//		 or restrictions on concurrent parsing
 				getParser();
-				ProfileHandler profileHandler = new ProfileHandler();
-				xmlReader.setContentHandler(new ProfileDocHandler(PROFILE_ELEMENT, profileHandler));
+				xmlReader.setContentHandler(new ProfileDocHandler(rootName, rootHandler));
 				xmlReader.parse(new InputSource(stream));
-				profileHandlers.put(profileHandler.getProfileId(), profileHandler);
 			} catch (SAXException e) {
 				IOException ioException = new IOException(e.getMessage());
 				ioException.initCause(e);
@@ -794,10 +1043,47 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 					}
 				}
 			}
+			applyDeltas(profile);
 			profile.setChanged(false);
 			profileMap.put(profileId, profile);
 		}
 
+		/**
+		 * Replays the parsed changes to the given profile, as long as each one applies to the
+		 * state the previous one gave. Returns whether all of them applied.
+		 */
+		public boolean applyDeltas(Profile profile) {
+			List<ProfileDeltaHandler> deltas = deltaHandlers.get(profile.getProfileId());
+			if (deltas == null)
+				return true;
+			IQuery<IInstallableUnit> all = QueryUtil.createIUAnyQuery();
+			for (ProfileDeltaHandler delta : deltas) {
+				if (delta.getBaseTimestamp() != profile.getTimestamp()) {
+					LogHelper.log(new Status(IStatus.ERROR, EngineActivator.ID, NLS.bind(Messages.SimpleProfileRegistry_Delta_Does_Not_Apply, new Object[] {profile.getProfileId(), delta.getTimestamp(), profile.getTimestamp()})));
+					return false;
+				}
+				profile.clearLocalProperties();
+				profile.addProperties(delta.getProperties());
+				for (VersionedId removed : delta.getRemovedInstallableUnits()) {
+					for (IInstallableUnit iu : profile.query(QueryUtil.createIUQuery(removed), null).toUnmodifiableSet()) {
+						profile.removeInstallableUnit(iu);
+						profile.clearInstallableUnitProperties(iu);
+					}
+				}
+				for (IInstallableUnit iu : delta.getAddedInstallableUnits())
+					profile.addInstallableUnit(iu);
+				for (IInstallableUnit iu : profile.query(all, null).toUnmodifiableSet()) {
+					Map<String, String> iuProperties = delta.getIUProperties(iu);
+					if (iuProperties != null) {
+						profile.clearInstallableUnitProperties(iu);
+						profile.addInstallableUnitProperties(iu, iuProperties);
+					}
+				}
+				profile.setTimestamp(delta.getTimestamp());
+			}
+			return true;
+		}
+
 		private final class ProfileDocHandler extends DocHandler {
 
 			public ProfileDocHandler(String rootName, RootHandler rootHandler) {
@@ -918,7 +1204,7 @@ public class SimpleProfileRegistry implements IProfileRegistry, IAgentService {
 		File profileDirectory = getProfileFolder(id);
 		if (!profileDirectory.isDirectory())
 			return false;
-		File[] profileFiles = profileDirectory.listFiles((FileFilter) pathname -> (pathname.getName().endsWith(PROFILE_GZ_EXT) || pathname.getName().endsWith(PROFILE_EXT)) && pathname.isFile());
+		File[] profileFiles = profileDirectory.listFiles((FileFilter) pathname -> isProfileFile(pathname.getName()) && pathname.isFile());
 		return profileFiles.length > 0;
 	}
 
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2008, 2017 IBM Corporation and others.
+ *  Copyright (c) 2008, 2020 IBM Corporation and others.
  *
  *  This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License 2.0
@@ -299,6 +299,22 @@ public class ProvisioningContext {
 		return QueryUtil.compoundQueryable(getLoadedMetadataRepositories(monitor));
 	}
 
+	/**
+	 * Returns a queryable that can be used to obtain the metadata repositories
+	 * that provide the metadata returned by {@link #getMetadata(IProgressMonitor)}.
+	 * The same lifecycle applies as for the metadata queryable.
+	 *
+	 * @param monitor a progress monitor to be used when loading the repositories
+	 * @return a queryable that can be used to query the loaded metadata repositories.
+	 *
+	 * @see #setMetadataRepositories(URI[])
+	 * @see #FOLLOW_REPOSITORY_REFERENCES
+	 * @since 2.7
+	 */
+	public IQueryable<IMetadataRepository> getMetadataRepositories(IProgressMonitor monitor) {
+		return new CollectionResult<>(getLoadedMetadataRepositories(monitor));
+	}
+
 	/**
 	 * Returns the list of additional installable units that should be considered as
 	 * available for installation by the planner. Returns an empty list if
@@ -0,0 +1,310 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.metadata.repository;
+
+import static org.eclipse.equinox.internal.p2.metadata.repository.BinaryMetadataRepositoryIO.*;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import org.eclipse.core.runtime.*;
+import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
+import org.eclipse.equinox.internal.p2.core.helpers.OrderedProperties;
+import org.eclipse.equinox.internal.p2.metadata.InstallableUnit;
+import org.eclipse.equinox.internal.p2.metadata.TranslationSupport;
+import org.eclipse.equinox.internal.p2.metadata.index.*;
+import org.eclipse.equinox.p2.core.IProvisioningAgent;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.metadata.expression.IEvaluationContext;
+import org.eclipse.equinox.p2.metadata.expression.IExpression;
+import org.eclipse.equinox.p2.metadata.index.IIndex;
+import org.eclipse.equinox.p2.metadata.index.IIndexProvider;
+import org.eclipse.equinox.p2.query.IQuery;
+import org.eclipse.equinox.p2.query.IQueryResult;
+import org.eclipse.equinox.p2.repository.IRepositoryReference;
+import org.eclipse.equinox.p2.repository.metadata.spi.AbstractMetadataRepository;
+import org.eclipse.equinox.p2.repository.spi.RepositoryReference;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * A read-only metadata repository backed by a memory mapped file in the format of
+ * {@link BinaryMetadataRepositoryIO}. Units are only created when they are first
+ * returned, and the id and capability indexes are read from the file instead of
+ * being built from the units.
+ */
+public class BinaryMetadataRepository extends AbstractMetadataRepository implements IIndexProvider<IInstallableUnit> {
+	private static final String REPOSITORY_TYPE = BinaryMetadataRepository.class.getName();
+	private static final Integer REPOSITORY_VERSION = 1;
+
+	private final ByteBuffer buffer;
+	private final String[] strings;
+	private final Version[] versions;
+	private final VersionRange[] versionRanges;
+	private final AtomicReferenceArray<IInstallableUnit> units;
+	private final List<IRepositoryReference> references;
+	private final Map<String, Long> sourceTimestamps;
+	private IIndex<IInstallableUnit> idIndex;
+	private IIndex<IInstallableUnit> capabilityIndex;
+	private TranslationSupport translationSupport;
+
+	BinaryMetadataRepository(IProvisioningAgent agent, URI location, ByteBuffer buffer) {
+		super(agent);
+		this.buffer = buffer;
+		this.strings = new String[buffer.getInt(HEADER_STRING_COUNT)];
+		this.versions = new Version[strings.length];
+		this.versionRanges = new VersionRange[strings.length];
+		this.units = new AtomicReferenceArray<>(buffer.getInt(HEADER_UNIT_COUNT));
+
+		int position = buffer.getInt(HEADER_REPOSITORY);
+		String name = getString(buffer.getInt(position));
+		String provider = getString(buffer.getInt(position + 4));
+		String description = getString(buffer.getInt(position + 8));
+		int propertyCount = buffer.getInt(position + 12);
+		position += 16;
+		OrderedProperties properties = new OrderedProperties(propertyCount);
+		for (int i = 0; i < propertyCount; i++, position += 8)
+			properties.put(getString(buffer.getInt(position)), getString(buffer.getInt(position + 4)));
+		int referenceCount = buffer.getInt(position);
+		position += 4;
+		List<IRepositoryReference> referenceList = new ArrayList<>(referenceCount);
+		for (int i = 0; i < referenceCount; i++, position += 12)
+			referenceList.add(new RepositoryReference(URI.create(getString(buffer.getInt(position))), null, buffer.getInt(position + 4), buffer.getInt(position + 8)));
+		this.references = Collections.unmodifiableList(referenceList);
+		int sourceCount = buffer.getInt(position);
+		position += 4;
+		Map<String, Long> sources = new HashMap<>(sourceCount * 2);
+		for (int i = 0; i < sourceCount; i++, position += 12)
+			sources.put(getString(buffer.getInt(position)), buffer.getLong(position + 4));
+		this.sourceTimestamps = Collections.unmodifiableMap(sources);
+
+		setName(name == null ? location.toString() : name);
+		setType(REPOSITORY_TYPE);
+		setVersion(REPOSITORY_VERSION.toString());
+		setProvider(provider);
+		setDescription(description);
+		setLocation(location);
+		setProperties(properties);
+	}
+
+	@Override
+	public void initialize(RepositoryState state) {
+		// the state is read from the mapped file instead
+	}
+
+	@Override
+	public Collection<IRepositoryReference> getReferences() {
+		return references;
+	}
+
+	/**
+	 * Returns the modification times of the files this repository was generated from,
+	 * by file name.
+	 */
+	Map<String, Long> getSourceTimestamps() {
+		return sourceTimestamps;
+	}
+
+	@Override
+	public boolean isModifiable() {
+		return false;
+	}
+
+	@Override
+	public IQueryResult<IInstallableUnit> query(IQuery<IInstallableUnit> query, IProgressMonitor monitor) {
+		return IndexProvider.query(this, query, monitor);
+	}
+
+	@Override
+	public synchronized IIndex<IInstallableUnit> getIndex(String memberName) {
+		if (InstallableUnit.MEMBER_ID.equals(memberName)) {
+			if (idIndex == null)
+				idIndex = new BinaryIdIndex();
+			return idIndex;
+		}
+
+		if (InstallableUnit.MEMBER_PROVIDED_CAPABILITIES.equals(memberName)) {
+			if (capabilityIndex == null)
+				capabilityIndex = new BinaryCapabilityIndex();
+			return capabilityIndex;
+		}
+		return null;
+	}
+
+	@Override
+	public synchronized Object getManagedProperty(Object client, String memberName, Object key) {
+		if (!(client instanceof IInstallableUnit))
+			return null;
+		IInstallableUnit iu = (IInstallableUnit) client;
+		if (InstallableUnit.MEMBER_TRANSLATED_PROPERTIES.equals(memberName)) {
+			if (translationSupport == null)
+				translationSupport = new TranslationSupport(this);
+			return key instanceof KeyWithLocale ? translationSupport.getIUProperty(iu, (KeyWithLocale) key) : translationSupport.getIUProperty(iu, key.toString());
+		}
+		return null;
+	}
+
+	@Override
+	public Iterator<IInstallableUnit> everything() {
+		List<IInstallableUnit> result = new ArrayList<>(units.length());
+		for (int i = 0; i < units.length(); i++) {
+			IInstallableUnit unit = getUnit(i);
+			if (unit != null)
+				result.add(unit);
+		}
+		return result.iterator();
+	}
+
+	/**
+	 * Returns the unit with the given number, creating it from its record if this
+	 * has not happened before. Returns <code>null</code> if the record cannot be read.
+	 */
+	private IInstallableUnit getUnit(int unit) {
+		IInstallableUnit result = units.get(unit);
+		if (result != null)
+			return result;
+		int position = buffer.getInt(HEADER_UNITS) + unit * 8;
+		try {
+			result = BinaryMetadataRepositoryIO.readUnit(this, buffer, buffer.getInt(position), buffer.getInt(position + 4));
+		} catch (IOException e) {
+			LogHelper.log(new Status(IStatus.ERROR, Constants.ID, NLS.bind(Messages.io_failedRead, getLocation()), e));
+			return null;
+		}
+		return units.compareAndSet(unit, null, result) ? result : units.get(unit);
+	}
+
+	/**
+	 * Returns the units listed for the given string in the index whose size and
+	 * offset are stored at the given header position.
+	 */
+	Collection<IInstallableUnit> getUnits(int indexHeader, String key) {
+		int string = findString(key);
+		if (string < 0)
+			return Collections.emptySet();
+		int size = buffer.getInt(indexHeader);
+		int offset = buffer.getInt(indexHeader + 4);
+		// find the first entry for the string
+		int low = 0;
+		int high = size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (buffer.getInt(offset + mid * 8) < string)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		List<IInstallableUnit> result = new ArrayList<>();
+		for (int i = low; i < size && buffer.getInt(offset + i * 8) == string; i++) {
+			IInstallableUnit unit = getUnit(buffer.getInt(offset + i * 8 + 4));
+			if (unit != null)
+				result.add(unit);
+		}
+		return result;
+	}
+
+	String getString(int string) {
+		if (string < 0)
+			return null;
+		String result = strings[string];
+		if (result == null) {
+			int position = buffer.getInt(HEADER_STRINGS) + string * 4;
+			int start = buffer.getInt(position);
+			byte[] bytes = new byte[buffer.getInt(position + 4) - start];
+			ByteBuffer source = buffer.duplicate();
+			source.position(start);
+			source.get(bytes);
+			result = new String(bytes, StandardCharsets.UTF_8);
+			strings[string] = result;
+		}
+		return result;
+	}
+
+	Version getVersion(int string) {
+		if (string < 0)
+			return null;
+		Version result = versions[string];
+		if (result == null) {
+			result = Version.create(getString(string));
+			versions[string] = result;
+		}
+		return result;
+	}
+
+	VersionRange getVersionRange(int string) {
+		if (string < 0)
+			return null;
+		VersionRange result = versionRanges[string];
+		if (result == null) {
+			result = VersionRange.create(getString(string));
+			versionRanges[string] = result;
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the number of the given string in the string table, or a negative
+	 * number if the table does not contain it.
+	 */
+	private int findString(String key) {
+		int low = 0;
+		int high = strings.length - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			int comparison = getString(mid).compareTo(key);
+			if (comparison < 0)
+				low = mid + 1;
+			else if (comparison > 0)
+				high = mid - 1;
+			else
+				return mid;
+		}
+		return -1;
+	}
+
+	private final class BinaryIdIndex extends Index<IInstallableUnit> {
+		@Override
+		public Iterator<IInstallableUnit> getCandidates(IEvaluationContext ctx, IExpression variable, IExpression booleanExpr) {
+			Object queriedKeys = getQueriedIDs(ctx, variable, InstallableUnit.MEMBER_ID, booleanExpr, null);
+			if (queriedKeys == null)
+				return null;
+
+			if (queriedKeys instanceof Collection<?>) {
+				HashSet<IInstallableUnit> collector = new HashSet<>();
+				for (Object key : (Collection<?>) queriedKeys)
+					collector.addAll(getUnits(HEADER_ID_INDEX, (String) key));
+				return collector.iterator();
+			}
+			return getUnits(HEADER_ID_INDEX, (String) queriedKeys).iterator();
+		}
+	}
+
+	private final class BinaryCapabilityIndex extends CapabilityIndex {
+		BinaryCapabilityIndex() {
+			super(Collections.emptyIterator());
+		}
+
+		@Override
+		protected Collection<IInstallableUnit> getUnits(String key, boolean namespace) {
+			return BinaryMetadataRepository.this.getUnits(namespace ? HEADER_NAMESPACE_INDEX : HEADER_NAME_INDEX, key);
+		}
+
+		@Override
+		protected Collection<IInstallableUnit> getUnits(String name, String namespace, VersionRange range) {
+			// the candidates are matched against the requirement afterwards
+			return getUnits(name, false);
+		}
+	}
+}
@@ -0,0 +1,168 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.metadata.repository;
+
+import java.io.*;
+import java.net.URI;
+import java.nio.file.NoSuchFileException;
+import java.util.Map;
+import org.eclipse.core.runtime.*;
+import org.eclipse.equinox.internal.p2.core.helpers.Tracing;
+import org.eclipse.equinox.internal.p2.repository.CacheManager;
+import org.eclipse.equinox.internal.p2.repository.Transport;
+import org.eclipse.equinox.p2.core.ProvisionException;
+import org.eclipse.equinox.p2.repository.IRepositoryManager;
+import org.eclipse.equinox.p2.repository.metadata.IMetadataRepository;
+import org.eclipse.equinox.p2.repository.metadata.spi.MetadataRepositoryFactory;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * Loads the binary form of a metadata repository, see {@link BinaryMetadataRepositoryIO}.
+ * It is only tried for repositories whose p2.index asks for it, or after the other
+ * factories did not find a repository. The binary form is generated from a simple repository and cannot be modified, so
+ * this factory does not create repositories.
+ */
+public class BinaryMetadataRepositoryFactory extends MetadataRepositoryFactory {
+	public static final String REPOSITORY_FILENAME = "content.p2b"; //$NON-NLS-1$
+	private static final String PROTOCOL_FILE = "file"; //$NON-NLS-1$
+
+	/**
+	 * The files of a simple repository the binary form is generated from. Their
+	 * modification times are recorded in the binary form.
+	 */
+	static final String[] SOURCE_FILENAMES = {"content.xml", "content.jar", "content.xml.xz", LocalMetadataRepository.JOURNAL_FILENAME}; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+
+	@Override
+	public IMetadataRepository create(URI location, String name, String type, Map<String, String> properties) {
+		return null;
+	}
+
+	/**
+	 * Returns a file in the local file system that contains the binary form of the
+	 * metadata repository at the given location.
+	 */
+	private File getDataFile(URI location, IProgressMonitor monitor) throws IOException, ProvisionException {
+		SubMonitor sub = SubMonitor.convert(monitor, 300);
+		URI binaryLocation = URIUtil.append(location, REPOSITORY_FILENAME);
+		// If the repository is local, we can return the data file directly
+		if (PROTOCOL_FILE.equals(binaryLocation.getScheme())) {
+			File localFile = URIUtil.toFile(binaryLocation);
+			if (localFile.exists())
+				return new File(localFile.getParentFile(), BinaryMetadataRepositoryIO.readDataFileName(localFile));
+			String msg = NLS.bind(Messages.io_failedRead, location);
+			throw new ProvisionException(new Status(IStatus.ERROR, Constants.ID, ProvisionException.REPOSITORY_NOT_FOUND, msg, null));
+		}
+		// file is not local, create a cache of the repository metadata
+		CacheManager cache = getAgent().getService(CacheManager.class);
+		if (cache == null)
+			throw new IllegalArgumentException("Cache manager service not available"); //$NON-NLS-1$
+		File localFile = cache.createCacheFromFile(binaryLocation, sub.newChild(100));
+		// each data file has its own name, so its cache is never replaced while it is mapped
+		File dataFile = localFile == null ? null : cache.createCacheFromFile(URIUtil.append(location, BinaryMetadataRepositoryIO.readDataFileName(localFile)), sub.newChild(200));
+		if (dataFile == null) {
+			// there is no remote file - this should not really happen as
+			// createCache should bail out with exception if something is wrong. This is an internal
+			// error.
+			throw new ProvisionException(new Status(IStatus.ERROR, Constants.ID, ProvisionException.REPOSITORY_NOT_FOUND, Messages.repoMan_internalError, null));
+		}
+		return dataFile;
+	}
+
+	/**
+	 * Returns whether the simple repository at the given location was changed after
+	 * the given binary form was generated from it, so that the simple repository must
+	 * be loaded instead. The modification times recorded in the binary form are compared
+	 * with those of the files of the simple repository, in whole seconds because that is
+	 * all some transports report. A file that cannot be checked counts as changed.
+	 * <p>
+	 * A remote repository is published as a whole, so only its newest file is checked,
+	 * which costs a single request.
+	 * </p>
+	 */
+	private boolean isStale(URI location, File dataFile, BinaryMetadataRepository repository, IProgressMonitor monitor) {
+		Map<String, Long> sources = repository.getSourceTimestamps();
+		if (PROTOCOL_FILE.equals(location.getScheme())) {
+			for (String source : SOURCE_FILENAMES) {
+				File sourceFile = new File(dataFile.getParentFile(), source);
+				Long recorded = sources.get(source);
+				if (recorded == null ? sourceFile.lastModified() > dataFile.lastModified() : !sourceFile.exists() || !isSameTime(recorded, sourceFile.lastModified()))
+					return true;
+			}
+			return false;
+		}
+		Map.Entry<String, Long> newest = null;
+		for (Map.Entry<String, Long> source : sources.entrySet()) {
+			if (newest == null || source.getValue() > newest.getValue())
+				newest = source;
+		}
+		if (newest == null)
+			return false;
+		Transport transport = getAgent().getService(Transport.class);
+		if (transport == null)
+			return true;
+		try {
+			return !isSameTime(newest.getValue(), transport.getLastModified(URIUtil.append(location, newest.getKey()), monitor));
+		} catch (CoreException | IOException e) {
+			return true;
+		}
+	}
+
+	private static boolean isSameTime(long recorded, long current) {
+		return recorded / 1000 == current / 1000;
+	}
+
+	@Override
+	public IMetadataRepository load(URI location, int flags, IProgressMonitor monitor) throws ProvisionException {
+		// the binary form is never modifiable
+		if ((flags & IRepositoryManager.REPOSITORY_HINT_MODIFIABLE) > 0)
+			return null;
+		long time = 0;
+		final String debugMsg = "Validating and loading metadata repository "; //$NON-NLS-1$
+		if (Tracing.DEBUG_METADATA_PARSING) {
+			Tracing.debug(debugMsg + location);
+			time = -System.currentTimeMillis();
+		}
+		SubMonitor sub = SubMonitor.convert(monitor, 400);
+		try {
+			BinaryMetadataRepositoryIO io = new BinaryMetadataRepositoryIO(getAgent());
+			File dataFile = getDataFile(location, sub.newChild(300));
+			BinaryMetadataRepository result;
+			try {
+				result = io.read(location, dataFile);
+			} catch (NoSuchFileException e) {
+				// the binary form was generated again and the data file we were pointed to is gone
+				dataFile = getDataFile(location, sub.newChild(0));
+				result = io.read(location, dataFile);
+			}
+			if (isStale(location, dataFile, result, sub.newChild(100))) {
+				String msg = NLS.bind(Messages.io_failedRead, location);
+				throw new ProvisionException(new Status(IStatus.ERROR, Constants.ID, ProvisionException.REPOSITORY_NOT_FOUND, msg, null));
+			}
+			if (Tracing.DEBUG_METADATA_PARSING) {
+				time += System.currentTimeMillis();
+				Tracing.debug(debugMsg + "time (ms): " + time); //$NON-NLS-1$
+			}
+			return result;
+		} catch (FileNotFoundException | NoSuchFileException e) {
+			String msg = NLS.bind(Messages.io_failedRead, location);
+			throw new ProvisionException(new Status(IStatus.ERROR, Constants.ID, ProvisionException.REPOSITORY_NOT_FOUND, msg, e));
+		} catch (IOException e) {
+			String msg = NLS.bind(Messages.io_failedRead, location);
+			throw new ProvisionException(new Status(IStatus.ERROR, Constants.ID, ProvisionException.REPOSITORY_FAILED_READ, msg, e));
+		} finally {
+			if (monitor != null)
+				monitor.done();
+		}
+	}
+}
@@ -0,0 +1,811 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.metadata.repository;
+
+import java.io.*;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import org.eclipse.equinox.internal.p2.metadata.*;
+import org.eclipse.equinox.internal.p2.metadata.repository.io.MetadataParser;
+import org.eclipse.equinox.p2.core.IProvisioningAgent;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.metadata.MetadataFactory.*;
+import org.eclipse.equinox.p2.metadata.expression.*;
+import org.eclipse.equinox.p2.query.QueryUtil;
+import org.eclipse.equinox.p2.repository.IRepositoryReference;
+import org.eclipse.equinox.p2.repository.metadata.IMetadataRepository;
+
+/**
+ * Reads and writes the binary form of a metadata repository. The data file is meant
+ * to be memory mapped, so that a repository can be opened without reading its units.
+ * The repository file only holds the name of the current data file, see
+ * {@link #write(IMetadataRepository, File)}. All numbers are big endian, offsets are relative to the start of the file:
+ * <pre>
+ * header      magic, format version, string count, string table offset,
+ *             repository offset, unit count, unit table offset,
+ *             id index size and offset, name index size and offset,
+ *             namespace index size and offset
+ * strings     string count + 1 offsets followed by the UTF-8 bytes of the strings,
+ *             sorted by {@link String#compareTo(String)}
+ * repository  name, provider and description string, property count followed by
+ *             key and value strings, reference count followed by uri string, type
+ *             and options, source count followed by the name string and the long
+ *             modification time of each file the repository was generated from
+ * units       offset and length of the record of each unit
+ * indexes     pairs of a string and a unit, sorted by string and then by unit
+ * records     one record per unit, see {@link UnitWriter}
+ * </pre>
+ * Strings are referred to by their position in the string table, -1 stands for
+ * <code>null</code>. Versions and version ranges are stored as strings, so that
+ * each distinct version is parsed only once.
+ */
+public class BinaryMetadataRepositoryIO {
+	static final int MAGIC = 0x50324D42; // "P2MB"
+	static final int FORMAT_VERSION = 2;
+
+	static final int HEADER_STRING_COUNT = 8;
+	static final int HEADER_STRINGS = 12;
+	static final int HEADER_REPOSITORY = 16;
+	static final int HEADER_UNIT_COUNT = 20;
+	static final int HEADER_UNITS = 24;
+	static final int HEADER_ID_INDEX = 28;
+	static final int HEADER_NAME_INDEX = 36;
+	static final int HEADER_NAMESPACE_INDEX = 44;
+	private static final int HEADER_SIZE = 52;
+
+	private static final byte KIND_UNIT = 0;
+	private static final byte KIND_FRAGMENT = 1;
+	private static final byte KIND_PATCH = 2;
+
+	private static final byte MATCH_RANGE = 0;
+	private static final byte MATCH_PROPERTIES = 1;
+	private static final byte MATCH_EXPRESSION = 2;
+
+	private static final byte VALUE_STRING = 0;
+	private static final byte VALUE_INTEGER = 1;
+	private static final byte VALUE_LONG = 2;
+	private static final byte VALUE_FLOAT = 3;
+	private static final byte VALUE_DOUBLE = 4;
+	private static final byte VALUE_BYTE = 5;
+	private static final byte VALUE_SHORT = 6;
+	private static final byte VALUE_CHARACTER = 7;
+	private static final byte VALUE_BOOLEAN = 8;
+	private static final byte VALUE_VERSION = 9;
+	private static final byte VALUE_LIST = 10;
+
+	private static final String DATA_FILE_PREFIX = "content-"; //$NON-NLS-1$
+	private static final String DATA_FILE_SUFFIX = ".p2b"; //$NON-NLS-1$
+
+	private final IProvisioningAgent agent;
+
+	public BinaryMetadataRepositoryIO(IProvisioningAgent agent) {
+		this.agent = agent;
+	}
+
+	/**
+	 * Writes the given repository in the binary form next to the given repository file,
+	 * and then points the repository file to it. The modification times of the files of
+	 * a simple repository in the same folder are recorded, so that readers can tell when
+	 * the binary form is out of date.
+	 * <p>
+	 * Each write goes to a new data file, because a data file that readers mapped cannot
+	 * be replaced or deleted on every platform. Only the small repository file is replaced.
+	 * Previous data files are deleted where possible, those still in use are deleted by a
+	 * later write.
+	 * </p>
+	 */
+	public void write(IMetadataRepository repository, File file) throws IOException {
+		File folder = file.getParentFile();
+		Map<String, Long> sources = new LinkedHashMap<>();
+		for (String source : BinaryMetadataRepositoryFactory.SOURCE_FILENAMES) {
+			File sourceFile = new File(folder, source);
+			if (sourceFile.isFile())
+				sources.put(source, sourceFile.lastModified());
+		}
+		long generation = System.currentTimeMillis();
+		File dataFile;
+		while (!(dataFile = new File(folder, DATA_FILE_PREFIX + generation + DATA_FILE_SUFFIX)).createNewFile())
+			generation++;
+		File temp = new File(folder, file.getName() + ".tmp"); //$NON-NLS-1$
+		boolean done = false;
+		try {
+			try (OutputStream output = new FileOutputStream(dataFile)) {
+				write(repository, sources, output);
+			}
+			Files.write(temp.toPath(), dataFile.getName().getBytes(StandardCharsets.UTF_8));
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			done = true;
+		} finally {
+			temp.delete();
+			if (!done)
+				dataFile.delete();
+		}
+		String current = dataFile.getName();
+		File[] previous = folder.listFiles((dir, name) -> isDataFileName(name) && !name.equals(current));
+		if (previous != null) {
+			for (File previousFile : previous)
+				previousFile.delete();
+		}
+	}
+
+	/**
+	 * Returns the name of the data file the given repository file points to. The data
+	 * file is in the same folder as the repository file.
+	 */
+	public static String readDataFileName(File file) throws IOException {
+		String name = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8).trim();
+		if (!isDataFileName(name))
+			throw new IOException(Messages.io_parseError);
+		return name;
+	}
+
+	private static boolean isDataFileName(String name) {
+		if (!name.startsWith(DATA_FILE_PREFIX) || !name.endsWith(DATA_FILE_SUFFIX) || name.length() == DATA_FILE_PREFIX.length() + DATA_FILE_SUFFIX.length())
+			return false;
+		for (int i = DATA_FILE_PREFIX.length(); i < name.length() - DATA_FILE_SUFFIX.length(); i++) {
+			if (name.charAt(i) < '0' || name.charAt(i) > '9')
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Writes the given repository in the binary form to the given stream and closes it.
+	 *
+	 * @param sources the modification times of the files the repository was read from,
+	 * by file name
+	 */
+	public void write(IMetadataRepository repository, Map<String, Long> sources, OutputStream output) throws IOException {
+		List<IInstallableUnit> units = new ArrayList<>(repository.query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet());
+		Collection<IRepositoryReference> references = repository.getReferences();
+		if (references == null)
+			references = Collections.emptyList();
+		Map<String, String> properties = repository.getProperties();
+
+		// collect and number the strings
+		TreeSet<String> stringSet = new TreeSet<>();
+		addString(stringSet, repository.getName());
+		addString(stringSet, repository.getProvider());
+		addString(stringSet, repository.getDescription());
+		stringSet.addAll(properties.keySet());
+		stringSet.addAll(properties.values());
+		for (IRepositoryReference reference : references)
+			stringSet.add(reference.getLocation().toString());
+		stringSet.addAll(sources.keySet());
+		UnitWriter collector = new UnitWriter(new OutputStream() {
+			@Override
+			public void write(int b) {
+				// only the strings are of interest
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+				// only the strings are of interest
+			}
+		}, stringSet, null);
+		for (IInstallableUnit unit : units)
+			collector.writeUnit(unit);
+		Map<String, Integer> stringIndex = new HashMap<>(stringSet.size() * 2);
+		byte[][] strings = new byte[stringSet.size()][];
+		for (String string : stringSet) {
+			strings[stringIndex.size()] = string.getBytes(StandardCharsets.UTF_8);
+			stringIndex.put(string, stringIndex.size());
+		}
+
+		// serialize the units and build the indexes
+		byte[][] records = new byte[units.size()][];
+		long[] idIndex = new long[units.size()];
+		List<Long> nameIndex = new ArrayList<>();
+		List<Long> namespaceIndex = new ArrayList<>();
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		UnitWriter writer = new UnitWriter(buffer, null, stringIndex);
+		for (int i = 0; i < records.length; i++) {
+			IInstallableUnit unit = units.get(i);
+			writer.writeUnit(unit);
+			records[i] = buffer.toByteArray();
+			buffer.reset();
+			idIndex[i] = indexEntry(stringIndex.get(unit.getId()), i);
+			for (IProvidedCapability capability : unit.getProvidedCapabilities()) {
+				nameIndex.add(indexEntry(stringIndex.get(capability.getName()), i));
+				namespaceIndex.add(indexEntry(stringIndex.get(capability.getNamespace()), i));
+			}
+		}
+		long[][] indexes = {sortUnique(idIndex), sortUnique(nameIndex), sortUnique(namespaceIndex)};
+
+		// lay out the sections
+		int stringsOffset = HEADER_SIZE;
+		int repositoryOffset = stringsOffset + (strings.length + 1) * 4 + totalLength(strings);
+		int unitsOffset = repositoryOffset + 6 * 4 + properties.size() * 8 + references.size() * 12 + sources.size() * 12;
+		int[] indexOffsets = new int[indexes.length];
+		int offset = unitsOffset + records.length * 8;
+		for (int i = 0; i < indexes.length; i++) {
+			indexOffsets[i] = offset;
+			offset += indexes[i].length * 8;
+		}
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output))) {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeInt(strings.length);
+			out.writeInt(stringsOffset);
+			out.writeInt(repositoryOffset);
+			out.writeInt(records.length);
+			out.writeInt(unitsOffset);
+			for (int i = 0; i < indexes.length; i++) {
+				out.writeInt(indexes[i].length);
+				out.writeInt(indexOffsets[i]);
+			}
+
+			int stringOffset = repositoryOffset - totalLength(strings);
+			for (byte[] string : strings) {
+				out.writeInt(stringOffset);
+				stringOffset += string.length;
+			}
+			out.writeInt(stringOffset);
+			for (byte[] string : strings)
+				out.write(string);
+
+			out.writeInt(getString(stringIndex, repository.getName()));
+			out.writeInt(getString(stringIndex, repository.getProvider()));
+			out.writeInt(getString(stringIndex, repository.getDescription()));
+			out.writeInt(properties.size());
+			for (Map.Entry<String, String> property : properties.entrySet()) {
+				out.writeInt(stringIndex.get(property.getKey()));
+				out.writeInt(stringIndex.get(property.getValue()));
+			}
+			out.writeInt(references.size());
+			for (IRepositoryReference reference : references) {
+				out.writeInt(stringIndex.get(reference.getLocation().toString()));
+				out.writeInt(reference.getType());
+				out.writeInt(reference.getOptions());
+			}
+			out.writeInt(sources.size());
+			for (Map.Entry<String, Long> source : sources.entrySet()) {
+				out.writeInt(stringIndex.get(source.getKey()));
+				out.writeLong(source.getValue());
+			}
+
+			int recordOffset = offset;
+			for (byte[] record : records) {
+				out.writeInt(recordOffset);
+				out.writeInt(record.length);
+				recordOffset += record.length;
+			}
+			for (long[] index : indexes) {
+				for (long entry : index) {
+					out.writeInt((int) (entry >>> 32));
+					out.writeInt((int) entry);
+				}
+			}
+			for (byte[] record : records)
+				out.write(record);
+		}
+	}
+
+	/**
+	 * Maps the given data file and returns the repository it holds.
+	 */
+	public BinaryMetadataRepository read(URI location, File file) throws IOException {
+		MappedByteBuffer buffer;
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC)
+			throw new IOException(Messages.io_parseError);
+		if (buffer.getInt(4) != FORMAT_VERSION)
+			throw new IOException(Messages.io_parseError);
+		return new BinaryMetadataRepository(agent, location, buffer);
+	}
+
+	/**
+	 * Creates the unit held by the record at the given position of the buffer. The
+	 * strings of the record are looked up in the given repository.
+	 */
+	static IInstallableUnit readUnit(BinaryMetadataRepository repository, ByteBuffer buffer, int offset, int length) throws IOException {
+		ByteBuffer record = buffer.duplicate();
+		record.limit(offset + length).position(offset);
+		try {
+			return new UnitReader(repository, record).readUnit();
+		} catch (RuntimeException e) {
+			IOException ioException = new IOException(Messages.io_parseError);
+			ioException.initCause(e);
+			throw ioException;
+		}
+	}
+
+	private static void addString(Set<String> strings, String string) {
+		if (string != null)
+			strings.add(string);
+	}
+
+	private static int getString(Map<String, Integer> stringIndex, String string) {
+		return string == null ? -1 : stringIndex.get(string);
+	}
+
+	private static int totalLength(byte[][] strings) {
+		int length = 0;
+		for (byte[] string : strings)
+			length += string.length;
+		return length;
+	}
+
+	private static long indexEntry(int string, int unit) {
+		return ((long) string << 32) | unit;
+	}
+
+	private static long[] sortUnique(List<Long> entries) {
+		long[] result = new long[entries.size()];
+		for (int i = 0; i < result.length; i++)
+			result[i] = entries.get(i);
+		return sortUnique(result);
+	}
+
+	private static long[] sortUnique(long[] entries) {
+		Arrays.sort(entries);
+		int size = 0;
+		for (int i = 0; i < entries.length; i++)
+			if (size == 0 || entries[size - 1] != entries[i])
+				entries[size++] = entries[i];
+		return Arrays.copyOf(entries, size);
+	}
+
+	/**
+	 * Writes the record of a unit. Collections are written as their size followed by
+	 * their elements:
+	 * <pre>
+	 * unit         kind (unit, fragment or patch), id, version, singleton, the
+	 *              hosts of a fragment or the applicability scope, requirement
+	 *              changes and life cycle of a patch, properties (key and value),
+	 *              provided capabilities, requirements,
+	 *              meta requirements, filter, artifacts (classifier, id and version),
+	 *              touchpoint type id and version, touchpoint data (instructions of
+	 *              key, body and import attribute), update descriptor (matches,
+	 *              severity, description and location, or -1 for none), licenses
+	 *              (location and body), copyright (present, location and body)
+	 * capability   namespace, name, version, properties (key and typed value)
+	 * requirement  match, filter, min, max, greedy, description
+	 * match        kind followed by namespace, name and range, by namespace and
+	 *              properties filter, or by expression and parameters
+	 * </pre>
+	 * Strings are collected into the given set while the string table is not known yet.
+	 */
+	private static final class UnitWriter {
+		private final DataOutputStream out;
+		private final Set<String> strings;
+		private final Map<String, Integer> stringIndex;
+
+		UnitWriter(OutputStream output, Set<String> strings, Map<String, Integer> stringIndex) {
+			this.out = new DataOutputStream(output);
+			this.strings = strings;
+			this.stringIndex = stringIndex;
+		}
+
+		void writeUnit(IInstallableUnit resolvedUnit) throws IOException {
+			IInstallableUnit unit = resolvedUnit.unresolved();
+			if (unit instanceof IInstallableUnitPatch)
+				out.writeByte(KIND_PATCH);
+			else if (unit instanceof IInstallableUnitFragment)
+				out.writeByte(KIND_FRAGMENT);
+			else
+				out.writeByte(KIND_UNIT);
+			writeString(unit.getId());
+			writeString(unit.getVersion().toString());
+			out.writeBoolean(unit.isSingleton());
+			if (unit instanceof IInstallableUnitPatch) {
+				IInstallableUnitPatch patch = (IInstallableUnitPatch) unit;
+				IRequirement[][] scope = patch.getApplicabilityScope();
+				out.writeInt(scope.length);
+				for (IRequirement[] requirements : scope)
+					writeRequirements(Arrays.asList(requirements));
+				List<IRequirementChange> changes = patch.getRequirementsChange();
+				out.writeInt(changes.size());
+				for (IRequirementChange change : changes) {
+					writeOptionalRequirement(change.applyOn());
+					writeOptionalRequirement(change.newValue());
+				}
+				writeOptionalRequirement(patch.getLifeCycle());
+			} else if (unit instanceof IInstallableUnitFragment) {
+				writeRequirements(((IInstallableUnitFragment) unit).getHost());
+			}
+
+			Map<String, String> properties = unit.getProperties();
+			out.writeInt(properties.size());
+			for (Map.Entry<String, String> property : properties.entrySet()) {
+				writeString(property.getKey());
+				writeString(property.getValue());
+			}
+			Collection<IProvidedCapability> capabilities = unit.getProvidedCapabilities();
+			out.writeInt(capabilities.size());
+			for (IProvidedCapability capability : capabilities)
+				writeCapability(capability);
+			writeRequirements(unit.getRequirements());
+			writeRequirements(unit.getMetaRequirements());
+			writeFilter(unit.getFilter());
+
+			Collection<IArtifactKey> artifacts = unit.getArtifacts();
+			out.writeInt(artifacts.size());
+			for (IArtifactKey artifact : artifacts) {
+				writeString(artifact.getClassifier());
+				writeString(artifact.getId());
+				writeString(artifact.getVersion().toString());
+			}
+			writeString(unit.getTouchpointType().getId());
+			writeString(unit.getTouchpointType().getVersion().toString());
+			Collection<ITouchpointData> touchpointData = unit.getTouchpointData();
+			out.writeInt(touchpointData.size());
+			for (ITouchpointData data : touchpointData) {
+				Map<String, ITouchpointInstruction> instructions = data.getInstructions();
+				out.writeInt(instructions.size());
+				for (Map.Entry<String, ITouchpointInstruction> instruction : instructions.entrySet()) {
+					writeString(instruction.getKey());
+					writeString(instruction.getValue().getBody());
+					writeString(instruction.getValue().getImportAttribute());
+				}
+			}
+
+			IUpdateDescriptor descriptor = resolvedUnit.getUpdateDescriptor();
+			if (descriptor == null) {
+				out.writeInt(-1);
+			} else {
+				out.writeInt(descriptor.getIUsBeingUpdated().size());
+				for (IMatchExpression<IInstallableUnit> match : descriptor.getIUsBeingUpdated())
+					writeMatch(match);
+				out.writeInt(descriptor.getSeverity());
+				writeString(descriptor.getDescription());
+				writeString(descriptor.getLocation() == null ? null : descriptor.getLocation().toString());
+			}
+			Collection<ILicense> licenses = unit.getLicenses();
+			out.writeInt(licenses.size());
+			for (ILicense license : licenses) {
+				writeString(license.getLocation() == null ? null : license.getLocation().toString());
+				writeString(license.getBody());
+			}
+			ICopyright copyright = unit.getCopyright();
+			out.writeBoolean(copyright != null);
+			if (copyright != null) {
+				writeString(copyright.getLocation() == null ? null : copyright.getLocation().toString());
+				writeString(copyright.getBody());
+			}
+
+			out.flush();
+		}
+
+		private void writeCapability(IProvidedCapability capability) throws IOException {
+			writeString(capability.getNamespace());
+			writeString(capability.getName());
+			writeString(capability.getVersion().toString());
+			Map<String, Object> properties = new LinkedHashMap<>(capability.getProperties());
+			properties.remove(capability.getNamespace());
+			properties.remove(IProvidedCapability.PROPERTY_VERSION);
+			out.writeInt(properties.size());
+			for (Map.Entry<String, Object> property : properties.entrySet()) {
+				writeString(property.getKey());
+				writeValue(property.getValue());
+			}
+		}
+
+		private void writeValue(Object value) throws IOException {
+			if (value instanceof Collection<?>) {
+				out.writeByte(VALUE_LIST);
+				out.writeInt(((Collection<?>) value).size());
+				for (Object element : (Collection<?>) value)
+					writeValue(element);
+			} else if (value instanceof Integer) {
+				out.writeByte(VALUE_INTEGER);
+				out.writeInt((Integer) value);
+			} else if (value instanceof Long) {
+				out.writeByte(VALUE_LONG);
+				out.writeLong((Long) value);
+			} else if (value instanceof Float) {
+				out.writeByte(VALUE_FLOAT);
+				out.writeFloat((Float) value);
+			} else if (value instanceof Double) {
+				out.writeByte(VALUE_DOUBLE);
+				out.writeDouble((Double) value);
+			} else if (value instanceof Byte) {
+				out.writeByte(VALUE_BYTE);
+				out.writeByte((Byte) value);
+			} else if (value instanceof Short) {
+				out.writeByte(VALUE_SHORT);
+				out.writeShort((Short) value);
+			} else if (value instanceof Character) {
+				out.writeByte(VALUE_CHARACTER);
+				out.writeChar((Character) value);
+			} else if (value instanceof Boolean) {
+				out.writeByte(VALUE_BOOLEAN);
+				out.writeBoolean((Boolean) value);
+			} else if (value instanceof Version) {
+				out.writeByte(VALUE_VERSION);
+				writeString(value.toString());
+			} else {
+				// like in the XML form, other values are read back as strings
+				out.writeByte(VALUE_STRING);
+				writeString(value == null ? null : value.toString());
+			}
+		}
+
+		private void writeRequirements(Collection<IRequirement> requirements) throws IOException {
+			out.writeInt(requirements.size());
+			for (IRequirement requirement : requirements)
+				writeRequirement(requirement);
+		}
+
+		private void writeOptionalRequirement(IRequirement requirement) throws IOException {
+			out.writeBoolean(requirement != null);
+			if (requirement != null)
+				writeRequirement(requirement);
+		}
+
+		private void writeRequirement(IRequirement requirement) throws IOException {
+			writeMatch(requirement.getMatches());
+			writeFilter(requirement.getFilter());
+			out.writeInt(requirement.getMin());
+			out.writeInt(requirement.getMax());
+			out.writeBoolean(requirement.isGreedy());
+			writeString(requirement.getDescription());
+		}
+
+		private void writeMatch(IMatchExpression<IInstallableUnit> match) throws IOException {
+			if (RequiredCapability.isVersionRangeRequirement(match)) {
+				out.writeByte(MATCH_RANGE);
+				writeString(RequiredCapability.extractNamespace(match));
+				writeString(RequiredCapability.extractName(match));
+				writeString(RequiredCapability.extractRange(match).toString());
+			} else if (RequiredPropertiesMatch.isPropertiesMatchRequirement(match)) {
+				out.writeByte(MATCH_PROPERTIES);
+				writeString(RequiredPropertiesMatch.extractNamespace(match));
+				writeString(RequiredPropertiesMatch.extractPropertiesMatch(match).toString());
+			} else {
+				out.writeByte(MATCH_EXPRESSION);
+				writeString(ExpressionUtil.getOperand(match).toString());
+				Object[] params = match.getParameters();
+				if (params.length > 0) {
+					IExpressionFactory factory = ExpressionUtil.getFactory();
+					IExpression[] constantArray = new IExpression[params.length];
+					for (int idx = 0; idx < params.length; ++idx)
+						constantArray[idx] = factory.constant(params[idx]);
+					writeString(factory.array(constantArray).toString());
+				} else {
+					writeString(null);
+				}
+			}
+		}
+
+		private void writeFilter(IMatchExpression<IInstallableUnit> filter) throws IOException {
+			writeString(filter == null ? null : filter.getParameters()[0].toString());
+		}
+
+		private void writeString(String string) throws IOException {
+			if (stringIndex == null) {
+				addString(strings, string);
+				out.writeInt(-1);
+			} else {
+				out.writeInt(getString(stringIndex, string));
+			}
+		}
+	}
+
+	/**
+	 * Reads the record of a unit as written by {@link UnitWriter}.
+	 */
+	private static final class UnitReader {
+		private final BinaryMetadataRepository repository;
+		private final ByteBuffer in;
+
+		UnitReader(BinaryMetadataRepository repository, ByteBuffer in) {
+			this.repository = repository;
+			this.in = in;
+		}
+
+		IInstallableUnit readUnit() throws IOException {
+			byte kind = in.get();
+			InstallableUnitDescription description;
+			if (kind == KIND_PATCH)
+				description = new InstallableUnitPatchDescription();
+			else if (kind == KIND_FRAGMENT)
+				description = new InstallableUnitFragmentDescription();
+			else if (kind == KIND_UNIT)
+				description = new InstallableUnitDescription();
+			else
+				throw new IOException(Messages.io_parseError);
+			description.setId(readString());
+			description.setVersion(readVersion());
+			description.setSingleton(readBoolean());
+			if (kind == KIND_PATCH) {
+				InstallableUnitPatchDescription patch = (InstallableUnitPatchDescription) description;
+				IRequirement[][] scope = new IRequirement[in.getInt()][];
+				for (int i = 0; i < scope.length; i++)
+					scope[i] = readRequirements();
+				patch.setApplicabilityScope(scope);
+				IRequirementChange[] changes = new IRequirementChange[in.getInt()];
+				for (int i = 0; i < changes.length; i++)
+					changes[i] = MetadataFactory.createRequirementChange(readOptionalRequirement(), readOptionalRequirement());
+				patch.setRequirementChanges(changes);
+				// the life cycle is added to the requirements, unless it is set before them
+				patch.setLifeCycle(readOptionalRequirement());
+			} else if (kind == KIND_FRAGMENT) {
+				((InstallableUnitFragmentDescription) description).setHost(readRequirements());
+			}
+
+			for (int i = in.getInt(); i > 0; i--)
+				description.setProperty(readString(), readString());
+			IProvidedCapability[] capabilities = new IProvidedCapability[in.getInt()];
+			for (int i = 0; i < capabilities.length; i++)
+				capabilities[i] = readCapability();
+			description.setCapabilities(capabilities);
+			description.setRequirements(readRequirements());
+			description.setMetaRequirements(readRequirements());
+			description.setFilter(readFilter());
+
+			IArtifactKey[] artifacts = new IArtifactKey[in.getInt()];
+			for (int i = 0; i < artifacts.length; i++)
+				artifacts[i] = new ArtifactKey(readString(), readString(), readVersion());
+			description.setArtifacts(artifacts);
+			description.setTouchpointType(MetadataFactory.createTouchpointType(readString(), readVersion()));
+			for (int i = in.getInt(); i > 0; i--) {
+				int size = in.getInt();
+				Map<String, ITouchpointInstruction> instructions = new LinkedHashMap<>(size * 2);
+				for (int j = 0; j < size; j++) {
+					String key = readString();
+					String body = readString();
+					instructions.put(key, MetadataFactory.createTouchpointInstruction(body, readString()));
+				}
+				description.addTouchpointData(MetadataFactory.createTouchpointData(instructions));
+			}
+
+			int matchCount = in.getInt();
+			if (matchCount >= 0) {
+				List<IMatchExpression<IInstallableUnit>> matches = new ArrayList<>(matchCount);
+				for (int i = 0; i < matchCount; i++)
+					matches.add(readMatch());
+				int severity = in.getInt();
+				String updateDescription = readString();
+				description.setUpdateDescriptor(MetadataFactory.createUpdateDescriptor(matches, severity, updateDescription, readURI()));
+			}
+			ILicense[] licenses = new ILicense[in.getInt()];
+			for (int i = 0; i < licenses.length; i++)
+				licenses[i] = MetadataFactory.createLicense(readURI(), readString());
+			description.setLicenses(licenses);
+			if (readBoolean())
+				description.setCopyright(MetadataFactory.createCopyright(readURI(), readString()));
+
+			return MetadataFactory.createInstallableUnit(description);
+		}
+
+		private IProvidedCapability readCapability() throws IOException {
+			String namespace = readString();
+			String name = readString();
+			Version version = readVersion();
+			int size = in.getInt();
+			Map<String, Object> properties = new HashMap<>((size + 2) * 2);
+			for (int i = 0; i < size; i++)
+				properties.put(readString(), readValue());
+			properties.put(namespace, name);
+			properties.put(IProvidedCapability.PROPERTY_VERSION, version);
+			return MetadataFactory.createProvidedCapability(namespace, properties);
+		}
+
+		private Object readValue() throws IOException {
+			byte type = in.get();
+			switch (type) {
+				case VALUE_STRING :
+					return readString();
+				case VALUE_INTEGER :
+					return in.getInt();
+				case VALUE_LONG :
+					return in.getLong();
+				case VALUE_FLOAT :
+					return in.getFloat();
+				case VALUE_DOUBLE :
+					return in.getDouble();
+				case VALUE_BYTE :
+					return in.get();
+				case VALUE_SHORT :
+					return in.getShort();
+				case VALUE_CHARACTER :
+					return in.getChar();
+				case VALUE_BOOLEAN :
+					return readBoolean();
+				case VALUE_VERSION :
+					return readVersion();
+				case VALUE_LIST :
+					int size = in.getInt();
+					List<Object> list = new ArrayList<>(size);
+					for (int i = 0; i < size; i++)
+						list.add(readValue());
+					return list;
+				default :
+					throw new IOException(Messages.io_parseError);
+			}
+		}
+
+		private IRequirement[] readRequirements() throws IOException {
+			IRequirement[] requirements = new IRequirement[in.getInt()];
+			for (int i = 0; i < requirements.length; i++)
+				requirements[i] = readRequirement();
+			return requirements;
+		}
+
+		private IRequirement readOptionalRequirement() throws IOException {
+			return readBoolean() ? readRequirement() : null;
+		}
+
+		private IRequirement readRequirement() throws IOException {
+			byte kind = in.get();
+			String first = readString();
+			String second = readString();
+			VersionRange range = kind == MATCH_RANGE ? readVersionRange() : null;
+			IMatchExpression<IInstallableUnit> filter = readFilter();
+			int min = in.getInt();
+			int max = in.getInt();
+			boolean greedy = readBoolean();
+			String description = readString();
+			switch (kind) {
+				case MATCH_RANGE :
+					return MetadataFactory.createRequirement(first, second, range, filter, min, max, greedy, description);
+				case MATCH_PROPERTIES :
+					return MetadataFactory.createRequirement(first, ExpressionUtil.parseLDAP(second), filter, min, max, greedy, description);
+				case MATCH_EXPRESSION :
+					return MetadataFactory.createRequirement(MetadataParser.createMatchExpression(first, second), filter, min, max, greedy, description);
+				default :
+					throw new IOException(Messages.io_parseError);
+			}
+		}
+
+		private IMatchExpression<IInstallableUnit> readMatch() throws IOException {
+			byte kind = in.get();
+			switch (kind) {
+				case MATCH_RANGE :
+					return RequiredCapability.createMatchExpressionFromRange(readString(), readString(), readVersionRange());
+				case MATCH_PROPERTIES :
+					return RequiredPropertiesMatch.createMatchExpressionFromFilter(readString(), ExpressionUtil.parseLDAP(readString()), null);
+				case MATCH_EXPRESSION :
+					return MetadataParser.createMatchExpression(readString(), readString());
+				default :
+					throw new IOException(Messages.io_parseError);
+			}
+		}
+
+		private IMatchExpression<IInstallableUnit> readFilter() {
+			String filter = readString();
+			return filter == null ? null : InstallableUnit.parseFilter(filter);
+		}
+
+		private boolean readBoolean() {
+			return in.get() != 0;
+		}
+
+		private String readString() {
+			return repository.getString(in.getInt());
+		}
+
+		private Version readVersion() {
+			return repository.getVersion(in.getInt());
+		}
+
+		private VersionRange readVersionRange() {
+			return repository.getVersionRange(in.getInt());
+		}
+
+		private URI readURI() {
+			String uri = readString();
+			return uri == null ? null : URI.create(uri);
+		}
+	}
+}
@@ -0,0 +1,213 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.metadata.repository;
+
+import java.util.*;
+import org.eclipse.equinox.internal.p2.core.helpers.Tracing;
+import org.eclipse.equinox.internal.p2.metadata.IUMap;
+import org.eclipse.equinox.internal.p2.metadata.InstallableUnit;
+import org.eclipse.equinox.internal.p2.metadata.expression.CompoundIterator;
+import org.eclipse.equinox.internal.p2.metadata.index.*;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.metadata.expression.IEvaluationContext;
+import org.eclipse.equinox.p2.metadata.expression.IExpression;
+import org.eclipse.equinox.p2.metadata.index.IIndex;
+import org.eclipse.equinox.p2.metadata.index.IIndexProvider;
+import org.eclipse.equinox.p2.query.QueryUtil;
+import org.eclipse.equinox.p2.repository.metadata.IMetadataRepository;
+
+/**
+ * Keeps the id and capability indexes of a composite metadata repository between
+ * queries. The units of the children that cannot be modified are merged into one id
+ * index and one capability index. They are merged on the first query after such a
+ * child was added or removed, so that adding children does not read their units.
+ * The merged units and indexes are never changed once they are handed out. Changes
+ * build new ones and replace them, so that callers can use them without holding a
+ * lock. Children that can be modified are asked for their own indexes on each request,
+ * so that later changes to them are seen.
+ */
+public class CompositeMetadataIndex {
+	private final List<IMetadataRepository> mergedChildren = new ArrayList<>();
+	private final List<IMetadataRepository> liveChildren = new ArrayList<>();
+	/**
+	 * The children added since the merged units were built, or <code>null</code> if a
+	 * child was removed and the merged units must be built from all children.
+	 */
+	private List<IMetadataRepository> addedChildren = new ArrayList<>();
+	private IUMap mergedUnits = new IUMap();
+	private IIndex<IInstallableUnit> mergedIdIndex;
+	private IIndex<IInstallableUnit> mergedCapabilityIndex;
+
+	private long hitCount;
+	private long buildCount;
+	private long buildTime;
+
+	/**
+	 * An index over a child without an index of its own, answering with all its units.
+	 */
+	private static class PassThroughIndex implements IIndex<IInstallableUnit> {
+		private final IMetadataRepository child;
+
+		PassThroughIndex(IMetadataRepository child) {
+			this.child = child;
+		}
+
+		@Override
+		public Iterator<IInstallableUnit> getCandidates(IEvaluationContext ctx, IExpression variable, IExpression booleanExpr) {
+			return child.query(QueryUtil.createIUAnyQuery(), null).iterator();
+		}
+	}
+
+	public synchronized void addChild(IMetadataRepository child) {
+		if (child.isModifiable()) {
+			liveChildren.add(child);
+			return;
+		}
+		mergedChildren.add(child);
+		if (addedChildren != null)
+			addedChildren.add(child);
+		mergedIdIndex = null;
+		mergedCapabilityIndex = null;
+	}
+
+	public synchronized void removeChild(IMetadataRepository child) {
+		if (liveChildren.remove(child))
+			return;
+		if (mergedChildren.remove(child)) {
+			if (addedChildren == null || !addedChildren.remove(child))
+				addedChildren = null;
+			mergedIdIndex = null;
+			mergedCapabilityIndex = null;
+		}
+	}
+
+	public synchronized void clear() {
+		liveChildren.clear();
+		mergedChildren.clear();
+		addedChildren = new ArrayList<>();
+		mergedUnits = new IUMap();
+		mergedIdIndex = null;
+		mergedCapabilityIndex = null;
+	}
+
+	/**
+	 * Returns the index for the given member, or <code>null</code> if this class
+	 * does not keep an index for it.
+	 */
+	public synchronized IIndex<IInstallableUnit> getIndex(String memberName) {
+		IIndex<IInstallableUnit> merged;
+		if (InstallableUnit.MEMBER_ID.equals(memberName))
+			merged = getMergedIdIndex();
+		else if (InstallableUnit.MEMBER_PROVIDED_CAPABILITIES.equals(memberName))
+			merged = getMergedCapabilityIndex();
+		else
+			return null;
+		if (liveChildren.isEmpty())
+			return merged;
+
+		List<IIndex<IInstallableUnit>> indexes = new ArrayList<>(liveChildren.size() + 1);
+		if (!mergedChildren.isEmpty())
+			indexes.add(merged);
+		for (IMetadataRepository child : liveChildren) {
+			IIndex<IInstallableUnit> index = null;
+			if (child instanceof IIndexProvider<?>) {
+				@SuppressWarnings("unchecked")
+				IIndexProvider<IInstallableUnit> provider = (IIndexProvider<IInstallableUnit>) child;
+				index = provider.getIndex(memberName);
+			}
+			indexes.add(index != null ? index : new PassThroughIndex(child));
+		}
+		return indexes.size() == 1 ? indexes.get(0) : new CompoundIndex<>(indexes);
+	}
+
+	/**
+	 * Returns all units of the children. A unit contained in several children that
+	 * cannot be modified is returned once. Children added or removed later do not
+	 * affect the returned iterator.
+	 */
+	public synchronized Iterator<IInstallableUnit> everything() {
+		Iterator<IInstallableUnit> merged = getMergedUnits().iterator();
+		if (liveChildren.isEmpty())
+			return merged;
+		List<Iterator<IInstallableUnit>> iterators = new ArrayList<>(liveChildren.size() + 1);
+		iterators.add(merged);
+		for (IMetadataRepository child : liveChildren)
+			iterators.add(child.query(QueryUtil.createIUAnyQuery(), null).iterator());
+		return new CompoundIterator<>(iterators.iterator());
+	}
+
+	/**
+	 * Returns the number of index requests answered without building an index first.
+	 */
+	public synchronized long getHitCount() {
+		return hitCount;
+	}
+
+	/**
+	 * Returns the number of times the merged units or indexes were built or extended.
+	 */
+	public synchronized long getBuildCount() {
+		return buildCount;
+	}
+
+	/**
+	 * Returns the total time in milliseconds spent building the merged units and indexes.
+	 */
+	public synchronized long getBuildTime() {
+		return buildTime;
+	}
+
+	private IUMap getMergedUnits() {
+		if (addedChildren == null || !addedChildren.isEmpty()) {
+			long start = System.currentTimeMillis();
+			IUMap units = addedChildren == null ? new IUMap() : mergedUnits.clone();
+			for (IMetadataRepository child : addedChildren == null ? mergedChildren : addedChildren)
+				for (IInstallableUnit unit : child.query(QueryUtil.createIUAnyQuery(), null))
+					units.add(unit);
+			mergedUnits = units;
+			addedChildren = new ArrayList<>();
+			built("Collected the merged units", start); //$NON-NLS-1$
+		}
+		return mergedUnits;
+	}
+
+	private IIndex<IInstallableUnit> getMergedIdIndex() {
+		if (mergedIdIndex != null) {
+			hitCount++;
+			return mergedIdIndex;
+		}
+		mergedIdIndex = new IdIndex(getMergedUnits());
+		return mergedIdIndex;
+	}
+
+	private IIndex<IInstallableUnit> getMergedCapabilityIndex() {
+		if (mergedCapabilityIndex != null) {
+			hitCount++;
+			return mergedCapabilityIndex;
+		}
+		IUMap units = getMergedUnits();
+		long start = System.currentTimeMillis();
+		mergedCapabilityIndex = new CapabilityIndex(units.iterator());
+		built("Built the merged capability index", start); //$NON-NLS-1$
+		return mergedCapabilityIndex;
+	}
+
+	private void built(String message, long start) {
+		long time = System.currentTimeMillis() - start;
+		buildCount++;
+		buildTime += time;
+		if (Tracing.DEBUG_METADATA_PARSING)
+			Tracing.debug(message + ", time (ms): " + time); //$NON-NLS-1$
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2017 IBM Corporation and others.
+ * Copyright (c) 2008, 2020 IBM Corporation and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -22,6 +22,7 @@ import java.util.jar.JarEntry;
 import java.util.jar.JarOutputStream;
 import org.eclipse.core.runtime.*;
 import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
+import org.eclipse.equinox.internal.p2.metadata.index.IndexProvider;
 import org.eclipse.equinox.internal.p2.persistence.CompositeRepositoryIO;
 import org.eclipse.equinox.internal.p2.persistence.CompositeRepositoryState;
 import org.eclipse.equinox.p2.core.*;
@@ -57,6 +58,8 @@ public class CompositeMetadataRepository extends AbstractMetadataRepository impl
 	private List<IMetadataRepository> loadedRepos = new ArrayList<>();
 	private IMetadataRepositoryManager manager;
 	private IPool<IInstallableUnit> iuPool = new WeakPool<>();
+	// the indexes over the loaded repositories, kept between queries
+	private final CompositeMetadataIndex index = new CompositeMetadataIndex();
 
 	/**
 	 * Create a Composite repository in memory.
@@ -144,9 +147,8 @@ public class CompositeMetadataRepository extends AbstractMetadataRepository impl
 		if (monitor == null)
 			monitor = new NullProgressMonitor();
 		try {
-			// Query all the all the repositories this composite repo contains
-			IQueryable<IInstallableUnit> queryable = QueryUtil.compoundQueryable(loadedRepos);
-			return queryable.query(query, monitor);
+			// Query all the all the repositories this composite repo contains, using the kept indexes
+			return IndexProvider.query(this, query, monitor);
 		} finally {
 			if (monitor != null)
 				monitor.done();
@@ -180,6 +182,7 @@ public class CompositeMetadataRepository extends AbstractMetadataRepository impl
 			currentRepo.compress(iuPool); // Share IUs across this CompositeMetadataRepository
 			// we successfully loaded the repo so remember it
 			loadedRepos.add(currentRepo);
+			index.addChild(currentRepo);
 
 		} catch (ProvisionException e) {
 			//repository failed to load. fall through
@@ -220,8 +223,10 @@ public class CompositeMetadataRepository extends AbstractMetadataRepository impl
 					break;
 				}
 			}
-			if (found != null)
+			if (found != null) {
 				loadedRepos.remove(found);
+				index.removeChild(found);
+			}
 			save();
 		}
 	}
@@ -230,6 +235,7 @@ public class CompositeMetadataRepository extends AbstractMetadataRepository impl
 	public void removeAllChildren() {
 		childrenURIs.clear();
 		loadedRepos.clear();
+		index.clear();
 		save();
 	}
 
@@ -348,6 +354,9 @@ public class CompositeMetadataRepository extends AbstractMetadataRepository impl
 	@Override
 	@SuppressWarnings("unchecked")
 	public IIndex<IInstallableUnit> getIndex(String memberName) {
+		IIndex<IInstallableUnit> result = index.getIndex(memberName);
+		if (result != null)
+			return result;
 		IQueryable<IInstallableUnit> queryable = QueryUtil.compoundQueryable(loadedRepos);
 		if (queryable instanceof IIndexProvider<?>) {
 			return ((IIndexProvider<IInstallableUnit>) queryable).getIndex(memberName);
@@ -356,13 +365,16 @@ public class CompositeMetadataRepository extends AbstractMetadataRepository impl
 	}
 
 	@Override
-	@SuppressWarnings("unchecked")
 	public Iterator<IInstallableUnit> everything() {
-		IQueryable<IInstallableUnit> queryable = QueryUtil.compoundQueryable(loadedRepos);
-		if (queryable instanceof IIndexProvider<?>) {
-			return ((IIndexProvider<IInstallableUnit>) queryable).everything();
-		}
-		return Collections.EMPTY_LIST.iterator();
+		return index.everything();
+	}
+
+	/**
+	 * Returns the indexes kept over the children, which also count how often they
+	 * were used and built.
+	 */
+	public CompositeMetadataIndex getIndexCache() {
+		return index;
 	}
 
 	@Override
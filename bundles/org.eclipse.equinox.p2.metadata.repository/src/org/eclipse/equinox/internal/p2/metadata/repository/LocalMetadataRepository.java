@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2018 IBM Corporation and others.
+ *  Copyright (c) 2007, 2020 IBM Corporation and others.
  *
  *  This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License 2.0
@@ -23,6 +23,7 @@ import org.eclipse.core.runtime.*;
 import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
 import org.eclipse.equinox.internal.p2.metadata.*;
 import org.eclipse.equinox.internal.p2.metadata.index.*;
+import org.eclipse.equinox.internal.p2.repository.helpers.Journal;
 import org.eclipse.equinox.internal.provisional.p2.core.eventbus.IProvisioningEventBus;
 import org.eclipse.equinox.internal.provisional.p2.repository.RepositoryEvent;
 import org.eclipse.equinox.p2.core.*;
@@ -35,6 +36,7 @@ import org.eclipse.equinox.p2.query.IQueryResult;
 import org.eclipse.equinox.p2.repository.*;
 import org.eclipse.equinox.p2.repository.metadata.IMetadataRepositoryManager;
 import org.eclipse.equinox.p2.repository.metadata.spi.AbstractMetadataRepository;
+import org.eclipse.osgi.util.NLS;
 
 /**
  * A metadata repository that resides in the local file system.  If the repository
@@ -49,6 +51,24 @@ public class LocalMetadataRepository extends AbstractMetadataRepository implemen
 	static final private String JAR_EXTENSION = ".jar"; //$NON-NLS-1$
 	static final private String XML_EXTENSION = ".xml"; //$NON-NLS-1$
 
+	/**
+	 * The key for a boolean repository property that makes added and removed installable
+	 * units be appended to a journal next to the content file instead of rewriting the whole
+	 * file. The journal is replayed on load and folded back into the content file once it
+	 * has grown to a fraction of its size, and whenever anything other than the units
+	 * changes. Readers that only fetch the content file, such as remote clients, see the
+	 * journaled units after the next compaction.
+	 */
+	public static final String PROP_JOURNAL = "p2.journal"; //$NON-NLS-1$
+
+	static final String JOURNAL_FILENAME = CONTENT_FILENAME + ".journal"; //$NON-NLS-1$
+
+	/**
+	 * The journal is compacted once it is larger than the content file divided by this
+	 * ratio, which keeps the amortized cost of a change independent of the repository size.
+	 */
+	static final private int JOURNAL_COMPACTION_RATIO = 2;
+
 	protected IUMap units = new IUMap();
 	protected HashSet<IRepositoryReference> repositories = new HashSet<>();
 	private IIndex<IInstallableUnit> idIndex;
@@ -57,6 +77,15 @@ public class LocalMetadataRepository extends AbstractMetadataRepository implemen
 	private boolean snapshotNeeded = false;
 	private boolean disableSave = false;
 
+	/**
+	 * The unit changes since the last save, appended to the journal by the next save
+	 * unless a full save is needed anyway.
+	 */
+	private List<MetadataRepositoryIO.JournalEntry> pendingChanges = new ArrayList<>();
+	private boolean fullSaveNeeded = true;
+	// the number of bytes of the journal that hold complete records
+	private long journalLength = 0;
+
 	private static File getActualLocation(URI location, String extension) {
 		File spec = URIUtil.toFile(location);
 		String path = spec.getAbsolutePath();
@@ -107,6 +136,7 @@ public class LocalMetadataRepository extends AbstractMetadataRepository implemen
 		}
 		units.addAll(installableUnits);
 		capabilityIndex = null; // Generated, not backed by units
+		pendingChanges.add(new MetadataRepositoryIO.JournalEntry(true, new ArrayList<>(installableUnits)));
 		save();
 	}
 
@@ -114,8 +144,10 @@ public class LocalMetadataRepository extends AbstractMetadataRepository implemen
 	public void addReferences(Collection<? extends IRepositoryReference> references) {
 		assertModifiable();
 		// only write out the repository if we made changes
-		if (repositories.addAll(references))
+		if (repositories.addAll(references)) {
+			fullSaveNeeded = true;
 			save();
+		}
 	}
 
 	@Override
@@ -166,6 +198,7 @@ public class LocalMetadataRepository extends AbstractMetadataRepository implemen
 			setProperties(state.Properties);
 			this.units.addAll(state.Units);
 			this.repositories.addAll(Arrays.asList(state.Repositories));
+			fullSaveNeeded = false;
 		}
 		publishRepositoryReferences();
 	}
@@ -191,6 +224,34 @@ public class LocalMetadataRepository extends AbstractMetadataRepository implemen
 		return new ArrayList<>(repositories);
 	}
 
+	/*
+	 * This is only called by MetadataRepositoryIO when it replays the journal of a repository.
+	 */
+	synchronized void replay(MetadataRepositoryIO.JournalEntry change) {
+		if (change.added)
+			units.addAll(change.units);
+		else
+			units.removeAll(change.units);
+		idIndex = null;
+		capabilityIndex = null;
+	}
+
+	/*
+	 * This is only called by MetadataRepositoryIO right after it read the repository. The journal is
+	 * replayed under the same locks as an append, so an append that is still being written is never
+	 * replayed in part.
+	 */
+	synchronized void replayJournal(File file, MetadataRepositoryIO io) throws IOException {
+		Journal journal = new Journal(file);
+		journalLength = journal.replay(record -> {
+			for (MetadataRepositoryIO.JournalEntry change : io.readJournal(record))
+				replay(change);
+		});
+		// the next save folds what could be replayed into the content file
+		if (journal.isCorrupt())
+			fullSaveNeeded = true;
+	}
+
 	// use this method to setup any transient fields etc after the object has been restored from a stream
 	public synchronized void initializeAfterLoad(URI aLocation) {
 		setLocation(aLocation);
@@ -221,6 +282,8 @@ public class LocalMetadataRepository extends AbstractMetadataRepository implemen
 		} else
 			units.clear();
 		capabilityIndex = null; // Generated, not backed by units.
+		// the emptied repository is smaller than a journal of the removals
+		fullSaveNeeded = true;
 		save();
 	}
 
@@ -236,6 +299,7 @@ public class LocalMetadataRepository extends AbstractMetadataRepository implemen
 			}
 			units.removeAll(installableUnits);
 			capabilityIndex = null; // Generated, not backed by units.
+			pendingChanges.add(new MetadataRepositoryIO.JournalEntry(false, new ArrayList<>(installableUnits)));
 		}
 		if (changed)
 			save();
@@ -254,6 +318,8 @@ public class LocalMetadataRepository extends AbstractMetadataRepository implemen
 		File file = getActualLocation(getLocation());
 		File jarFile = getActualLocation(getLocation(), JAR_EXTENSION);
 		boolean compress = "true".equalsIgnoreCase(getProperty(PROP_COMPRESSED)); //$NON-NLS-1$
+		if (!fullSaveNeeded && !pendingChanges.isEmpty() && appendJournal(compress ? jarFile : file))
+			return;
 		try {
 			OutputStream output = null;
 			if (!compress) {
@@ -281,11 +347,45 @@ public class LocalMetadataRepository extends AbstractMetadataRepository implemen
 			}
 			super.setProperty(IRepository.PROP_TIMESTAMP, Long.toString(System.currentTimeMillis()), new NullProgressMonitor());
 			new MetadataRepositoryIO(getProvisioningAgent()).write(this, output);
+			// the content file now holds everything the journal did
+			getJournal().delete();
+			journalLength = 0;
+			pendingChanges.clear();
+			fullSaveNeeded = false;
 		} catch (IOException e) {
 			LogHelper.log(new Status(IStatus.ERROR, Constants.ID, ProvisionException.REPOSITORY_FAILED_WRITE, "Error saving metadata repository: " + getLocation(), e)); //$NON-NLS-1$
 		}
 	}
 
+	/**
+	 * Appends the pending unit changes to the journal. Returns <code>false</code> if the
+	 * repository is not journaled or the journal is due for compaction, in which case the
+	 * caller has to write the whole repository.
+	 */
+	private boolean appendJournal(File contentFile) {
+		if (!"true".equalsIgnoreCase(getProperty(PROP_JOURNAL))) //$NON-NLS-1$
+			return false;
+		if (!contentFile.isFile() || journalLength > contentFile.length() / JOURNAL_COMPACTION_RATIO)
+			return false;
+		Journal journal = getJournal();
+		try {
+			long length = journal.append(journalLength, new MetadataRepositoryIO(getProvisioningAgent()).writeJournal(pendingChanges));
+			// the journal was changed behind our back, start over from a full save
+			if (length < 0)
+				return false;
+			journalLength = length;
+		} catch (IOException e) {
+			LogHelper.log(new Status(IStatus.WARNING, Constants.ID, NLS.bind(Messages.io_journalUnwritable, journal.getFile()), e));
+			return false;
+		}
+		pendingChanges.clear();
+		return true;
+	}
+
+	private Journal getJournal() {
+		return new Journal(new File(getActualLocation(getLocation()).getParentFile(), JOURNAL_FILENAME));
+	}
+
 	@Override
 	public String setProperty(String key, String newValue, IProgressMonitor monitor) {
 		try {
@@ -294,6 +394,7 @@ public class LocalMetadataRepository extends AbstractMetadataRepository implemen
 				oldValue = super.setProperty(key, newValue, monitor);
 				if (oldValue == newValue || (oldValue != null && oldValue.equals(newValue)))
 					return oldValue;
+				fullSaveNeeded = true;
 				save();
 			}
 			//force repository manager to reload this repository because it caches properties
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2010 IBM Corporation and others.
+ * Copyright (c) 2007, 2020 IBM Corporation and others.
  *
  * This
  * program and the accompanying materials are made available under the terms of
@@ -33,6 +33,7 @@ public class Messages extends NLS {
 
 	public static String io_IncompatibleVersion;
 	public static String io_parseError;
+	public static String io_journalUnwritable;
 
 	public static String no_provisioning_agent;
 
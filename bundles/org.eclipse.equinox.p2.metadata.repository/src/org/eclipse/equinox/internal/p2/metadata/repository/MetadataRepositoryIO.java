@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2018 IBM Corporation and others.
+ * Copyright (c) 2007, 2020 IBM Corporation and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -18,8 +18,7 @@ import java.io.*;
 import java.lang.reflect.Constructor;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.util.Iterator;
-import java.util.Set;
+import java.util.*;
 import javax.xml.parsers.ParserConfigurationException;
 import org.eclipse.core.runtime.*;
 import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
@@ -47,6 +46,20 @@ public class MetadataRepositoryIO {
 
 	protected final IProvisioningAgent agent;
 
+	/**
+	 * Installable units added to or removed from a repository by one change, as recorded
+	 * in its journal.
+	 */
+	static final class JournalEntry {
+		final boolean added;
+		final Collection<IInstallableUnit> units;
+
+		JournalEntry(boolean added, Collection<IInstallableUnit> units) {
+			this.added = added;
+			this.units = units;
+		}
+	}
+
 	public MetadataRepositoryIO(IProvisioningAgent agent) {
 		this.agent = agent;
 	}
@@ -57,6 +70,15 @@ public class MetadataRepositoryIO {
 	 * This method performs buffering, and closes the stream when finished.
 	 */
 	public IMetadataRepository read(URL location, InputStream input, IProgressMonitor monitor) throws ProvisionException {
+		return read(location, input, null, monitor);
+	}
+
+	/**
+	 * Reads metadata from the given stream and replays the changes recorded in the
+	 * given journal file on the resulting repository, if that file exists.
+	 * This method performs buffering, and closes the stream when finished.
+	 */
+	public IMetadataRepository read(URL location, InputStream input, File journal, IProgressMonitor monitor) throws ProvisionException {
 		BufferedInputStream bufferedInput = null;
 		try {
 			try {
@@ -76,7 +98,10 @@ public class MetadataRepositoryIO {
 					case IStatus.INFO :
 						LogHelper.log(result);
 				}
-				return repositoryParser.getRepository();
+				IMetadataRepository repository = repositoryParser.getRepository();
+				if (repository instanceof LocalMetadataRepository && journal != null && journal.isFile())
+					((LocalMetadataRepository) repository).replayJournal(journal, this);
+				return repository;
 			} finally {
 				if (bufferedInput != null)
 					bufferedInput.close();
@@ -97,6 +122,23 @@ public class MetadataRepositoryIO {
 		}
 	}
 
+	/**
+	 * Returns a journal record holding the given changes, which is a small metadata document.
+	 */
+	public byte[] writeJournal(List<JournalEntry> changes) {
+		ByteArrayOutputStream record = new ByteArrayOutputStream();
+		new Writer(record, LocalMetadataRepository.class).writeJournal(changes);
+		return record.toByteArray();
+	}
+
+	/**
+	 * Returns the changes held by the given journal record, in order.
+	 */
+	List<JournalEntry> readJournal(byte[] record) throws IOException {
+		Parser journalParser = new Parser(FrameworkUtil.getBundle(MetadataRepositoryIO.class).getBundleContext(), Constants.ID);
+		return journalParser.parseJournal(new ByteArrayInputStream(record));
+	}
+
 	private interface XMLConstants extends org.eclipse.equinox.internal.p2.metadata.repository.io.XMLConstants {
 
 		// Constants defining the structure of the XML for a MetadataRepository
@@ -112,6 +154,11 @@ public class MetadataRepositoryIO {
 		// Constants for metadata repository elements
 		String REPOSITORY_ELEMENT = "repository"; //$NON-NLS-1$
 
+		// Constants for the elements of a journal record
+		String JOURNAL_ELEMENT = "journal"; //$NON-NLS-1$
+		String ADDED_ELEMENT = "added"; //$NON-NLS-1$
+		String REMOVED_ELEMENT = "removed"; //$NON-NLS-1$
+
 	}
 
 	protected XMLWriter.ProcessingInstruction[] createPI(Class<?> repositoryClass) {
@@ -150,6 +197,22 @@ public class MetadataRepositoryIO {
 			flush();
 		}
 
+		/**
+		 * Write the given changes as one journal record.
+		 */
+		public void writeJournal(List<JournalEntry> changes) {
+			start(JOURNAL_ELEMENT);
+			attribute(COLLECTION_SIZE_ATTRIBUTE, changes.size());
+			for (JournalEntry change : changes) {
+				String element = change.added ? ADDED_ELEMENT : REMOVED_ELEMENT;
+				start(element);
+				writeInstallableUnits(change.units.iterator(), change.units.size());
+				end(element);
+			}
+			end(JOURNAL_ELEMENT);
+			flush();
+		}
+
 		/**
 		 * Writes a list of {@link IRepositoryReference}.
 		 * @param references An Iterator of {@link IRepositoryReference}.
@@ -225,6 +288,32 @@ public class MetadataRepositoryIO {
 			}
 		}
 
+		/**
+		 * Parses one journal record and returns the changes it holds, in order.
+		 */
+		public synchronized List<JournalEntry> parseJournal(InputStream stream) throws IOException {
+			this.status = null;
+			try {
+				getParser();
+				JournalHandler journalHandler = new JournalHandler();
+				xmlReader.setContentHandler(new RepositoryDocHandler(JOURNAL_ELEMENT, journalHandler));
+				xmlReader.parse(new InputSource(stream));
+				if (!isValidXML())
+					throw new IOException(getStatus().getMessage());
+				return journalHandler.getChanges();
+			} catch (SAXException e) {
+				IOException ioException = new IOException(e.getMessage());
+				ioException.initCause(e);
+				throw ioException;
+			} catch (ParserConfigurationException e) {
+				IOException ioException = new IOException(e.getMessage());
+				ioException.initCause(e);
+				throw ioException;
+			} finally {
+				stream.close();
+			}
+		}
+
 		public IMetadataRepository getRepository() {
 			return theRepository;
 		}
@@ -339,6 +428,60 @@ public class MetadataRepositoryIO {
 			}
 		}
 
+		private final class JournalHandler extends RootHandler {
+
+			private List<JournalEntry> changes;
+
+			public List<JournalEntry> getChanges() {
+				return changes;
+			}
+
+			@Override
+			protected void handleRootAttributes(Attributes attributes) {
+				String size = parseOptionalAttribute(attributes, COLLECTION_SIZE_ATTRIBUTE);
+				changes = (size != null ? new ArrayList<>(Integer.parseInt(size)) : new ArrayList<>(4));
+			}
+
+			@Override
+			public void startElement(String name, Attributes attributes) {
+				if (ADDED_ELEMENT.equals(name) || REMOVED_ELEMENT.equals(name)) {
+					new ChangeHandler(this, name, changes);
+				} else {
+					invalidElement(name, attributes);
+				}
+			}
+		}
+
+		protected class ChangeHandler extends AbstractHandler {
+
+			private final List<JournalEntry> changes;
+			private InstallableUnitsHandler unitsHandler = null;
+
+			public ChangeHandler(AbstractHandler parentHandler, String name, List<JournalEntry> changes) {
+				super(parentHandler, name);
+				this.changes = changes;
+			}
+
+			@Override
+			public void startElement(String name, Attributes attributes) {
+				if (INSTALLABLE_UNITS_ELEMENT.equals(name)) {
+					if (unitsHandler == null) {
+						unitsHandler = new InstallableUnitsHandler(this, attributes);
+					} else {
+						duplicateElement(this, name, attributes);
+					}
+				} else {
+					invalidElement(name, attributes);
+				}
+			}
+
+			@Override
+			protected void finished() {
+				if (unitsHandler != null)
+					changes.add(new JournalEntry(ADDED_ELEMENT.equals(elementHandled), Arrays.asList(unitsHandler.getUnits())));
+			}
+		}
+
 		@Override
 		protected String getErrorMessage() {
 			return Messages.io_parseError;
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2017 IBM Corporation and others.
+ *  Copyright (c) 2007, 2020 IBM Corporation and others.
  *
  *  This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License 2.0
@@ -105,7 +105,8 @@ public class SimpleMetadataRepositoryFactory extends MetadataRepositoryFactory {
 				//parse the repository descriptor file
 				sub.setWorkRemaining(100);
 				InputStream descriptorStream = jarStream != null ? jarStream : inStream;
-				IMetadataRepository result = new MetadataRepositoryIO(getAgent()).read(localFile.toURL(), descriptorStream, sub.newChild(100));
+				File journal = PROTOCOL_FILE.equals(location.getScheme()) ? new File(localFile.getParentFile(), LocalMetadataRepository.JOURNAL_FILENAME) : null;
+				IMetadataRepository result = new MetadataRepositoryIO(getAgent()).read(localFile.toURL(), descriptorStream, journal, sub.newChild(100));
 				if (result != null && (flags & IRepositoryManager.REPOSITORY_HINT_MODIFIABLE) > 0 && !result.isModifiable())
 					return null;
 				if (result instanceof LocalMetadataRepository)
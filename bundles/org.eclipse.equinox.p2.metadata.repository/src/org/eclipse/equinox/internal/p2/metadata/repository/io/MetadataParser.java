@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2017 IBM Corporation and others.
+ * Copyright (c) 2007, 2020 IBM Corporation and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -1172,7 +1172,7 @@ public abstract class MetadataParser extends XMLParser implements XMLConstants {
 		}
 	}
 
-	static IMatchExpression<IInstallableUnit> createMatchExpression(String match, String matchParams) {
+	public static IMatchExpression<IInstallableUnit> createMatchExpression(String match, String matchParams) {
 		IExpressionFactory factory = ExpressionUtil.getFactory();
 		IExpression expr = ExpressionUtil.parse(match);
 		Object[] params;
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2017 IBM Corporation and others.
+ *  Copyright (c) 2007, 2020 IBM Corporation and others.
  *
  *  This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License 2.0
@@ -29,6 +29,7 @@ import org.eclipse.equinox.p2.metadata.IInstallableUnit;
 import org.eclipse.equinox.p2.metadata.Version;
 import org.eclipse.equinox.p2.metadata.VersionRange;
 import org.eclipse.equinox.p2.metadata.expression.ExpressionUtil;
+import org.eclipse.equinox.p2.metadata.expression.IEvaluationContext;
 import org.eclipse.equinox.p2.metadata.expression.IExpression;
 import org.eclipse.equinox.p2.metadata.expression.IExpressionFactory;
 import org.eclipse.equinox.p2.metadata.expression.IMatchExpression;
@@ -180,31 +181,45 @@ public class RequiredCapability extends Requirement implements IRequiredCapabili
 
 	public static VersionRange extractRange(IMatchExpression<IInstallableUnit> matchExpression) {
 		assertVersionRangeRequirement(matchExpression);
-
-		IExpression expr = ExpressionUtil.getOperand(matchExpression);
 		Object[] params = matchExpression.getParameters();
+		return extractRange(ExpressionUtil.getOperand(matchExpression), params.length > 2 ? (Version) params[2] : null, params.length > 3 ? (Version) params[3] : null);
+	}
 
-		switch (params.length) {
-			// No version parameter
-			case 2 :
-				return emptyRange;
-			// One version parameter: strict or one of the open ranges
-			case 3 :
-				Version v = (Version) params[2];
-				if (expr.equals(STRICT)) {
-					return new VersionRange(v, true, v, true);
-				}
-				return new VersionRange(v, expr.equals(OPEN_I), MAX_VERSION, true);
-			// Two version parameters: one of the closed ranges
-			default :
-				Version left = (Version) params[2];
-				boolean leftInclusive = expr.equals(CLOSED_II) || expr.equals(CLOSED_IN);
-
-				Version right = (Version) params[3];
-				boolean rightInclusive = expr.equals(CLOSED_II) || expr.equals(CLOSED_NI);
-
-				return new VersionRange(left, leftInclusive, right, rightInclusive);
+	/**
+	 * Returns the version range of a match expression created by
+	 * {@link #createMatchExpressionFromRange(String, String, VersionRange)} from its operand
+	 * and the context it is evaluated in. The name and the namespace are the parameters
+	 * 0 and 1 of such a context.
+	 *
+	 * @return the range or <code>null</code> if the operand is not one of a version range requirement
+	 */
+	public static VersionRange extractRange(IExpression operand, IEvaluationContext ctx) {
+		int idx = PREDEFINED.indexOf(operand);
+		if (idx < 0)
+			return null;
+		// ALL has no version parameter, STRICT and the open ranges have one
+		Version left = idx > 0 ? (Version) ctx.getParameter(2) : null;
+		Version right = idx > 3 ? (Version) ctx.getParameter(3) : null;
+		return extractRange(operand, left, right);
+	}
+
+	private static VersionRange extractRange(IExpression expr, Version left, Version right) {
+		// No version parameter
+		if (left == null)
+			return emptyRange;
+
+		// One version parameter: strict or one of the open ranges
+		if (right == null) {
+			if (expr.equals(STRICT)) {
+				return new VersionRange(left, true, left, true);
+			}
+			return new VersionRange(left, expr.equals(OPEN_I), MAX_VERSION, true);
 		}
+
+		// Two version parameters: one of the closed ranges
+		boolean leftInclusive = expr.equals(CLOSED_II) || expr.equals(CLOSED_IN);
+		boolean rightInclusive = expr.equals(CLOSED_II) || expr.equals(CLOSED_NI);
+		return new VersionRange(left, leftInclusive, right, rightInclusive);
 	}
 
 	public static boolean isStrictVersionRequirement(IMatchExpression<IInstallableUnit> matchExpression) {
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2009, 2017 Cloudsmith Inc. and others.
+ * Copyright (c) 2009, 2020 Cloudsmith Inc. and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -13,6 +13,7 @@
  *******************************************************************************/
 package org.eclipse.equinox.internal.p2.metadata.expression;
 
+import java.lang.invoke.*;
 import java.lang.reflect.*;
 import java.util.*;
 import org.eclipse.equinox.p2.metadata.expression.*;
@@ -31,11 +32,25 @@ public abstract class Member extends Unary {
 		private static final String GET_PREFIX = "get"; //$NON-NLS-1$
 		private static final String IS_PREFIX = "is"; //$NON-NLS-1$
 		private static final Class<?>[] NO_ARG_TYPES = new Class[0];
+		private static final MethodType ACCESSOR_TYPE = MethodType.methodType(Object.class, Object.class);
+
+		/**
+		 * The accessor last resolved for a class. It is replaced as a whole so that
+		 * evaluations need no lock once the member has been resolved.
+		 */
+		private static final class Accessor {
+			final Class<?> type;
+			final MethodHandle handle;
+			final String methodName;
+
+			Accessor(Class<?> type, MethodHandle handle, String methodName) {
+				this.type = type;
+				this.handle = handle;
+				this.methodName = methodName;
+			}
+		}
 
-		private Class<?> lastClass;
-
-		private transient Method method;
-		private transient String methodName;
+		private transient volatile Accessor accessor;
 
 		DynamicMember(Expression operand, String name) {
 			super(operand, name, Expression.emptyArray);
@@ -54,56 +69,53 @@ public abstract class Member extends Unary {
 				throw new IllegalArgumentException("Cannot access member \'" + name + "\' in null"); //$NON-NLS-1$//$NON-NLS-2$
 
 			Class<?> c = self.getClass();
-			synchronized (this) {
-				if (methodName == null) {
-					String n = name;
-					if (!(n.startsWith(GET_PREFIX) || n.startsWith(IS_PREFIX)))
-						n = GET_PREFIX + Character.toUpperCase(n.charAt(0)) + n.substring(1);
-					methodName = n;
-				}
-				if (lastClass == null || !lastClass.isAssignableFrom(c)) {
-					Method m;
-					for (;;) {
-						try {
-							m = c.getMethod(methodName, NO_ARG_TYPES);
-							if (!Modifier.isPublic(m.getModifiers()))
-								throw new NoSuchMethodException();
-							break;
-						} catch (NoSuchMethodException e) {
-							if (methodName.startsWith(GET_PREFIX))
-								// Switch from using getXxx() to isXxx()
-								methodName = IS_PREFIX + Character.toUpperCase(name.charAt(0)) + name.substring(1);
-							else if (methodName.startsWith(IS_PREFIX))
-								// Switch from using isXxx() to xxx()
-								methodName = name;
-							else
-								throw new IllegalArgumentException("Cannot find a public member \'" + name + "\' in a " + self.getClass().getName()); //$NON-NLS-1$//$NON-NLS-2$
-						}
-					}
-
-					// Since we already checked that it's public. This will speed
-					// up the calls a bit.
-					m.setAccessible(true);
-					lastClass = c;
-					method = m;
-				}
+			Accessor a = accessor;
+			if (a == null || !a.type.isAssignableFrom(c)) {
+				a = resolve(c);
+				accessor = a;
+			}
 
-				Exception checked;
+			Throwable checked;
+			try {
+				return a.handle.invokeExact(self);
+			} catch (RuntimeException | Error e) {
+				throw e;
+			} catch (Throwable e) {
+				checked = e;
+			}
+			throw new RuntimeException("Problem invoking " + a.methodName + " on a " + c.getName(), checked); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+
+		private Accessor resolve(Class<?> c) {
+			String methodName = name;
+			if (!(methodName.startsWith(GET_PREFIX) || methodName.startsWith(IS_PREFIX)))
+				methodName = GET_PREFIX + Character.toUpperCase(methodName.charAt(0)) + methodName.substring(1);
+			Method m;
+			for (;;) {
 				try {
-					return method.invoke(self, NO_ARGS);
-				} catch (IllegalArgumentException e) {
-					throw e;
-				} catch (IllegalAccessException e) {
-					checked = e;
-				} catch (InvocationTargetException e) {
-					Throwable cause = e.getTargetException();
-					if (cause instanceof RuntimeException)
-						throw (RuntimeException) cause;
-					if (cause instanceof Error)
-						throw (Error) cause;
-					checked = (Exception) cause;
+					m = c.getMethod(methodName, NO_ARG_TYPES);
+					if (!Modifier.isPublic(m.getModifiers()))
+						throw new NoSuchMethodException();
+					break;
+				} catch (NoSuchMethodException e) {
+					if (methodName.startsWith(GET_PREFIX))
+						// Switch from using getXxx() to isXxx()
+						methodName = IS_PREFIX + Character.toUpperCase(name.charAt(0)) + name.substring(1);
+					else if (methodName.startsWith(IS_PREFIX))
+						// Switch from using isXxx() to xxx()
+						methodName = name;
+					else
+						throw new IllegalArgumentException("Cannot find a public member \'" + name + "\' in a " + c.getName()); //$NON-NLS-1$//$NON-NLS-2$
 				}
-				throw new RuntimeException("Problem invoking " + methodName + " on a " + self.getClass().getName(), checked); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+
+			// Since we already checked that it's public. This also lets us call
+			// public methods that are declared in a non public class.
+			m.setAccessible(true);
+			try {
+				return new Accessor(c, MethodHandles.lookup().unreflect(m).asType(ACCESSOR_TYPE), methodName);
+			} catch (IllegalAccessException e) {
+				throw new RuntimeException("Problem invoking " + methodName + " on a " + c.getName(), e); //$NON-NLS-1$ //$NON-NLS-2$
 			}
 		}
 	}
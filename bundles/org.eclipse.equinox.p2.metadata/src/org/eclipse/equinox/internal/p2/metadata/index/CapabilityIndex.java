@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2010, 2018 Cloudsmith Inc. and others.
+ * Copyright (c) 2010, 2020 Cloudsmith Inc. and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -13,14 +13,16 @@
  *******************************************************************************/
 package org.eclipse.equinox.internal.p2.metadata.index;
 
+import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import org.eclipse.equinox.internal.p2.metadata.IRequiredCapability;
 import org.eclipse.equinox.internal.p2.metadata.InstallableUnit;
 import org.eclipse.equinox.internal.p2.metadata.ProvidedCapability;
@@ -36,43 +38,196 @@ import org.eclipse.equinox.internal.p2.metadata.expression.Unary;
 import org.eclipse.equinox.p2.metadata.IInstallableUnit;
 import org.eclipse.equinox.p2.metadata.IProvidedCapability;
 import org.eclipse.equinox.p2.metadata.IRequirement;
+import org.eclipse.equinox.p2.metadata.Version;
+import org.eclipse.equinox.p2.metadata.VersionRange;
 import org.eclipse.equinox.p2.metadata.expression.ExpressionUtil;
 import org.eclipse.equinox.p2.metadata.expression.IEvaluationContext;
 import org.eclipse.equinox.p2.metadata.expression.IExpression;
 import org.eclipse.equinox.p2.metadata.expression.IMatchExpression;
 
 /**
- * An in-memory implementation of a CapabilityIndex based on a Map.
+ * An in-memory implementation of a CapabilityIndex.
+ * <p>
+ * The units are kept in a table and the names and namespaces of their capabilities
+ * are interned to ints. The capabilities of each name are kept in flat arrays that
+ * are sorted by namespace and version, so that the units providing a name in a
+ * namespace within a version range are found by binary search. The units of each
+ * namespace are kept as an int array of positions in the unit table.
  */
 @SuppressWarnings("unchecked")
 public class CapabilityIndex extends Index<IInstallableUnit> {
 
-	private final Map<String, Set<IInstallableUnit>> namespaceMap;
-	private final Map<String, Object> nameMap;
+	private static final int INSERTION_SORT_THRESHOLD = 16;
+
+	private final IInstallableUnit[] units;
+
+	private final Map<String, Integer> nameIds;
+	private final Map<String, Integer> namespaceIds;
+
+	/**
+	 * The capabilities of name id <code>n</code> are the slots from
+	 * <code>nameStart[n]</code> to <code>nameStart[n + 1]</code>.
+	 */
+	private final int[] nameStart;
+	private final int[] slotNamespaces;
+	private final Version[] slotVersions;
+	private final int[] slotUnits;
+
+	/**
+	 * The ascending positions of the units providing a capability in each namespace
+	 */
+	private final int[][] namespaceUnits;
 
 	public CapabilityIndex(Iterator<IInstallableUnit> itor) {
-		nameMap = new HashMap<>(300);
-		namespaceMap = new HashMap<>(10);
+		List<IInstallableUnit> unitList = new ArrayList<>();
+		nameIds = new HashMap<>(300);
+		namespaceIds = new HashMap<>(10);
+		int size = 0;
+		int[] capNames = new int[256];
+		int[] capNamespaces = new int[256];
+		Version[] capVersions = new Version[256];
+		int[] capUnits = new int[256];
+		int[][] nsUnits = new int[10][];
+		int[] nsSizes = new int[10];
+
 		while (itor.hasNext()) {
 			IInstallableUnit iu = itor.next();
 			Collection<IProvidedCapability> pcs = iu.getProvidedCapabilities();
+			if (pcs.isEmpty())
+				continue;
+			int unit = unitList.size();
+			unitList.add(iu);
 			for (IProvidedCapability pc : pcs) {
-				namespaceMap.computeIfAbsent(pc.getNamespace(), namespace -> new HashSet<>()).add(iu);
-				nameMap.compute(pc.getName(), (name, prev) -> {
-					if (prev == null || prev == iu) {
-						return iu;
-					} else if (prev instanceof IInstallableUnit) {
-						Collection<IInstallableUnit> ius = new HashSet<>();
-						ius.add((IInstallableUnit) prev);
-						ius.add(iu);
-						return ius;
-					} else {
-						((Collection<IInstallableUnit>) prev).add(iu);
-						return prev;
-					}
-				});
+				if (size == capNames.length) {
+					int newLength = size * 2;
+					capNames = Arrays.copyOf(capNames, newLength);
+					capNamespaces = Arrays.copyOf(capNamespaces, newLength);
+					capVersions = Arrays.copyOf(capVersions, newLength);
+					capUnits = Arrays.copyOf(capUnits, newLength);
+				}
+				capNames[size] = intern(nameIds, pc.getName());
+				int namespace = intern(namespaceIds, pc.getNamespace());
+				capNamespaces[size] = namespace;
+				Version version = pc.getVersion();
+				capVersions[size] = version == null ? Version.emptyVersion : version;
+				capUnits[size] = unit;
+				size++;
+
+				if (namespace == nsUnits.length) {
+					nsUnits = Arrays.copyOf(nsUnits, namespace * 2);
+					nsSizes = Arrays.copyOf(nsSizes, namespace * 2);
+				}
+				int[] posting = nsUnits[namespace];
+				int postingSize = nsSizes[namespace];
+				if (posting == null) {
+					posting = new int[4];
+					nsUnits[namespace] = posting;
+				} else if (posting[postingSize - 1] == unit) {
+					// the unit provides several capabilities in this namespace
+					continue;
+				} else if (postingSize == posting.length) {
+					posting = Arrays.copyOf(posting, postingSize * 2);
+					nsUnits[namespace] = posting;
+				}
+				posting[postingSize] = unit;
+				nsSizes[namespace] = postingSize + 1;
 			}
 		}
+		units = unitList.toArray(new IInstallableUnit[unitList.size()]);
+
+		namespaceUnits = new int[namespaceIds.size()][];
+		for (int i = 0; i < namespaceUnits.length; i++)
+			namespaceUnits[i] = Arrays.copyOf(nsUnits[i], nsSizes[i]);
+
+		// Distribute the capabilities over the names, then sort each name by namespace and version
+		int nameCount = nameIds.size();
+		nameStart = new int[nameCount + 1];
+		for (int i = 0; i < size; i++)
+			nameStart[capNames[i] + 1]++;
+		for (int i = 0; i < nameCount; i++)
+			nameStart[i + 1] += nameStart[i];
+		int[] next = Arrays.copyOf(nameStart, nameCount);
+		slotNamespaces = new int[size];
+		slotVersions = new Version[size];
+		slotUnits = new int[size];
+		for (int i = 0; i < size; i++) {
+			int slot = next[capNames[i]]++;
+			slotNamespaces[slot] = capNamespaces[i];
+			slotVersions[slot] = capVersions[i];
+			slotUnits[slot] = capUnits[i];
+		}
+		for (int i = 0; i < nameCount; i++)
+			sortSlots(nameStart[i], nameStart[i + 1]);
+	}
+
+	private static int intern(Map<String, Integer> ids, String key) {
+		Integer id = ids.get(key);
+		if (id == null) {
+			id = Integer.valueOf(ids.size());
+			ids.put(key, id);
+		}
+		return id.intValue();
+	}
+
+	private int compareSlot(int slot, int namespace, Version version) {
+		int cmp = Integer.compare(slotNamespaces[slot], namespace);
+		return cmp != 0 ? cmp : slotVersions[slot].compareTo(version);
+	}
+
+	private void sortSlots(int from, int to) {
+		int length = to - from;
+		if (length < 2)
+			return;
+		if (length <= INSERTION_SORT_THRESHOLD) {
+			for (int i = from + 1; i < to; i++) {
+				int namespace = slotNamespaces[i];
+				Version version = slotVersions[i];
+				int unit = slotUnits[i];
+				int j = i - 1;
+				for (; j >= from && compareSlot(j, namespace, version) > 0; j--) {
+					slotNamespaces[j + 1] = slotNamespaces[j];
+					slotVersions[j + 1] = slotVersions[j];
+					slotUnits[j + 1] = slotUnits[j];
+				}
+				slotNamespaces[j + 1] = namespace;
+				slotVersions[j + 1] = version;
+				slotUnits[j + 1] = unit;
+			}
+			return;
+		}
+		Integer[] order = new Integer[length];
+		for (int i = 0; i < length; i++)
+			order[i] = Integer.valueOf(from + i);
+		Arrays.sort(order, (a, b) -> compareSlot(a.intValue(), slotNamespaces[b.intValue()], slotVersions[b.intValue()]));
+		int[] namespaces = new int[length];
+		Version[] versions = new Version[length];
+		int[] sortedUnits = new int[length];
+		for (int i = 0; i < length; i++) {
+			int slot = order[i].intValue();
+			namespaces[i] = slotNamespaces[slot];
+			versions[i] = slotVersions[slot];
+			sortedUnits[i] = slotUnits[slot];
+		}
+		System.arraycopy(namespaces, 0, slotNamespaces, from, length);
+		System.arraycopy(versions, 0, slotVersions, from, length);
+		System.arraycopy(sortedUnits, 0, slotUnits, from, length);
+	}
+
+	/**
+	 * Returns the first slot in <code>from</code> to <code>to</code> that is after the given
+	 * namespace and version, or at them if <code>inclusive</code> is <code>true</code>. A
+	 * <code>null</code> version compares the namespace only.
+	 */
+	private int findSlot(int from, int to, int namespace, Version version, boolean inclusive) {
+		while (from < to) {
+			int mid = (from + to) >>> 1;
+			int cmp = version == null ? Integer.compare(slotNamespaces[mid], namespace) : compareSlot(mid, namespace, version);
+			if (cmp < 0 || (cmp == 0 && !inclusive))
+				from = mid + 1;
+			else
+				to = mid;
+		}
+		return from;
 	}
 
 	private Object getRequirementIDs(IEvaluationContext ctx, IExpression requirement, Object queriedKeys) {
@@ -143,7 +298,7 @@ public class CapabilityIndex extends Index<IInstallableUnit> {
 	@Override
 	public Iterator<IInstallableUnit> getCandidates(IEvaluationContext ctx, IExpression variable, IExpression booleanExpr) {
 		Object queriedKeys = null;
-		Map<String, ?> indexMapToUse = nameMap;
+		boolean byNamespace = false;
 
 		// booleanExpression must be a collection filter on providedCapabilities
 		// or an IInstallableUnit used in a match expression.
@@ -164,6 +319,11 @@ public class CapabilityIndex extends Index<IInstallableUnit> {
 				if (isIndexedMember(cf.getOperand(), variable, InstallableUnit.MEMBER_PROVIDED_CAPABILITIES)) {
 					// This is providedCapabilities.exists or providedCapabilites.all
 					//
+					VersionRange range = RequiredCapability.extractRange(expr, ctx);
+					if (range != null)
+						// The expression of a version range requirement
+						return getUnits((String) ctx.getParameter(0), (String) ctx.getParameter(1), range).iterator();
+
 					LambdaExpression lambda = cf.lambda;
 					queriedKeys = getQueriedIDs(ctx, lambda.getItemVariable(), ProvidedCapability.MEMBER_NAME, lambda.getOperand(), queriedKeys);
 					if (queriedKeys == null) {
@@ -176,7 +336,7 @@ public class CapabilityIndex extends Index<IInstallableUnit> {
 						// in a performant way as this reduces the result set significantly
 						queriedKeys = getQueriedIDs(ctx, lambda.getItemVariable(), ProvidedCapability.MEMBER_NAMESPACE, lambda.getOperand(), queriedKeys);
 						if (queriedKeys != null) {
-							indexMapToUse = namespaceMap;
+							byNamespace = true;
 							break;
 						}
 					}
@@ -227,7 +387,9 @@ public class CapabilityIndex extends Index<IInstallableUnit> {
 				// index usage query
 				//
 				IMatchExpression<IInstallableUnit> rm = ((IRequirement) rhsObj).getMatches();
-				queriedKeys = RequiredCapability.isVersionRangeRequirement(rm) ? concatenateUnique(queriedKeys, rm.getParameters()[0]) : getRequirementIDs(rm.createContext(), ((Unary) rm).operand, queriedKeys);
+				if (RequiredCapability.isVersionRangeRequirement(rm))
+					return getUnits(RequiredCapability.extractName(rm), RequiredCapability.extractNamespace(rm), RequiredCapability.extractRange(rm)).iterator();
+				queriedKeys = getRequirementIDs(rm.createContext(), ((Unary) rm).operand, queriedKeys);
 				break;
 
 			default :
@@ -246,26 +408,96 @@ public class CapabilityIndex extends Index<IInstallableUnit> {
 		} else if (queriedKeys instanceof Collection<?>) {
 			matchingIUs = new HashSet<>();
 			for (Object key : (Collection<Object>) queriedKeys)
-				collectMatchingIUs(indexMapToUse, (String) key, matchingIUs);
+				matchingIUs.addAll(getUnits((String) key, byNamespace));
 		} else {
-			Object v = indexMapToUse.get(queriedKeys);
-			if (v == null)
-				matchingIUs = Collections.emptySet();
-			else if (v instanceof IInstallableUnit)
-				matchingIUs = Collections.singleton((IInstallableUnit) v);
-			else
-				matchingIUs = (Collection<IInstallableUnit>) v;
+			matchingIUs = getUnits((String) queriedKeys, byNamespace);
 		}
 		return matchingIUs.iterator();
 	}
 
-	private static void collectMatchingIUs(Map<String, ?> indexToUse, String name, Collection<IInstallableUnit> collector) {
-		Object v = indexToUse.get(name);
-		if (v == null)
-			return;
-		if (v instanceof IInstallableUnit)
-			collector.add((IInstallableUnit) v);
-		else
-			collector.addAll((Collection<IInstallableUnit>) v);
+	/**
+	 * Returns the units that provide a capability with the given name, or with the
+	 * given namespace if <code>namespace</code> is <code>true</code>. Subclasses that
+	 * keep the capabilities elsewhere override this method.
+	 */
+	protected Collection<IInstallableUnit> getUnits(String key, boolean namespace) {
+		Integer id = (namespace ? namespaceIds : nameIds).get(key);
+		if (id == null)
+			return Collections.emptySet();
+		if (namespace) {
+			int[] posting = namespaceUnits[id.intValue()];
+			return new UnitList(posting, posting.length);
+		}
+		int name = id.intValue();
+		return getUnits(nameStart[name], nameStart[name + 1]);
+	}
+
+	/**
+	 * Returns the units that provide a capability with the given name and namespace in
+	 * the given version range. Subclasses that keep the capabilities elsewhere override
+	 * this method. They may return more units than match, as the candidates are
+	 * matched against the expression afterwards.
+	 */
+	protected Collection<IInstallableUnit> getUnits(String name, String namespace, VersionRange range) {
+		Integer nameId = nameIds.get(name);
+		Integer namespaceId = namespaceIds.get(namespace);
+		if (nameId == null || namespaceId == null)
+			return Collections.emptySet();
+		int ns = namespaceId.intValue();
+		int from = nameStart[nameId.intValue()];
+		int to = nameStart[nameId.intValue() + 1];
+		if (range == null || range.equals(VersionRange.emptyRange)) {
+			from = findSlot(from, to, ns, null, true);
+			to = findSlot(from, to, ns, null, false);
+		} else {
+			from = findSlot(from, to, ns, range.getMinimum(), range.getIncludeMinimum());
+			to = findSlot(from, to, ns, range.getMaximum(), !range.getIncludeMaximum());
+		}
+		return getUnits(from, to);
+	}
+
+	/**
+	 * Returns the distinct units of the given slots.
+	 */
+	private Collection<IInstallableUnit> getUnits(int from, int to) {
+		int length = to - from;
+		if (length <= 0)
+			return Collections.emptySet();
+		if (length == 1)
+			return Collections.singleton(units[slotUnits[from]]);
+		// A unit may provide the name in several namespaces or versions
+		int[] posting = Arrays.copyOfRange(slotUnits, from, to);
+		Arrays.sort(posting);
+		int size = 1;
+		for (int i = 1; i < length; i++) {
+			if (posting[i] != posting[size - 1])
+				posting[size++] = posting[i];
+		}
+		return new UnitList(posting, size);
+	}
+
+	/**
+	 * The units at the given positions of the unit table.
+	 */
+	private class UnitList extends AbstractList<IInstallableUnit> {
+		private final int[] posting;
+		private final int size;
+
+		UnitList(int[] posting, int size) {
+			this.posting = posting;
+			this.size = size;
+		}
+
+		@Override
+		public IInstallableUnit get(int index) {
+			if (index >= size)
+				throw new IndexOutOfBoundsException();
+			return units[posting[index]];
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
 	}
 }
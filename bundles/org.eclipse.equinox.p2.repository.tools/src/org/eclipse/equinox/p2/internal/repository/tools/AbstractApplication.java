@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2009, 2017 IBM Corporation and others.
+ * Copyright (c) 2009, 2020 IBM Corporation and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -13,14 +13,15 @@
  *******************************************************************************/
 package org.eclipse.equinox.p2.internal.repository.tools;
 
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.util.*;
-import org.eclipse.core.runtime.IProgressMonitor;
-import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.*;
 import org.eclipse.equinox.internal.p2.artifact.repository.CompositeArtifactRepository;
 import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
 import org.eclipse.equinox.internal.p2.metadata.repository.CompositeMetadataRepository;
+import org.eclipse.equinox.internal.p2.metadata.repository.LocalMetadataRepository;
 import org.eclipse.equinox.internal.p2.repository.helpers.RepositoryHelper;
 import org.eclipse.equinox.p2.core.*;
 import org.eclipse.equinox.p2.metadata.IInstallableUnit;
@@ -40,6 +41,7 @@ public abstract class AbstractApplication {
 	protected List<URI> metadataReposToRemove = new ArrayList<>();
 	protected List<IInstallableUnit> sourceIUs = new ArrayList<>();
 	private List<RepositoryDescriptor> destinationRepos = new ArrayList<>();
+	private RepositoryDescriptor destinationMetadataDescriptor = null;
 
 	protected IArtifactRepository destinationArtifactRepository = null;
 	protected IMetadataRepository destinationMetadataRepository = null;
@@ -167,11 +169,32 @@ public abstract class AbstractApplication {
 			destinationArtifactRepository = initializeDestination(artifactRepoDescriptor, artifactRepositoryManager);
 		if (metadataRepoDescriptor != null)
 			destinationMetadataRepository = initializeDestination(metadataRepoDescriptor, metadataRepositoryManager);
+		destinationMetadataDescriptor = metadataRepoDescriptor;
 
 		if (destinationMetadataRepository == null && destinationArtifactRepository == null)
 			throw new ProvisionException(Messages.AbstractApplication_no_valid_destinations);
 	}
 
+	/**
+	 * Generates the binary form of the destination metadata repository if its descriptor
+	 * asks for it. Only simple repositories in the local file system are supported.
+	 */
+	protected void generateBinaryMetadata(IProgressMonitor monitor) throws ProvisionException {
+		if (destinationMetadataDescriptor == null || !destinationMetadataDescriptor.isBinary())
+			return;
+		URI location = destinationMetadataRepository.getLocation();
+		if (!(destinationMetadataRepository instanceof LocalMetadataRepository) || !"file".equals(location.getScheme())) //$NON-NLS-1$
+			throw new ProvisionException(NLS.bind(Messages.exception_notLocalFileRepo, location));
+		BinaryMetadataGenerator generator = new BinaryMetadataGenerator();
+		generator.setRepoFolder(URIUtil.toFile(location).getAbsolutePath());
+		generator.setAgent(agent);
+		try {
+			generator.generate(monitor);
+		} catch (IOException e) {
+			throw new ProvisionException(NLS.bind(Messages.exception_binaryMetadata, location), e);
+		}
+	}
+
 	public IMetadataRepository getDestinationMetadataRepository() {
 		return destinationMetadataRepository;
 	}
@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.internal.repository.tools;
+
+import java.io.*;
+import java.util.Properties;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.equinox.internal.p2.metadata.repository.*;
+import org.eclipse.equinox.p2.core.IProvisioningAgent;
+import org.eclipse.equinox.p2.core.ProvisionException;
+import org.eclipse.equinox.p2.repository.metadata.IMetadataRepository;
+
+/**
+ * A class taking care of creating the binary form of a metadata repository. It
+ * takes as input the folder where a p2 repository is stored and produces the new
+ * files in this folder.
+ *
+ * The metadata is read from content.xml or content.jar. The output is content.p2b,
+ * the data file it points to, and a p2.index that lets clients try the binary form first. An existing p2.index
+ * is updated, so the binary form can be generated after {@link XZCompressor} ran.
+ * The binary form records the modification times of the metadata files, so that
+ * clients load those instead once they are replaced.
+ */
+public class BinaryMetadataGenerator {
+	private static final String P2_INDEX = "p2.index"; //$NON-NLS-1$
+	private static final String METADATA_FACTORY_ORDER = "metadata.repository.factory.order"; //$NON-NLS-1$
+	private static final String DEFAULT_FACTORY_ORDER = "content.xml,!"; //$NON-NLS-1$
+
+	private String repoFolder;
+	private IProvisioningAgent agent;
+
+	public String getRepoFolder() {
+		return repoFolder;
+	}
+
+	public void setRepoFolder(String repoFolder) {
+		this.repoFolder = repoFolder;
+	}
+
+	/**
+	 * Sets the agent used to read the repository. By default the agent of the running
+	 * system is used.
+	 */
+	public void setAgent(IProvisioningAgent agent) {
+		this.agent = agent;
+	}
+
+	public void generate(IProgressMonitor monitor) throws IOException, ProvisionException {
+		File folder = new File(repoFolder);
+		SimpleMetadataRepositoryFactory factory = new SimpleMetadataRepositoryFactory();
+		IProvisioningAgent repositoryAgent = agent != null ? agent : Activator.getAgent();
+		factory.setAgent(repositoryAgent);
+		IMetadataRepository repository = factory.load(folder.toURI(), 0, monitor);
+		new BinaryMetadataRepositoryIO(repositoryAgent).write(repository, new File(folder, BinaryMetadataRepositoryFactory.REPOSITORY_FILENAME));
+		updateP2Index(folder);
+	}
+
+	private void updateP2Index(File folder) throws IOException {
+		File indexFile = new File(folder, P2_INDEX);
+		Properties p2Index = new Properties();
+		if (indexFile.exists()) {
+			try (InputStream input = new FileInputStream(indexFile)) {
+				p2Index.load(input);
+			}
+		}
+		String order = p2Index.getProperty(METADATA_FACTORY_ORDER, DEFAULT_FACTORY_ORDER);
+		for (String suffix : order.split(",")) { //$NON-NLS-1$
+			if (suffix.trim().equals(BinaryMetadataRepositoryFactory.REPOSITORY_FILENAME))
+				return;
+		}
+		p2Index.setProperty(METADATA_FACTORY_ORDER, BinaryMetadataRepositoryFactory.REPOSITORY_FILENAME + ',' + order);
+		p2Index.setProperty("version", "1"); //$NON-NLS-1$//$NON-NLS-2$
+		try (OutputStream output = new FileOutputStream(indexFile)) {
+			p2Index.store(output, null);
+		}
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2009, 2018 IBM Corporation and others.
+ * Copyright (c) 2009, 2020 IBM Corporation and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -26,6 +26,7 @@ public class Messages extends NLS {
 	public static String exception_needDestinationRepo;
 	public static String exception_onlyOneComparator;
 	public static String exception_loadingRepository;
+	public static String exception_binaryMetadata;
 
 	public static String AbstractApplication_no_valid_destinations;
 
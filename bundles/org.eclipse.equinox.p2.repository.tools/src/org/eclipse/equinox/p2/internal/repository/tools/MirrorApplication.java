@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2009, 2017 IBM Corporation and others.
+ * Copyright (c) 2009, 2020 IBM Corporation and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -140,6 +140,8 @@ public class MirrorApplication extends AbstractApplication implements IApplicati
 				mirrorReferences = true;
 			else if (args[i].equalsIgnoreCase("-properties")) //$NON-NLS-1$
 				mirrorProperties = true;
+			else if (args[i].equalsIgnoreCase("-binary")) //$NON-NLS-1$
+				destination.setBinary(true);
 
 			// check for args with parameters. If we are at the last argument or 
 			// if the next one has a '-' as the first character, then we can't have 
@@ -203,8 +205,10 @@ public class MirrorApplication extends AbstractApplication implements IApplicati
 				if (failOnError && mirrorStatus.getSeverity() == IStatus.ERROR)
 					return mirrorStatus;
 			}
-			if (destinationMetadataRepository != null)
+			if (destinationMetadataRepository != null) {
 				mirrorMetadata(slice, new NullProgressMonitor());
+				generateBinaryMetadata(new NullProgressMonitor());
+			}
 		} finally {
 			finalizeRepositories();
 			finalizeLogs();
@@ -370,6 +374,7 @@ public class MirrorApplication extends AbstractApplication implements IApplicati
 			return performResolution(monitor);
 
 		PermissiveSlicer slicer = new PermissiveSlicer(getCompositeMetadataRepository(), slicingOptions.getFilter(), slicingOptions.includeOptionalDependencies(), slicingOptions.isEverythingGreedy(), slicingOptions.forceFilterTo(), slicingOptions.considerStrictDependencyOnly(), slicingOptions.followOnlyFilteredRequirements());
+		slicer.setParallel(slicingOptions.parallel());
 		IQueryable<IInstallableUnit> slice = slicer.slice(sourceIUs.toArray(new IInstallableUnit[sourceIUs.size()]), monitor);
 
 		if (slice != null && slicingOptions.latestVersionOnly()) {
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2009, 2010 IBM Corporation and others.
+ * Copyright (c) 2009, 2020 IBM Corporation and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -25,6 +25,7 @@ public class RepositoryDescriptor {
 	public static final String KIND_METADATA = "M"; //$NON-NLS-1$
 
 	private boolean compressed = true;
+	private boolean binary = false;
 	private boolean append = true;
 	private String name = null;
 	private URI location = null;
@@ -38,6 +39,14 @@ public class RepositoryDescriptor {
 		compressed = compress;
 	}
 
+	/**
+	 * Sets whether the binary form of a metadata repository is generated next to it,
+	 * see {@link BinaryMetadataGenerator}.
+	 */
+	public void setBinary(boolean binary) {
+		this.binary = binary;
+	}
+
 	public void setName(String repoName) {
 		name = repoName;
 	}
@@ -67,6 +76,10 @@ public class RepositoryDescriptor {
 		return compressed;
 	}
 
+	public boolean isBinary() {
+		return binary;
+	}
+
 	public boolean isAppend() {
 		return append;
 	}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2009, 2017 IBM Corporation and others.
+ * Copyright (c) 2009, 2020 IBM Corporation and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -24,6 +24,7 @@ public class SlicingOptions {
 	private boolean followOnlyFilteredRequirements = false;
 	private boolean latestVersion = false;
 	private boolean resolve = false;
+	private boolean parallel = false;
 
 	private Map<String, String> filter = null;
 
@@ -85,6 +86,14 @@ public class SlicingOptions {
 		this.latestVersion = latest;
 	}
 
+	public boolean parallel() {
+		return parallel;
+	}
+
+	public void parallel(boolean parallelSlicing) {
+		this.parallel = parallelSlicing;
+	}
+
 	public void installTimeLikeResolution(boolean resolve) {
 		this.resolve = resolve;
 	}
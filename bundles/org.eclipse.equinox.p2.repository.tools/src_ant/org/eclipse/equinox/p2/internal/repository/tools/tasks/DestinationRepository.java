@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2009 IBM Corporation and others.
+ * Copyright (c) 2009, 2020 IBM Corporation and others.
  *
  * This program and the accompanying materials 
  * are made available under the terms of the Eclipse Public License 2.0
@@ -27,6 +27,10 @@ public class DestinationRepository extends DataType {
 		descriptor.setCompressed(compress);
 	}
 
+	public void setBinary(boolean binary) {
+		descriptor.setBinary(binary);
+	}
+
 	public void setName(String repoName) {
 		descriptor.setName(repoName);
 	}
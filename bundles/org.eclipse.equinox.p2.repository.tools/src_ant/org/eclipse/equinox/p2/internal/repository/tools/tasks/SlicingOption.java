@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2009, 2011 IBM Corporation and others.
+ * Copyright (c) 2009, 2020 IBM Corporation and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -108,6 +108,14 @@ public class SlicingOption extends Task {
 		options.latestVersionOnly(latest);
 	}
 
+	/**
+	 * Set this property to true to expand the requirements of the units on several threads.
+	 * The default value is false.
+	 */
+	public void setParallel(boolean parallel) {
+		options.parallel(parallel);
+	}
+
 	public void setResolve(boolean resolve) {
 		options.installTimeLikeResolution(resolve);
 	}
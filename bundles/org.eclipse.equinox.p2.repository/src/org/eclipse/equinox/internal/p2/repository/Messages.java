@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2012 IBM Corporation and others.
+ *  Copyright (c) 2007, 2020 IBM Corporation and others.
  *
  *  This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License 2.0
@@ -89,6 +89,7 @@ public class Messages extends NLS {
 	public static String UnableToRead_0_UserCanceled;
 
 	public static String RepositoryTransport_failedReadRepo;
+	public static String range_not_honored_0_from_1;
 
 	static {
 		// initialize resource bundles
@@ -0,0 +1,43 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.repository;
+
+import java.net.ProtocolException;
+import org.eclipse.core.runtime.IStatus;
+
+/**
+ * Exception signaling that the server did not return the content from the requested
+ * start position, for example because it ignored the range of the request and sent
+ * the whole file. Nothing has been written to the target of the download.
+ */
+public class RangeNotHonoredException extends ProtocolException {
+
+	private static final long serialVersionUID = 2947364836250294125L;
+
+	public RangeNotHonoredException(String message) {
+		super(message);
+	}
+
+	/**
+	 * Returns whether the given status, or one of the exceptions it was caused by,
+	 * reports that the range of the request was not honored.
+	 */
+	public static boolean isCause(IStatus status) {
+		for (Throwable t = status.getException(); t != null; t = t.getCause()) {
+			if (t instanceof RangeNotHonoredException)
+				return true;
+		}
+		return false;
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2010 IBM Corporation and others.
+ *  Copyright (c) 2007, 2020 IBM Corporation and others.
  *
  *  This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License 2.0
@@ -28,6 +28,11 @@ public abstract class Transport {
 	 * monitor. If the <code>target</code> is an instance of {@link IStateful} the resulting status
 	 * is also set on the target. An IStateful target is updated with status even if this methods
 	 * throws {@link OperationCanceledException}.
+	 * <p>
+	 * If the server does not return the content from <code>startPos</code> onwards, nothing is
+	 * written to the target and the download fails with a status caused by a
+	 * {@link RangeNotHonoredException}.
+	 * </p>
 	 * 
 	 * @returns IStatus, that is a {@link DownloadStatus} on success.
 	 * @param toDownload URI of file to download
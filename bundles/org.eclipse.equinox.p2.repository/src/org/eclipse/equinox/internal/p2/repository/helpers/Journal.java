@@ -0,0 +1,204 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.internal.p2.repository.helpers;
+
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
+import org.eclipse.equinox.internal.p2.repository.Activator;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * A file next to a repository that changes of the repository are appended to, instead
+ * of rewriting the whole repository. Each record is preceded by a line with its length
+ * in bytes, so that a record torn by an interrupted append is recognized and dropped.
+ * <p>
+ * Appends and replays lock the journal file against other processes, and against other
+ * journals on the same file within this process.
+ * </p>
+ */
+public class Journal {
+	/**
+	 * Applies the records of a journal to a repository.
+	 */
+	public interface RecordHandler {
+		/**
+		 * Applies the given record, or throws an exception without applying anything
+		 * if the record cannot be parsed.
+		 */
+		void replay(byte[] record) throws IOException;
+	}
+
+	private static final class ProcessLock {
+		int users;
+	}
+
+	/**
+	 * The locks of the journals that are in use within this process.
+	 */
+	private static final Map<File, ProcessLock> processLocks = new HashMap<>();
+
+	private final File file;
+	private boolean corrupt;
+
+	public Journal(File file) {
+		this.file = file.getAbsoluteFile();
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Returns whether the last replay stopped at a damaged record. The records from
+	 * there on are not applied, and the caller should fold the journal back into
+	 * the repository.
+	 */
+	public boolean isCorrupt() {
+		return corrupt;
+	}
+
+	/**
+	 * Appends the given record after the first <code>length</code> bytes of the journal,
+	 * dropping whatever an interrupted append left behind them. Returns the new length
+	 * of the journal, or -1 if the journal is shorter than the given length, which means
+	 * that it was compacted by someone else.
+	 */
+	public long append(long length, byte[] record) throws IOException {
+		ProcessLock lock = acquire();
+		try {
+			synchronized (lock) {
+				try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+					// released when the channel is closed
+					channel.lock();
+					if (channel.size() < length)
+						return -1;
+					channel.truncate(length);
+					channel.position(length);
+					OutputStream output = new BufferedOutputStream(Channels.newOutputStream(channel));
+					output.write((Integer.toString(record.length) + '\n').getBytes(StandardCharsets.US_ASCII));
+					output.write(record);
+					output.flush();
+					return channel.position();
+				}
+			}
+		} finally {
+			release(lock);
+		}
+	}
+
+	/**
+	 * Hands the complete records of the journal to the given handler, in order, and returns
+	 * the number of bytes they occupy. A record torn by an interrupted append is cut off if
+	 * the journal is writable. A damaged record stops the replay, it is logged and remains
+	 * in the journal until the repository is compacted.
+	 */
+	public long replay(RecordHandler handler) throws IOException {
+		corrupt = false;
+		boolean writable = Files.isWritable(file.toPath());
+		ProcessLock lock = acquire();
+		try {
+			synchronized (lock) {
+				try (FileChannel channel = writable ? FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE) : FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+					// released when the channel is closed
+					channel.lock(0, Long.MAX_VALUE, !writable);
+					long length = read(new BufferedInputStream(Channels.newInputStream(channel)), channel.size(), handler);
+					if (writable && !corrupt)
+						channel.truncate(length);
+					return length;
+				}
+			}
+		} finally {
+			release(lock);
+		}
+	}
+
+	/**
+	 * Deletes the journal once the repository holds everything it did.
+	 */
+	public void delete() {
+		ProcessLock lock = acquire();
+		try {
+			synchronized (lock) {
+				file.delete();
+			}
+		} finally {
+			release(lock);
+		}
+	}
+
+	private long read(InputStream input, long size, RecordHandler handler) throws IOException {
+		long length = 0;
+		while (true) {
+			StringBuilder header = new StringBuilder();
+			int c;
+			while ((c = input.read()) != '\n') {
+				if (c == -1)
+					return length;
+				if (c < '0' || c > '9' || header.length() > 9)
+					return stop(length, null);
+				header.append((char) c);
+			}
+			if (header.length() == 0)
+				return stop(length, null);
+			long recordLength = Long.parseLong(header.toString());
+			// the record was not written completely
+			if (length + header.length() + 1 + recordLength > size)
+				return length;
+			byte[] record = new byte[(int) recordLength];
+			int read = 0;
+			while (read < record.length) {
+				int count = input.read(record, read, record.length - read);
+				if (count == -1)
+					return length;
+				read += count;
+			}
+			try {
+				handler.replay(record);
+			} catch (IOException e) {
+				return stop(length, e);
+			}
+			length += header.length() + 1 + record.length;
+		}
+	}
+
+	private long stop(long length, Exception e) {
+		corrupt = true;
+		LogHelper.log(new Status(IStatus.WARNING, Activator.ID, NLS.bind(Messages.journal_corrupt, file, Long.toString(length)), e));
+		return length;
+	}
+
+	private ProcessLock acquire() {
+		synchronized (processLocks) {
+			ProcessLock lock = processLocks.computeIfAbsent(file, key -> new ProcessLock());
+			lock.users++;
+			return lock;
+		}
+	}
+
+	private void release(ProcessLock lock) {
+		synchronized (processLocks) {
+			if (--lock.users == 0)
+				processLocks.remove(file);
+		}
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2009 IBM Corporation and others.
+ * Copyright (c) 2007, 2020 IBM Corporation and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -39,4 +39,5 @@ class Messages extends NLS {
 	public static String locationMustBeAbsolute;
 	public static String schemeNotSupported;
 	public static String noSuchProvider;
+	public static String journal_corrupt;
 }
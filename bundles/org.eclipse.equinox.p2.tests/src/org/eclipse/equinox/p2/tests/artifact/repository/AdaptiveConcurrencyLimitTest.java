@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.artifact.repository;
+
+import static org.junit.Assert.assertEquals;
+
+import org.eclipse.equinox.internal.p2.artifact.repository.simple.AdaptiveConcurrencyLimit;
+import org.junit.Test;
+
+public class AdaptiveConcurrencyLimitTest {
+
+	@Test
+	public void testFixedLimit() {
+		AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(4, 4, 4);
+		limit.update(100);
+		limit.update(200);
+		limit.update(50);
+		assertEquals(4, limit.getLimit());
+	}
+
+	@Test
+	public void testGrowsWhileThroughputImproves() {
+		AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(2, 1, 8);
+		limit.update(100);
+		assertEquals(3, limit.getLimit());
+		limit.update(150);
+		assertEquals(4, limit.getLimit());
+		limit.update(200);
+		assertEquals(5, limit.getLimit());
+	}
+
+	@Test
+	public void testHoldsOnStableThroughput() {
+		AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(2, 1, 8);
+		limit.update(100);
+		limit.update(101);
+		limit.update(99);
+		assertEquals(3, limit.getLimit());
+	}
+
+	@Test
+	public void testBacksOffWhenThroughputDrops() {
+		AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(2, 1, 8);
+		limit.update(100);
+		limit.update(150);
+		assertEquals(4, limit.getLimit());
+		limit.update(80);
+		assertEquals(3, limit.getLimit());
+		limit.update(120);
+		assertEquals(2, limit.getLimit());
+	}
+
+	@Test
+	public void testStaysWithinBounds() {
+		AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(10, 1, 3);
+		assertEquals(3, limit.getLimit());
+		limit.update(100);
+		limit.update(200);
+		assertEquals(3, limit.getLimit());
+		limit.update(10);
+		limit.update(20);
+		limit.update(40);
+		assertEquals(1, limit.getLimit());
+	}
+
+	@Test
+	public void testAcquireRespectsLimit() throws InterruptedException {
+		AdaptiveConcurrencyLimit limit = new AdaptiveConcurrencyLimit(1, 1, 1);
+		limit.acquire();
+		Thread waiter = new Thread(() -> {
+			try {
+				limit.acquire();
+				limit.release();
+			} catch (InterruptedException e) {
+				// test fails on join below
+			}
+		});
+		waiter.start();
+		waiter.join(100);
+		assertEquals(true, waiter.isAlive());
+		limit.release();
+		waiter.join(5000);
+		assertEquals(false, waiter.isAlive());
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2011 IBM Corporation and others.
+ *  Copyright (c) 2007, 2020 IBM Corporation and others.
  *
  *  This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License 2.0
@@ -21,12 +21,13 @@ import org.junit.runners.Suite;
  */
 @RunWith(Suite.class)
 @Suite.SuiteClasses({
-		ArtifactLockingTest.class, ArtifactOutputStreamTest.class, ArtifactRepositoryManagerTest.class,
+		AdaptiveConcurrencyLimitTest.class, ArtifactLockingTest.class, ArtifactOutputStreamTest.class,
+		ArtifactRepositoryManagerTest.class,
 		ArtifactRepositoryMissingSizeData.class, ArtifactRepositoryWithReferenceDescriptors.class,
 		BatchExecuteArtifactRepositoryTest.class, Bug252308.class, Bug265577.class, Bug351944.class,
-		CompositeArtifactRepositoryTest.class, CorruptedJar.class, FoldersRepositoryTest.class,
-		JarURLArtifactRepositoryTest.class, LocationTest.class, MD5Tests.class, MirrorSelectorTest.class,
-		MirrorRequestTest.class, SimpleArtifactRepositoryTest.class, TransferTest.class
+		CompositeArtifactRepositoryTest.class, CorruptedJar.class, DownloadSchedulerTest.class, FoldersRepositoryTest.class,
+		JarURLArtifactRepositoryTest.class, LocationTest.class, MD5Tests.class, MirrorSelectorTest.class, MirrorStatisticsTest.class,
+		MirrorRequestTest.class, SegmentedDownloadTest.class, SharedArtifactStoreTest.class, SimpleArtifactRepositoryTest.class, TransferTest.class
 })
 public class AllTests {
 // test suite
@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.artifact.repository;
+
+import java.io.File;
+import java.util.*;
+import org.eclipse.core.runtime.*;
+import org.eclipse.equinox.internal.p2.artifact.repository.simple.*;
+import org.eclipse.equinox.p2.metadata.IArtifactKey;
+import org.eclipse.equinox.p2.repository.artifact.*;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+
+public class DownloadSchedulerTest extends AbstractProvisioningTest {
+	private static final ThreadLocal<String> WORKER = new ThreadLocal<>();
+
+	private File repositoryFile;
+	private SimpleArtifactRepository repository;
+
+	/**
+	 * Records the worker that performed it.
+	 */
+	static class RecordingRequest implements IArtifactRequest {
+		final String name;
+		final List<String> performed;
+		String worker;
+
+		RecordingRequest(String name, List<String> performed) {
+			this.name = name;
+			this.performed = performed;
+		}
+
+		@Override
+		public IArtifactKey getArtifactKey() {
+			return null;
+		}
+
+		@Override
+		public void perform(IArtifactRepository sourceRepository, IProgressMonitor monitor) {
+			worker = WORKER.get();
+			performed.add(name);
+		}
+
+		@Override
+		public IStatus getResult() {
+			return Status.OK_STATUS;
+		}
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		repositoryFile = new File(getTempFolder(), getUniqueString());
+		repository = (SimpleArtifactRepository) getArtifactRepositoryManager().createRepository(repositoryFile.toURI(), "Scheduler", IArtifactRepositoryManager.TYPE_SIMPLE_REPOSITORY, null);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		getArtifactRepositoryManager().removeRepository(repositoryFile.toURI());
+		delete(repositoryFile);
+		super.tearDown();
+	}
+
+	/**
+	 * Runs the workers one after the other in the calling thread, so the first worker
+	 * drains its own queue and then steals the queue of the second worker.
+	 */
+	public void testIdleWorkerStealsRequests() {
+		List<String> performed = Collections.synchronizedList(new ArrayList<>());
+		RecordingRequest[] requests = new RecordingRequest[4];
+		for (int i = 0; i < requests.length; i++)
+			requests[i] = new RecordingRequest("request" + i, performed);
+		DownloadExecutor executor = new DownloadExecutor() {
+			@Override
+			public void execute(String name, Runnable worker) {
+				WORKER.set(name);
+				try {
+					worker.run();
+				} finally {
+					WORKER.remove();
+				}
+			}
+		};
+
+		MultiStatus status = new MultiStatus("test", 0, "", null);
+		new DownloadScheduler(repository, requests, new AdaptiveConcurrencyLimit(2, 2, 2), executor).run(new NullProgressMonitor(), status);
+
+		assertTrue(status.isOK());
+		// the second worker's queue is stolen from its tail
+		assertEquals(Arrays.asList("request0", "request2", "request3", "request1"), performed);
+		for (RecordingRequest request : requests)
+			assertEquals(requests[0].worker, request.worker);
+	}
+
+	/**
+	 * An interrupted caller cancels the workers and waits for them before returning.
+	 */
+	public void testInterruptWaitsForWorkers() {
+		List<String> performed = Collections.synchronizedList(new ArrayList<>());
+		List<String> finished = Collections.synchronizedList(new ArrayList<>());
+		IArtifactRequest[] requests = new IArtifactRequest[2];
+		for (int i = 0; i < requests.length; i++) {
+			requests[i] = new RecordingRequest("request" + i, performed) {
+				@Override
+				public void perform(IArtifactRepository sourceRepository, IProgressMonitor monitor) {
+					super.perform(sourceRepository, monitor);
+					while (!monitor.isCanceled())
+						Thread.yield();
+					finished.add(name);
+				}
+			};
+		}
+		DownloadExecutor executor = new DownloadExecutor() {
+			@Override
+			public void execute(String name, Runnable worker) {
+				new Thread(worker, name).start();
+			}
+		};
+
+		NullProgressMonitor monitor = new NullProgressMonitor();
+		Thread.currentThread().interrupt();
+		new DownloadScheduler(repository, requests, new AdaptiveConcurrencyLimit(2, 2, 2), executor).run(monitor, new MultiStatus("test", 0, "", null));
+
+		assertTrue(Thread.interrupted());
+		assertTrue(monitor.isCanceled());
+		assertEquals(new HashSet<>(performed), new HashSet<>(finished));
+	}
+}
@@ -0,0 +1,185 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.artifact.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Properties;
+import org.eclipse.equinox.internal.p2.artifact.repository.MirrorSelector.MirrorInfo;
+import org.eclipse.equinox.internal.p2.artifact.repository.MirrorSelector.MirrorInfoComparator;
+import org.eclipse.equinox.internal.p2.artifact.repository.MirrorStatistics;
+import org.eclipse.equinox.internal.p2.repository.DownloadStatus;
+import org.junit.*;
+
+public class MirrorStatisticsTest {
+	private static final long HOUR = 60 * 60 * 1000;
+	private static final long DAY = 24 * HOUR;
+
+	private File folder;
+	private File file;
+
+	@Before
+	public void setUp() throws IOException {
+		folder = Files.createTempDirectory("mirrorStatistics").toFile();
+		file = new File(folder, "mirrors.properties");
+	}
+
+	@After
+	public void tearDown() {
+		File[] children = folder.listFiles();
+		if (children != null)
+			for (File child : children)
+				child.delete();
+		folder.delete();
+	}
+
+	private void write(Properties properties) throws IOException {
+		try (OutputStream out = new FileOutputStream(file)) {
+			properties.store(out, null);
+		}
+	}
+
+	@Test
+	public void testSeedFromEarlierSession() throws IOException {
+		long now = System.currentTimeMillis();
+		Properties properties = new Properties();
+		properties.setProperty("http://fast.mirror/", "500000,0," + now);
+		write(properties);
+
+		MirrorInfo mirror = new MirrorInfo("http://fast.mirror", 3);
+		MirrorStatistics.getStatistics(file).seed(mirror);
+
+		assertEquals(500000, mirror.getBytesPerSecond());
+	}
+
+	@Test
+	public void testFailuresAreForgiven() throws IOException {
+		long now = System.currentTimeMillis();
+		Properties properties = new Properties();
+		properties.setProperty("http://recent.failure/", "1000,5," + now);
+		properties.setProperty("http://old.failure/", "1000,2," + (now - 3 * HOUR));
+		write(properties);
+		MirrorStatistics statistics = MirrorStatistics.getStatistics(file);
+
+		MirrorInfo recent = new MirrorInfo("http://recent.failure/", 0);
+		statistics.seed(recent);
+		MirrorInfo old = new MirrorInfo("http://old.failure/", 1);
+		old.incrementFailureCount();
+		statistics.seed(old);
+
+		// the recent failures lower the mirror's rank without excluding it, the old ones are forgiven
+		MirrorInfo[] mirrors = new MirrorInfo[] {recent, old};
+		Arrays.sort(mirrors, new MirrorInfoComparator(1000, 0, 1));
+		assertEquals(old, mirrors[0]);
+	}
+
+	@Test
+	public void testExpiredEntriesAreDropped() throws IOException {
+		long now = System.currentTimeMillis();
+		Properties properties = new Properties();
+		properties.setProperty("http://stale.mirror/", "500000,0," + (now - 60 * DAY));
+		write(properties);
+
+		MirrorInfo mirror = new MirrorInfo("http://stale.mirror/", 0);
+		MirrorStatistics.getStatistics(file).seed(mirror);
+
+		assertEquals(DownloadStatus.UNKNOWN_RATE, mirror.getBytesPerSecond());
+	}
+
+	@Test
+	public void testRecordIsSaved() throws Exception {
+		MirrorStatistics statistics = MirrorStatistics.getStatistics(file);
+		MirrorInfo mirror = new MirrorInfo("http://measured.mirror/", 0);
+		mirror.setBytesPerSecond(123456);
+
+		statistics.record(mirror);
+
+		for (int i = 0; i < 50 && !file.isFile(); i++)
+			Thread.sleep(100);
+		assertTrue(file.isFile());
+		Properties properties = new Properties();
+		try (InputStream in = new FileInputStream(file)) {
+			properties.load(in);
+		}
+		String value = properties.getProperty("http://measured.mirror/");
+		assertNotNull(value);
+		assertTrue(value, value.startsWith("123456,0,"));
+	}
+
+	@Test
+	public void testPendingRecordIsSavedOnShutdown() throws Exception {
+		MirrorStatistics statistics = MirrorStatistics.getStatistics(file);
+		MirrorInfo mirror = new MirrorInfo("http://measured.mirror/", 0);
+		mirror.setBytesPerSecond(654321);
+
+		statistics.record(mirror);
+		MirrorStatistics.shutdown();
+
+		assertTrue(file.isFile());
+		Properties properties = new Properties();
+		try (InputStream in = new FileInputStream(file)) {
+			properties.load(in);
+		}
+		String value = properties.getProperty("http://measured.mirror/");
+		assertNotNull(value);
+		assertTrue(value, value.startsWith("654321,0,"));
+	}
+
+	@Test
+	public void testEntriesOfOtherProcessesAreKept() throws Exception {
+		MirrorStatistics statistics = MirrorStatistics.getStatistics(file);
+		// another process saves after this one has loaded the file
+		Properties properties = new Properties();
+		properties.setProperty("http://other.mirror/", "4000,0," + System.currentTimeMillis());
+		write(properties);
+		MirrorInfo mirror = new MirrorInfo("http://measured.mirror/", 0);
+		mirror.setBytesPerSecond(1000);
+
+		statistics.record(mirror);
+		MirrorStatistics.shutdown();
+
+		properties = new Properties();
+		try (InputStream in = new FileInputStream(file)) {
+			properties.load(in);
+		}
+		assertTrue(properties.getProperty("http://other.mirror/").startsWith("4000,0,"));
+		assertTrue(properties.getProperty("http://measured.mirror/").startsWith("1000,0,"));
+	}
+
+	@Test
+	public void testOldRatesDecay() throws Exception {
+		MirrorStatistics statistics = MirrorStatistics.getStatistics(file);
+		Properties properties = new Properties();
+		properties.setProperty("http://measured.mirror/", "1000,0," + (System.currentTimeMillis() - 3 * DAY));
+		write(properties);
+		MirrorInfo mirror = new MirrorInfo("http://measured.mirror/", 0);
+		mirror.setBytesPerSecond(9000);
+
+		statistics.record(mirror);
+		MirrorStatistics.shutdown();
+
+		properties = new Properties();
+		try (InputStream in = new FileInputStream(file)) {
+			properties.load(in);
+		}
+		// the three days old rate weighs an eighth of the new one
+		long rate = Long.parseLong(properties.getProperty("http://measured.mirror/").split(",")[0]);
+		assertEquals(8111, rate, 10);
+	}
+}
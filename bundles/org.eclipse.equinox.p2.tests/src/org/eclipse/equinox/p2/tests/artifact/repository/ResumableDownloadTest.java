@@ -0,0 +1,88 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.artifact.repository;
+
+import java.io.ByteArrayOutputStream;
+import java.net.URI;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.equinox.internal.p2.artifact.repository.MirrorSelector;
+import org.eclipse.equinox.internal.p2.artifact.repository.simple.SimpleArtifactRepository;
+import org.eclipse.equinox.internal.p2.metadata.ArtifactKey;
+import org.eclipse.equinox.internal.p2.repository.Transport;
+import org.eclipse.equinox.p2.metadata.IArtifactKey;
+import org.eclipse.equinox.p2.metadata.Version;
+import org.eclipse.equinox.p2.repository.artifact.IArtifactDescriptor;
+import org.eclipse.equinox.p2.repository.artifact.IArtifactRepositoryManager;
+import org.eclipse.equinox.p2.tests.testserver.helper.AbstractTestServerClientCase;
+
+/**
+ * Downloads an artifact from a server that drops the connection after a few bytes
+ * of every response.
+ */
+public class ResumableDownloadTest extends AbstractTestServerClientCase {
+
+	private SimpleArtifactRepository sourceRepository;
+	private IArtifactDescriptor descriptor;
+
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		IArtifactRepositoryManager mgr = getAgent().getService(IArtifactRepositoryManager.class);
+		sourceRepository = (SimpleArtifactRepository) mgr.loadRepository(URI.create(getBaseURL() + "/public/emptyJarRepo"), null);
+		IArtifactKey key = new ArtifactKey("test.txt", "HelloWorldText", Version.parseVersion("1.0.0"));
+		descriptor = sourceRepository.getArtifactDescriptors(key)[0];
+
+		// serve the artifact through the disconnecting servlet
+		sourceRepository.setMirrorSelector(new MirrorSelector(sourceRepository, getAgent().getService(Transport.class)) {
+			@Override
+			public synchronized URI getMirrorLocation(URI inputLocation, IProgressMonitor monitor) {
+				return URI.create(getBaseURL() + "/disconnect/emptyJarRepo/plugins/HelloWorldText_1.0.0.txt");
+			}
+
+			@Override
+			public synchronized boolean hasValidMirror() {
+				return false;
+			}
+		});
+	}
+
+	@Override
+	public void tearDown() throws Exception {
+		System.clearProperty(SimpleArtifactRepository.PROP_RESUMABLE_THRESHOLD);
+		IArtifactRepositoryManager mgr = getAgent().getService(IArtifactRepositoryManager.class);
+		mgr.removeRepository(sourceRepository.getLocation());
+		super.tearDown();
+	}
+
+	public void testResumeAfterDisconnect() {
+		System.setProperty(SimpleArtifactRepository.PROP_RESUMABLE_THRESHOLD, "0");
+		ByteArrayOutputStream destination = new ByteArrayOutputStream();
+
+		IStatus status = sourceRepository.getRawArtifact(descriptor, destination, new NullProgressMonitor());
+
+		assertTrue(status.toString(), status.isOK());
+		assertEquals("Hello World!", destination.toString());
+	}
+
+	public void testDisconnectWithoutResume() {
+		System.setProperty(SimpleArtifactRepository.PROP_RESUMABLE_THRESHOLD, "-1");
+		ByteArrayOutputStream destination = new ByteArrayOutputStream();
+
+		IStatus status = sourceRepository.getRawArtifact(descriptor, destination, new NullProgressMonitor());
+
+		assertFalse(status.toString(), status.isOK());
+	}
+}
@@ -0,0 +1,183 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.artifact.repository;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.*;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.*;
+import org.eclipse.core.runtime.*;
+import org.eclipse.equinox.internal.p2.artifact.repository.simple.DownloadExecutor;
+import org.eclipse.equinox.internal.p2.artifact.repository.simple.SegmentedDownload;
+import org.eclipse.equinox.internal.p2.repository.RangeNotHonoredException;
+import org.eclipse.equinox.internal.p2.repository.Transport;
+import org.junit.*;
+
+public class SegmentedDownloadTest {
+	private static final URI MIRROR_ONE = URI.create("http://mirror.one/plugins/a.jar");
+	private static final URI MIRROR_TWO = URI.create("http://mirror.two/plugins/a.jar");
+	private static final URI BROKEN_MIRROR = URI.create("http://broken.mirror/plugins/a.jar");
+	private static final URI RANGELESS_MIRROR = URI.create("http://rangeless.mirror/plugins/a.jar");
+
+	/**
+	 * Serves the same content from every location, a few bytes at a time, honoring the
+	 * start position and cancellation like a real transport. The broken mirror drops
+	 * the connection after a few bytes. The rangeless mirror ignores the start position,
+	 * which the transport reports without writing anything.
+	 */
+	static class RangeTransport extends Transport {
+		final byte[] content;
+		final List<Long> startPositions = Collections.synchronizedList(new ArrayList<>());
+
+		RangeTransport(byte[] content) {
+			this.content = content;
+		}
+
+		@Override
+		public IStatus download(URI toDownload, OutputStream target, long startPos, IProgressMonitor monitor) {
+			startPositions.add(Long.valueOf(startPos));
+			if (RANGELESS_MIRROR.equals(toDownload) && startPos > 0)
+				return new Status(IStatus.ERROR, "test", "Range ignored", new RangeNotHonoredException("Range ignored"));
+			int limit = BROKEN_MIRROR.equals(toDownload) ? 10 : content.length;
+			try {
+				for (int position = (int) startPos, sent = 0; position < content.length; position += 7, sent += 7) {
+					if (monitor.isCanceled())
+						return Status.CANCEL_STATUS;
+					if (sent >= limit)
+						return new Status(IStatus.ERROR, "test", "Connection reset");
+					target.write(content, position, Math.min(7, content.length - position));
+				}
+			} catch (IOException e) {
+				return new Status(IStatus.ERROR, "test", e.getMessage(), e);
+			}
+			return Status.OK_STATUS;
+		}
+
+		@Override
+		public IStatus download(URI toDownload, OutputStream target, IProgressMonitor monitor) {
+			return download(toDownload, target, 0, monitor);
+		}
+
+		@Override
+		public InputStream stream(URI toDownload, IProgressMonitor monitor) {
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public long getLastModified(URI toDownload, IProgressMonitor monitor) {
+			throw new UnsupportedOperationException();
+		}
+	}
+
+	static final DownloadExecutor THREADS = new DownloadExecutor() {
+		@Override
+		public void execute(String name, Runnable worker) {
+			new Thread(worker, name).start();
+		}
+	};
+
+	private byte[] content;
+	private File file;
+
+	@Before
+	public void setUp() throws IOException {
+		content = new byte[1000];
+		new Random(42).nextBytes(content);
+		file = File.createTempFile("segments", ".tmp");
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Test
+	public void testSegmentsAreReassembled() throws IOException {
+		RangeTransport transport = new RangeTransport(content);
+		SegmentedDownload download = new SegmentedDownload(transport, null, new URI[] {MIRROR_ONE, MIRROR_TWO}, THREADS);
+
+		IStatus status = download.run(file, content.length, new NullProgressMonitor());
+
+		assertTrue(status.toString(), status.isOK());
+		assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+		assertEquals(2, transport.startPositions.size());
+		assertTrue(transport.startPositions.contains(Long.valueOf(500)));
+	}
+
+	@Test
+	public void testFailedSegmentResumesOnNextMirror() throws IOException {
+		RangeTransport transport = new RangeTransport(content);
+		SegmentedDownload download = new SegmentedDownload(transport, null, new URI[] {MIRROR_ONE, BROKEN_MIRROR, MIRROR_TWO}, THREADS);
+
+		IStatus status = download.run(file, content.length, new NullProgressMonitor());
+
+		assertTrue(status.toString(), status.isOK());
+		assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+		// the second segment starts at 333, fails after 14 bytes and resumes from there
+		assertTrue(transport.startPositions.toString(), transport.startPositions.contains(Long.valueOf(347)));
+	}
+
+	@Test
+	public void testMirrorIgnoringRangeIsReadFromStart() throws IOException {
+		RangeTransport transport = new RangeTransport(content);
+		SegmentedDownload download = new SegmentedDownload(transport, null, new URI[] {MIRROR_ONE, RANGELESS_MIRROR}, THREADS);
+
+		IStatus status = download.run(file, content.length, new NullProgressMonitor());
+
+		assertTrue(status.toString(), status.isOK());
+		assertArrayEquals(content, Files.readAllBytes(file.toPath()));
+		// the second segment asks for byte 500 and is then read from the start of the file
+		assertEquals(transport.startPositions.toString(), 3, transport.startPositions.size());
+		assertEquals(2, Collections.frequency(transport.startPositions, Long.valueOf(0)));
+	}
+
+	@Test
+	public void testAllMirrorsBroken() {
+		RangeTransport transport = new RangeTransport(content);
+		SegmentedDownload download = new SegmentedDownload(transport, null, new URI[] {BROKEN_MIRROR, BROKEN_MIRROR}, THREADS);
+
+		IStatus status = download.run(file, content.length, new NullProgressMonitor());
+
+		assertFalse(status.isOK());
+	}
+
+	@Test
+	public void testInterruptWaitsForSegments() {
+		List<URI> started = Collections.synchronizedList(new ArrayList<>());
+		List<URI> finished = Collections.synchronizedList(new ArrayList<>());
+		RangeTransport transport = new RangeTransport(content) {
+			@Override
+			public IStatus download(URI toDownload, OutputStream target, long startPos, IProgressMonitor monitor) {
+				started.add(toDownload);
+				while (!monitor.isCanceled())
+					Thread.yield();
+				finished.add(toDownload);
+				return Status.CANCEL_STATUS;
+			}
+		};
+		SegmentedDownload download = new SegmentedDownload(transport, null, new URI[] {MIRROR_ONE, MIRROR_TWO}, THREADS);
+
+		Thread.currentThread().interrupt();
+		IStatus status = download.run(file, content.length, new NullProgressMonitor());
+
+		assertTrue(Thread.interrupted());
+		assertEquals(IStatus.CANCEL, status.getSeverity());
+		assertEquals(new HashSet<>(started), new HashSet<>(finished));
+	}
+}
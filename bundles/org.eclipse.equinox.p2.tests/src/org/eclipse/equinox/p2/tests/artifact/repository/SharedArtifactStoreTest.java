@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.artifact.repository;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.equinox.internal.p2.artifact.repository.SharedArtifactStore;
+import org.eclipse.equinox.internal.p2.metadata.ArtifactKey;
+import org.eclipse.equinox.internal.p2.repository.helpers.ChecksumHelper;
+import org.eclipse.equinox.p2.metadata.Version;
+import org.eclipse.equinox.p2.repository.artifact.IArtifactDescriptor;
+import org.eclipse.equinox.p2.repository.artifact.spi.ArtifactDescriptor;
+import org.junit.*;
+import org.junit.rules.TemporaryFolder;
+
+public class SharedArtifactStoreTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File root;
+
+	@Before
+	public void setUp() throws Exception {
+		root = folder.newFolder("store");
+	}
+
+	@Test
+	public void testKeyFromDescriptor() throws Exception {
+		ArtifactDescriptor descriptor = new ArtifactDescriptor(new ArtifactKey("osgi.bundle", "a", Version.create("1.0.0")));
+		assertNull(SharedArtifactStore.getKey(descriptor));
+		descriptor.setProperty(IArtifactDescriptor.DOWNLOAD_CHECKSUM + ".sha-256", "../../etc/passwd");
+		assertNull(SharedArtifactStore.getKey(descriptor));
+		String checksum = sha256("content").toUpperCase();
+		descriptor.setProperty(IArtifactDescriptor.DOWNLOAD_CHECKSUM + ".sha-256", checksum);
+		assertEquals(checksum.toLowerCase(), SharedArtifactStore.getKey(descriptor));
+	}
+
+	@Test
+	public void testRecordAndRead() throws Exception {
+		SharedArtifactStore store = SharedArtifactStore.getStore(root, Long.MAX_VALUE);
+		String key = sha256("content");
+		assertNull(store.read(key, new ByteArrayOutputStream(), new NullProgressMonitor()));
+		assertEquals(1, store.getMissCount());
+
+		ByteArrayOutputStream destination = new ByteArrayOutputStream();
+		SharedArtifactStore.Recorder recorder = store.record(key, destination);
+		recorder.write("content".getBytes(StandardCharsets.UTF_8));
+		recorder.finish(true);
+		assertEquals("content", destination.toString("UTF-8"));
+		assertEquals(1, store.getAdditionCount());
+
+		ByteArrayOutputStream copy = new ByteArrayOutputStream();
+		IStatus status = store.read(key, copy, new NullProgressMonitor());
+		assertTrue(status.isOK());
+		assertEquals("content", copy.toString("UTF-8"));
+		assertEquals(1, store.getHitCount());
+	}
+
+	@Test
+	public void testMismatchingContentIsDiscarded() throws Exception {
+		SharedArtifactStore store = SharedArtifactStore.getStore(root, Long.MAX_VALUE);
+		String key = sha256("content");
+		SharedArtifactStore.Recorder recorder = store.record(key, new ByteArrayOutputStream());
+		recorder.write("corrupted".getBytes(StandardCharsets.UTF_8));
+		recorder.finish(true);
+		assertEquals(0, store.getAdditionCount());
+		assertNull(store.read(key, new ByteArrayOutputStream(), new NullProgressMonitor()));
+	}
+
+	@Test
+	public void testIncompleteTransferIsDiscarded() throws Exception {
+		SharedArtifactStore store = SharedArtifactStore.getStore(root, Long.MAX_VALUE);
+		String key = sha256("content");
+		SharedArtifactStore.Recorder recorder = store.record(key, new ByteArrayOutputStream());
+		recorder.write("content".getBytes(StandardCharsets.UTF_8));
+		recorder.finish(false);
+		assertEquals(0, store.getAdditionCount());
+		assertNull(store.read(key, new ByteArrayOutputStream(), new NullProgressMonitor()));
+	}
+
+	@Test
+	public void testFailingDestinationKeepsEntry() throws Exception {
+		SharedArtifactStore store = SharedArtifactStore.getStore(root, Long.MAX_VALUE);
+		String key = add(store, "content");
+		OutputStream failing = new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				throw new IOException("disk full");
+			}
+		};
+		IStatus status = store.read(key, failing, new NullProgressMonitor());
+		assertEquals(IStatus.ERROR, status.getSeverity());
+		assertEquals(SharedArtifactStore.CODE_PARTIAL_READ, status.getCode());
+		assertEquals(0, store.getEvictionCount());
+		assertTrue(store.read(key, new ByteArrayOutputStream(), new NullProgressMonitor()).isOK());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEviction() throws Exception {
+		SharedArtifactStore store = SharedArtifactStore.getStore(root, 20);
+		String first = add(store, "first-content");
+		Files.setLastModifiedTime(new File(new File(root, first.substring(0, 2)), first).toPath(), FileTime.fromMillis(1000));
+		String second = add(store, "second-content");
+
+		assertEquals(1, store.getEvictionCount());
+		assertNull(store.read(first, new ByteArrayOutputStream(), new NullProgressMonitor()));
+		assertNotNull(store.read(second, new ByteArrayOutputStream(), new NullProgressMonitor()));
+	}
+
+	private String add(SharedArtifactStore store, String content) throws Exception {
+		String key = sha256(content);
+		SharedArtifactStore.Recorder recorder = store.record(key, new ByteArrayOutputStream());
+		recorder.write(content.getBytes(StandardCharsets.UTF_8));
+		recorder.finish(true);
+		return key;
+	}
+
+	private static String sha256(String content) throws Exception {
+		return ChecksumHelper.toHexString(MessageDigest.getInstance("SHA-256").digest(content.getBytes(StandardCharsets.UTF_8)));
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2017 compeople AG and others.
+ * Copyright (c) 2007, 2020 compeople AG and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -25,9 +25,13 @@ import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
 import org.eclipse.core.runtime.IProgressMonitor;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.NullProgressMonitor;
@@ -46,6 +50,7 @@ import org.eclipse.equinox.p2.query.IQueryable;
 import org.eclipse.equinox.p2.repository.IRepository;
 import org.eclipse.equinox.p2.repository.IRepositoryManager;
 import org.eclipse.equinox.p2.repository.artifact.ArtifactDescriptorQuery;
+import org.eclipse.equinox.p2.repository.artifact.ArtifactKeyQuery;
 import org.eclipse.equinox.p2.repository.artifact.IArtifactDescriptor;
 import org.eclipse.equinox.p2.repository.artifact.IArtifactRepository;
 import org.eclipse.equinox.p2.repository.artifact.IArtifactRepositoryManager;
@@ -452,6 +457,157 @@ public class SimpleArtifactRepositoryTest extends AbstractProvisioningTest {
 		assertEquals(d3.getArtifactKey(), resultDescriptor.getArtifactKey());
 	}
 
+	public void testConcurrentReadsDuringModification() throws Exception {
+		File folder = getTestFolder("ArtifactRepository_testConcurrentReads");
+		repositoryURI = folder.toURI();
+
+		final SimpleArtifactRepository repo = (SimpleArtifactRepository) getArtifactRepositoryManager().createRepository(repositoryURI, "test", IArtifactRepositoryManager.TYPE_SIMPLE_REPOSITORY, new HashMap<>());
+		final IArtifactKey key = new ArtifactKey("osgi.bundle", "a", Version.create("1.0.0"));
+		repo.addDescriptor(new ArtifactDescriptor(key), new NullProgressMonitor());
+
+		final AtomicBoolean done = new AtomicBoolean();
+		final List<Throwable> failures = new CopyOnWriteArrayList<>();
+		Thread[] readers = new Thread[4];
+		for (int i = 0; i < readers.length; i++) {
+			readers[i] = new Thread(() -> {
+				try {
+					while (!done.get()) {
+						// the first descriptor is never removed
+						if (!repo.contains(key) || repo.getArtifactDescriptors(key).length == 0)
+							failures.add(new AssertionError("descriptor of " + key + " missing"));
+						for (IArtifactDescriptor descriptor : repo.descriptorQueryable().query(ArtifactDescriptorQuery.ALL_DESCRIPTORS, null))
+							repo.getLocation(descriptor);
+						repo.query(ArtifactKeyQuery.ALL_KEYS, null).toUnmodifiableSet();
+					}
+				} catch (Throwable t) {
+					failures.add(t);
+				}
+			});
+			readers[i].start();
+		}
+		try {
+			IProgressMonitor monitor = new NullProgressMonitor();
+			repo.executeBatch(m -> {
+				for (int i = 0; i < 500; i++) {
+					ArtifactDescriptor d = new ArtifactDescriptor(new ArtifactKey("osgi.bundle", i % 2 == 0 ? "a" : "b" + i, Version.create("2.0." + i)));
+					repo.addDescriptor(d, m);
+					if (i % 3 == 0)
+						repo.removeDescriptor(d.getArtifactKey(), m);
+				}
+			}, monitor);
+		} finally {
+			done.set(true);
+			for (Thread reader : readers)
+				reader.join();
+		}
+		assertTrue(failures.toString(), failures.isEmpty());
+		assertEquals(1 + 500 - 167, queryResultSize(repo.descriptorQueryable().query(ArtifactDescriptorQuery.ALL_DESCRIPTORS, null)));
+	}
+
+	public void testJournaledChanges() throws Exception {
+		File folder = getTestFolder("ArtifactRepository_testJournaledChanges");
+		repositoryURI = folder.toURI();
+		Map<String, String> properties = new HashMap<>();
+		properties.put(SimpleArtifactRepository.PROP_JOURNAL, "true");
+		IArtifactRepository repo = getArtifactRepositoryManager().createRepository(repositoryURI, "test", IArtifactRepositoryManager.TYPE_SIMPLE_REPOSITORY, properties);
+		File artifactsFile = new File(folder, "artifacts.xml");
+		File journal = new File(folder, "artifacts.journal");
+		long snapshotLength = artifactsFile.length();
+
+		IArtifactDescriptor d1 = new ArtifactDescriptor(new ArtifactKey("osgi.bundle", "a", Version.create("1.0.0")));
+		IArtifactDescriptor d2 = new ArtifactDescriptor(new ArtifactKey("osgi.bundle", "b", Version.create("1.0.0")));
+		repo.addDescriptor(d1, getMonitor());
+		assertTrue(journal.isFile());
+		assertEquals(snapshotLength, artifactsFile.length());
+		repo.addDescriptors(new IArtifactDescriptor[] {d2}, getMonitor());
+		repo.removeDescriptor(d1.getArtifactKey(), getMonitor());
+
+		IArtifactRepository reloaded = loadFromDisk(repositoryURI);
+		assertFalse(reloaded.contains(d1));
+		assertTrue(reloaded.contains(d2));
+
+		// any other change folds the journal into the artifacts file
+		repo.setProperty("foo", "bar", getMonitor());
+		assertFalse(journal.exists());
+		reloaded = loadFromDisk(repositoryURI);
+		assertFalse(reloaded.contains(d1));
+		assertTrue(reloaded.contains(d2));
+		assertEquals("bar", reloaded.getProperty("foo"));
+	}
+
+	public void testJournalCompaction() throws Exception {
+		File folder = getTestFolder("ArtifactRepository_testJournalCompaction");
+		repositoryURI = folder.toURI();
+		Map<String, String> properties = new HashMap<>();
+		properties.put(SimpleArtifactRepository.PROP_JOURNAL, "true");
+		IArtifactRepository repo = getArtifactRepositoryManager().createRepository(repositoryURI, "test", IArtifactRepositoryManager.TYPE_SIMPLE_REPOSITORY, properties);
+		File artifactsFile = new File(folder, "artifacts.xml");
+		File journal = new File(folder, "artifacts.journal");
+
+		for (int i = 0; i < 100; i++) {
+			repo.addDescriptor(new ArtifactDescriptor(new ArtifactKey("osgi.bundle", "a" + i, Version.create("1.0.0"))), getMonitor());
+			assertTrue("journal of " + journal.length() + " bytes not compacted", journal.length() <= artifactsFile.length());
+		}
+		assertEquals(100, queryResultSize(loadFromDisk(repositoryURI).descriptorQueryable().query(ArtifactDescriptorQuery.ALL_DESCRIPTORS, null)));
+	}
+
+	public void testTornJournalRecord() throws Exception {
+		File folder = getTestFolder("ArtifactRepository_testTornJournalRecord");
+		repositoryURI = folder.toURI();
+		Map<String, String> properties = new HashMap<>();
+		properties.put(SimpleArtifactRepository.PROP_JOURNAL, "true");
+		getArtifactRepositoryManager().createRepository(repositoryURI, "test", IArtifactRepositoryManager.TYPE_SIMPLE_REPOSITORY, properties);
+		getArtifactRepositoryManager().removeRepository(repositoryURI);
+		IArtifactDescriptor d1 = new ArtifactDescriptor(new ArtifactKey("osgi.bundle", "a", Version.create("1.0.0")));
+		IArtifactDescriptor d2 = new ArtifactDescriptor(new ArtifactKey("osgi.bundle", "b", Version.create("1.0.0")));
+		loadFromDisk(repositoryURI).addDescriptor(d1, getMonitor());
+
+		// simulate a crash in the middle of an append
+		try (OutputStream out = new FileOutputStream(new File(folder, "artifacts.journal"), true)) {
+			out.write("1000\n<?xml version='1.0'".getBytes(StandardCharsets.UTF_8));
+		}
+		IArtifactRepository repo = loadFromDisk(repositoryURI);
+		assertTrue(repo.contains(d1));
+		repo.addDescriptor(d2, getMonitor());
+
+		repo = loadFromDisk(repositoryURI);
+		assertTrue(repo.contains(d1));
+		assertTrue(repo.contains(d2));
+	}
+
+	public void testCorruptJournalRecord() throws Exception {
+		File folder = getTestFolder("ArtifactRepository_testCorruptJournalRecord");
+		repositoryURI = folder.toURI();
+		Map<String, String> properties = new HashMap<>();
+		properties.put(SimpleArtifactRepository.PROP_JOURNAL, "true");
+		getArtifactRepositoryManager().createRepository(repositoryURI, "test", IArtifactRepositoryManager.TYPE_SIMPLE_REPOSITORY, properties);
+		getArtifactRepositoryManager().removeRepository(repositoryURI);
+		IArtifactDescriptor d1 = new ArtifactDescriptor(new ArtifactKey("osgi.bundle", "a", Version.create("1.0.0")));
+		IArtifactDescriptor d2 = new ArtifactDescriptor(new ArtifactKey("osgi.bundle", "b", Version.create("1.0.0")));
+		loadFromDisk(repositoryURI).addDescriptor(d1, getMonitor());
+
+		// a complete record that cannot be parsed
+		File journal = new File(folder, "artifacts.journal");
+		try (OutputStream out = new FileOutputStream(journal, true)) {
+			out.write("9\n<journal>".getBytes(StandardCharsets.UTF_8));
+		}
+		IArtifactRepository repo = loadFromDisk(repositoryURI);
+		assertTrue(repo.contains(d1));
+
+		// the next change compacts the journal
+		repo.addDescriptor(d2, getMonitor());
+		assertFalse(journal.exists());
+		repo = loadFromDisk(repositoryURI);
+		assertTrue(repo.contains(d1));
+		assertTrue(repo.contains(d2));
+	}
+
+	private IArtifactRepository loadFromDisk(URI location) throws ProvisionException {
+		SimpleArtifactRepositoryFactory factory = new SimpleArtifactRepositoryFactory();
+		factory.setAgent(getAgent());
+		return factory.load(location, 0, getMonitor());
+	}
+
 	/*
 	 * Tests the number of threads allowed
 	 */
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2017 IBM Corporation and others.
+ * Copyright (c) 2007, 2020 IBM Corporation and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -15,15 +15,21 @@ package org.eclipse.equinox.p2.tests.engine;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import junit.framework.Test;
 import junit.framework.TestSuite;
 import org.eclipse.core.runtime.*;
 import org.eclipse.equinox.internal.p2.engine.DownloadManager;
+import org.eclipse.equinox.internal.p2.metadata.ArtifactKey;
 import org.eclipse.equinox.p2.engine.ProvisioningContext;
 import org.eclipse.equinox.p2.metadata.IArtifactKey;
+import org.eclipse.equinox.p2.metadata.Version;
 import org.eclipse.equinox.p2.repository.artifact.IArtifactRepository;
 import org.eclipse.equinox.p2.repository.artifact.IArtifactRequest;
 import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+import org.eclipse.equinox.p2.tests.TestArtifactRepository;
 
 /**
  * Simple tests of {@link DownloadManager} API.
@@ -233,6 +239,106 @@ public class DownloadManagerTest extends AbstractProvisioningTest {
 
 	}
 
+	/**
+	 * Tests that when fetching from several repositories in parallel, a request that fails
+	 * in one repository is retried in the next repository containing the artifact. The first
+	 * repository only answers once the second one has served its request, so both repositories
+	 * must be fetched from at the same time.
+	 */
+	public void testParallelRepositoriesRetryFailedRequest() throws Exception {
+		final IArtifactKey blockedKey = new ArtifactKey("osgi.bundle", "blocked", Version.create("1.0.0"));
+		final IArtifactKey servedKey = new ArtifactKey("osgi.bundle", "served", Version.create("1.0.0"));
+		final URI blockingLocation = new URI("memory:/in/memory/blocking");
+		final URI workingLocation = new URI("memory:/in/memory/working");
+		final CountDownLatch served = new CountDownLatch(1);
+		final boolean[] fetchedInParallel = new boolean[1];
+		final List<String> attempts = Collections.synchronizedList(new ArrayList<String>());
+		class KeyRepository extends TestArtifactRepository {
+			private final Collection<IArtifactKey> keys;
+
+			public KeyRepository(URI location, IArtifactKey... keys) {
+				super(getAgent(), location);
+				this.keys = Arrays.asList(keys);
+				addToRepositoryManager();
+			}
+
+			@Override
+			public boolean contains(IArtifactKey candidate) {
+				return keys.contains(candidate);
+			}
+
+			@Override
+			public IStatus getArtifacts(IArtifactRequest[] requests, IProgressMonitor monitor) {
+				if (blockingLocation.equals(getLocation())) {
+					try {
+						fetchedInParallel[0] = served.await(10, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						return Status.CANCEL_STATUS;
+					}
+				}
+				for (IArtifactRequest request : requests)
+					request.perform(this, monitor);
+				if (workingLocation.equals(getLocation()))
+					served.countDown();
+				return Status.OK_STATUS;
+			}
+		}
+		class KeyRequest implements IArtifactRequest {
+			private final IArtifactKey key;
+			private IStatus result;
+
+			KeyRequest(IArtifactKey key) {
+				this.key = key;
+			}
+
+			@Override
+			public IArtifactKey getArtifactKey() {
+				return key;
+			}
+
+			@Override
+			public void perform(IArtifactRepository sourceRepository, IProgressMonitor monitor) {
+				attempts.add(key.getId() + '@' + sourceRepository.getLocation());
+				result = blockingLocation.equals(sourceRepository.getLocation()) ? new Status(IStatus.ERROR, "Test", "Test - Download failed") : Status.OK_STATUS;
+			}
+
+			@Override
+			public IStatus getResult() {
+				return result;
+			}
+		}
+
+		System.setProperty(DownloadManager.PROP_MAX_REPOSITORY_THREADS, "2");
+		try {
+			new KeyRepository(blockingLocation, blockedKey);
+			new KeyRepository(workingLocation, blockedKey, servedKey);
+			ProvisioningContext context = new ProvisioningContext(getAgent());
+			context.setArtifactRepositories(new URI[] {blockingLocation, workingLocation});
+			DownloadManager manager = createDownloadManager(context);
+			manager.add(new KeyRequest(blockedKey));
+			manager.add(new KeyRequest(servedKey));
+			IStatus result = manager.start(null);
+			assertTrue("1.0", result.isOK());
+			assertTrue("1.1", fetchedInParallel[0]);
+			assertEquals("1.2", Arrays.asList("blocked@" + blockingLocation, "blocked@" + workingLocation), filter(attempts, "blocked@"));
+			assertEquals("1.3", Arrays.asList("served@" + workingLocation), filter(attempts, "served@"));
+		} finally {
+			System.clearProperty(DownloadManager.PROP_MAX_REPOSITORY_THREADS);
+			getArtifactRepositoryManager().removeRepository(blockingLocation);
+			getArtifactRepositoryManager().removeRepository(workingLocation);
+		}
+	}
+
+	private static List<String> filter(List<String> attempts, String prefix) {
+		List<String> result = new ArrayList<>();
+		synchronized (attempts) {
+			for (String attempt : attempts)
+				if (attempt.startsWith(prefix))
+					result.add(attempt);
+		}
+		return result;
+	}
+
 	private DownloadManager createDownloadManager(ProvisioningContext context) {
 		return new DownloadManager(context, getAgent());
 	}
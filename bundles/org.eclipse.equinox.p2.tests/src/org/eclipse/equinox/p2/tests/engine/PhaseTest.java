@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2017 IBM Corporation and others.
+ *  Copyright (c) 2007, 2020 IBM Corporation and others.
  *
  *  This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License 2.0
@@ -16,6 +16,7 @@ package org.eclipse.equinox.p2.tests.engine;
 import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.eclipse.core.runtime.*;
 import org.eclipse.equinox.internal.p2.engine.*;
 import org.eclipse.equinox.internal.p2.engine.phases.Collect;
@@ -393,4 +394,161 @@ public class PhaseTest extends AbstractProvisioningTest {
 			getEventBus().removeListener(listener);
 		}
 	}
+
+	/**
+	 * Records the actions it runs and undoes. The independent ones wait a little, so that
+	 * the actions of several operands overlap.
+	 */
+	static class RecordingAction extends ProvisioningAction {
+		final String name;
+		final List<String> executed;
+		final List<String> undone;
+
+		RecordingAction(String name, List<String> executed, List<String> undone) {
+			this.name = name;
+			this.executed = executed;
+			this.undone = undone;
+		}
+
+		@Override
+		public IStatus execute(Map<String, Object> parameters) {
+			executed.add(name + ' ' + getUnit(parameters).getId());
+			return null;
+		}
+
+		@Override
+		public IStatus undo(Map<String, Object> parameters) {
+			undone.add(name + ' ' + getUnit(parameters).getId());
+			return null;
+		}
+
+		static IInstallableUnit getUnit(Map<String, Object> parameters) {
+			return ((InstallableUnitOperand) parameters.get("operand")).second();
+		}
+	}
+
+	static class IndependentRecordingAction extends RecordingAction implements IIndependentAction {
+		final AtomicInteger running;
+		final AtomicInteger maxRunning;
+		final String failingId;
+
+		IndependentRecordingAction(List<String> executed, List<String> undone, AtomicInteger running, AtomicInteger maxRunning, String failingId) {
+			super("independent", executed, undone);
+			this.running = running;
+			this.maxRunning = maxRunning;
+			this.failingId = failingId;
+		}
+
+		@Override
+		public IStatus execute(Map<String, Object> parameters) {
+			super.execute(parameters);
+			maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+				return Status.CANCEL_STATUS;
+			} finally {
+				running.decrementAndGet();
+			}
+			if (getUnit(parameters).getId().equals(failingId))
+				return new Status(IStatus.ERROR, "org.eclipse.equinox.p2.tests", "failing " + failingId);
+			return null;
+		}
+	}
+
+	/**
+	 * A phase that runs an action before and after an independent action for every operand,
+	 * and only the ordered actions for the operands of a barrier unit.
+	 */
+	static class IndependentPhase extends InstallableUnitPhase {
+		final List<String> executed = Collections.synchronizedList(new ArrayList<>());
+		final List<String> undone = Collections.synchronizedList(new ArrayList<>());
+		final List<Thread> orderedThreads = Collections.synchronizedList(new ArrayList<>());
+		final AtomicInteger running = new AtomicInteger();
+		final AtomicInteger maxRunning = new AtomicInteger();
+		final String barrierId;
+		final String failingId;
+
+		IndependentPhase(String barrierId, String failingId) {
+			super("test", 1);
+			this.barrierId = barrierId;
+			this.failingId = failingId;
+		}
+
+		@Override
+		protected List<ProvisioningAction> getActions(InstallableUnitOperand operand) {
+			List<ProvisioningAction> actions = new ArrayList<>();
+			actions.add(new OrderedAction("before"));
+			if (!operand.second().getId().equals(barrierId))
+				actions.add(new IndependentRecordingAction(executed, undone, running, maxRunning, failingId));
+			actions.add(new OrderedAction("after"));
+			return actions;
+		}
+
+		class OrderedAction extends RecordingAction {
+			OrderedAction(String name) {
+				super(name, IndependentPhase.this.executed, IndependentPhase.this.undone);
+			}
+
+			@Override
+			public IStatus execute(Map<String, Object> parameters) {
+				orderedThreads.add(Thread.currentThread());
+				return super.execute(parameters);
+			}
+		}
+	}
+
+	private IStatus performIndependentPhase(IndependentPhase phase, int count) {
+		IProvisioningPlan plan = engine.createPlan(createProfile("PhaseTest"), null);
+		for (int i = 0; i < count; i++)
+			plan.addInstallableUnit(createIU("unit" + i));
+		System.setProperty(EngineActivator.PROP_PHASE_PARALLELISM, "4");
+		try {
+			return engine.perform(plan, new TestPhaseSet(phase), new NullProgressMonitor());
+		} finally {
+			System.clearProperty(EngineActivator.PROP_PHASE_PARALLELISM);
+		}
+	}
+
+	public void testParallelOperands() {
+		IndependentPhase phase = new IndependentPhase("unit5", null);
+		IStatus status = performIndependentPhase(phase, 10);
+		assertTrue(status.toString(), status.isOK());
+		assertTrue(phase.maxRunning.get() > 1);
+		assertTrue(phase.undone.isEmpty());
+		for (Thread thread : phase.orderedThreads)
+			assertSame(Thread.currentThread(), thread);
+
+		List<String> before = new ArrayList<>();
+		List<String> after = new ArrayList<>();
+		for (String action : phase.executed) {
+			String unit = action.substring(action.indexOf(' ') + 1);
+			if (action.startsWith("before "))
+				before.add(unit);
+			else if (action.startsWith("after ")) {
+				after.add(unit);
+				// the operand was started and its independent action is done
+				assertTrue(unit, before.contains(unit));
+				assertTrue(unit, unit.equals("unit5") || phase.executed.indexOf("independent " + unit) < phase.executed.indexOf(action));
+			}
+		}
+		assertEquals(10, before.size());
+		assertEquals(before, after);
+		// the barrier is performed alone, after the operands before it
+		int barrier = phase.executed.indexOf("before unit5");
+		for (String unit : before.subList(0, before.indexOf("unit5")))
+			assertTrue(unit, phase.executed.indexOf("after " + unit) < barrier);
+	}
+
+	public void testParallelOperandsRollback() {
+		IndependentPhase phase = new IndependentPhase(null, "unit3");
+		IStatus status = performIndependentPhase(phase, 10);
+		assertTrue(status.toString(), status.matches(IStatus.ERROR));
+		// every action that was started is undone
+		List<String> executed = new ArrayList<>(phase.executed);
+		List<String> undone = new ArrayList<>(phase.undone);
+		assertTrue(executed.contains("independent unit3"));
+		assertEquals(new HashSet<>(executed), new HashSet<>(undone));
+		assertEquals(executed.size(), undone.size());
+	}
 }
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2007, 2017 IBM Corporation and others.
+ *  Copyright (c) 2007, 2020 IBM Corporation and others.
  *
  *  This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License 2.0
@@ -18,10 +18,7 @@ import java.io.FileFilter;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
 import org.eclipse.core.runtime.FileLocator;
 import org.eclipse.equinox.internal.p2.engine.EngineActivator;
 import org.eclipse.equinox.internal.p2.engine.Profile;
@@ -652,6 +649,115 @@ public class ProfileRegistryTest extends AbstractProvisioningTest {
 		assertEquals(1, filesFound.length);
 	}
 
+	private void assertSameState(IProfile expected, IProfile actual) {
+		assertEquals(expected.getTimestamp(), actual.getTimestamp());
+		assertEquals(expected.getProperties(), actual.getProperties());
+		Set<IInstallableUnit> ius = expected.query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet();
+		assertEquals(ius, actual.query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet());
+		for (IInstallableUnit iu : ius)
+			assertEquals(iu.toString(), expected.getInstallableUnitProperties(iu), actual.getInstallableUnitProperties(iu));
+	}
+
+	/*
+	 * Saves states of a profile that add and remove units and change the properties of the
+	 * profile and of its units, and returns the states in the order they were saved.
+	 */
+	private List<IProfile> saveStates(SimpleProfileRegistry profileRegistry, int count) throws ProvisionException {
+		IInstallableUnit[] ius = new IInstallableUnit[count + 3];
+		for (int i = 0; i < ius.length; i++)
+			ius[i] = createEclipseIU("test.iu" + i, Version.create("1.0." + i));
+		List<IProfile> states = new ArrayList<>();
+		Profile profile = (Profile) profileRegistry.addProfile(getName(), Collections.singletonMap("test", "test"));
+		states.add(profile.snapshot());
+		for (int i = 0; i < count; i++) {
+			profile.removeInstallableUnit(ius[i]);
+			profile.addInstallableUnit(ius[i + 3]);
+			profile.setInstallableUnitProperty(ius[i + 3], "root", "true");
+			profile.setInstallableUnitProperty(ius[i + 2], "state", Integer.toString(i));
+			profile.removeInstallableUnitProperty(ius[i + 1], "root");
+			profile.setProperty("state", Integer.toString(i));
+			saveProfile(profileRegistry, profile);
+			states.add(profile.snapshot());
+		}
+		return states;
+	}
+
+	private static int countFiles(File profileFolder, String extension) {
+		return profileFolder.listFiles((FileFilter) pathname -> pathname.getName().endsWith(extension)).length;
+	}
+
+	public void testDeltaHistory() throws ProvisionException {
+		System.getProperties().put(EngineActivator.PROP_PROFILE_HISTORY, EngineActivator.PROFILE_HISTORY_DELTA);
+		System.getProperties().put(EngineActivator.PROP_PROFILE_CHECKPOINT_INTERVAL, "4");
+		try {
+			File folder = getTempFolder();
+			folder.mkdirs();
+			List<IProfile> states = saveStates(new SimpleProfileRegistry(getAgent(), folder, null, false), 9);
+			File profileFolder = new File(folder, getName() + ".profile");
+			// a complete state, then three deltas for each complete state
+			assertEquals(3, countFiles(profileFolder, ".profile.gz"));
+			assertEquals(7, countFiles(profileFolder, ".profile.delta.gz"));
+
+			SimpleProfileRegistry profileRegistry = new SimpleProfileRegistry(getAgent(), folder, null, false);
+			long[] timestamps = profileRegistry.listProfileTimestamps(getName());
+			assertEquals(states.size(), timestamps.length);
+			assertSameState(states.get(states.size() - 1), profileRegistry.getProfile(getName()));
+			for (int i = 0; i < states.size(); i++)
+				assertSameState(states.get(i), new SimpleProfileRegistry(getAgent(), folder, null, false).getProfile(getName(), timestamps[i]));
+		} finally {
+			System.getProperties().remove(EngineActivator.PROP_PROFILE_HISTORY);
+			System.getProperties().remove(EngineActivator.PROP_PROFILE_CHECKPOINT_INTERVAL);
+		}
+	}
+
+	public void testRemoveDeltaState() throws ProvisionException {
+		System.getProperties().put(EngineActivator.PROP_PROFILE_HISTORY, EngineActivator.PROFILE_HISTORY_DELTA);
+		try {
+			File folder = getTempFolder();
+			folder.mkdirs();
+			List<IProfile> states = saveStates(new SimpleProfileRegistry(getAgent(), folder, null, false), 5);
+			SimpleProfileRegistry profileRegistry = new SimpleProfileRegistry(getAgent(), folder, null, false);
+			// the states after a removed delta and after the removed complete state still read
+			profileRegistry.removeProfile(getName(), states.get(2).getTimestamp());
+			states.remove(2);
+			profileRegistry.removeProfile(getName(), states.get(0).getTimestamp());
+			states.remove(0);
+
+			profileRegistry = new SimpleProfileRegistry(getAgent(), folder, null, false);
+			long[] timestamps = profileRegistry.listProfileTimestamps(getName());
+			assertEquals(states.size(), timestamps.length);
+			for (int i = 0; i < states.size(); i++)
+				assertSameState(states.get(i), profileRegistry.getProfile(getName(), timestamps[i]));
+		} finally {
+			System.getProperties().remove(EngineActivator.PROP_PROFILE_HISTORY);
+		}
+	}
+
+	public void testCompactProfileHistory() throws ProvisionException {
+		File folder = getTempFolder();
+		folder.mkdirs();
+		List<IProfile> states = saveStates(new SimpleProfileRegistry(getAgent(), folder, null, false), 6);
+		File profileFolder = new File(folder, getName() + ".profile");
+		assertEquals(0, countFiles(profileFolder, ".profile.delta.gz"));
+
+		System.getProperties().put(EngineActivator.PROP_PROFILE_CHECKPOINT_INTERVAL, "3");
+		try {
+			SimpleProfileRegistry profileRegistry = new SimpleProfileRegistry(getAgent(), folder, null, false);
+			profileRegistry.compactProfileHistory(getName());
+			assertEquals(3, countFiles(profileFolder, ".profile.gz"));
+			assertEquals(4, countFiles(profileFolder, ".profile.delta.gz"));
+		} finally {
+			System.getProperties().remove(EngineActivator.PROP_PROFILE_CHECKPOINT_INTERVAL);
+		}
+
+		SimpleProfileRegistry profileRegistry = new SimpleProfileRegistry(getAgent(), folder, null, false);
+		long[] timestamps = profileRegistry.listProfileTimestamps(getName());
+		assertEquals(states.size(), timestamps.length);
+		assertSameState(states.get(states.size() - 1), profileRegistry.getProfile(getName()));
+		for (int i = 0; i < states.size(); i++)
+			assertSameState(states.get(i), new SimpleProfileRegistry(getAgent(), folder, null, false).getProfile(getName(), timestamps[i]));
+	}
+
 	public void testRemoveProfileTimestamps() throws ProvisionException {
 		assertNull(registry.getProfile(PROFILE_NAME));
 		Map<String, String> properties = new HashMap<>();
@@ -24,7 +24,8 @@ import org.junit.runners.Suite;
 @Suite.SuiteClasses({ ArtifactKeyParsingTest.class, FragmentMethodTest.class, FragmentTest.class,
 		InstallableUnitTest.class, InstallableUnitPatchTest.class, IUPersistenceTest.class, LatestIUTest.class,
 		LicenseTest.class, MultipleIUAndFragmentTest.class, PersistNegation.class, PersistFragment.class,
-		ProvidedCapabilityTest.class, RequirementToString.class, RequirementParsingTest.class })
+		ProvidedCapabilityTest.class, RequirementToString.class, RequirementParsingTest.class,
+		CapabilityIndexTest.class })
 public class AllTests {
 //test suite
 }
\ No newline at end of file
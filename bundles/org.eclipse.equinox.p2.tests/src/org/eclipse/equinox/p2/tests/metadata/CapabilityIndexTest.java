@@ -0,0 +1,169 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.metadata;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import org.eclipse.equinox.internal.p2.metadata.InstallableUnit;
+import org.eclipse.equinox.internal.p2.metadata.index.CapabilityIndex;
+import org.eclipse.equinox.internal.p2.metadata.index.IndexProvider;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.metadata.IProvidedCapability;
+import org.eclipse.equinox.p2.metadata.IRequirement;
+import org.eclipse.equinox.p2.metadata.MetadataFactory;
+import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitDescription;
+import org.eclipse.equinox.p2.metadata.Version;
+import org.eclipse.equinox.p2.metadata.VersionRange;
+import org.eclipse.equinox.p2.metadata.expression.IEvaluationContext;
+import org.eclipse.equinox.p2.metadata.expression.IExpression;
+import org.eclipse.equinox.p2.metadata.index.IIndex;
+import org.eclipse.equinox.p2.query.IQuery;
+import org.eclipse.equinox.p2.query.QueryUtil;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the lookups of {@link CapabilityIndex} against a scan of all units.
+ */
+public class CapabilityIndexTest {
+	private static final String[] NAMESPACES = {"ns.a", "ns.b", "ns.c"};
+
+	private List<IInstallableUnit> units;
+	private CapabilityIndex index;
+	private int candidateCount;
+
+	private final IndexProvider<IInstallableUnit> provider = new IndexProvider<IInstallableUnit>() {
+		@Override
+		public IIndex<IInstallableUnit> getIndex(String memberName) {
+			if (!InstallableUnit.MEMBER_PROVIDED_CAPABILITIES.equals(memberName))
+				return null;
+			// counts the candidates the index returns
+			return new IIndex<IInstallableUnit>() {
+				@Override
+				public Iterator<IInstallableUnit> getCandidates(IEvaluationContext ctx, IExpression variable, IExpression booleanExpr) {
+					Iterator<IInstallableUnit> candidates = index.getCandidates(ctx, variable, booleanExpr);
+					if (candidates == null)
+						return null;
+					List<IInstallableUnit> result = new ArrayList<>();
+					candidates.forEachRemaining(result::add);
+					candidateCount += result.size();
+					return result.iterator();
+				}
+			};
+		}
+
+		@Override
+		public Iterator<IInstallableUnit> everything() {
+			return units.iterator();
+		}
+
+		@Override
+		public Object getManagedProperty(Object client, String memberName, Object key) {
+			return null;
+		}
+	};
+
+	@Before
+	public void setUp() {
+		Random random = new Random(4711);
+		units = new ArrayList<>();
+		for (int i = 0; i < 500; i++) {
+			List<IProvidedCapability> capabilities = new ArrayList<>();
+			int count = random.nextInt(5);
+			for (int j = 0; j < count; j++)
+				capabilities.add(MetadataFactory.createProvidedCapability(NAMESPACES[random.nextInt(NAMESPACES.length)], "name" + random.nextInt(40), Version.createOSGi(random.nextInt(4), random.nextInt(4), 0)));
+			InstallableUnitDescription description = new InstallableUnitDescription();
+			description.setId("unit" + i);
+			description.setVersion(Version.createOSGi(1, 0, 0));
+			description.setCapabilities(capabilities.toArray(new IProvidedCapability[capabilities.size()]));
+			units.add(MetadataFactory.createInstallableUnit(description));
+		}
+		index = new CapabilityIndex(units.iterator());
+	}
+
+	private Set<IInstallableUnit> query(IQuery<IInstallableUnit> query) {
+		return provider.query(query, null).toUnmodifiableSet();
+	}
+
+	private Set<IInstallableUnit> scan(IQuery<IInstallableUnit> query) {
+		return query.perform(units.iterator()).toUnmodifiableSet();
+	}
+
+	private static VersionRange randomRange(Random random) {
+		switch (random.nextInt(4)) {
+			case 0 :
+				return VersionRange.emptyRange;
+			case 1 :
+				Version version = Version.createOSGi(random.nextInt(4), random.nextInt(4), 0);
+				return new VersionRange(version, true, version, true);
+			case 2 :
+				return new VersionRange(Version.createOSGi(random.nextInt(4), 0, 0), random.nextBoolean(), Version.MAX_VERSION, true);
+			default :
+				int min = random.nextInt(3);
+				return new VersionRange(Version.createOSGi(min, random.nextInt(4), 0), random.nextBoolean(), Version.createOSGi(min + 1, random.nextInt(4), 0), random.nextBoolean());
+		}
+	}
+
+	@Test
+	public void testVersionRangeRequirements() {
+		Random random = new Random(42);
+		for (int i = 0; i < 200; i++) {
+			VersionRange range = randomRange(random);
+			IRequirement requirement = MetadataFactory.createRequirement(NAMESPACES[random.nextInt(NAMESPACES.length)], "name" + random.nextInt(40), range, null, false, false);
+			IQuery<IInstallableUnit> query = QueryUtil.createMatchQuery(requirement.getMatches());
+			candidateCount = 0;
+			Set<IInstallableUnit> expected = scan(query);
+			assertEquals(requirement.toString(), expected, query(query));
+			// the index resolves the namespace and the range to distinct units
+			assertEquals(requirement.toString(), expected.size(), candidateCount);
+
+			query = QueryUtil.createMatchQuery("this ~= $0", requirement);
+			candidateCount = 0;
+			assertEquals(requirement.toString(), expected, query(query));
+			assertEquals(requirement.toString(), expected.size(), candidateCount);
+		}
+	}
+
+	@Test
+	public void testNameAndNamespace() {
+		for (int i = 0; i < 40; i++) {
+			IQuery<IInstallableUnit> query = QueryUtil.createMatchQuery("providedCapabilities.exists(x | x.name == $0)", "name" + i);
+			assertEquals(scan(query), query(query));
+		}
+		for (String namespace : NAMESPACES) {
+			IQuery<IInstallableUnit> query = QueryUtil.createMatchQuery("providedCapabilities.exists(x | x.namespace == $0)", namespace);
+			candidateCount = 0;
+			Set<IInstallableUnit> expected = scan(query);
+			assertEquals(expected, query(query));
+			assertEquals(expected.size(), candidateCount);
+		}
+		IQuery<IInstallableUnit> query = QueryUtil.createMatchQuery("providedCapabilities.exists(x | x.name == $0 || x.name == $1)", "name1", "name2");
+		assertEquals(scan(query), query(query));
+	}
+
+	@Test
+	public void testUnknownKeys() {
+		IRequirement requirement = MetadataFactory.createRequirement("ns.a", "unknown", VersionRange.emptyRange, null, false, false);
+		assertTrue(query(QueryUtil.createMatchQuery(requirement.getMatches())).isEmpty());
+		requirement = MetadataFactory.createRequirement("unknown", "name1", VersionRange.emptyRange, null, false, false);
+		assertTrue(query(QueryUtil.createMatchQuery(requirement.getMatches())).isEmpty());
+		assertTrue(query(QueryUtil.createMatchQuery("providedCapabilities.exists(x | x.namespace == $0)", "unknown")).isEmpty());
+	}
+}
@@ -0,0 +1,181 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.metadata.repository;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import org.eclipse.equinox.internal.p2.metadata.repository.BinaryMetadataRepository;
+import org.eclipse.equinox.internal.p2.metadata.repository.BinaryMetadataRepositoryFactory;
+import org.eclipse.equinox.internal.p2.metadata.repository.BinaryMetadataRepositoryIO;
+import org.eclipse.equinox.internal.p2.metadata.repository.LocalMetadataRepository;
+import org.eclipse.equinox.p2.core.ProvisionException;
+import org.eclipse.equinox.p2.internal.repository.tools.BinaryMetadataGenerator;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.metadata.IProvidedCapability;
+import org.eclipse.equinox.p2.metadata.IRequirement;
+import org.eclipse.equinox.p2.metadata.MetadataFactory;
+import org.eclipse.equinox.p2.metadata.Version;
+import org.eclipse.equinox.p2.metadata.VersionRange;
+import org.eclipse.equinox.p2.query.QueryUtil;
+import org.eclipse.equinox.p2.repository.metadata.IMetadataRepository;
+import org.eclipse.equinox.p2.repository.metadata.IMetadataRepositoryManager;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+
+/**
+ * Tests the binary form of a metadata repository and its generation.
+ */
+public class BinaryMetadataRepositoryTest extends AbstractProvisioningTest {
+	private static final String TEST_KEY = "TestKey";
+	private static final String TEST_VALUE = "TestValue";
+	private static final String CAPABILITY_NAMESPACE = "test.namespace";
+	protected File repoLocation;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		String tempDir = System.getProperty("java.io.tmpdir");
+		repoLocation = new File(tempDir, "BinaryMetadataRepositoryTest");
+		AbstractProvisioningTest.delete(repoLocation);
+		repoLocation.mkdir();
+
+		IMetadataRepository repo = getMetadataRepositoryManager().createRepository(repoLocation.toURI(), "TestRepo", IMetadataRepositoryManager.TYPE_SIMPLE_REPOSITORY, null);
+		repo.setProperty(TEST_KEY, TEST_VALUE);
+		List<IInstallableUnit> units = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			IProvidedCapability capability = MetadataFactory.createProvidedCapability(CAPABILITY_NAMESPACE, "capability" + i % 3, Version.create("1.0.0"));
+			units.add(createIU("unit" + i % 5, Version.createOSGi(1, i, 0), new IProvidedCapability[] {capability}));
+		}
+		repo.addInstallableUnits(units);
+		getMetadataRepositoryManager().removeRepository(repoLocation.toURI());
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		getMetadataRepositoryManager().removeRepository(repoLocation.toURI());
+		delete(repoLocation);
+		super.tearDown();
+	}
+
+	private void generate() throws Exception {
+		BinaryMetadataGenerator generator = new BinaryMetadataGenerator();
+		generator.setRepoFolder(repoLocation.getAbsolutePath());
+		generator.setAgent(getAgent());
+		generator.generate(null);
+	}
+
+	public void testGenerate() throws Exception {
+		generate();
+		assertTrue(new File(repoLocation, BinaryMetadataRepositoryFactory.REPOSITORY_FILENAME).isFile());
+		Properties p2Index = new Properties();
+		try (InputStream input = new FileInputStream(new File(repoLocation, "p2.index"))) {
+			p2Index.load(input);
+		}
+		assertEquals("content.p2b,content.xml,!", p2Index.getProperty("metadata.repository.factory.order"));
+
+		// generating again keeps the index
+		generate();
+		p2Index.clear();
+		try (InputStream input = new FileInputStream(new File(repoLocation, "p2.index"))) {
+			p2Index.load(input);
+		}
+		assertEquals("content.p2b,content.xml,!", p2Index.getProperty("metadata.repository.factory.order"));
+	}
+
+	public void testLoad() throws Exception {
+		generate();
+		IMetadataRepository repo = getMetadataRepositoryManager().loadRepository(repoLocation.toURI(), null);
+		assertTrue(repo instanceof BinaryMetadataRepository);
+		assertFalse(repo.isModifiable());
+		assertEquals("TestRepo", repo.getName());
+		assertEquals(TEST_VALUE, repo.getProperties().get(TEST_KEY));
+
+		assertEquals(10, repo.query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet().size());
+		assertEquals(2, repo.query(QueryUtil.createIUQuery("unit3"), null).toUnmodifiableSet().size());
+		assertEquals(1, repo.query(QueryUtil.createIUQuery("unit3", Version.createOSGi(1, 8, 0)), null).toUnmodifiableSet().size());
+		assertTrue(repo.query(QueryUtil.createIUQuery("unknown"), null).isEmpty());
+
+		IRequirement requirement = MetadataFactory.createRequirement(CAPABILITY_NAMESPACE, "capability1", VersionRange.emptyRange, null, false, false);
+		assertEquals(3, repo.query(QueryUtil.createMatchQuery("this ~= $0", requirement), null).toUnmodifiableSet().size());
+		assertEquals(10, repo.query(QueryUtil.createMatchQuery("providedCapabilities.exists(x | x.namespace == $0)", CAPABILITY_NAMESPACE), null).toUnmodifiableSet().size());
+		requirement = MetadataFactory.createRequirement(CAPABILITY_NAMESPACE, "unknown", VersionRange.emptyRange, null, false, false);
+		assertTrue(repo.query(QueryUtil.createMatchQuery("this ~= $0", requirement), null).isEmpty());
+	}
+
+	public void testUnitsAreShared() throws Exception {
+		generate();
+		IMetadataRepository repo = getMetadataRepositoryManager().loadRepository(repoLocation.toURI(), null);
+		IInstallableUnit first = repo.query(QueryUtil.createIUQuery("unit1", Version.createOSGi(1, 1, 0)), null).iterator().next();
+		IInstallableUnit second = repo.query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet().stream().filter(first::equals).findFirst().get();
+		assertSame(first, second);
+	}
+
+	public void testStaleBinaryForm() throws Exception {
+		generate();
+		// the simple repository is replaced, possibly by an older copy, after the binary form was generated
+		for (String source : new String[] {"content.xml", "content.jar"}) {
+			File sourceFile = new File(repoLocation, source);
+			if (sourceFile.exists())
+				sourceFile.setLastModified(sourceFile.lastModified() - 10000);
+		}
+		IMetadataRepository repo = getMetadataRepositoryManager().loadRepository(repoLocation.toURI(), null);
+		assertTrue(repo instanceof LocalMetadataRepository);
+		assertEquals(10, repo.query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet().size());
+	}
+
+	public void testModifiableHint() throws Exception {
+		generate();
+		IMetadataRepository repo = getMetadataRepositoryManager().loadRepository(repoLocation.toURI(), IMetadataRepositoryManager.REPOSITORY_HINT_MODIFIABLE, null);
+		assertTrue(repo instanceof LocalMetadataRepository);
+	}
+
+	public void testGenerateWhileLoaded() throws Exception {
+		generate();
+		File repositoryFile = new File(repoLocation, BinaryMetadataRepositoryFactory.REPOSITORY_FILENAME);
+		String dataFileName = BinaryMetadataRepositoryIO.readDataFileName(repositoryFile);
+		BinaryMetadataRepositoryFactory factory = new BinaryMetadataRepositoryFactory();
+		factory.setAgent(getAgent());
+		IMetadataRepository loaded = factory.load(repoLocation.toURI(), 0, null);
+
+		// the mapped data file is not replaced, the repository file points to a new one
+		generate();
+		assertFalse(dataFileName.equals(BinaryMetadataRepositoryIO.readDataFileName(repositoryFile)));
+		assertEquals(10, loaded.query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet().size());
+		assertEquals(10, factory.load(repoLocation.toURI(), 0, null).query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet().size());
+	}
+
+	public void testCorruptBinaryForm() throws Exception {
+		generate();
+		File repositoryFile = new File(repoLocation, BinaryMetadataRepositoryFactory.REPOSITORY_FILENAME);
+		try (OutputStream output = new FileOutputStream(new File(repoLocation, BinaryMetadataRepositoryIO.readDataFileName(repositoryFile)))) {
+			output.write(new byte[64]);
+		} catch (IOException e) {
+			fail("0.99", e);
+		}
+		BinaryMetadataRepositoryFactory factory = new BinaryMetadataRepositoryFactory();
+		factory.setAgent(getAgent());
+		try {
+			factory.load(repoLocation.toURI(), 0, null);
+			fail("1.0");
+		} catch (ProvisionException e) {
+			assertEquals(ProvisionException.REPOSITORY_FAILED_READ, e.getStatus().getCode());
+		}
+	}
+}
@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.metadata.repository;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.equinox.internal.p2.metadata.index.IndexProvider;
+import org.eclipse.equinox.internal.p2.metadata.repository.CompositeMetadataIndex;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.metadata.IProvidedCapability;
+import org.eclipse.equinox.p2.metadata.IRequirement;
+import org.eclipse.equinox.p2.metadata.MetadataFactory;
+import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitDescription;
+import org.eclipse.equinox.p2.metadata.Version;
+import org.eclipse.equinox.p2.metadata.VersionRange;
+import org.eclipse.equinox.p2.metadata.index.IIndex;
+import org.eclipse.equinox.p2.query.IQuery;
+import org.eclipse.equinox.p2.query.IQueryResult;
+import org.eclipse.equinox.p2.query.QueryUtil;
+import org.eclipse.equinox.p2.repository.metadata.IMetadataRepository;
+import org.eclipse.equinox.p2.tests.TestMetadataRepository;
+import org.junit.Test;
+
+/**
+ * Tests the indexes a composite metadata repository keeps over its children.
+ */
+public class CompositeMetadataIndexTest {
+
+	private static IInstallableUnit createUnit(String id, String capability) {
+		InstallableUnitDescription description = new InstallableUnitDescription();
+		description.setId(id);
+		description.setVersion(Version.create("1.0.0"));
+		description.setCapabilities(new IProvidedCapability[] {MetadataFactory.createProvidedCapability("test", capability, Version.create("1.0.0"))});
+		return MetadataFactory.createInstallableUnit(description);
+	}
+
+	private static Set<String> query(CompositeMetadataIndex index, IQuery<IInstallableUnit> query) {
+		IndexProvider<IInstallableUnit> provider = new IndexProvider<IInstallableUnit>() {
+			@Override
+			public IIndex<IInstallableUnit> getIndex(String memberName) {
+				return index.getIndex(memberName);
+			}
+
+			@Override
+			public Iterator<IInstallableUnit> everything() {
+				return index.everything();
+			}
+
+			@Override
+			public Object getManagedProperty(Object client, String memberName, Object key) {
+				return null;
+			}
+		};
+		Set<String> ids = new HashSet<>();
+		for (IInstallableUnit unit : provider.query(query, null))
+			ids.add(unit.getId());
+		return ids;
+	}
+
+	private static IQuery<IInstallableUnit> capabilityQuery(String name) {
+		IRequirement requirement = MetadataFactory.createRequirement("test", name, VersionRange.emptyRange, null, false, false);
+		return QueryUtil.createMatchQuery("this ~= $0", requirement);
+	}
+
+	@Test
+	public void testMergedChildren() {
+		CompositeMetadataIndex index = new CompositeMetadataIndex();
+		IMetadataRepository first = new TestMetadataRepository(null, createUnit("a", "shared"), createUnit("b", "onlyB"));
+		IMetadataRepository second = new TestMetadataRepository(null, createUnit("c", "shared"));
+		index.addChild(first);
+		index.addChild(second);
+
+		assertEquals(Collections.singleton("c"), query(index, QueryUtil.createIUQuery("c")));
+		assertEquals(new HashSet<>(Arrays.asList("a", "c")), query(index, capabilityQuery("shared")));
+		assertEquals(3, query(index, QueryUtil.createIUAnyQuery()).size());
+
+		// the indexes are kept between requests
+		IIndex<IInstallableUnit> idIndex = index.getIndex("id");
+		long builds = index.getBuildCount();
+		long hits = index.getHitCount();
+		assertSame(idIndex, index.getIndex("id"));
+		assertSame(index.getIndex("providedCapabilities"), index.getIndex("providedCapabilities"));
+		assertEquals(builds, index.getBuildCount());
+		assertEquals(hits + 3, index.getHitCount());
+
+		index.removeChild(first);
+		assertEquals(Collections.emptySet(), query(index, QueryUtil.createIUQuery("a")));
+		assertEquals(Collections.singleton("c"), query(index, capabilityQuery("shared")));
+		assertEquals(Collections.singleton("c"), query(index, QueryUtil.createIUAnyQuery()));
+	}
+
+	@Test
+	public void testModifiableChild() {
+		CompositeMetadataIndex index = new CompositeMetadataIndex();
+		IMetadataRepository merged = new TestMetadataRepository(null, createUnit("a", "shared"));
+		IMetadataRepository live = new TestMetadataRepository(null, createUnit("b", "shared")) {
+			@Override
+			public boolean isModifiable() {
+				return true;
+			}
+		};
+		index.addChild(merged);
+		index.addChild(live);
+		assertEquals(new HashSet<>(Arrays.asList("a", "b")), query(index, capabilityQuery("shared")));
+
+		// changes to a modifiable child are seen without adding it again
+		live.addInstallableUnits(Collections.singleton(createUnit("c", "shared")));
+		assertEquals(new HashSet<>(Arrays.asList("a", "b", "c")), query(index, capabilityQuery("shared")));
+		assertEquals(Collections.singleton("c"), query(index, QueryUtil.createIUQuery("c")));
+		assertEquals(3, query(index, QueryUtil.createIUAnyQuery()).size());
+
+		index.clear();
+		assertEquals(Collections.emptySet(), query(index, QueryUtil.createIUAnyQuery()));
+	}
+
+	@Test
+	public void testChildrenAreMergedOnFirstQuery() {
+		CompositeMetadataIndex index = new CompositeMetadataIndex();
+		int[] reads = new int[1];
+		IMetadataRepository child = new TestMetadataRepository(null, createUnit("a", "shared")) {
+			@Override
+			@SuppressWarnings("rawtypes")
+			public IQueryResult query(IQuery query, IProgressMonitor monitor) {
+				reads[0]++;
+				return super.query(query, monitor);
+			}
+		};
+		index.addChild(child);
+		assertEquals(0, reads[0]);
+		assertEquals(Collections.singleton("a"), query(index, QueryUtil.createIUQuery("a")));
+		assertEquals(1, reads[0]);
+	}
+
+	@Test
+	public void testMergedUnitsAreNotChanged() {
+		CompositeMetadataIndex index = new CompositeMetadataIndex();
+		index.addChild(new TestMetadataRepository(null, createUnit("a", "shared")));
+		Iterator<IInstallableUnit> everything = index.everything();
+		IIndex<IInstallableUnit> idIndex = index.getIndex("id");
+
+		index.addChild(new TestMetadataRepository(null, createUnit("b", "shared")));
+		assertEquals(new HashSet<>(Arrays.asList("a", "b")), query(index, QueryUtil.createIUAnyQuery()));
+		assertEquals("a", everything.next().getId());
+		assertFalse(everything.hasNext());
+		assertFalse(idIndex == index.getIndex("id"));
+	}
+}
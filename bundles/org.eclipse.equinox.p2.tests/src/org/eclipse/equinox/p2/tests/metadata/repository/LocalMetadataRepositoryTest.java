@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2008, 2018 IBM Corporation and others.
+ *  Copyright (c) 2008, 2020 IBM Corporation and others.
  *
  *  This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License 2.0
@@ -15,7 +15,10 @@
 package org.eclipse.equinox.p2.tests.metadata.repository;
 
 import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
@@ -23,6 +26,8 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.Map;
 import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.equinox.internal.p2.metadata.repository.LocalMetadataRepository;
+import org.eclipse.equinox.internal.p2.metadata.repository.SimpleMetadataRepositoryFactory;
 import org.eclipse.equinox.internal.provisional.p2.core.eventbus.IProvisioningEventBus;
 import org.eclipse.equinox.internal.provisional.p2.core.eventbus.SynchronousProvisioningListener;
 import org.eclipse.equinox.internal.provisional.p2.repository.RepositoryEvent;
@@ -161,6 +166,93 @@ public class LocalMetadataRepositoryTest extends AbstractProvisioningTest {
 
 	}
 
+	public void testJournaledChanges() throws ProvisionException {
+		Map<String, String> properties = new HashMap<>();
+		properties.put(LocalMetadataRepository.PROP_JOURNAL, "true");
+		IMetadataRepository repo = getMetadataRepositoryManager().createRepository(repoLocation.toURI(), "TestRepo", IMetadataRepositoryManager.TYPE_SIMPLE_REPOSITORY, properties);
+		File contentFile = new File(repoLocation, "content.xml");
+		File journal = new File(repoLocation, "content.journal");
+		long snapshotLength = contentFile.length();
+
+		IInstallableUnit iu = createIU("foo");
+		IInstallableUnit iu2 = createIU("bar");
+		repo.addInstallableUnits(Arrays.asList(iu));
+		assertTrue("1.0", journal.isFile());
+		assertEquals("1.1", snapshotLength, contentFile.length());
+		repo.addInstallableUnits(Arrays.asList(iu2));
+		repo.removeInstallableUnits(Arrays.asList(iu));
+
+		IMetadataRepository reloaded = loadFromDisk();
+		assertTrue("2.0", reloaded.query(QueryUtil.createIUQuery("foo"), getMonitor()).isEmpty());
+		assertEquals("2.1", 1, queryResultSize(reloaded.query(QueryUtil.createIUQuery("bar"), getMonitor())));
+
+		// any other change folds the journal into the content file
+		repo.setProperty(TEST_KEY, TEST_VALUE);
+		assertFalse("3.0", journal.exists());
+		reloaded = loadFromDisk();
+		assertTrue("3.1", reloaded.query(QueryUtil.createIUQuery("foo"), getMonitor()).isEmpty());
+		assertEquals("3.2", 1, queryResultSize(reloaded.query(QueryUtil.createIUQuery("bar"), getMonitor())));
+		assertEquals("3.3", TEST_VALUE, reloaded.getProperty(TEST_KEY));
+	}
+
+	public void testTornJournalRecordIsTruncatedOnLoad() throws Exception {
+		Map<String, String> properties = new HashMap<>();
+		properties.put(LocalMetadataRepository.PROP_JOURNAL, "true");
+		IMetadataRepository repo = getMetadataRepositoryManager().createRepository(repoLocation.toURI(), "TestRepo", IMetadataRepositoryManager.TYPE_SIMPLE_REPOSITORY, properties);
+		File journal = new File(repoLocation, "content.journal");
+		repo.addInstallableUnits(Arrays.asList(createIU("foo")));
+		long complete = journal.length();
+		// an append that was interrupted half way
+		try (OutputStream out = new FileOutputStream(journal, true)) {
+			out.write("1000\n<?xml".getBytes(StandardCharsets.US_ASCII));
+		}
+
+		IMetadataRepository reloaded = loadFromDisk();
+		assertEquals("1.0", complete, journal.length());
+		assertEquals("1.1", 1, queryResultSize(reloaded.query(QueryUtil.createIUQuery("foo"), getMonitor())));
+	}
+
+	public void testJournalCompaction() throws ProvisionException {
+		Map<String, String> properties = new HashMap<>();
+		properties.put(LocalMetadataRepository.PROP_JOURNAL, "true");
+		IMetadataRepository repo = getMetadataRepositoryManager().createRepository(repoLocation.toURI(), "TestRepo", IMetadataRepositoryManager.TYPE_SIMPLE_REPOSITORY, properties);
+		File contentFile = new File(repoLocation, "content.xml");
+		File journal = new File(repoLocation, "content.journal");
+
+		for (int i = 0; i < 100; i++) {
+			repo.addInstallableUnits(Arrays.asList(createIU("foo" + i)));
+			assertTrue("journal of " + journal.length() + " bytes not compacted", journal.length() <= contentFile.length());
+		}
+		assertEquals(100, queryResultSize(loadFromDisk().query(QueryUtil.ALL_UNITS, getMonitor())));
+	}
+
+	public void testCorruptJournalRecordIsCompacted() throws Exception {
+		Map<String, String> properties = new HashMap<>();
+		properties.put(LocalMetadataRepository.PROP_JOURNAL, "true");
+		IMetadataRepository repo = getMetadataRepositoryManager().createRepository(repoLocation.toURI(), "TestRepo", IMetadataRepositoryManager.TYPE_SIMPLE_REPOSITORY, properties);
+		File journal = new File(repoLocation, "content.journal");
+		repo.addInstallableUnits(Arrays.asList(createIU("foo")));
+		// a complete record that cannot be parsed
+		try (OutputStream out = new FileOutputStream(journal, true)) {
+			out.write("9\n<journal>".getBytes(StandardCharsets.US_ASCII));
+		}
+
+		IMetadataRepository reloaded = loadFromDisk();
+		assertEquals("1.0", 1, queryResultSize(reloaded.query(QueryUtil.createIUQuery("foo"), getMonitor())));
+		// the next change writes the whole repository
+		reloaded.addInstallableUnits(Arrays.asList(createIU("bar")));
+		assertFalse("2.0", journal.exists());
+		reloaded = loadFromDisk();
+		assertEquals("2.1", 1, queryResultSize(reloaded.query(QueryUtil.createIUQuery("foo"), getMonitor())));
+		assertEquals("2.2", 1, queryResultSize(reloaded.query(QueryUtil.createIUQuery("bar"), getMonitor())));
+	}
+
+	private IMetadataRepository loadFromDisk() throws ProvisionException {
+		SimpleMetadataRepositoryFactory factory = new SimpleMetadataRepositoryFactory();
+		factory.setAgent(getAgent());
+		return factory.load(repoLocation.toURI(), 0, getMonitor());
+	}
+
 	public void testUncompressedRepository() throws ProvisionException {
 		IMetadataRepositoryManager manager = getMetadataRepositoryManager();
 		Map<String, String> properties = new HashMap<>();
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2008, 2017 IBM Corporation and others.
+ *  Copyright (c) 2008, 2020 IBM Corporation and others.
  *
  *  This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License 2.0
@@ -16,6 +16,8 @@ package org.eclipse.equinox.p2.tests.mirror;
 import java.io.File;
 import java.net.*;
 import java.util.*;
+import org.eclipse.equinox.internal.p2.metadata.repository.BinaryMetadataRepository;
+import org.eclipse.equinox.internal.p2.metadata.repository.BinaryMetadataRepositoryFactory;
 import org.eclipse.equinox.internal.p2.metadata.repository.CompositeMetadataRepository;
 import org.eclipse.equinox.internal.simpleconfigurator.utils.URIUtil;
 import org.eclipse.equinox.p2.core.ProvisionException;
@@ -1007,4 +1009,29 @@ public class NewMirrorApplicationMetadataTest extends AbstractProvisioningTest {
 		Collection<IRepositoryReference> destRefs = destRepo.getReferences();
 		assertEquals(0, destRefs.size());
 	}
+
+	public void testMirrorBinaryMetadata() throws Exception {
+		MirrorApplication app = new MirrorApplication();
+		RepositoryDescriptor dest = new RepositoryDescriptor();
+		dest.setLocation(destRepoLocation.toURI());
+		dest.setAppend(false);
+		dest.setKind("metadata");
+		dest.setBinary(true);
+		app.addDestination(dest);
+
+		RepositoryDescriptor src = new RepositoryDescriptor();
+		src.setLocation(sourceRepoWithRefs.toURI());
+		src.setKind("metadata");
+		app.addSource(src);
+		app.setReferences(true);
+		app.run(null);
+
+		assertTrue(new File(destRepoLocation, BinaryMetadataRepositoryFactory.REPOSITORY_FILENAME).isFile());
+		getMetadataRepositoryManager().removeRepository(destRepoLocation.toURI());
+		IMetadataRepository destRepo = getMetadataRepositoryManager().loadRepository(destRepoLocation.toURI(), null);
+		assertTrue(destRepo instanceof BinaryMetadataRepository);
+		assertEquals(4, destRepo.getReferences().size());
+		IMetadataRepository srcRepo = getMetadataRepositoryManager().loadRepository(sourceRepoWithRefs.toURI(), null);
+		assertContentEquals("1.0", srcRepo, destRepo);
+	}
 }
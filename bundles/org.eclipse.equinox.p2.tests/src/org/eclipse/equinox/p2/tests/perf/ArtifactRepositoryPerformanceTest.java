@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.perf;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import org.eclipse.core.tests.harness.PerformanceTestRunner;
+import org.eclipse.equinox.internal.p2.artifact.repository.simple.SimpleArtifactRepository;
+import org.eclipse.equinox.internal.p2.metadata.ArtifactKey;
+import org.eclipse.equinox.p2.metadata.Version;
+import org.eclipse.equinox.p2.repository.artifact.IArtifactRepository;
+import org.eclipse.equinox.p2.repository.artifact.IArtifactRepositoryManager;
+import org.eclipse.equinox.p2.repository.artifact.spi.ArtifactDescriptor;
+
+/**
+ * Performance tests for artifact repositories
+ */
+public class ArtifactRepositoryPerformanceTest extends ProvisioningPerformanceTest {
+	private static final int REPEATS = 5;
+	private static final int DESCRIPTOR_COUNT = 10000;
+	protected File repoLocation;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		String tempDir = System.getProperty("java.io.tmpdir");
+		repoLocation = new File(tempDir, "ArtifactRepositoryPerformanceTest");
+		delete(repoLocation);
+		repoLocation.mkdir();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		getArtifactRepositoryManager().removeRepository(repoLocation.toURI());
+		delete(repoLocation);
+		super.tearDown();
+	}
+
+	public void testAddDescriptor() throws Exception {
+		addDescriptor(false);
+	}
+
+	public void testAddDescriptorToJournal() throws Exception {
+		addDescriptor(true);
+	}
+
+	/**
+	 * Measures the time needed to add a single descriptor to a large repository, which
+	 * rewrites the whole artifacts file unless the repository is journaled.
+	 */
+	private void addDescriptor(boolean journaled) throws Exception {
+		Map<String, String> properties = new HashMap<>();
+		properties.put(SimpleArtifactRepository.PROP_JOURNAL, Boolean.toString(journaled));
+		final IArtifactRepository repository = getArtifactRepositoryManager().createRepository(repoLocation.toURI(), "TestRepo", IArtifactRepositoryManager.TYPE_SIMPLE_REPOSITORY, properties);
+		repository.executeBatch(monitor -> {
+			for (int i = 0; i < DESCRIPTOR_COUNT; i++)
+				repository.addDescriptor(new ArtifactDescriptor(new ArtifactKey("osgi.bundle", "org.eclipse.someartifact" + i, Version.create("1.0.0"))), monitor);
+		}, null);
+		final String form = journaled ? "journaled" : "plain";
+		new PerformanceTestRunner() {
+			int added;
+
+			@Override
+			protected void test() {
+				repository.addDescriptor(new ArtifactDescriptor(new ArtifactKey("osgi.bundle", "org.eclipse.addedartifact" + added++, Version.create("1.0.0"))), null);
+			}
+		}.run(this, "Test add descriptor to " + form + " artifact repo of " + DESCRIPTOR_COUNT + " descriptors", REPEATS, 10);
+	}
+}
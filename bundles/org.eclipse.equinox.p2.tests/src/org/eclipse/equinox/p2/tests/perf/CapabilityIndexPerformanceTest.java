@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.perf;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import org.eclipse.core.tests.harness.PerformanceTestRunner;
+import org.eclipse.equinox.internal.p2.metadata.index.CapabilityIndex;
+import org.eclipse.equinox.internal.p2.metadata.index.IndexProvider;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitDescription;
+import org.eclipse.equinox.p2.query.IQuery;
+import org.eclipse.equinox.p2.query.QueryUtil;
+
+/**
+ * Performance tests for building and querying the capability index
+ */
+public class CapabilityIndexPerformanceTest extends ProvisioningPerformanceTest {
+	private static final int IU_COUNT = 50000;
+	private static final int CAPABILITY_COUNT = 5;
+	private static final int REPEATS = 5;
+
+	List<IInstallableUnit> units;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		units = new ArrayList<>(IU_COUNT);
+		for (int i = 0; i < IU_COUNT; i++) {
+			InstallableUnitDescription desc = new InstallableUnitDescription();
+			desc.setId("org.eclipse.someiu" + i);
+			desc.setVersion(Version.createOSGi(1, 1, i));
+			IProvidedCapability[] capabilities = new IProvidedCapability[CAPABILITY_COUNT];
+			capabilities[0] = MetadataFactory.createProvidedCapability(IInstallableUnit.NAMESPACE_IU_ID, desc.getId(), desc.getVersion());
+			for (int j = 1; j < CAPABILITY_COUNT; j++)
+				// packages are exported by several units in several versions
+				capabilities[j] = MetadataFactory.createProvidedCapability("java.package", "org.eclipse.somepackage" + (i + j) % (IU_COUNT / 4), Version.createOSGi(j, i % 10, 0));
+			desc.setCapabilities(capabilities);
+			units.add(MetadataFactory.createInstallableUnit(desc));
+		}
+	}
+
+	public void testBuildIndex() {
+		new PerformanceTestRunner() {
+			@Override
+			protected void test() {
+				new CapabilityIndex(units.iterator());
+			}
+		}.run(this, "Test building the capability index for " + IU_COUNT + " ius", REPEATS, 5);
+	}
+
+	public void testQueryIndex() {
+		final int QUERY_COUNT = 10000;
+		new PerformanceTestRunner() {
+			IndexProvider<IInstallableUnit> provider;
+			@SuppressWarnings("unchecked")
+			IQuery<IInstallableUnit>[] queries = new IQuery[QUERY_COUNT];
+
+			@Override
+			protected void setUp() {
+				CapabilityIndex index = new CapabilityIndex(units.iterator());
+				provider = new IndexProvider<IInstallableUnit>() {
+					@Override
+					public CapabilityIndex getIndex(String memberName) {
+						return index;
+					}
+
+					@Override
+					public Iterator<IInstallableUnit> everything() {
+						return units.iterator();
+					}
+
+					@Override
+					public Object getManagedProperty(Object client, String memberName, Object key) {
+						return null;
+					}
+				};
+				for (int i = 0; i < QUERY_COUNT; i++) {
+					VersionRange range = new VersionRange(Version.createOSGi(2, i % 10, 0), true, Version.createOSGi(3, 0, 0), false);
+					IRequirement requirement = MetadataFactory.createRequirement("java.package", "org.eclipse.somepackage" + i, range, null, false, false);
+					queries[i] = QueryUtil.createMatchQuery(requirement.getMatches());
+				}
+			}
+
+			@Override
+			protected void test() {
+				for (IQuery<IInstallableUnit> query : queries)
+					provider.query(query, null);
+			}
+		}.run(this, "Test querying the capability index of " + IU_COUNT + " ius", REPEATS, 5);
+	}
+}
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2009, 2017 IBM Corporation and others.
+ * Copyright (c) 2009, 2020 IBM Corporation and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -14,9 +14,11 @@
 package org.eclipse.equinox.p2.tests.perf;
 
 import java.io.File;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
 import org.eclipse.core.tests.harness.PerformanceTestRunner;
+import org.eclipse.equinox.internal.p2.metadata.repository.LocalMetadataRepository;
+import org.eclipse.equinox.p2.core.ProvisionException;
+import org.eclipse.equinox.p2.internal.repository.tools.BinaryMetadataGenerator;
 import org.eclipse.equinox.p2.metadata.IInstallableUnit;
 import org.eclipse.equinox.p2.query.IQuery;
 import org.eclipse.equinox.p2.query.QueryUtil;
@@ -74,4 +76,82 @@ public class MetadataRepositoryPerformanceTest extends ProvisioningPerformanceTe
 			}
 		}.run(this, "Test query local metadata repo for " + IU_COUNT + " ius", REPEATS, 10);
 	}
+
+	public void testAddUnit() throws Exception {
+		addUnit(false);
+	}
+
+	public void testAddUnitToJournal() throws Exception {
+		addUnit(true);
+	}
+
+	/**
+	 * Measures the time needed to add a single unit to a large repository, which
+	 * rewrites the whole content file unless the repository is journaled.
+	 */
+	private void addUnit(boolean journaled) throws Exception {
+		final int IU_COUNT = 10000;
+		final String form = journaled ? "journaled" : "plain";
+		File location = new File(repoLocation, form);
+		Map<String, String> properties = new HashMap<>();
+		properties.put(LocalMetadataRepository.PROP_JOURNAL, Boolean.toString(journaled));
+		IMetadataRepositoryManager manager = getMetadataRepositoryManager();
+		final IMetadataRepository target = manager.createRepository(location.toURI(), "TestRepo", IMetadataRepositoryManager.TYPE_SIMPLE_REPOSITORY, properties);
+		try {
+			List<IInstallableUnit> ius = new ArrayList<>(IU_COUNT);
+			for (int i = 0; i < IU_COUNT; i++)
+				ius.add(generateIU(i));
+			target.addInstallableUnits(ius);
+			new PerformanceTestRunner() {
+				int added = IU_COUNT;
+
+				@Override
+				protected void test() {
+					target.addInstallableUnits(Collections.singletonList(generateIU(added++)));
+				}
+			}.run(this, "Test add unit to " + form + " metadata repo of " + IU_COUNT + " ius", REPEATS, 10);
+		} finally {
+			manager.removeRepository(location.toURI());
+		}
+	}
+
+	public void testLoadXMLRepository() throws Exception {
+		loadRepository(false);
+	}
+
+	public void testLoadBinaryRepository() throws Exception {
+		loadRepository(true);
+	}
+
+	/**
+	 * Measures the time needed to load a repository in the XML or the binary form
+	 * and to read all of its units.
+	 */
+	private void loadRepository(boolean binary) throws Exception {
+		final int IU_COUNT = 3000;
+		List<IInstallableUnit> ius = new ArrayList<>(IU_COUNT);
+		for (int i = 0; i < IU_COUNT; i++)
+			ius.add(generateIU(i));
+		repository.addInstallableUnits(ius);
+		if (binary) {
+			BinaryMetadataGenerator generator = new BinaryMetadataGenerator();
+			generator.setRepoFolder(repoLocation.getAbsolutePath());
+			generator.setAgent(getAgent());
+			generator.generate(null);
+		}
+		final IMetadataRepositoryManager manager = getMetadataRepositoryManager();
+		final String form = binary ? "binary" : "XML";
+		new PerformanceTestRunner() {
+			@Override
+			protected void test() {
+				manager.removeRepository(repoLocation.toURI());
+				try {
+					IMetadataRepository loaded = manager.loadRepository(repoLocation.toURI(), null);
+					assertEquals(IU_COUNT, loaded.query(QueryUtil.createIUAnyQuery(), null).toUnmodifiableSet().size());
+				} catch (ProvisionException e) {
+					fail("Loading the " + form + " repository failed", e);
+				}
+			}
+		}.run(this, "Test load and read " + form + " metadata repo for " + IU_COUNT + " ius", REPEATS, 10);
+	}
 }
@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.perf;
+
+import java.io.*;
+import java.util.*;
+import org.eclipse.core.runtime.*;
+import org.eclipse.core.tests.harness.PerformanceTestRunner;
+import org.eclipse.equinox.internal.p2.engine.*;
+import org.eclipse.equinox.p2.engine.*;
+import org.eclipse.equinox.p2.engine.spi.ProvisioningAction;
+import org.eclipse.equinox.p2.tests.engine.PhaseTest.TestPhaseSet;
+
+/**
+ * Performance tests for a phase over many operands that each write the files of a large
+ * product, one operand at a time or with the files of several operands written in
+ * parallel.
+ */
+public class PhasePerformanceTest extends ProvisioningPerformanceTest {
+	private static final int OPERAND_COUNT = 500;
+	private static final int FILE_COUNT = 20;
+	private static final int FILE_SIZE = 16 * 1024;
+	private static final int REPEATS = 5;
+
+	private File folder;
+
+	/**
+	 * Writes the files of an operand in a folder of its own.
+	 */
+	class WriteFilesAction extends ProvisioningAction implements IIndependentAction {
+		@Override
+		public IStatus execute(Map<String, Object> parameters) {
+			File target = getTarget(parameters);
+			target.mkdirs();
+			byte[] content = new byte[FILE_SIZE];
+			for (int i = 0; i < FILE_COUNT; i++) {
+				try (OutputStream output = new FileOutputStream(new File(target, "file" + i))) {
+					output.write(content);
+				} catch (IOException e) {
+					return new Status(IStatus.ERROR, "org.eclipse.equinox.p2.tests", e.getMessage(), e);
+				}
+			}
+			return null;
+		}
+
+		@Override
+		public IStatus undo(Map<String, Object> parameters) {
+			delete(getTarget(parameters));
+			return null;
+		}
+
+		private File getTarget(Map<String, Object> parameters) {
+			return new File(folder, ((InstallableUnitOperand) parameters.get("operand")).second().getId());
+		}
+	}
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		folder = getTempFolder();
+		folder.mkdirs();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		delete(folder);
+		super.tearDown();
+	}
+
+	public void testPerformSerial() {
+		perform(1);
+	}
+
+	public void testPerformParallel() {
+		perform(4);
+	}
+
+	private void perform(int parallelism) {
+		IEngine engine = getEngine();
+		IProvisioningPlan plan = engine.createPlan(createProfile(getName()), null);
+		for (int i = 0; i < OPERAND_COUNT; i++)
+			plan.addInstallableUnit(generateIU(i));
+		PhaseSet phaseSet = new TestPhaseSet(new InstallableUnitPhase("test", 1) {
+			@Override
+			protected List<ProvisioningAction> getActions(InstallableUnitOperand operand) {
+				return Collections.singletonList(new WriteFilesAction());
+			}
+		});
+		System.setProperty(EngineActivator.PROP_PHASE_PARALLELISM, Integer.toString(parallelism));
+		try {
+			new PerformanceTestRunner() {
+				@Override
+				protected void setUp() {
+					delete(folder);
+					folder.mkdirs();
+				}
+
+				@Override
+				protected void test() {
+					IStatus status = engine.perform(plan, phaseSet, new NullProgressMonitor());
+					assertTrue(status.toString(), status.isOK());
+				}
+			}.run(this, "Test perform a phase over " + OPERAND_COUNT + " operands with a parallelism of " + parallelism, REPEATS, 1);
+		} finally {
+			System.clearProperty(EngineActivator.PROP_PHASE_PARALLELISM);
+		}
+	}
+}
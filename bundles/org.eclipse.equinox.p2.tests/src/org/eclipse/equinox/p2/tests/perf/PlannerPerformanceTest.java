@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.perf;
+
+import java.util.*;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.tests.harness.PerformanceTestRunner;
+import org.eclipse.equinox.internal.p2.director.*;
+import org.eclipse.equinox.p2.engine.IProfile;
+import org.eclipse.equinox.p2.engine.ProvisioningContext;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitDescription;
+import org.eclipse.equinox.p2.planner.IPlanner;
+import org.eclipse.equinox.p2.planner.IProfileChangeRequest;
+import org.eclipse.equinox.p2.query.IQueryable;
+import org.eclipse.equinox.p2.repository.metadata.IMetadataRepository;
+
+/**
+ * Performance tests for the stages of the planner over a generated universe. Each stage
+ * is measured on its own: slicing, encoding the slice, solving the encoded problem and
+ * computing a whole plan through the planner service.
+ * <p>
+ * The universe has 10000 units unless the
+ * <code>org.eclipse.equinox.p2.tests.perf.universeSize</code> system property asks for
+ * another size, for example 500000.
+ */
+public class PlannerPerformanceTest extends ProvisioningPerformanceTest {
+	private static final String UNIVERSE_SIZE = "org.eclipse.equinox.p2.tests.perf.universeSize";
+	private static final int DEFAULT_UNIVERSE_SIZE = 10000;
+	private static final long SEED = 42;
+	private static final int ROOT_COUNT = 5;
+	private static final int REPEATS = 5;
+	private static final String ENVIRONMENT = "osgi.os=linux,osgi.ws=gtk,osgi.arch=x86_64";
+
+	private int size;
+	private IInstallableUnit[] units;
+	private IInstallableUnit[] roots;
+	private Map<String, String> context;
+	private IInstallableUnit entryPoint;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		size = Integer.getInteger(UNIVERSE_SIZE, DEFAULT_UNIVERSE_SIZE);
+		UniverseGenerator generator = new UniverseGenerator(size, SEED);
+		units = generator.getUnits();
+		roots = generator.getRoots(ROOT_COUNT);
+		context = new HashMap<>();
+		context.put("osgi.os", "linux");
+		context.put("osgi.ws", "gtk");
+		context.put("osgi.arch", "x86_64");
+
+		// the unit the planner would require the roots from
+		InstallableUnitDescription desc = new InstallableUnitDescription();
+		desc.setId("entryPoint");
+		desc.setVersion(Version.createOSGi(1, 0, 0));
+		IRequirement[] requirements = new IRequirement[roots.length];
+		for (int i = 0; i < roots.length; i++)
+			requirements[i] = MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, roots[i].getId(), new VersionRange(roots[i].getVersion(), true, roots[i].getVersion(), true), null, false, false);
+		desc.setRequirements(requirements);
+		entryPoint = MetadataFactory.createInstallableUnit(desc);
+	}
+
+	private IQueryable<IInstallableUnit> slice() {
+		IInstallableUnit[] all = Arrays.copyOf(units, units.length + 1);
+		all[units.length] = entryPoint;
+		IQueryable<IInstallableUnit> slice = new Slicer(new QueryableArray(all), context, false).slice(new IInstallableUnit[] {entryPoint}, new NullProgressMonitor());
+		assertNotNull(slice);
+		return slice;
+	}
+
+	private Projector encode(IQueryable<IInstallableUnit> slice) {
+		Projector projector = new Projector(slice, context, new HashSet<>(), false);
+		projector.encode(entryPoint, new IInstallableUnit[0], new QueryableArray(new IInstallableUnit[0]), Arrays.asList(roots), new NullProgressMonitor());
+		return projector;
+	}
+
+	public void testSlice() {
+		new PerformanceTestRunner() {
+			@Override
+			protected void test() {
+				slice();
+			}
+		}.run(this, "Test slicing a universe of " + size + " ius", REPEATS, 1);
+	}
+
+	public void testEncode() {
+		IQueryable<IInstallableUnit> slice = slice();
+		new PerformanceTestRunner() {
+			@Override
+			protected void test() {
+				encode(slice);
+			}
+		}.run(this, "Test encoding a universe of " + size + " ius", REPEATS, 1);
+	}
+
+	public void testSolve() {
+		IQueryable<IInstallableUnit> slice = slice();
+		new PerformanceTestRunner() {
+			private Projector projector;
+
+			@Override
+			protected void setUp() {
+				projector = encode(slice);
+			}
+
+			@Override
+			protected void test() {
+				projector.invokeSolver(new NullProgressMonitor());
+			}
+		}.run(this, "Test solving a universe of " + size + " ius", REPEATS, 1);
+	}
+
+	public void testPlan() {
+		IMetadataRepository repository = createTestMetdataRepository(units);
+		IProfile profile = createProfile("PlannerPerformanceTest", Collections.singletonMap(IProfile.PROP_ENVIRONMENTS, ENVIRONMENT));
+		IPlanner planner = createPlanner();
+		ProvisioningContext provisioningContext = new ProvisioningContext(getAgent());
+		provisioningContext.setMetadataRepositories(repository.getLocation());
+		provisioningContext.setArtifactRepositories();
+		new PerformanceTestRunner() {
+			@Override
+			protected void test() {
+				IProfileChangeRequest request = planner.createChangeRequest(profile);
+				request.addAll(Arrays.asList(roots));
+				assertNotNull(planner.getProvisioningPlan(request, provisioningContext, new NullProgressMonitor()));
+			}
+		}.run(this, "Test planning over a universe of " + size + " ius", REPEATS, 1);
+	}
+
+	/**
+	 * Checks that the generated universe can be installed at all, so that the performance
+	 * tests measure a successful resolution.
+	 */
+	public void testUniverseIsInstallable() {
+		Projector projector = encode(slice());
+		assertTrue(projector.invokeSolver(new NullProgressMonitor()).getSeverity() != IStatus.ERROR);
+	}
+}
@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.perf;
+
+import java.io.File;
+import org.eclipse.core.tests.harness.PerformanceTestRunner;
+import org.eclipse.equinox.internal.p2.engine.*;
+import org.eclipse.equinox.p2.core.ProvisionException;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+
+/**
+ * Performance tests for committing states of a profile, with the history kept as
+ * complete states or as deltas. The disk space taken by both histories is compared
+ * by {@link #testDeltaHistoryIsSmaller()}.
+ */
+public class ProfileRegistryPerformanceTest extends ProvisioningPerformanceTest {
+	private static final int IU_COUNT = 3000;
+	private static final int CHANGED_IU_COUNT = 10;
+	private static final int REPEATS = 5;
+	private static final int COMMITS = 10;
+
+	private File folder;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		folder = getTempFolder();
+		folder.mkdirs();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		delete(folder);
+		super.tearDown();
+	}
+
+	public void testCommitCompleteStates() throws ProvisionException {
+		commit("complete states");
+	}
+
+	public void testCommitDeltaStates() throws ProvisionException {
+		System.getProperties().put(EngineActivator.PROP_PROFILE_HISTORY, EngineActivator.PROFILE_HISTORY_DELTA);
+		try {
+			commit("deltas");
+		} finally {
+			System.getProperties().remove(EngineActivator.PROP_PROFILE_HISTORY);
+		}
+	}
+
+	/**
+	 * Checks that the same commits take less than half the disk space with the history
+	 * kept as deltas.
+	 */
+	public void testDeltaHistoryIsSmaller() throws ProvisionException {
+		long complete = saveHistory(new File(folder, "complete"));
+		long deltas;
+		System.getProperties().put(EngineActivator.PROP_PROFILE_HISTORY, EngineActivator.PROFILE_HISTORY_DELTA);
+		try {
+			deltas = saveHistory(new File(folder, "deltas"));
+		} finally {
+			System.getProperties().remove(EngineActivator.PROP_PROFILE_HISTORY);
+		}
+		assertTrue("Deltas take " + deltas + " bytes, complete states " + complete + " bytes", deltas * 2 < complete);
+	}
+
+	/**
+	 * Measures commits that each replace a few units of a large profile.
+	 */
+	private void commit(String history) throws ProvisionException {
+		final SimpleProfileRegistry registry = new SimpleProfileRegistry(getAgent(), folder, null, false);
+		final Profile profile = createProfile(registry);
+		new PerformanceTestRunner() {
+			private int next = IU_COUNT;
+
+			@Override
+			protected void test() {
+				next = change(profile, next);
+				save(registry, profile);
+			}
+		}.run(this, "Test commit a profile of " + IU_COUNT + " ius as " + history, REPEATS, COMMITS);
+	}
+
+	/**
+	 * Commits a large profile and a few changes to it, and returns the disk space taken by its
+	 * states.
+	 */
+	private long saveHistory(File registryFolder) throws ProvisionException {
+		SimpleProfileRegistry registry = new SimpleProfileRegistry(getAgent(), registryFolder, null, false);
+		Profile profile = createProfile(registry);
+		for (int i = 0, next = IU_COUNT; i < COMMITS; i++) {
+			next = change(profile, next);
+			save(registry, profile);
+		}
+		File profileFolder = new File(registryFolder, SimpleProfileRegistry.escape(getName()) + ".profile");
+		long size = 0;
+		for (File file : profileFolder.listFiles()) {
+			if (file.isFile())
+				size += file.length();
+		}
+		return size;
+	}
+
+	private Profile createProfile(SimpleProfileRegistry registry) throws ProvisionException {
+		Profile profile = (Profile) registry.addProfile(getName());
+		for (int i = 0; i < IU_COUNT; i++) {
+			IInstallableUnit iu = generateIU(i);
+			profile.addInstallableUnit(iu);
+			profile.setInstallableUnitProperty(iu, "org.eclipse.equinox.p2.type.root", "true");
+		}
+		save(registry, profile);
+		return profile;
+	}
+
+	// replaces the oldest units of the profile, and returns the number of the next unit to add
+	private int change(Profile profile, int next) {
+		for (int i = 0; i < CHANGED_IU_COUNT; i++) {
+			profile.removeInstallableUnit(generateIU(next - IU_COUNT));
+			profile.addInstallableUnit(generateIU(next++));
+		}
+		return next;
+	}
+
+	private static void save(SimpleProfileRegistry registry, Profile profile) {
+		registry.lockProfile(profile);
+		try {
+			registry.updateProfile(profile);
+		} finally {
+			registry.unlockProfile(profile);
+		}
+	}
+}
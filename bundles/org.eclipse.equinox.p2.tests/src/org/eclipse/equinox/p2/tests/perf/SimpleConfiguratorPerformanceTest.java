@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.perf;
+
+import java.io.*;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+import org.eclipse.core.tests.harness.PerformanceTestRunner;
+import org.eclipse.equinox.p2.tests.simpleconfigurator.AbstractSimpleConfiguratorTest;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+
+/**
+ * Performance tests for the startup of a framework whose simple configurator installs a
+ * large bundles.info, the way a product starts after its configuration changed.
+ */
+public class SimpleConfiguratorPerformanceTest extends AbstractSimpleConfiguratorTest {
+	private static final int BUNDLE_COUNT = 2000;
+	private static final int REPEATS = 5;
+
+	private File folder;
+	private File[] bundles;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		folder = getTempFolder();
+		bundles = new File[BUNDLE_COUNT];
+		for (int i = 0; i < BUNDLE_COUNT; i++)
+			bundles[i] = createBundle(i);
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		super.tearDown();
+		delete(folder);
+	}
+
+	private File createBundle(int i) throws IOException {
+		File bundle = new File(folder, "perf.bundle" + i);
+		File manifestFile = new File(bundle, "META-INF/MANIFEST.MF");
+		manifestFile.getParentFile().mkdirs();
+		Manifest manifest = new Manifest();
+		Attributes attributes = manifest.getMainAttributes();
+		attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		attributes.putValue(Constants.BUNDLE_MANIFESTVERSION, "2");
+		attributes.putValue(Constants.BUNDLE_SYMBOLICNAME, "perf.bundle" + i);
+		attributes.putValue(Constants.BUNDLE_VERSION, "1.0.0");
+		try (OutputStream output = new FileOutputStream(manifestFile)) {
+			manifest.write(output);
+		}
+		return bundle;
+	}
+
+	/**
+	 * Measures starting a framework with a new configuration area, so that the simple
+	 * configurator installs every bundle of the bundles.info.
+	 */
+	public void testStartup() throws IOException {
+		File bundlesInfo = createBundlesTxt(bundles);
+		new PerformanceTestRunner() {
+			@Override
+			protected void test() {
+				BundleContext context = startFramework(bundlesInfo, null);
+				assertEquals(BUNDLE_COUNT + 2, context.getBundles().length);
+			}
+
+			@Override
+			protected void tearDown() {
+				stopFramework();
+			}
+		}.run(this, "Test startup with " + BUNDLE_COUNT + " bundles in the bundles.info", REPEATS, 1);
+	}
+}
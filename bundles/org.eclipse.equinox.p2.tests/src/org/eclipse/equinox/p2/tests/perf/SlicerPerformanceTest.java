@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.perf;
+
+import java.util.HashMap;
+import java.util.Map;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.tests.harness.PerformanceTestRunner;
+import org.eclipse.equinox.internal.p2.director.QueryableArray;
+import org.eclipse.equinox.internal.p2.director.Slicer;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitDescription;
+
+/**
+ * Performance tests for slicing a large repository whose units and requirements
+ * carry platform filters
+ */
+public class SlicerPerformanceTest extends ProvisioningPerformanceTest {
+	private static final int IU_COUNT = 100000;
+	private static final int REQUIREMENT_COUNT = 3;
+	private static final String[] FILTERS = {null, "(osgi.os=linux)", "(&(osgi.os=linux)(osgi.ws=gtk))", "(osgi.os=win32)", "(|(osgi.arch=x86_64)(osgi.arch=aarch64))"};
+	private static final int REPEATS = 5;
+
+	IInstallableUnit[] units;
+	Map<String, String> context;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		units = new IInstallableUnit[IU_COUNT];
+		for (int i = 0; i < IU_COUNT; i++) {
+			InstallableUnitDescription desc = new InstallableUnitDescription();
+			desc.setId("org.eclipse.someiu" + i);
+			desc.setVersion(Version.createOSGi(1, 0, 0));
+			desc.setCapabilities(new IProvidedCapability[] {MetadataFactory.createProvidedCapability(IInstallableUnit.NAMESPACE_IU_ID, desc.getId(), desc.getVersion())});
+			desc.setFilter(FILTERS[i % FILTERS.length]);
+			IRequirement[] requirements = new IRequirement[REQUIREMENT_COUNT];
+			for (int j = 0; j < REQUIREMENT_COUNT; j++) {
+				// every unit is reachable from the first one
+				int target = (i * REQUIREMENT_COUNT + j + 1) % IU_COUNT;
+				String filter = FILTERS[(i + j) % FILTERS.length];
+				requirements[j] = MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, "org.eclipse.someiu" + target, VersionRange.emptyRange, filter, false, false, true);
+			}
+			desc.setRequirements(requirements);
+			units[i] = MetadataFactory.createInstallableUnit(desc);
+		}
+		context = new HashMap<>();
+		context.put("osgi.os", "linux");
+		context.put("osgi.ws", "gtk");
+		context.put("osgi.arch", "x86_64");
+	}
+
+	public void testSlice() {
+		QueryableArray repository = new QueryableArray(units);
+		new PerformanceTestRunner() {
+			@Override
+			protected void test() {
+				new Slicer(repository, context, false).slice(new IInstallableUnit[] {units[0]}, new NullProgressMonitor());
+			}
+		}.run(this, "Test slicing a repository of " + IU_COUNT + " ius", REPEATS, 1);
+	}
+
+	public void testSliceInParallel() {
+		QueryableArray repository = new QueryableArray(units);
+		new PerformanceTestRunner() {
+			@Override
+			protected void test() {
+				Slicer slicer = new Slicer(repository, context, false);
+				slicer.setParallel(true);
+				slicer.slice(new IInstallableUnit[] {units[0]}, new NullProgressMonitor());
+			}
+		}.run(this, "Test slicing a repository of " + IU_COUNT + " ius in parallel", REPEATS, 1);
+	}
+}
@@ -0,0 +1,196 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.perf;
+
+import java.util.*;
+import org.eclipse.equinox.internal.p2.metadata.IRequiredCapability;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.metadata.MetadataFactory.*;
+
+/**
+ * Generates a universe of installable units shaped like a large real repository.
+ * <p>
+ * Bundles come in one to three versions and export packages. They depend on lower
+ * numbered bundles, mostly on the few low numbered ones, the way most bundles depend on
+ * a handful of popular libraries. About one requirement in ten is optional and some of
+ * those are not greedy. Every twentieth bundle is a fragment of the previous one. One
+ * bundle in ten only applies to another platform and is required under the same filter.
+ * Features group the bundles. Patches change
+ * the requirements of features, and the roots optionally require them. The same size
+ * and seed always give the same universe.
+ */
+public class UniverseGenerator {
+	private static final String BUNDLE = "bundle.";
+	private static final String FEATURE = "feature.";
+	private static final String PATCH = "patch.";
+	private static final String PACKAGE = "package.";
+	private static final String NAMESPACE_PACKAGE = "java.package";
+	private static final String OTHER_PLATFORM = "(osgi.os=win32)";
+	private static final Version[] VERSIONS = {Version.createOSGi(1, 0, 0), Version.createOSGi(1, 1, 0), Version.createOSGi(2, 0, 0)};
+	private static final VersionRange FROM_1_1 = new VersionRange("[1.1.0,3.0.0)");
+	private static final VersionRange BEFORE_2 = new VersionRange("[1.0.0,2.0.0)");
+	private static final int FEATURE_RATIO = 100;
+	private static final int FRAGMENT_RATIO = 20;
+	private static final int PATCH_RATIO = 10;
+
+	private final Random random;
+	private final int size;
+	private final List<IInstallableUnit> units = new ArrayList<>();
+	// the number of versions, the exported packages and the filter of each bundle
+	private final List<Integer> versionCounts = new ArrayList<>();
+	private final List<Integer> packageCounts = new ArrayList<>();
+	private final List<String> filters = new ArrayList<>();
+	private final List<IInstallableUnit> roots = new ArrayList<>();
+
+	public UniverseGenerator(int size, long seed) {
+		this.size = size;
+		this.random = new Random(seed);
+		generate();
+	}
+
+	public IInstallableUnit[] getUnits() {
+		return units.toArray(new IInstallableUnit[units.size()]);
+	}
+
+	/**
+	 * Returns the features to install, in the same order for every universe of a given size
+	 * and seed.
+	 */
+	public IInstallableUnit[] getRoots(int count) {
+		return roots.subList(0, Math.min(count, roots.size())).toArray(new IInstallableUnit[0]);
+	}
+
+	private void generate() {
+		int featureCount = Math.max(1, size / FEATURE_RATIO);
+		int bundleTarget = size - featureCount - featureCount / PATCH_RATIO;
+		for (int id = 0; units.size() < bundleTarget; id++)
+			generateBundle(id);
+		List<IInstallableUnit> features = new ArrayList<>(featureCount);
+		for (int i = 0; i < featureCount; i++) {
+			IInstallableUnit feature = generateFeature(i);
+			features.add(feature);
+			units.add(feature);
+		}
+		List<IInstallableUnit> patches = new ArrayList<>();
+		for (int i = 0; i < featureCount / PATCH_RATIO; i++) {
+			IInstallableUnit patch = generatePatch(i, features.get(i * PATCH_RATIO));
+			patches.add(patch);
+			units.add(patch);
+		}
+		// the roots are the features, starting with the ones that can be patched
+		for (int i = 0; i < patches.size(); i++)
+			roots.add(withPatch(features.get(i * PATCH_RATIO), patches.get(i)));
+		for (int i = 0; i < featureCount; i++) {
+			if (i % PATCH_RATIO != 0 || i / PATCH_RATIO >= patches.size())
+				roots.add(features.get(i));
+		}
+	}
+
+	private void generateBundle(int id) {
+		int versionCount = random.nextInt(10) == 0 ? 3 : random.nextInt(4) == 0 ? 2 : 1;
+		int packageCount = random.nextInt(3);
+		versionCounts.add(versionCount);
+		packageCounts.add(packageCount);
+		boolean fragment = id > 0 && id % FRAGMENT_RATIO == 0;
+		String filter = random.nextInt(10) == 0 ? OTHER_PLATFORM : null;
+		// a fragment only applies where its host does
+		if (fragment && filters.get(id - 1) != null)
+			filter = filters.get(id - 1);
+		filters.add(filter);
+		IRequirement[] requirements = generateRequirements(id, 2 + (int) (6 * Math.pow(random.nextDouble(), 2)));
+		for (int v = 0; v < versionCount; v++) {
+			InstallableUnitDescription desc;
+			if (fragment) {
+				InstallableUnitFragmentDescription fragmentDesc = new InstallableUnitFragmentDescription();
+				fragmentDesc.setHost(MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, BUNDLE + (id - 1), VersionRange.emptyRange, null, false, false));
+				desc = fragmentDesc;
+			} else {
+				desc = new InstallableUnitDescription();
+			}
+			desc.setId(BUNDLE + id);
+			desc.setVersion(VERSIONS[v]);
+			desc.setFilter(filter);
+			List<IProvidedCapability> capabilities = new ArrayList<>();
+			capabilities.add(MetadataFactory.createProvidedCapability(IInstallableUnit.NAMESPACE_IU_ID, desc.getId(), desc.getVersion()));
+			for (int p = 0; p < packageCount; p++)
+				capabilities.add(MetadataFactory.createProvidedCapability(NAMESPACE_PACKAGE, PACKAGE + id + '.' + p, desc.getVersion()));
+			desc.addProvidedCapabilities(capabilities);
+			desc.setRequirements(requirements);
+			units.add(desc instanceof InstallableUnitFragmentDescription ? MetadataFactory.createInstallableUnitFragment((InstallableUnitFragmentDescription) desc) : MetadataFactory.createInstallableUnit(desc));
+		}
+	}
+
+	private IRequirement[] generateRequirements(int id, int count) {
+		if (id == 0)
+			return new IRequirement[0];
+		List<IRequirement> requirements = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			// mostly the low numbered, popular bundles
+			int target = (int) (id * Math.pow(random.nextDouble(), 3));
+			boolean optional = random.nextInt(10) == 0;
+			boolean greedy = !optional || random.nextInt(3) != 0;
+			if (packageCounts.get(target) > 0 && random.nextInt(3) == 0) {
+				String name = PACKAGE + target + '.' + random.nextInt(packageCounts.get(target));
+				requirements.add(MetadataFactory.createRequirement(NAMESPACE_PACKAGE, name, VersionRange.emptyRange, filters.get(target), optional, false, greedy));
+			} else {
+				VersionRange range = versionCounts.get(target) > 1 && random.nextBoolean() ? FROM_1_1 : BEFORE_2;
+				requirements.add(MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, BUNDLE + target, range, filters.get(target), optional, false, greedy));
+			}
+		}
+		return requirements.toArray(new IRequirement[requirements.size()]);
+	}
+
+	private IInstallableUnit generateFeature(int i) {
+		InstallableUnitDescription desc = new InstallableUnitDescription();
+		desc.setId(FEATURE + i);
+		desc.setVersion(VERSIONS[0]);
+		desc.setProperty(InstallableUnitDescription.PROP_TYPE_GROUP, Boolean.TRUE.toString());
+		desc.addProvidedCapabilities(Collections.singleton(MetadataFactory.createProvidedCapability(IInstallableUnit.NAMESPACE_IU_ID, desc.getId(), desc.getVersion())));
+		int bundleCount = versionCounts.size();
+		int count = 10 + random.nextInt(20);
+		IRequirement[] requirements = new IRequirement[count];
+		for (int r = 0; r < count; r++) {
+			int target = bundleCount - 1 - random.nextInt(Math.min(bundleCount, 20 * FEATURE_RATIO));
+			requirements[r] = MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, BUNDLE + target, VersionRange.emptyRange, filters.get(target), false, false, true);
+		}
+		desc.setRequirements(requirements);
+		return MetadataFactory.createInstallableUnit(desc);
+	}
+
+	// a patch that widens the first requirement of the feature to any version
+	private IInstallableUnit generatePatch(int i, IInstallableUnit feature) {
+		InstallableUnitPatchDescription desc = new InstallableUnitPatchDescription();
+		desc.setId(PATCH + i);
+		desc.setVersion(VERSIONS[0]);
+		desc.setProperty(InstallableUnitDescription.PROP_TYPE_PATCH, Boolean.TRUE.toString());
+		desc.addProvidedCapabilities(Collections.singleton(MetadataFactory.createProvidedCapability(IInstallableUnit.NAMESPACE_IU_ID, desc.getId(), desc.getVersion())));
+		desc.setApplicabilityScope(new IRequirement[][] {{MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, feature.getId(), VersionRange.emptyRange, null, false, false)}});
+		IRequirement original = feature.getRequirements().iterator().next();
+		IRequirement changed = MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, ((IRequiredCapability) original).getName(), VersionRange.emptyRange, original.getFilter(), false, false);
+		desc.setRequirementChanges(new IRequirementChange[] {MetadataFactory.createRequirementChange(original, changed)});
+		return MetadataFactory.createInstallableUnitPatch(desc);
+	}
+
+	// a root that picks up the patch of its feature when it can
+	private IInstallableUnit withPatch(IInstallableUnit feature, IInstallableUnit patch) {
+		InstallableUnitDescription desc = new InstallableUnitDescription();
+		desc.setId(feature.getId() + ".root");
+		desc.setVersion(VERSIONS[0]);
+		desc.addProvidedCapabilities(Collections.singleton(MetadataFactory.createProvidedCapability(IInstallableUnit.NAMESPACE_IU_ID, desc.getId(), desc.getVersion())));
+		desc.setRequirements(new IRequirement[] {MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, feature.getId(), VersionRange.emptyRange, null, false, false), MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, patch.getId(), VersionRange.emptyRange, null, true, false, true)});
+		IInstallableUnit root = MetadataFactory.createInstallableUnit(desc);
+		units.add(root);
+		return root;
+	}
+}
@@ -32,14 +32,14 @@ import org.junit.runners.Suite;
 		DisabledExplanation.class, DropinsScenario.class, EPPPackageInstallStability_bug323322.class,
 		ExplanationDeepConflict.class, ExplanationForOptionalDependencies.class,
 		ExplanationForPartialInstallation.class, ExplanationLargeConflict.class,
-		ExplanationSeveralConflictingRoots.class, FindRootsAfterUpdate.class, FromStrictToOptional.class,
+		ExplanationSeveralConflictingRoots.class, ExplanationTime.class, FilterEvaluatorTest.class, FindRootsAfterUpdate.class, FromStrictToOptional.class,
 		GreedyRequirement.class, InclusionRuleTest.class, InclusionRuleTest2.class, IUProperties.class,
 		IUPropertyRemoval.class, IUWithFilter.class, IUWithFilter2.class, MinimalInstall.class, MinimalInstall2.class,
 		MissingDependency.class, MissingDependency2.class, MissingDependency3.class, MissingNonGreedyRequirement.class,
 		MissingNonGreedyRequirement2.class, MissingOptional.class, MissingOptionalNonGreedyRequirement.class,
 		MissingOptionalWithDependencies.class, MissingOptionalWithDependencies2.class, NonMinimalState.class,
 		NonMinimalState2.class, NoUnecessaryIUProperty.class, MultipleProvider.class, MultipleSingleton.class,
-		NoRequirements.class, ORTesting.class, PatchTest1.class, PatchTest10.class, PatchTest11.class,
+		NoRequirements.class, ORTesting.class, ParallelSlicerTest.class, PatchTest1.class, PatchTest10.class, PatchTest11.class,
 		PatchTest12.class, PatchTest13.class, PatchTest1b.class, PatchTest1c.class, PatchTest2.class, PatchTest3.class,
 		PatchTest4.class, PatchTest5.class, PatchTest6.class, PatchTest7.class, PatchTest7b.class, PatchTest8.class,
 		PatchTest9.class, PatchTest10.class, PatchTest12.class, PatchTestMultiplePatch.class,
@@ -48,13 +48,13 @@ import org.junit.runners.Suite;
 		PatchTestUpdate3.class, PatchTestUpdate4.class, PatchTestUpdate5.class, PatchTestUsingNegativeRequirement.class,
 		PermissiveSlicerTest.class, PP2ShouldFailToInstall.class, ResolvedIUInPCR.class, SDKPatchingTest1.class,
 		SDKPatchingTest2.class, SeveralOptionalDependencies.class, SeveralOptionalDependencies2.class,
-		SeveralOptionalDependencies3.class, SeveralOptionalDependencies4.class, SeveralOptionalDependencies5.class,
+		SeveralOptionalDependencies3.class, SeveralOptionalDependencies4.class, SeveralOptionalDependencies5.class, SharedMatchExpression.class,
 		SimpleOptionalTest.class, SimpleOptionalTest2.class, SimpleOptionalTest3.class, SimpleOptionalTest4.class,
 		SimpleOptionalTest5.class, SimpleSingleton.class, SimulatedSharedInstallTest.class,
-		SingletonOptionallyInstalled.class, SingletonOptionallyInstalled2.class, SWTFragment.class,
+		SingletonOptionallyInstalled.class, SingletonOptionallyInstalled2.class, SolverPortfolioTest.class, SWTFragment.class,
 		SynchronizeOperationTest.class, TestNoopChangeRequest.class, TestFilteringOnAbsentProperty.class,
 		TopLevelFilterTest.class, TwoVersionsOfWSDL.class, TychoUsage.class, UninstallEverything.class,
-		UpdateForTwoIUs.class, UpdateQueryTest.class, })
+		UniverseCacheTest.class, UpdateForTwoIUs.class, UpdateQueryTest.class, })
 public class AllTests {
 // Enable the following
 // Bug252682.class,
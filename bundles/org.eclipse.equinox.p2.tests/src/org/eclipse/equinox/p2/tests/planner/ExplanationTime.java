@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.planner;
+
+import java.util.*;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.equinox.internal.p2.director.Explanation;
+import org.eclipse.equinox.internal.p2.director.ProfileChangeRequest;
+import org.eclipse.equinox.internal.provisional.p2.director.PlannerStatus;
+import org.eclipse.equinox.p2.engine.IProfile;
+import org.eclipse.equinox.p2.engine.IProvisioningPlan;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.planner.IPlanner;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+
+public class ExplanationTime extends AbstractProvisioningTest {
+	private IInstallableUnit a1;
+	private IInstallableUnit b1;
+	private IProfile profile;
+	private IPlanner planner;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		a1 = createIU("A", Version.create("1.0.0"), createRequiredCapabilities(IInstallableUnit.NAMESPACE_IU_ID, "C", new VersionRange("[1.0.0, 1.0.0]")));
+		b1 = createIU("B", Version.create("1.0.0"), true);
+		createTestMetdataRepository(new IInstallableUnit[] {a1, b1});
+		profile = createProfile("TestProfile." + getName());
+		planner = createPlanner();
+	}
+
+	public void testExplanationIsTimed() {
+		ProfileChangeRequest pcr = new ProfileChangeRequest(profile);
+		pcr.addInstallableUnits(new IInstallableUnit[] {a1});
+		IProvisioningPlan plan = planner.getProvisioningPlan(pcr, null, null);
+		assertEquals(IStatus.ERROR, plan.getStatus().getSeverity());
+		PlannerStatus status = (PlannerStatus) plan.getStatus();
+		assertTrue(status.getExplanationTime() >= 0);
+		assertFalse(status.isExplanationPartial());
+		assertFalse(status.getRequestStatus().getExplanations().isEmpty());
+	}
+
+	/**
+	 * Returns units that put <code>holes + 1</code> pigeons into <code>holes</code> holes,
+	 * followed by the pigeons. Each pigeon fits into every hole, but a hole is a singleton
+	 * and takes one pigeon only. The solver needs many steps to find out that this fails,
+	 * so the explanation is slow. One more hole would do, but it requires a missing unit.
+	 */
+	private static IInstallableUnit[] createPigeonholes(int holes) {
+		List<IInstallableUnit> units = new ArrayList<>();
+		List<IInstallableUnit> pigeons = new ArrayList<>();
+		IRequirement[] missing = createRequiredCapabilities(IInstallableUnit.NAMESPACE_IU_ID, "C", new VersionRange("[1.0.0, 1.0.0]"));
+		for (int i = 0; i <= holes; i++) {
+			String pigeon = "pigeon" + i;
+			IProvidedCapability[] seat = {MetadataFactory.createProvidedCapability("test.pigeon", pigeon, Version.create("1.0.0"))};
+			for (int j = 0; j <= holes; j++)
+				units.add(createIU("hole" + j, Version.createOSGi(1, i, 0), null, j < holes ? NO_REQUIRES : missing, seat, NO_PROPERTIES, ITouchpointType.NONE, NO_TP_DATA, true));
+			pigeons.add(createIU(pigeon, Version.create("1.0.0"), createRequiredCapabilities("test.pigeon", pigeon, VersionRange.emptyRange)));
+		}
+		units.addAll(pigeons);
+		return units.toArray(new IInstallableUnit[units.size()]);
+	}
+
+	public void testExplanationTimeout() {
+		int holes = 6;
+		IInstallableUnit[] units = createPigeonholes(holes);
+		createTestMetdataRepository(units);
+		ProfileChangeRequest pcr = new ProfileChangeRequest(profile);
+		pcr.addInstallableUnits(Arrays.copyOfRange(units, units.length - holes - 1, units.length));
+		IProvisioningPlan plan;
+		System.setProperty("eclipse.p2.projector.explanationTimeout", "1");
+		try {
+			plan = planner.getProvisioningPlan(pcr, null, null);
+		} finally {
+			System.clearProperty("eclipse.p2.projector.explanationTimeout");
+		}
+		assertEquals(IStatus.ERROR, plan.getStatus().getSeverity());
+		PlannerStatus status = (PlannerStatus) plan.getStatus();
+		assertTrue(status.isExplanationPartial());
+		// the missing requirements of the extra hole are all that is known
+		Set<Explanation> explanations = status.getRequestStatus().getExplanations();
+		assertEquals(explanations.toString(), holes + 1, explanations.size());
+		for (Explanation explanation : explanations)
+			assertEquals("hole" + holes, ((Explanation.MissingIU) explanation).iu.getId());
+	}
+
+	public void testNoExplanation() {
+		ProfileChangeRequest pcr = new ProfileChangeRequest(profile);
+		pcr.addInstallableUnits(new IInstallableUnit[] {b1});
+		IProvisioningPlan plan = planner.getProvisioningPlan(pcr, null, null);
+		assertEquals(IStatus.OK, plan.getStatus().getSeverity());
+		assertEquals(-1, ((PlannerStatus) plan.getStatus()).getExplanationTime());
+	}
+}
@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.planner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import org.eclipse.equinox.internal.p2.director.FilterEvaluator;
+import org.eclipse.equinox.internal.p2.metadata.InstallableUnit;
+import org.eclipse.equinox.p2.metadata.IInstallableUnit;
+import org.eclipse.equinox.p2.metadata.IRequirement;
+import org.eclipse.equinox.p2.metadata.MetadataFactory;
+import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitDescription;
+import org.eclipse.equinox.p2.metadata.Version;
+import org.eclipse.equinox.p2.metadata.VersionRange;
+import org.eclipse.equinox.p2.metadata.expression.ExpressionUtil;
+import org.eclipse.equinox.p2.metadata.expression.IMatchExpression;
+import org.junit.Test;
+
+/**
+ * Tests that the filters of units and requirements are evaluated once per selection context.
+ */
+public class FilterEvaluatorTest {
+
+	private static IInstallableUnit createUnit(String id, String filter) {
+		InstallableUnitDescription description = new InstallableUnitDescription();
+		description.setId(id);
+		description.setVersion(Version.create("1.0.0"));
+		if (filter != null)
+			description.setFilter(filter);
+		return MetadataFactory.createInstallableUnit(description);
+	}
+
+	@Test
+	public void testFiltersAreEvaluatedOnce() {
+		FilterEvaluator evaluator = new FilterEvaluator(InstallableUnit.contextIU(Collections.singletonMap("osgi.os", "linux")));
+		for (int i = 0; i < 10; i++) {
+			assertTrue(evaluator.isApplicable(createUnit("linux" + i, "(osgi.os=linux)")));
+			assertFalse(evaluator.isApplicable(createUnit("win32" + i, "(osgi.os=win32)")));
+			assertTrue(evaluator.isApplicable(createUnit("any" + i, null)));
+		}
+		assertEquals(2, evaluator.getEvaluationCount());
+
+		IRequirement requirement = MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, "linux0", VersionRange.emptyRange, InstallableUnit.parseFilter("(osgi.os=linux)"), false, false);
+		assertTrue(evaluator.isApplicable(requirement));
+		requirement = MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, "linux0", VersionRange.emptyRange, InstallableUnit.parseFilter("(&(osgi.os=linux)(osgi.ws=gtk))"), false, false);
+		assertFalse(evaluator.isApplicable(requirement));
+		assertEquals(3, evaluator.getEvaluationCount());
+	}
+
+	@Test
+	public void testEqualFiltersAreEvaluatedOnce() {
+		FilterEvaluator evaluator = new FilterEvaluator(InstallableUnit.contextIU(Collections.singletonMap("osgi.os", "linux")));
+		IMatchExpression<IInstallableUnit> first = ExpressionUtil.getFactory().matchExpression(ExpressionUtil.parse("id == $0"), "linux");
+		IMatchExpression<IInstallableUnit> second = ExpressionUtil.getFactory().matchExpression(ExpressionUtil.parse("id == $0"), "linux");
+		assertNotSame(first, second);
+		assertEquals(evaluator.isMatch(first), evaluator.isMatch(second));
+		assertEquals(1, evaluator.getEvaluationCount());
+	}
+
+	@Test
+	public void testSelectionContexts() {
+		IInstallableUnit unit = createUnit("linux", "(osgi.os=linux)");
+		assertTrue(new FilterEvaluator(InstallableUnit.contextIU(Collections.singletonMap("osgi.os", "linux"))).isApplicable(unit));
+		assertFalse(new FilterEvaluator(InstallableUnit.contextIU(Collections.singletonMap("osgi.os", "macosx"))).isApplicable(unit));
+	}
+}
@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.planner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.*;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.equinox.internal.p2.director.*;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.metadata.MetadataFactory.InstallableUnitDescription;
+import org.eclipse.equinox.p2.query.IQueryable;
+import org.eclipse.equinox.p2.query.QueryUtil;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests that slicing in parallel gives the same slice as slicing on one thread.
+ */
+public class ParallelSlicerTest {
+	private static final int IU_COUNT = 2000;
+	private static final String[] FILTERS = {null, null, "(osgi.os=linux)", "(osgi.os=win32)"};
+
+	private IInstallableUnit[] units;
+	private IQueryable<IInstallableUnit> repository;
+	private Map<String, String> context;
+
+	@Before
+	public void setUp() {
+		Random random = new Random(1234);
+		units = new IInstallableUnit[IU_COUNT];
+		for (int i = 0; i < IU_COUNT; i++) {
+			InstallableUnitDescription description = new InstallableUnitDescription();
+			description.setId("unit" + i / 2);
+			description.setVersion(Version.createOSGi(1, i % 2, 0));
+			description.setCapabilities(new IProvidedCapability[] {MetadataFactory.createProvidedCapability(IInstallableUnit.NAMESPACE_IU_ID, description.getId(), description.getVersion())});
+			description.setFilter(FILTERS[random.nextInt(FILTERS.length)]);
+			IRequirement[] requirements = new IRequirement[random.nextInt(4)];
+			for (int j = 0; j < requirements.length; j++) {
+				// some requirements can not be satisfied
+				String name = "unit" + random.nextInt(IU_COUNT / 2 + 20);
+				requirements[j] = MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, name, VersionRange.emptyRange, FILTERS[random.nextInt(FILTERS.length)], random.nextInt(4) == 0, false, random.nextInt(5) != 0);
+			}
+			description.setRequirements(requirements);
+			units[i] = MetadataFactory.createInstallableUnit(description);
+		}
+		repository = new QueryableArray(units);
+		context = Collections.singletonMap("osgi.os", "linux");
+	}
+
+	private static Set<IInstallableUnit> slice(Slicer slicer, boolean parallel, IInstallableUnit... roots) {
+		slicer.setParallel(parallel);
+		IQueryable<IInstallableUnit> slice = slicer.slice(roots, new NullProgressMonitor());
+		assertNotNull(slice);
+		return slice.query(QueryUtil.ALL_UNITS, null).toUnmodifiableSet();
+	}
+
+	@Test
+	public void testSlicer() {
+		for (int i = 0; i < 20; i++) {
+			IInstallableUnit root = units[i * 7];
+			if (root.getFilter() != null)
+				continue;
+			Slicer sequential = new Slicer(repository, context, false);
+			Slicer parallel = new Slicer(repository, context, false);
+			Set<IInstallableUnit> expected = slice(sequential, false, root);
+			assertTrue(expected.contains(root));
+			assertEquals(expected, slice(parallel, true, root));
+			assertEquals(sequential.getStatus().getChildren().length, parallel.getStatus().getChildren().length);
+		}
+	}
+
+	@Test
+	public void testPermissiveSlicer() {
+		List<IInstallableUnit> unfiltered = new ArrayList<>();
+		for (int i = 0; i < 100; i++)
+			if (units[i].getFilter() == null)
+				unfiltered.add(units[i]);
+		IInstallableUnit[] roots = unfiltered.toArray(new IInstallableUnit[unfiltered.size()]);
+		Slicer sequential = new PermissiveSlicer(repository, context, true, true, true, false, false);
+		Slicer parallel = new PermissiveSlicer(repository, context, true, true, true, false, false);
+		assertEquals(slice(sequential, false, roots), slice(parallel, true, roots));
+
+		sequential = new PermissiveSlicer(repository, context, false, false, false, false, false);
+		parallel = new PermissiveSlicer(repository, context, false, false, false, false, false);
+		assertEquals(slice(sequential, false, roots), slice(parallel, true, roots));
+	}
+
+	/**
+	 * Records the units it processes, which may happen on several threads.
+	 */
+	static class RecordingSlicer extends Slicer {
+		final Set<IInstallableUnit> processed = Collections.synchronizedSet(new HashSet<>());
+
+		RecordingSlicer(IQueryable<IInstallableUnit> input, Map<String, String> context) {
+			super(input, context, false);
+		}
+
+		@Override
+		protected void processIU(IInstallableUnit iu) {
+			processed.add(iu);
+			super.processIU(iu);
+		}
+	}
+
+	@Test
+	public void testProcessIUIsCalled() {
+		IInstallableUnit root = units[0].getFilter() == null ? units[0] : units[1];
+		RecordingSlicer sequential = new RecordingSlicer(repository, context);
+		RecordingSlicer parallel = new RecordingSlicer(repository, context);
+		Set<IInstallableUnit> expected = slice(sequential, false, root);
+		assertEquals(expected, slice(parallel, true, root));
+		assertEquals(expected, sequential.processed);
+		assertEquals(expected, parallel.processed);
+	}
+}
@@ -0,0 +1,79 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.planner;
+
+import java.util.*;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.equinox.internal.p2.director.Projector;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.query.Collector;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+
+/**
+ * Requirements on different versions of the same unit share the expression of their
+ * match expression and only differ in its parameters. The projector keeps the matches of
+ * each match expression during an encode, which must not mix up such requirements.
+ */
+public class SharedMatchExpression extends AbstractProvisioningTest {
+	private IInstallableUnit lib1;
+	private IInstallableUnit lib2;
+	private IInstallableUnit root;
+	private IRequirement requiresLib1;
+	private IRequirement requiresLib2;
+	private Collector<IInstallableUnit> picker;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		requiresLib1 = MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, "lib", new VersionRange("[1.0.0, 2.0.0)"), null, false, false);
+		requiresLib2 = MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, "lib", new VersionRange("[2.0.0, 3.0.0)"), null, false, false);
+		lib1 = createIU("lib", Version.create("1.0.0"));
+		lib2 = createIU("lib", Version.create("2.0.0"));
+		IInstallableUnit a = createIU("A", Version.create("1.0.0"), new IRequirement[] {requiresLib1});
+		IInstallableUnit b = createIU("B", Version.create("1.0.0"), new IRequirement[] {requiresLib2});
+		root = createIU("root", Version.create("1.0.0"), new IRequirement[] {MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, "A", new VersionRange("[1.0.0, 1.0.0]"), null, false, false), MetadataFactory.createRequirement(IInstallableUnit.NAMESPACE_IU_ID, "B", new VersionRange("[1.0.0, 1.0.0]"), null, false, false)});
+		picker = new Collector<>();
+		for (IInstallableUnit iu : new IInstallableUnit[] {lib1, lib2, a, b, root})
+			picker.accept(iu);
+	}
+
+	private Collection<IInstallableUnit> solve(Projector projector) {
+		projector.encode(root, new IInstallableUnit[0], new Collector<IInstallableUnit>(), Collections.singletonList(root), new NullProgressMonitor());
+		IStatus result = projector.invokeSolver(new NullProgressMonitor());
+		assertTrue(result.toString(), result.isOK() || result.getSeverity() == IStatus.WARNING);
+		return projector.extractSolution();
+	}
+
+	public void testDifferentParametersResolveToDifferentMatches() {
+		assertFalse(requiresLib1.getMatches().equals(requiresLib2.getMatches()));
+
+		Collection<IInstallableUnit> solution = solve(new Projector(picker, new HashMap<String, String>(), new HashSet<IInstallableUnit>(), false));
+
+		assertTrue(solution.contains(lib1));
+		assertTrue(solution.contains(lib2));
+	}
+
+	public void testMatchesAreQueriedAgainForEachEncode() {
+		Projector projector = new Projector(picker, new HashMap<String, String>(), new HashSet<IInstallableUnit>(), false);
+		assertTrue(solve(projector).contains(lib1));
+
+		IInstallableUnit lib15 = createIU("lib", Version.create("1.5.0"));
+		picker.accept(lib15);
+		Collection<IInstallableUnit> solution = solve(projector);
+
+		assertTrue(solution.toString(), solution.contains(lib15));
+		assertFalse(solution.toString(), solution.contains(lib1));
+	}
+}
@@ -0,0 +1,115 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.planner;
+
+import java.io.*;
+import java.util.*;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.equinox.internal.p2.director.Projector;
+import org.eclipse.equinox.internal.p2.director.SolverPortfolio;
+import org.eclipse.equinox.p2.engine.*;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.planner.IPlanner;
+import org.eclipse.equinox.p2.planner.IProfileChangeRequest;
+import org.eclipse.equinox.p2.query.Collector;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+
+/**
+ * Tests that racing several solver configurations gives the same plans as the default one.
+ */
+public class SolverPortfolioTest extends AbstractProvisioningTest {
+	private static final String SOLVER_PORTFOLIO = "org.eclipse.equinox.p2.director.solverPortfolio";
+
+	private IInstallableUnit a1;
+	private IInstallableUnit b1;
+	private IInstallableUnit b2;
+	private IInstallableUnit c1;
+	private IProfile profile;
+	private IPlanner planner;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		a1 = createIU("A", Version.create("1.0.0"), createRequiredCapabilities(IInstallableUnit.NAMESPACE_IU_ID, "B", new VersionRange("[1.0.0,3.0.0)")));
+		b1 = createIU("B", Version.create("1.0.0"), true);
+		b2 = createIU("B", Version.create("2.0.0"), true);
+		c1 = createIU("C", Version.create("1.0.0"), createRequiredCapabilities(IInstallableUnit.NAMESPACE_IU_ID, "D", new VersionRange("[1.0.0,2.0.0)")));
+		createTestMetdataRepository(new IInstallableUnit[] {a1, b1, b2, c1});
+		profile = createProfile("TestProfile." + getName());
+		planner = createPlanner();
+	}
+
+	private IProvisioningPlan plan(IInstallableUnit root, String portfolio) {
+		IProfileChangeRequest request = planner.createChangeRequest(profile);
+		request.add(root);
+		ProvisioningContext context = new ProvisioningContext(getAgent());
+		if (portfolio != null)
+			context.setProperty(SOLVER_PORTFOLIO, portfolio);
+		return planner.getProvisioningPlan(request, context, null);
+	}
+
+	public void testSameSolution() {
+		IProvisioningPlan plan = plan(a1, "true");
+		assertEquals(IStatus.OK, plan.getStatus().getSeverity());
+		assertInstallOperand(plan, b2);
+		assertNoOperand(plan, b1);
+	}
+
+	public void testUnsatisfiable() {
+		IProvisioningPlan plan = plan(c1, "true");
+		assertEquals(IStatus.ERROR, plan.getStatus().getSeverity());
+	}
+
+	private static int countSavedWins(File file) throws IOException {
+		if (!file.exists())
+			return 0;
+		Properties properties = new Properties();
+		try (InputStream in = new FileInputStream(file)) {
+			properties.load(in);
+		}
+		int count = 0;
+		for (String value : properties.stringPropertyNames())
+			count += Integer.parseInt(properties.getProperty(value));
+		return count;
+	}
+
+	public void testWinsAreRecorded() throws IOException {
+		File file = SolverPortfolio.getWinsFile(getAgent());
+		assertNotNull(file);
+		int races = SolverPortfolio.getWins().values().stream().mapToInt(Integer::intValue).sum();
+		int savedRaces = countSavedWins(file);
+		plan(a1, "eclipseP2,resolutionHT");
+		int raced = Runtime.getRuntime().availableProcessors() > 1 ? 1 : 0;
+		assertEquals(races + raced, SolverPortfolio.getWins().values().stream().mapToInt(Integer::intValue).sum());
+		assertEquals(savedRaces + raced, countSavedWins(file));
+	}
+
+	public void testStoppedSolverDoesNotStart() {
+		Collector<IInstallableUnit> units = new Collector<>();
+		units.accept(a1);
+		units.accept(b1);
+		units.accept(b2);
+		Projector projector = new Projector(units, new HashMap<String, String>(), new HashSet<IInstallableUnit>(), false);
+		projector.encode(a1, new IInstallableUnit[0], new Collector<IInstallableUnit>(), Collections.singletonList(a1), new NullProgressMonitor());
+		projector.stopSolver();
+		assertEquals(IStatus.CANCEL, projector.invokeSolver(new NullProgressMonitor()).getSeverity());
+	}
+
+	public void testSingleConfiguration() {
+		IProvisioningPlan plan = plan(a1, "resolutionHT");
+		assertEquals(IStatus.OK, plan.getStatus().getSeverity());
+		assertInstallOperand(plan, b2);
+	}
+}
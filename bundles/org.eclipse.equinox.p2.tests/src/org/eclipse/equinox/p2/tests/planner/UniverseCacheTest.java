@@ -0,0 +1,177 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.equinox.p2.tests.planner;
+
+import java.io.File;
+import java.util.*;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.equinox.internal.p2.director.SimplePlanner;
+import org.eclipse.equinox.internal.p2.director.UniverseCache;
+import org.eclipse.equinox.internal.provisional.p2.repository.RepositoryEvent;
+import org.eclipse.equinox.p2.engine.IProfile;
+import org.eclipse.equinox.p2.engine.IProvisioningPlan;
+import org.eclipse.equinox.p2.engine.ProvisioningContext;
+import org.eclipse.equinox.p2.metadata.*;
+import org.eclipse.equinox.p2.planner.IProfileChangeRequest;
+import org.eclipse.equinox.p2.planner.IPlanner;
+import org.eclipse.equinox.p2.query.*;
+import org.eclipse.equinox.p2.repository.IRepository;
+import org.eclipse.equinox.p2.repository.metadata.IMetadataRepository;
+import org.eclipse.equinox.p2.repository.metadata.IMetadataRepositoryManager;
+import org.eclipse.equinox.p2.tests.AbstractProvisioningTest;
+
+/**
+ * Tests that the planner keeps the units of the repositories between plans when the
+ * provisioning context asks for it.
+ */
+public class UniverseCacheTest extends AbstractProvisioningTest {
+	private static final String CACHE_UNIVERSE = "org.eclipse.equinox.p2.director.cacheUniverse";
+
+	private File repoLocation;
+	private IMetadataRepository repository;
+	private IInstallableUnit a1;
+	private IInstallableUnit b1;
+	private IProfile profile;
+	private IPlanner planner;
+	private UniverseCache cache;
+
+	@Override
+	protected void setUp() throws Exception {
+		super.setUp();
+		repoLocation = new File(getTempFolder(), getName());
+		repository = getMetadataRepositoryManager().createRepository(repoLocation.toURI(), "UniverseCacheTest", IMetadataRepositoryManager.TYPE_SIMPLE_REPOSITORY, null);
+		a1 = createIU("A", Version.create("1.0.0"), createRequiredCapabilities(IInstallableUnit.NAMESPACE_IU_ID, "B", new VersionRange("[1.0.0,3.0.0)")));
+		b1 = createIU("B", Version.create("1.0.0"), true);
+		repository.addInstallableUnits(Arrays.asList(a1, b1));
+
+		profile = createProfile("TestProfile." + getName());
+		planner = createPlanner();
+		cache = ((SimplePlanner) planner).getUniverseCache();
+		cache.clear();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		getMetadataRepositoryManager().removeRepository(repoLocation.toURI());
+		delete(repoLocation);
+		super.tearDown();
+	}
+
+	private IProvisioningPlan plan(IInstallableUnit... extraUnits) {
+		IProfileChangeRequest request = planner.createChangeRequest(profile);
+		request.add(a1);
+		ProvisioningContext context = new ProvisioningContext(getAgent());
+		context.setMetadataRepositories(repoLocation.toURI());
+		context.setProperty(CACHE_UNIVERSE, "true");
+		if (extraUnits.length > 0)
+			context.setExtraInstallableUnits(Arrays.asList(extraUnits));
+		IProvisioningPlan plan = planner.getProvisioningPlan(request, context, null);
+		assertEquals(IStatus.OK, plan.getStatus().getSeverity());
+		return plan;
+	}
+
+	public void testUniverseIsReused() {
+		long misses = cache.getMissCount();
+		long hits = cache.getHitCount();
+		assertInstallOperand(plan(), b1);
+		assertInstallOperand(plan(), b1);
+		assertEquals(misses + 1, cache.getMissCount());
+		assertEquals(hits + 1, cache.getHitCount());
+	}
+
+	public void testRequirementLookupsAreReused() {
+		assertInstallOperand(plan(), b1);
+		long hits = cache.getMatchHitCount();
+		assertInstallOperand(plan(), b1);
+		assertTrue(cache.getMatchHitCount() > hits);
+		// units added to the universe are still found for a remembered requirement
+		IInstallableUnit b2 = createIU("B", Version.create("2.0.0"), true);
+		assertInstallOperand(plan(b2), b2);
+	}
+
+	public void testRememberedLookupsKeepTheOrderOfTheUnits() {
+		for (int i = 2; i < 10; i++)
+			repository.addInstallableUnits(Collections.singleton(createIU("B", Version.create(i + ".0.0"), true)));
+		UniverseCache.Universe universe = cache.getUniverse(Collections.singleton(repository), null);
+		IQueryable<IInstallableUnit> queryable = universe.getQueryable(new IInstallableUnit[0]);
+		List<IInstallableUnit> expected = new ArrayList<>();
+		for (IInstallableUnit unit : queryable.query(QueryUtil.createIUAnyQuery(), null))
+			if (unit.getId().equals("B"))
+				expected.add(unit);
+
+		assertEquals(expected, toList(queryable.query(QueryUtil.createIUQuery("B"), null)));
+		long hits = universe.getMatchHitCount();
+		assertEquals(expected, toList(queryable.query(QueryUtil.createIUQuery("B"), null)));
+		assertEquals(hits + 1, universe.getMatchHitCount());
+		// a query for all units is not remembered
+		queryable.query(QueryUtil.createIUAnyQuery(), null);
+		assertEquals(hits + 1, universe.getMatchHitCount());
+	}
+
+	private static List<IInstallableUnit> toList(IQueryResult<IInstallableUnit> result) {
+		List<IInstallableUnit> list = new ArrayList<>();
+		for (IInstallableUnit unit : result)
+			list.add(unit);
+		return list;
+	}
+
+	public void testChangedRepository() {
+		assertInstallOperand(plan(), b1);
+		IInstallableUnit b2 = createIU("B", Version.create("2.0.0"), true);
+		repository.addInstallableUnits(Collections.singleton(b2));
+		getEventBus().publishEvent(new RepositoryEvent(repoLocation.toURI(), IRepository.TYPE_METADATA, RepositoryEvent.CHANGED, true));
+		long misses = cache.getMissCount();
+		assertInstallOperand(plan(), b2);
+		assertEquals(misses + 1, cache.getMissCount());
+	}
+
+	public void testOtherRepositoryEvents() {
+		plan();
+		long misses = cache.getMissCount();
+		getEventBus().publishEvent(new RepositoryEvent(getTempFolder().toURI(), IRepository.TYPE_METADATA, RepositoryEvent.REMOVED, true));
+		getEventBus().publishEvent(new RepositoryEvent(repoLocation.toURI(), IRepository.TYPE_ARTIFACT, RepositoryEvent.REMOVED, true));
+		plan();
+		assertEquals(misses, cache.getMissCount());
+	}
+
+	public void testExtraUnits() {
+		long hits = cache.getHitCount();
+		IInstallableUnit b2 = createIU("B", Version.create("2.0.0"), true);
+		assertInstallOperand(plan(b2), b2);
+		// the extra unit is not kept in the universe
+		assertInstallOperand(plan(), b1);
+		assertEquals(hits + 1, cache.getHitCount());
+	}
+
+	public void testOverriddenMetadata() {
+		IInstallableUnit b2 = createIU("B", Version.create("2.0.0"), true);
+		IProfileChangeRequest request = planner.createChangeRequest(profile);
+		request.add(a1);
+		ProvisioningContext context = new ProvisioningContext(getAgent()) {
+			@Override
+			public IQueryable<IInstallableUnit> getMetadata(IProgressMonitor monitor) {
+				return new CollectionResult<>(Arrays.asList(a1, b2));
+			}
+		};
+		context.setMetadataRepositories(repoLocation.toURI());
+		context.setProperty(CACHE_UNIVERSE, "true");
+		long misses = cache.getMissCount();
+		long hits = cache.getHitCount();
+		// the context decides the units, so the universe of its repositories is not used
+		assertInstallOperand(planner.getProvisioningPlan(request, context, null), b2);
+		assertEquals(misses, cache.getMissCount());
+		assertEquals(hits, cache.getHitCount());
+	}
+}
@@ -17,6 +17,7 @@ package org.eclipse.equinox.p2.tests.repository;
 import junit.framework.Test;
 import junit.framework.TestSuite;
 import org.eclipse.equinox.p2.tests.artifact.repository.MirrorRequestTest2;
+import org.eclipse.equinox.p2.tests.artifact.repository.ResumableDownloadTest;
 import org.eclipse.equinox.p2.tests.artifact.repository.StatsTest;
 import org.eclipse.equinox.p2.tests.engine.ProvisioningEventTest2;
 import org.eclipse.equinox.p2.tests.testserver.helper.AbstractTestServerSuite;
@@ -40,6 +41,7 @@ public class AllTestServerTests extends AbstractTestServerSuite {
 		suite.addTestSuite(FileReaderTest.class);
 		suite.addTestSuite(NTLMTest.class);
 		suite.addTestSuite(MirrorRequestTest2.class);
+		suite.addTestSuite(ResumableDownloadTest.class);
 		suite.addTestSuite(StatsTest.class);
 		suite.addTestSuite(ProvisioningEventTest2.class);
 
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2017 IBM Corporation and others.
+ * Copyright (c) 2007, 2020 IBM Corporation and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -40,8 +40,13 @@ public abstract class AbstractSimpleConfiguratorTest extends AbstractProvisionin
 	@Override
 	protected void tearDown() throws Exception {
 		super.tearDown();
+		stopFramework();
+	}
+
+	protected void stopFramework() {
 		if (equinox != null)
 			equinox.shutdown();
+		equinox = null;
 	}
 
 	//Assert that all files are in the bundles
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2014, 2017 EclipseSource and others.
+ * Copyright (c) 2014, 2020 EclipseSource and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -186,4 +186,60 @@ public class BackupStoreTest extends AbstractProvisioningTest {
 		assertFalse(new File(filePath + ".p2bu").exists());
 		assertTrue(bTxt.exists());
 	}
+
+	public void testBackupAllRenamesDirectory() throws IOException {
+		// a backup root on the same file system as the files
+		BackupStore store = new BackupStore(sourceDir, BUPREFIX);
+		long length = aTxt.length();
+		store.backupAll(aDir);
+		assertFalse(aDir.exists());
+		assertEquals(length, store.getBytesRenamed());
+		assertEquals(0, store.getBytesCopied());
+
+		store.restore();
+		assertFileContent("File not restored", aTxt, "A");
+		assertEquals(2 * length, store.getBytesRenamed());
+		assertEquals(0, store.getBytesCopied());
+		assertEquals(0, sourceDir.list((dir, name) -> name.startsWith(BUPREFIX)).length);
+	}
+
+	public void testRestoreDirectoryCreatedAgain() throws IOException {
+		BackupStore store = new BackupStore(sourceDir, BUPREFIX);
+		store.backupAll(aDir);
+		writeToFile(aTxt, "XXXX\n- This file should be restored with A");
+		File newTxt = new File(aaDir, "new.txt");
+		writeToFile(newTxt, "New\nA file that is not backed up");
+
+		store.restore();
+		assertFileContent("File not restored", aTxt, "A");
+		assertFileContent("File written after the backup removed", newTxt, "New");
+	}
+
+	public void testBackupAllFilesIfDirectoryCanNotBeRenamed() throws IOException {
+		BackupStore store = new BackupStore(sourceDir, BUPREFIX) {
+			@Override
+			protected boolean moveTreeToBackupStore(File dir, File buDir) {
+				return false;
+			}
+		};
+		long length = aTxt.length();
+		store.backupAll(aDir);
+		assertFalse(aDir.exists());
+		assertEquals(length, store.getBytesRenamed());
+
+		store.restore();
+		assertFileContent("File not restored", aTxt, "A");
+	}
+
+	public void testBackupCopyIsCopied() throws IOException {
+		BackupStore store = new BackupStore(sourceDir, BUPREFIX);
+		long length = aTxt.length();
+		store.backupCopy(aTxt);
+		assertEquals(length, store.getBytesCopied());
+		assertEquals(0, store.getBytesRenamed());
+		writeToFile(aTxt, "XXXX\n- This file should be restored with A");
+
+		store.restore();
+		assertFileContent("File not restored", aTxt, "A");
+	}
 }
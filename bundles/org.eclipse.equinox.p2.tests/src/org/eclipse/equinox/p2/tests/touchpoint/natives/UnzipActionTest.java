@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2008, 2017 IBM Corporation and others.
+ * Copyright (c) 2008, 2020 IBM Corporation and others.
  *
  * This
  * program and the accompanying materials are made available under the terms of
@@ -15,6 +15,8 @@ package org.eclipse.equinox.p2.tests.touchpoint.natives;
 
 import java.io.*;
 import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 import org.eclipse.equinox.internal.p2.touchpoint.natives.IBackupStore;
 import org.eclipse.equinox.internal.p2.touchpoint.natives.NativeTouchpoint;
 import org.eclipse.equinox.internal.p2.touchpoint.natives.actions.ActionConstants;
@@ -194,6 +196,71 @@ public class UnzipActionTest extends AbstractProvisioningTest {
 		backup.discard();
 	}
 
+	/**
+	 * Unzips a zip with enough files to be written by several threads, over some existing
+	 * files.
+	 */
+	public void testExecuteUndoManyFiles() throws IOException {
+		Map<String, String> profileProperties = new HashMap<>();
+		File installFolder = getTempFolder();
+		profileProperties.put(IProfile.PROP_INSTALL_FOLDER, installFolder.toString());
+		IProfile profile = createProfile("testExecuteUndoManyFiles", profileProperties);
+
+		File zipTarget = new File(getTempFolder(), "many.zip");
+		List<String> names = new ArrayList<>();
+		try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(zipTarget))) {
+			for (int d = 0; d < 5; d++) {
+				names.add("dir" + d + "/");
+				zip.putNextEntry(new ZipEntry("dir" + d + "/"));
+				zip.closeEntry();
+				for (int f = 0; f < 20; f++) {
+					String name = "dir" + d + "/file" + f + ".txt";
+					names.add(name);
+					zip.putNextEntry(new ZipEntry(name));
+					zip.write(name.getBytes());
+					zip.closeEntry();
+				}
+			}
+		}
+		File existing = new File(installFolder, "dir2/file7.txt");
+		writeToFile(existing, "ORIGINAL");
+
+		InstallableUnitDescription iuDesc = new MetadataFactory.InstallableUnitDescription();
+		iuDesc.setId("testExecuteUndoManyFiles");
+		iuDesc.setVersion(DEFAULT_VERSION);
+		iuDesc.setTouchpointType(PublisherHelper.TOUCHPOINT_NATIVE);
+		IInstallableUnit iu = MetadataFactory.createInstallableUnit(iuDesc);
+
+		Map<String, Object> parameters = new HashMap<>();
+		parameters.put(ActionConstants.PARM_PROFILE, profile);
+		parameters.put("iu", iu);
+		NativeTouchpoint touchpoint = new NativeTouchpoint();
+		touchpoint.initializePhase(null, profile, "testExecuteUndoManyFiles", parameters);
+		parameters.put(ActionConstants.PARM_SOURCE, zipTarget.getAbsolutePath());
+		parameters.put(ActionConstants.PARM_TARGET, installFolder.getAbsolutePath());
+		parameters = Collections.unmodifiableMap(parameters);
+
+		UnzipAction action = new UnzipAction();
+		assertTrue(action.execute(parameters).isOK());
+		// the unzipped files are listed in the order of the entries
+		String[] unzipped = action.getResult().getValue();
+		assertEquals(names.size(), unzipped.length);
+		for (int i = 0; i < unzipped.length; i++) {
+			File file = new File(installFolder, names.get(i)).getCanonicalFile();
+			assertEquals(file.getAbsolutePath(), unzipped[i]);
+			if (file.isFile())
+				assertFileContent("Unzipped " + names.get(i), file, names.get(i));
+		}
+
+		action.undo(parameters);
+		IBackupStore backup = (IBackupStore) parameters.get(NativeTouchpoint.PARM_BACKUP);
+		backup.restore();
+		assertFileContent("Should contain text 'ORIGINAL'", existing, "ORIGINAL");
+		assertFalse(new File(installFolder, "dir2/file8.txt").exists());
+		assertFalse(new File(installFolder, "dir3").exists());
+		backup.discard();
+	}
+
 	/**
 	 * Test that when a path is used only files from that path down are unzipped to target as well as undo works.
 	 */
@@ -19,6 +19,7 @@ import javax.servlet.ServletException;
 import org.eclipse.equinox.p2.testserver.servlets.BasicResourceDelivery;
 import org.eclipse.equinox.p2.testserver.servlets.ChopAndDelay;
 import org.eclipse.equinox.p2.testserver.servlets.ContentLengthLier;
+import org.eclipse.equinox.p2.testserver.servlets.Disconnector;
 import org.eclipse.equinox.p2.testserver.servlets.FileMolester;
 import org.eclipse.equinox.p2.testserver.servlets.IntermittentTimeout;
 import org.eclipse.equinox.p2.testserver.servlets.LastModifiedLier;
@@ -93,6 +94,9 @@ public class Activator implements BundleActivator, ServiceTrackerCustomizer<Http
 					null);
 			httpService.registerServlet("/molested", new FileMolester("/molested", URI.create("/webfiles"), 40), null, //$NON-NLS-1$//$NON-NLS-2$//$NON-NLS-3$
 					null);
+			// drops the connection after 5 bytes of every response
+			httpService.registerServlet("/disconnect", new Disconnector("/disconnect", URI.create("/webfiles"), 5), null, //$NON-NLS-1$//$NON-NLS-2$//$NON-NLS-3$
+					null);
 			// 8 bytes at a time, delay from 0 to 100 ms, in steps of 5
 			httpService.registerServlet("/decelerate", //$NON-NLS-1$
 					new ChopAndDelay("/decelerate", URI.create("/webfiles"), 3, 0, new LinearChange(0, 5, 100, 0)), //$NON-NLS-1$//$NON-NLS-2$
@@ -15,4 +15,7 @@ package org.eclipse.equinox.p2.testserver;
 
 public interface HttpConstants {
 	public static final String LAST_MODIFIED = "Last-Modified"; //$NON-NLS-1$
+	public static final String RANGE = "Range"; //$NON-NLS-1$
+	public static final String CONTENT_RANGE = "Content-Range"; //$NON-NLS-1$
+	public static final String ACCEPT_RANGES = "Accept-Ranges"; //$NON-NLS-1$
 }
@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright (c) 2020 IBM Corporation and others.
+ *
+ * This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License 2.0
+ * which accompanies this distribution, and is available at
+ * https://www.eclipse.org/legal/epl-2.0/
+ *
+ * SPDX-License-Identifier: EPL-2.0
+ *
+ * Contributors:
+ *     IBM Corporation - initial API and implementation
+ *******************************************************************************/
+
+package org.eclipse.equinox.p2.testserver.servlets;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URLConnection;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.eclipse.equinox.p2.testserver.HttpConstants;
+
+/**
+ * Delivers files honoring single "bytes=start-" range requests, but drops the
+ * connection after a fixed number of bytes of every response. A client that
+ * resumes from the last byte it received eventually gets the whole file, one
+ * that starts over never does.
+ */
+public class Disconnector extends BasicResourceDelivery {
+
+	private static final long serialVersionUID = 1L;
+	private static final String BYTES_UNIT = "bytes="; //$NON-NLS-1$
+
+	private final int bytesPerResponse;
+
+	public Disconnector(String theAlias, URI thePath, int bytesPerResponse) {
+		super(theAlias, thePath);
+		if (bytesPerResponse <= 0)
+			throw new IllegalArgumentException(
+					"bytesPerResponse must be positive - was:" + Integer.valueOf(bytesPerResponse)); //$NON-NLS-1$
+		this.bytesPerResponse = bytesPerResponse;
+	}
+
+	@Override
+	protected void deliver(URLConnection conn, InputStream in, String filename, HttpServletRequest request,
+			HttpServletResponse response) throws IOException {
+		int contentlength = conn.getContentLength();
+		if (contentlength < 0)
+			return;
+		long start = getRangeStart(request.getHeader(HttpConstants.RANGE));
+		if (start >= contentlength) {
+			response.setHeader(HttpConstants.CONTENT_RANGE, "bytes */" + contentlength); //$NON-NLS-1$
+			response.setStatus(416); // Range Not Satisfiable, missing from the Servlet 3.1 constants
+			return;
+		}
+		response.setHeader(HttpConstants.ACCEPT_RANGES, "bytes"); //$NON-NLS-1$
+		addDateHeader(response, HttpConstants.LAST_MODIFIED, getLastModified(conn));
+		if (start > 0) {
+			response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+			response.setHeader(HttpConstants.CONTENT_RANGE,
+					"bytes " + start + '-' + (contentlength - 1) + '/' + contentlength); //$NON-NLS-1$
+		} else
+			response.setStatus(HttpServletResponse.SC_OK);
+		// announce everything that remains, then deliver only part of it
+		response.setContentLength((int) (contentlength - start));
+		response.setContentType(computeMimeType(filename, conn));
+
+		long skipped = 0;
+		while (skipped < start) {
+			long n = in.skip(start - skipped);
+			if (n <= 0)
+				return;
+			skipped += n;
+		}
+		ServletOutputStream out = response.getOutputStream();
+		byte buffer[] = new byte[4096];
+		int remaining = bytesPerResponse;
+		int read;
+		while (remaining > 0 && (read = in.read(buffer, 0, Math.min(buffer.length, remaining))) != -1) {
+			out.write(buffer, 0, read);
+			remaining -= read;
+		}
+		out.flush();
+	}
+
+	private long getRangeStart(String range) {
+		if (range == null || !range.startsWith(BYTES_UNIT))
+			return 0;
+		String spec = range.substring(BYTES_UNIT.length());
+		int dash = spec.indexOf('-');
+		if (dash <= 0 || spec.indexOf(',') >= 0)
+			return 0;
+		try {
+			return Long.parseLong(spec.substring(0, dash).trim());
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	@Override
+	protected void deliverHead(String filename, URLConnection conn, HttpServletRequest request,
+			HttpServletResponse response) throws ServletException, IOException {
+		response.setHeader(HttpConstants.ACCEPT_RANGES, "bytes"); //$NON-NLS-1$
+		super.doDeliverHead(filename, conn, request, response);
+	}
+
+}
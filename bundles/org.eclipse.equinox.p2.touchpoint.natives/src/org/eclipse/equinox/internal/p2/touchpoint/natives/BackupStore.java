@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2009, 2018 Cloudsmith Inc. and others.
+ * Copyright (c) 2009, 2020 Cloudsmith Inc. and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -17,6 +17,8 @@ package org.eclipse.equinox.internal.p2.touchpoint.natives;
 
 import java.io.*;
 import java.net.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.*;
 import java.util.Map.Entry;
 import org.eclipse.core.runtime.IStatus;
@@ -42,12 +44,16 @@ import org.eclipse.osgi.util.NLS;
  * Use {@link #backupCopy(File)} to
  * move the file out of harms way, but keep a copy of it in the original location.
  * The methods {@link #backupAll(File)} and {@link #backupCopyAll(File)} backs up an entire structure.
+ * When the backup store is on the same file system, {@link #backupAll(File)} moves a directory with
+ * a single rename instead of moving its files one by one.
  * 
  * When backup is finished - the user should either call {@link #restore()} to put all 
  * of the files back, or call {@link #discard()} to remove all of the backed up "copies".
  * 
  * If {@link #restore()} or {@link #discard()} is not called the backup files will never be deleted.
  * 
+ * The methods of a backup store may be called from several threads.
+ * 
  * The backup store does not synchronize directories - actions that write new files are
  * responsible for removing them. Overwriting existing files should be done by first backing
  * up the file, and then creating a new file. Modifying a file, should be done by 
@@ -63,7 +69,8 @@ import org.eclipse.osgi.util.NLS;
  * permissions from its parent directory. 
  * 
  * If a rename can not be performed, the backup store will make a copy and delete the original
- * file. This makes it possible to backup and restore across volume boundaries.
+ * file. This makes it possible to backup and restore across volume boundaries. The number of bytes
+ * that were renamed and copied is available from {@link #getBytesRenamed()} and {@link #getBytesCopied()}.
  * 
  * When restoring directories they
  * will be created with permissions in a platform specific way (on UN*IX they will inherit the permissions 
@@ -91,7 +98,10 @@ import org.eclipse.osgi.util.NLS;
  * "_" for the UNI*X root directory, "__" for a Windows network mounted directory, and single "drive letter" folders
  * corresponding to Windows drive letters. Typically, on UN*X there will only be a "_" directory in the backup root,
  * and on windows there will typically be a single directory called "C".
- * 
+ *
+ * The store keeps a manifest of the files and directory trees it has moved to the backup directory,
+ * in the order they were backed up. A restore walks the manifest backwards once instead of walking
+ * the backup directory.
  *
  */
 public class BackupStore implements IBackupStore {
@@ -145,6 +155,41 @@ public class BackupStore implements IBackupStore {
 
 	private final Map<String, String> renamedInPlace = new HashMap<>();
 
+	/**
+	 * The files and directory trees moved to the backup directory, in the order they were backed up.
+	 */
+	private final List<BackupEntry> manifest = new ArrayList<>();
+
+	/**
+	 * The number of bytes copied to and from the backup directory.
+	 */
+	private long bytesCopied;
+
+	/**
+	 * The number of bytes renamed to and from the backup directory.
+	 */
+	private long bytesRenamed;
+
+	/**
+	 * A file or a directory tree in the backup directory, and where it was backed up from.
+	 */
+	private static final class BackupEntry {
+		final File file;
+		final File buFile;
+		final boolean tree;
+		// the number of items a tree counts for in the backup counter, and its size
+		final long count;
+		final long bytes;
+
+		BackupEntry(File file, File buFile, boolean tree, long count, long bytes) {
+			this.file = file;
+			this.buFile = buFile;
+			this.tree = tree;
+			this.count = count;
+			this.bytes = bytes;
+		}
+	}
+
 	/**
 	 * Generates a BackupStore with a default prefix of ".p2bu" for backup directory and
 	 * probe file. 
@@ -198,14 +243,34 @@ public class BackupStore implements IBackupStore {
 	 * @return the backup name.
 	 */
 	@Override
-	public String getBackupName() {
+	public synchronized String getBackupName() {
 		return backupName;
 	}
 
-	public File getBackupRoot() {
+	public synchronized File getBackupRoot() {
 		return backupRoot;
 	}
 
+	/**
+	 * Returns the number of bytes this store has copied to and from the backup directory,
+	 * because the files could not be renamed or a copy had to be left in the original location.
+	 * @return the number of bytes copied
+	 */
+	@Override
+	public synchronized long getBytesCopied() {
+		return bytesCopied;
+	}
+
+	/**
+	 * Returns the number of bytes of the files this store has renamed to and from the backup
+	 * directory, on their own or as part of a directory tree.
+	 * @return the number of bytes renamed
+	 */
+	@Override
+	public synchronized long getBytesRenamed() {
+		return bytesRenamed;
+	}
+
 	/**
 	 * Backup the file by moving it to the backup store (for later (optional) restore).
 	 * Calling this method with a file that represents a directory is equivalent to calling 
@@ -229,7 +294,7 @@ public class BackupStore implements IBackupStore {
 	 * @throws IllegalArgumentException - on type mismatch (file vs. directory) of earlier backup, or if file does not exist 
 	 */
 	@Override
-	public boolean backup(File file) throws IOException {
+	public synchronized boolean backup(File file) throws IOException {
 		if (closed)
 			throw new ClosedBackupStoreException("Can not perform backup()"); //$NON-NLS-1$
 		if (!file.exists())
@@ -269,7 +334,10 @@ public class BackupStore implements IBackupStore {
 		buFile.getParentFile().mkdirs();
 		if (buFile.getParentFile().exists() && !buFile.getParentFile().isDirectory())
 			throw new IllegalArgumentException(NLS.bind(Messages.BackupStore_file_directory_mismatch, buFile.getParentFile().getAbsolutePath()));
+		long length = file.length();
 		if (moveToBackupStore(file, buFile)) {
+			manifest.add(new BackupEntry(file, buFile, false, 1, length));
+			bytesRenamed += length;
 			backupCounter++;
 			return;
 		}
@@ -278,10 +346,12 @@ public class BackupStore implements IBackupStore {
 		// but the locked file will fail on the subsequent delete.
 		//
 		// Rename in place
-		if (isEclipseExe(file))
+		if (isEclipseExe(file)) {
 			renameInPlace(file);
-		else {
-			Util.copyStream(new FileInputStream(file), true, new FileOutputStream(buFile), true);
+			bytesRenamed += length;
+		} else {
+			bytesCopied += Util.copyStream(new FileInputStream(file), true, new FileOutputStream(buFile), true);
+			manifest.add(new BackupEntry(file, buFile, false, 1, length));
 			backupCounter++;
 		}
 		
@@ -335,25 +405,108 @@ public class BackupStore implements IBackupStore {
 
 	/**
 	 * Backs up a file, or everything under a directory.
+	 * A directory that has nothing backed up yet is moved to the backup store with a single
+	 * rename when the backup store is on the same file system. Otherwise its files are
+	 * backed up one by one.
 	 * 
 	 * @param file - file to backup or directory
 	 * @throws IOException if backup operation failed
 	 */
 	@Override
-	public void backupAll(File file) throws IOException {
+	public synchronized void backupAll(File file) throws IOException {
 		if (!file.exists())
 			return;
 		file = makeParentCanonical(file);
+		if (file.isDirectory() && moveTreeToBackup(file))
+			return;
+		backupAllFiles(file);
+	}
+
+	private void backupAllFiles(File file) throws IOException {
 		if (file.isDirectory()) {
 			File[] files = file.listFiles();
 			if (files != null)
 				for (File f : files) {
-					backupAll(f);
+					backupAllFiles(f);
 				}
 		}
 		backup(file);
 	}
 
+	/**
+	 * Moves a directory with everything under it to the backup store with an atomic rename.
+	 * @param dir the directory to move
+	 * @return true if the directory was moved, false if it has to be backed up file by file
+	 * @throws IOException if the backup directory can not be created
+	 */
+	private boolean moveTreeToBackup(File dir) throws IOException {
+		if (closed)
+			throw new ClosedBackupStoreException("Can not perform backup()"); //$NON-NLS-1$
+		File buDir = getBackupFile(dir);
+		// something under the directory has already been backed up
+		if (buDir.exists())
+			return false;
+		// the backup directory can not be moved into itself
+		if (new File(backupRoot, backupName).getCanonicalFile().toPath().startsWith(dir.getCanonicalFile().toPath()))
+			return false;
+		long[] size = getTreeSize(dir.toPath());
+		if (size == null)
+			return false;
+		buDir.getParentFile().mkdirs();
+		if (buDir.getParentFile().exists() && !buDir.getParentFile().isDirectory())
+			throw new IllegalArgumentException(NLS.bind(Messages.BackupStore_file_directory_mismatch, buDir.getParentFile().getAbsolutePath()));
+		if (!moveTreeToBackupStore(dir, buDir))
+			return false;
+		// the tree counts as one item, and each of its files as another
+		manifest.add(new BackupEntry(dir, buDir, true, size[0] + 1, size[1]));
+		backupCounter += size[0] + 1;
+		bytesRenamed += size[1];
+		return true;
+	}
+
+	/**
+	 * Renames a directory to its location in the backup store in one atomic operation.
+	 * @param dir the directory to move
+	 * @param buDir the location in the backup store, which does not exist yet
+	 * @return true if the directory was moved, false if it has to be backed up file by file
+	 */
+	protected boolean moveTreeToBackupStore(File dir, File buDir) {
+		try {
+			Files.move(dir.toPath(), buDir.toPath(), StandardCopyOption.ATOMIC_MOVE);
+			return true;
+		} catch (IOException e) {
+			// the backup store is on another file system, or a file in the directory is in use
+			return false;
+		}
+	}
+
+	/**
+	 * Returns the number of files under a directory and their total size, or null if the
+	 * directory can not be read or contains symbolic links. A restore that merges the tree with
+	 * a directory created since the backup would follow such links.
+	 */
+	private static long[] getTreeSize(Path dir) {
+		long[] size = new long[2];
+		boolean[] links = new boolean[1];
+		try {
+			Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+				@Override
+				public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+					if (attrs.isSymbolicLink()) {
+						links[0] = true;
+						return FileVisitResult.TERMINATE;
+					}
+					size[0]++;
+					size[1] += attrs.size();
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		} catch (IOException e) {
+			return null;
+		}
+		return links[0] ? null : size;
+	}
+
 	/**
 	 * Backs up a file, or everything under a directory.
 	 * A copy of the backup is left in the original place.
@@ -361,7 +514,7 @@ public class BackupStore implements IBackupStore {
 	 * @throws IOException
 	 */
 	@Override
-	public void backupCopyAll(File file) throws IOException {
+	public synchronized void backupCopyAll(File file) throws IOException {
 		if (!file.exists())
 			return;
 		file = makeParentCanonical(file);
@@ -404,7 +557,7 @@ public class BackupStore implements IBackupStore {
 	 * @throws IllegalArgumentException - on type mismatch (file vs. directory) of earlier backup, or if file is a Directory
 	 */
 	@Override
-	public boolean backupCopy(File file) throws IOException {
+	public synchronized boolean backupCopy(File file) throws IOException {
 		if (closed)
 			throw new ClosedBackupStoreException(Messages.BackupStore_backupCopy_closed_store);
 		if (!file.exists())
@@ -433,7 +586,9 @@ public class BackupStore implements IBackupStore {
 		// just make a copy - one has to be made in one direction anyway
 		// A renameTo followed by a copy is preferred as it preserves file permissions on the moved file
 		// but it is easier to just copy and keep original.
-		Util.copyStream(new FileInputStream(file), true, new FileOutputStream(buFile), true);
+		long length = Util.copyStream(new FileInputStream(file), true, new FileOutputStream(buFile), true);
+		manifest.add(new BackupEntry(file, buFile, false, 1, length));
+		bytesCopied += length;
 		backupCounter++;
 		return true;
 	}
@@ -449,7 +604,7 @@ public class BackupStore implements IBackupStore {
 	 * @throws IOException if directory can not be moved to the backup store, or if the directory is not writeable
 	 */
 	@Override
-	public boolean backupDirectory(File file) throws IOException {
+	public synchronized boolean backupDirectory(File file) throws IOException {
 		if (!file.isDirectory())
 			throw new IllegalArgumentException(NLS.bind(Messages.BackupStore_not_a_directory, file.getAbsolutePath()));
 		file = makeParentCanonical(file);
@@ -491,7 +646,7 @@ public class BackupStore implements IBackupStore {
 	 * @throws ClosedBackupStoreException if the backup is already closed.
 	 */
 	@Override
-	public void restore() throws IOException {
+	public synchronized void restore() throws IOException {
 		if (closed)
 			throw new ClosedBackupStoreException(Messages.BackupStore_restore_closed_store);
 		// put back all files 
@@ -502,7 +657,7 @@ public class BackupStore implements IBackupStore {
 			logError(NLS.bind(Messages.BackupStore_missing_backup_directory, backupRoot.getAbsolutePath()));
 			restored = false;
 		} else
-			restoreRoots(new File(backupRoot, backupName), unrestorable);
+			restoreManifest(unrestorable);
 
 		logUnrestorables(unrestorable);
 		if (unrestorable.size() > 0)
@@ -525,7 +680,7 @@ public class BackupStore implements IBackupStore {
 	 * restored or discarded.
 	 */
 	@Override
-	public void discard() {
+	public synchronized void discard() {
 		if (closed)
 			return;
 		closeSocket();
@@ -610,6 +765,72 @@ public class BackupStore implements IBackupStore {
 		return !file.exists();
 	}
 
+	/**
+	 * Restores the backed up files and directory trees, the last backed up first.
+	 * @param unrestorable
+	 */
+	private void restoreManifest(Set<File> unrestorable) {
+		for (int i = manifest.size() - 1; i >= 0; i--) {
+			BackupEntry entry = manifest.get(i);
+			// a missing backup is reported when the restored items are counted
+			if (!entry.buFile.exists())
+				continue;
+			if (entry.tree)
+				restoreTree(entry, unrestorable);
+			else if (restoreParent(entry.file.getParentFile())) {
+				// do not restore the dummies (as they are used to trigger creation of
+				// empty directories and are not wanted in the restored location.
+				if (entry.buFile.getName().equals(dummyName))
+					restoreCounter++; // count of the restored directory in this case.
+				else
+					restoreFile(entry.buFile, entry.file, unrestorable);
+			} else
+				unrestorable.add(entry.buFile);
+		}
+		restoreRenamedFiles(unrestorable);
+	}
+
+	/**
+	 * Makes sure the directory a file is restored to exists, removing a file in its place.
+	 * @return true if the directory exists
+	 */
+	private boolean restoreParent(File dir) {
+		if (dir.isDirectory())
+			return true;
+		File parent = dir.getParentFile();
+		if (parent == null || !restoreParent(parent))
+			return false;
+		// ouch, there is a file where we need a directory
+		// that must be deleted.
+		if (dir.exists())
+			dir.delete();
+		return dir.mkdir();
+	}
+
+	private void restoreTree(BackupEntry entry, Set<File> unrestorable) {
+		if (!restoreParent(entry.file.getParentFile())) {
+			unrestorable.add(entry.buFile);
+			return;
+		}
+		if (!entry.file.exists()) {
+			try {
+				Files.move(entry.buFile.toPath(), entry.file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+				restoreCounter += entry.count;
+				bytesRenamed += entry.bytes;
+				return;
+			} catch (IOException e) {
+				// restore the files one by one
+			}
+		}
+		// the directory has been created again since it was backed up, merge the backup into it
+		if (!restoreParent(entry.file)) {
+			unrestorable.add(entry.buFile);
+			return;
+		}
+		restoreCounter++; // count of the tree itself
+		restore(entry.file, entry.buFile, unrestorable);
+	}
+
 	private void restore(File root, File buRoot, Set<File> unrestorable) {
 		File[] children = buRoot.listFiles();
 		if (children == null) { // error - can't read the backup directory
@@ -633,90 +854,39 @@ public class BackupStore implements IBackupStore {
 					}
 				}
 				restore(target, bu, unrestorable);
-			} else {
-				// do not restore the dummies (as they are used to trigger creation of
-				// empty directories and are not wanted in the restored location.
-				if (bu.getName().equals(dummyName)) {
-					restoreCounter++; // count of the restored directory in this case.
-					continue;
-				}
-				// if the original was overwritten by something and this file was not
-				// removed, it needs to be deleted now. If it can't be deleted, the
-				// renameTo will fail, and the bu is reported as not restorable.
-				// fullyDelete will remove a directory completely - we are restoring a file so it can 
-				// not be kept.
-				if (target.exists())
-					fullyDelete(target);
-
-				// rename if possible, but must copy if not possible to just rename
-				if (!bu.renameTo(target)) {
-					// did not work to rename, probably because of volume boundaries. Try to copy instead,
-					try {
-						Util.copyStream(new FileInputStream(bu), true, new FileOutputStream(target), true);
-						restoreCounter++; // consider it restored
-					} catch (FileNotFoundException e) {
-						unrestorable.add(bu);
-						continue;
-					} catch (IOException e) {
-						unrestorable.add(bu);
-						continue;
-					}
-					if (!bu.delete()) { // cleanup
-						// could not remove the backup after copy - log, safe to remove manually
-						logWarning(NLS.bind(Messages.BackupStore_can_not_delete_tmp_file, bu.getAbsolutePath()));
-					}
-				} else
-					restoreCounter++;
-			}
+			} else
+				restoreFile(bu, target, unrestorable);
 		}
 	}
 
-	/**
-	 * Restores everything backed up in the buRoot. Responsible for decoding the specially named root
-	 * target directories (i.e. _/, __/, C/, etc.) into the real system names.
-	 * @param buRoot
-	 * @param unrestorable
-	 */
-	private void restoreRoots(File buRoot, Set<File> unrestorable) {
-		File[] children = buRoot.listFiles();
-		if (children == null) { // error - can't read the backup directory
-			unrestorable.add(buRoot);
-			return;
-		}
-		for (File child : children) {
-			// Names are  root-chars, or drive letters in the root bu directory
-			String name = child.getName();
-			String rName = name;
-			String prefix = ""; //$NON-NLS-1$
-			while (rName.startsWith(ROOTCHAR)) {
-				prefix += File.separator;
-				rName = rName.substring(1);
-			}
-			if (prefix.length() < 1) {
-				// The name is a drive name
-				rName = rName + ":" + File.separator; //$NON-NLS-1$
-			} else
-				rName = prefix + rName;
-			// File root = new File(rName);
-			File bu = new File(buRoot, name);
-			File target = new File(rName);
-			if (!bu.isDirectory()) {
-				// the roots should all be directories - so this can only happen if someone manually
-				// stored files in the backup root - mark them as unrestorable and continue.
+	private void restoreFile(File bu, File target, Set<File> unrestorable) {
+		// if the original was overwritten by something and this file was not
+		// removed, it needs to be deleted now. If it can't be deleted, the
+		// renameTo will fail, and the bu is reported as not restorable.
+		// fullyDelete will remove a directory completely - we are restoring a file so it can 
+		// not be kept.
+		if (target.exists())
+			fullyDelete(target);
+
+		long length = bu.length();
+		// rename if possible, but must copy if not possible to just rename
+		if (!bu.renameTo(target)) {
+			// did not work to rename, probably because of volume boundaries. Try to copy instead,
+			try {
+				bytesCopied += Util.copyStream(new FileInputStream(bu), true, new FileOutputStream(target), true);
+				restoreCounter++; // consider it restored
+			} catch (IOException e) {
 				unrestorable.add(bu);
-				continue;
+				return;
 			}
-			// the backup roots are system roots, and can not be created - but check root is directory and exists.
-			// (Network drives could have gone away etc).
-			//
-			if (!(target.exists() && target.isDirectory())) {
-				unrestorable.add(bu);
-				continue; // give up on this branch
+			if (!bu.delete()) { // cleanup
+				// could not remove the backup after copy - log, safe to remove manually
+				logWarning(NLS.bind(Messages.BackupStore_can_not_delete_tmp_file, bu.getAbsolutePath()));
 			}
-			// then perform a recursive restore
-			restore(target, bu, unrestorable);
+		} else {
+			bytesRenamed += length;
+			restoreCounter++;
 		}
-		restoreRenamedFiles(unrestorable);
 	}
 
 	private void restoreRenamedFiles(Set<File> unrestorable) {
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2009 Cloudsmith Inc. and others.
+ * Copyright (c) 2009, 2020 Cloudsmith Inc. and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -105,4 +105,17 @@ public interface IBackupStore {
 	 * @throws IOException
 	 */
 	public void backupCopyAll(File file) throws IOException;
+
+	/**
+	 * Returns the number of bytes copied to and from the backup store, when backing up and restoring.
+	 * @return the number of bytes copied
+	 */
+	public long getBytesCopied();
+
+	/**
+	 * Returns the number of bytes of the files renamed to and from the backup store, when backing up
+	 * and restoring.
+	 * @return the number of bytes renamed
+	 */
+	public long getBytesRenamed();
 }
\ No newline at end of file
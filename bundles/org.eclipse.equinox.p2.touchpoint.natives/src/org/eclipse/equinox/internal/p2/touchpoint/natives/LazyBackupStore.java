@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2009, 2017 Cloudsmith Inc. and others.
+ * Copyright (c) 2009, 2020 Cloudsmith Inc. and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -18,7 +18,7 @@ import java.io.IOException;
 
 /**
  * LazyBackupStore is a BackupStore that only instantiates a real backup store
- * when needed.
+ * when needed. Its methods may be called from several threads.
  */
 public class LazyBackupStore implements IBackupStore {
 	private BackupStore delegate;
@@ -33,26 +33,26 @@ public class LazyBackupStore implements IBackupStore {
 	}
 
 	@Override
-	public boolean backup(File file) throws IOException {
+	public synchronized boolean backup(File file) throws IOException {
 		loadDelegate();
 		return delegate.backup(file);
 	}
 
 	@Override
-	public boolean backupDirectory(File file) throws IOException {
+	public synchronized boolean backupDirectory(File file) throws IOException {
 		loadDelegate();
 		return delegate.backupDirectory(file);
 	}
 
 	@Override
-	public void discard() {
+	public synchronized void discard() {
 		if (delegate == null)
 			return;
 		delegate.discard();
 	}
 
 	@Override
-	public void restore() throws IOException {
+	public synchronized void restore() throws IOException {
 		if (delegate == null)
 			return;
 		delegate.restore();
@@ -65,26 +65,36 @@ public class LazyBackupStore implements IBackupStore {
 	}
 
 	@Override
-	public String getBackupName() {
+	public synchronized String getBackupName() {
 		loadDelegate();
 		return delegate.getBackupName();
 	}
 
 	@Override
-	public boolean backupCopy(File file) throws IOException {
+	public synchronized boolean backupCopy(File file) throws IOException {
 		loadDelegate();
 		return delegate.backupCopy(file);
 	}
 
 	@Override
-	public void backupCopyAll(File file) throws IOException {
+	public synchronized void backupCopyAll(File file) throws IOException {
 		loadDelegate();
 		delegate.backupCopyAll(file);
 	}
 
 	@Override
-	public void backupAll(File file) throws IOException {
+	public synchronized void backupAll(File file) throws IOException {
 		loadDelegate();
 		delegate.backupAll(file);
 	}
+
+	@Override
+	public synchronized long getBytesCopied() {
+		return delegate == null ? 0 : delegate.getBytesCopied();
+	}
+
+	@Override
+	public synchronized long getBytesRenamed() {
+		return delegate == null ? 0 : delegate.getBytesRenamed();
+	}
 }
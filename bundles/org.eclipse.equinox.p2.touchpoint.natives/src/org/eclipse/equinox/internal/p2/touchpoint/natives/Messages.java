@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2019 IBM Corporation and others.
+ * Copyright (c) 2007, 2020 IBM Corporation and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -79,5 +79,6 @@ public class Messages extends NLS {
 	public static String rmdir_failed;
 	public static String Util_Invalid_Zip_File_Format;
 	public static String Util_Error_Unzipping;
+	public static String Util_Can_Not_Write_File;
 
 }
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2019 IBM Corporation and others.
+ * Copyright (c) 2007, 2020 IBM Corporation and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -20,6 +20,7 @@ import java.net.URL;
 import java.util.*;
 import java.util.stream.Collectors;
 import org.eclipse.core.runtime.*;
+import org.eclipse.equinox.internal.p2.core.helpers.Tracing;
 import org.eclipse.equinox.internal.p2.touchpoint.natives.actions.ActionConstants;
 import org.eclipse.equinox.p2.core.*;
 import org.eclipse.equinox.p2.engine.IProfile;
@@ -98,6 +99,7 @@ public class NativeTouchpoint extends Touchpoint {
 		promptForNativePackage();
 		IBackupStore store = getBackupStore(profile);
 		store.discard();
+		traceBackupStore(store, "commit"); //$NON-NLS-1$
 		clearProfileState(profile);
 		return Status.OK_STATUS;
 	}
@@ -239,10 +241,19 @@ public class NativeTouchpoint extends Touchpoint {
 			returnStatus = new Status(IStatus.ERROR, Activator.ID,
 					NLS.bind(Messages.failed_backup_restore, store.getBackupName()), e);
 		}
+		traceBackupStore(store, "rollback"); //$NON-NLS-1$
 		clearProfileState(profile);
 		return returnStatus;
 	}
 
+	private static void traceBackupStore(IBackupStore store, String operation) {
+		// a store that never backed anything up has no name to report
+		if (!Tracing.DEBUG_BACKUP_STORE || store.getBytesRenamed() + store.getBytesCopied() == 0)
+			return;
+		Tracing.debug("Backup store " + store.getBackupName() + " at " + operation + ": " + store.getBytesRenamed() //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				+ " bytes renamed, " + store.getBytesCopied() + " bytes copied"); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
 	public static File getFileFromBundle(String distro, String file) {
 		URL[] installScripts = FileLocator.findEntries(Activator.getContext().getBundle(),
 				new Path(NativeTouchpoint.FOLDER + '/' + distro + '/' + file));
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2007, 2019 IBM Corporation and others.
+ * Copyright (c) 2007, 2020 IBM Corporation and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -18,10 +18,11 @@ package org.eclipse.equinox.internal.p2.touchpoint.natives;
 import java.io.*;
 import java.net.URI;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
+import java.util.zip.*;
 import org.eclipse.core.runtime.*;
 import org.eclipse.equinox.internal.p2.core.helpers.LogHelper;
 import org.eclipse.equinox.p2.core.*;
@@ -31,6 +32,12 @@ import org.eclipse.equinox.p2.repository.artifact.*;
 import org.eclipse.osgi.util.NLS;
 
 public class Util {
+	// the threads writing the files of a zip, and the number of files worth using them for
+	private static final int UNZIP_THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
+	private static final int PARALLEL_UNZIP_MIN_FILES = 16;
+	private static final int UNZIP_BUFFER_SIZE = 64 * 1024;
+	// shared by all unzips, so that operands unzipped in parallel do not each start their own threads
+	private static ExecutorService unzipExecutor;
 
 	public static void log(String message) {
 		LogHelper.log(createError(message));
@@ -104,13 +111,24 @@ public class Util {
 	 * exclude/exclude pattern (that can be null, case when everything is unzipped).
 	 * If a path is specified, the path is consider as entry point in zip, as when
 	 * the to directory in zip would have been the specified path.
+	 * <p>
+	 * The entries are found through the central directory of the zip. Existing files
+	 * are backed up or deleted first, then the files of large zips are written by
+	 * several threads. The files are returned in the order of the entries, like
+	 * {@link #unzipStream(InputStream, long, File, String, String[], String[], IBackupStore, String, IProgressMonitor)}
+	 * does.
 	 */
 	public static File[] unzipFile(File zipFile, File outputDir, String path, String[] includePatterns,
 			String[] excludePatterns, IBackupStore store, String taskName, IProgressMonitor monitor)
 			throws IOException {
-		try (InputStream in = new FileInputStream(zipFile)) {
-			return unzipStream(in, zipFile.length(), outputDir, path, includePatterns, excludePatterns, store, taskName,
-					monitor);
+		try {
+			File[] unzippedFiles = unzipZipFile(zipFile, outputDir, path, includePatterns, excludePatterns, store);
+			if (unzippedFiles != null)
+				return unzippedFiles;
+			try (InputStream in = new FileInputStream(zipFile)) {
+				return unzipStream(in, zipFile.length(), outputDir, path, includePatterns, excludePatterns, store,
+						taskName, monitor);
+			}
 		} catch (IOException e) {
 			// add the file name to the message
 			IOException ioException = new IOException(NLS.bind(Messages.Util_Error_Unzipping, zipFile, e.getMessage()));
@@ -119,6 +137,157 @@ public class Util {
 		}
 	}
 
+	/*
+	 * Unzips a zip through its central directory. Returns null if the zip must be read as a
+	 * stream instead, because its central directory cannot be read or because several of its
+	 * entries are written to the same file.
+	 */
+	private static File[] unzipZipFile(File zipFile, File outputDir, String path, String[] includePatterns,
+			String[] excludePatterns, IBackupStore store) throws IOException {
+		ZipFile zip;
+		try {
+			zip = new ZipFile(zipFile);
+		} catch (ZipException e) {
+			return null;
+		}
+		try {
+			if (zip.size() == 0)
+				throw new IOException(Messages.Util_Invalid_Zip_File_Format);
+			EntryFilter filter = new EntryFilter(path, includePatterns, excludePatterns);
+			List<File> unzippedFiles = new ArrayList<>();
+			List<ZipEntry> fileEntries = new ArrayList<>();
+			List<File> outFiles = new ArrayList<>();
+			for (Enumeration<? extends ZipEntry> entries = zip.entries(); entries.hasMoreElements();) {
+				ZipEntry ze = entries.nextElement();
+				String name = filter.getTargetName(ze.getName());
+				if (name == null)
+					continue;
+				File outFile = createSubPathFile(outputDir, name);
+				unzippedFiles.add(outFile);
+				if (!ze.isDirectory()) {
+					fileEntries.add(ze);
+					outFiles.add(outFile);
+				}
+			}
+			Set<File> targets = new HashSet<>(outFiles);
+			if (targets.size() != outFiles.size())
+				return null;
+
+			// the directories, and the backups of the files to overwrite, in one pass
+			Set<File> directories = new HashSet<>();
+			for (File outFile : unzippedFiles) {
+				if (!targets.contains(outFile) && directories.add(outFile))
+					outFile.mkdirs();
+			}
+			for (File outFile : outFiles) {
+				if (outFile.exists()) {
+					if (store != null)
+						store.backup(outFile);
+					else
+						outFile.delete();
+				} else {
+					File parent = outFile.getParentFile();
+					if (directories.add(parent))
+						parent.mkdirs();
+				}
+			}
+			writeFiles(zip, fileEntries, outFiles);
+			return unzippedFiles.toArray(new File[unzippedFiles.size()]);
+		} finally {
+			zip.close();
+		}
+	}
+
+	/*
+	 * Writes the entries of a zip to their files. Each thread takes the next entry to write and
+	 * reuses its own buffer. The calling thread writes files too, helped by the threads of the
+	 * shared unzip executor that are free.
+	 */
+	private static void writeFiles(ZipFile zip, List<ZipEntry> entries, List<File> outFiles) throws IOException {
+		AtomicInteger next = new AtomicInteger();
+		int threads = entries.size() < PARALLEL_UNZIP_MIN_FILES ? 1 : UNZIP_THREADS;
+		List<Future<Void>> helpers = new ArrayList<>();
+		if (threads > 1) {
+			ExecutorService executor = getUnzipExecutor();
+			for (int i = 1; i < threads; i++) {
+				helpers.add(executor.submit(() -> {
+					writeFiles(zip, entries, outFiles, next);
+					return null;
+				}));
+			}
+		}
+		Throwable failure = null;
+		try {
+			writeFiles(zip, entries, outFiles, next);
+		} catch (IOException | RuntimeException e) {
+			failure = e;
+		}
+		// helpers that have not started are not needed anymore, the others are done before the
+		// first failure is reported
+		for (Future<Void> helper : helpers) {
+			if (helper.cancel(false))
+				continue;
+			try {
+				helper.get();
+			} catch (ExecutionException e) {
+				if (failure == null)
+					failure = e.getCause();
+			} catch (InterruptedException e) {
+				next.set(entries.size());
+				Thread.currentThread().interrupt();
+				if (failure == null)
+					failure = new InterruptedIOException();
+			}
+		}
+		if (failure instanceof IOException)
+			throw (IOException) failure;
+		if (failure instanceof RuntimeException)
+			throw (RuntimeException) failure;
+		if (failure instanceof Error)
+			throw (Error) failure;
+		if (failure != null)
+			throw new IOException(failure);
+	}
+
+	private static synchronized ExecutorService getUnzipExecutor() {
+		if (unzipExecutor == null) {
+			ThreadPoolExecutor executor = new ThreadPoolExecutor(UNZIP_THREADS, UNZIP_THREADS, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+				Thread thread = new Thread(r, "p2 unzip"); //$NON-NLS-1$
+				thread.setDaemon(true);
+				return thread;
+			});
+			// no threads are kept once the unzips are done
+			executor.allowCoreThreadTimeOut(true);
+			unzipExecutor = executor;
+		}
+		return unzipExecutor;
+	}
+
+	private static void writeFiles(ZipFile zip, List<ZipEntry> entries, List<File> outFiles, AtomicInteger next) throws IOException {
+		byte[] buffer = new byte[UNZIP_BUFFER_SIZE];
+		try {
+			for (int i; (i = next.getAndIncrement()) < entries.size();)
+				writeFile(zip, entries.get(i), outFiles.get(i), buffer);
+		} catch (IOException | RuntimeException e) {
+			// the other threads stop at their next entry
+			next.set(entries.size());
+			throw e;
+		}
+	}
+
+	private static void writeFile(ZipFile zip, ZipEntry ze, File outFile, byte[] buffer) throws IOException {
+		try (InputStream in = zip.getInputStream(ze); OutputStream out = new FileOutputStream(outFile)) {
+			int len;
+			while ((len = in.read(buffer)) != -1)
+				out.write(buffer, 0, len);
+		} catch (FileNotFoundException e) {
+			// the file can not be written, for example a running eclipse.exe on Windows
+			LogHelper.log(new Status(IStatus.WARNING, Activator.ID, NLS.bind(Messages.Util_Can_Not_Write_File, outFile), e));
+			return;
+		}
+		outFile.setLastModified(ze.getTime());
+	}
+
 	/**
 	 * Unzip from an InputStream to an output directory using backup of overwritten
 	 * files if backup store is not null.
@@ -150,76 +319,33 @@ public class Util {
 				throw new IOException(Messages.Util_Invalid_Zip_File_Format);
 			}
 
-			if (path != null && path.trim().length() == 0)
-				path = null;
-			Pattern pathRegex = path == null ? null : createAntStylePattern("(" + path + ")(*)"); //$NON-NLS-1$ //$NON-NLS-2$
-
-			Collection<Pattern> includeRegexp = new ArrayList<>();
-			Collection<Pattern> excludeRegexp = new ArrayList<>();
-			if (includePatterns != null) {
-				for (String pattern : includePatterns) {
-					if (pattern != null) {
-						includeRegexp.add(createAntStylePattern(pattern));
-					}
-				}
-			}
-			if (excludePatterns != null) {
-				for (String pattern : excludePatterns) {
-					if (pattern != null) {
-						excludeRegexp.add(createAntStylePattern(pattern));
-					}
-				}
-			}
+			EntryFilter filter = new EntryFilter(path, includePatterns, excludePatterns);
 			ArrayList<File> unzippedFiles = new ArrayList<>();
 			do {
-				String name = ze.getName();
-				if (pathRegex == null || pathRegex.matcher(name).matches()) {
-					boolean unzip = includeRegexp.isEmpty();
-					for (Pattern pattern : includeRegexp) {
-						unzip = pattern.matcher(name).matches();
-						if (unzip)
-							break;
-					}
-					if (unzip && !excludeRegexp.isEmpty()) {
-						for (Pattern pattern : excludeRegexp) {
-							if (pattern.matcher(name).matches()) {
-								unzip = false;
-								break;
-							}
-						}
-					}
-					if (unzip) {
-						if (pathRegex != null) {
-							Matcher matcher = pathRegex.matcher(name);
-							if (matcher.matches()) {
-								name = matcher.group(2);
-								if (name.startsWith("/")) //$NON-NLS-1$
-									name = name.substring(1);
-							}
-						}
-						File outFile = createSubPathFile(outputDir, name);
-						unzippedFiles.add(outFile);
-						if (ze.isDirectory()) {
-							outFile.mkdirs();
+				String name = filter.getTargetName(ze.getName());
+				if (name != null) {
+					File outFile = createSubPathFile(outputDir, name);
+					unzippedFiles.add(outFile);
+					if (ze.isDirectory()) {
+						outFile.mkdirs();
+					} else {
+						if (outFile.exists()) {
+							if (store != null)
+								store.backup(outFile);
+							else
+								outFile.delete();
 						} else {
-							if (outFile.exists()) {
-								if (store != null)
-									store.backup(outFile);
-								else
-									outFile.delete();
-							} else {
-								outFile.getParentFile().mkdirs();
-							}
-							try {
-								copyStream(in, false, new FileOutputStream(outFile), true);
-							} catch (FileNotFoundException e) {
-								// TEMP: ignore this for now in case we're trying to replace
-								// a running eclipse.exe
-								// TODO: This is very questionable as it will shadow any other
-								// issue with extraction!!
-							}
-							outFile.setLastModified(ze.getTime());
+							outFile.getParentFile().mkdirs();
+						}
+						try {
+							copyStream(in, false, new FileOutputStream(outFile), true);
+						} catch (FileNotFoundException e) {
+							// TEMP: ignore this for now in case we're trying to replace
+							// a running eclipse.exe
+							// TODO: This is very questionable as it will shadow any other
+							// issue with extraction!!
 						}
+						outFile.setLastModified(ze.getTime());
 					}
 				}
 				in.closeEntry();
@@ -229,6 +355,69 @@ public class Util {
 
 	}
 
+	/*
+	 * Selects the entries of a zip to unzip and the names they are unzipped to.
+	 */
+	private static class EntryFilter {
+		private final Pattern pathRegex;
+		private final Collection<Pattern> includeRegexp;
+		private final Collection<Pattern> excludeRegexp;
+
+		EntryFilter(String path, String[] includePatterns, String[] excludePatterns) {
+			if (path != null && path.trim().length() == 0)
+				path = null;
+			pathRegex = path == null ? null : createAntStylePattern("(" + path + ")(*)"); //$NON-NLS-1$ //$NON-NLS-2$
+			includeRegexp = createAntStylePatterns(includePatterns);
+			excludeRegexp = createAntStylePatterns(excludePatterns);
+		}
+
+		/**
+		 * Returns the name of the given entry in the output directory, or null if the
+		 * entry is not unzipped.
+		 */
+		String getTargetName(String name) {
+			if (pathRegex != null && !pathRegex.matcher(name).matches())
+				return null;
+			boolean unzip = includeRegexp.isEmpty();
+			for (Pattern pattern : includeRegexp) {
+				unzip = pattern.matcher(name).matches();
+				if (unzip)
+					break;
+			}
+			if (unzip && !excludeRegexp.isEmpty()) {
+				for (Pattern pattern : excludeRegexp) {
+					if (pattern.matcher(name).matches()) {
+						unzip = false;
+						break;
+					}
+				}
+			}
+			if (!unzip)
+				return null;
+			if (pathRegex != null) {
+				Matcher matcher = pathRegex.matcher(name);
+				if (matcher.matches()) {
+					name = matcher.group(2);
+					if (name.startsWith("/")) //$NON-NLS-1$
+						name = name.substring(1);
+				}
+			}
+			return name;
+		}
+
+		private static Collection<Pattern> createAntStylePatterns(String[] patterns) {
+			Collection<Pattern> result = new ArrayList<>();
+			if (patterns != null) {
+				for (String pattern : patterns) {
+					if (pattern != null) {
+						result.add(createAntStylePattern(pattern));
+					}
+				}
+			}
+			return result;
+		}
+	}
+
 	private static File createSubPathFile(File root, String subPath) throws IOException {
 		File result = new File(root, subPath).getCanonicalFile();
 		String resultCanonical = result.getPath();
@@ -1,5 +1,5 @@
 /*******************************************************************************
- *  Copyright (c) 2008, 2019 IBM Corporation and others.
+ *  Copyright (c) 2008, 2020 IBM Corporation and others.
  *
  *  This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License 2.0
@@ -21,11 +21,12 @@ import java.io.*;
 import java.util.ArrayList;
 import java.util.Map;
 import org.eclipse.core.runtime.*;
+import org.eclipse.equinox.internal.p2.engine.IIndependentAction;
 import org.eclipse.equinox.internal.p2.touchpoint.natives.*;
 import org.eclipse.equinox.p2.engine.spi.ProvisioningAction;
 import org.eclipse.osgi.util.NLS;
 
-public class ChmodAction extends ProvisioningAction {
+public class ChmodAction extends ProvisioningAction implements IIndependentAction {
 	private static final String ACTION_CHMOD = "chmod"; //$NON-NLS-1$
 	private static final boolean WINDOWS = java.io.File.separatorChar == '\\';
 
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2009, 2017 Cloudsmith Inc. and others.
+ * Copyright (c) 2009, 2020 Cloudsmith Inc. and others.
  *
  * This program and the accompanying materials
  * are made available under the terms of the Eclipse Public License 2.0
@@ -18,6 +18,7 @@ import java.util.ArrayList;
 import java.util.Map;
 import org.eclipse.core.runtime.IStatus;
 import org.eclipse.core.runtime.Status;
+import org.eclipse.equinox.internal.p2.engine.IIndependentAction;
 import org.eclipse.equinox.internal.p2.engine.Profile;
 import org.eclipse.equinox.internal.p2.touchpoint.natives.*;
 import org.eclipse.equinox.p2.engine.spi.ProvisioningAction;
@@ -33,7 +34,7 @@ import org.eclipse.osgi.util.NLS;
  * Copy will copy files and directories (recursively).
  *  
  */
-public class CopyAction extends ProvisioningAction {
+public class CopyAction extends ProvisioningAction implements IIndependentAction {
 	public static final String ID = "cp"; //$NON-NLS-1$
 
 	@Override
@@ -1,5 +1,5 @@
 /*******************************************************************************
- * Copyright (c) 2006, 2017 Cloudsmith Inc.
+ * Copyright (c) 2006, 2020 Cloudsmith Inc.
  *
  *  This program and the accompanying materials
  *  are made available under the terms of the Eclipse Public License 2.0
@@ -110,6 +110,7 @@ public final class FileReader extends FileTransferJob implements IFileTransferLi
 	private final long connectionRetryDelay;
 	private final IConnectContext connectContext;
 	private URI requestUri;
+	private long rangeStart;
 	protected IFileTransferConnectStartEvent connectEvent;
 	private Job cancelJob;
 	private boolean monitorStarted;
@@ -192,6 +193,12 @@ public final class FileReader extends FileTransferJob implements IFileTransferLi
 			if (cancelJob != null)
 				cancelJob.cancel();
 			IIncomingFileTransfer source = ((IIncomingFileTransferEvent) event).getSource();
+			if (rangeStart > 0 && !isRangeHonored(((IIncomingFileTransferReceiveStartEvent) event).getResponseHeaders())) {
+				// a full response would be written at the wrong position, do not receive it
+				exception = new RangeNotHonoredException(NLS.bind(Messages.range_not_honored_0_from_1, requestUri, Long.toString(rangeStart)));
+				((IIncomingFileTransferReceiveStartEvent) event).cancel();
+				return;
+			}
 			try {
 				FileInfo fi = new FileInfo();
 				Date lastModified = source.getRemoteLastModified();
@@ -270,6 +277,39 @@ public final class FileReader extends FileTransferJob implements IFileTransferLi
 		}
 	}
 
+	/**
+	 * Returns whether the response to a ranged request of an http(s) location starts at
+	 * the requested position, which is the case if it has a Content-Range header such as
+	 * <code>bytes 500-999/1000</code> with the requested start. Other protocols seek to the
+	 * start position themselves.
+	 */
+	private boolean isRangeHonored(Map<?, ?> responseHeaders) {
+		String scheme = requestUri.getScheme();
+		if (!"http".equalsIgnoreCase(scheme) && !"https".equalsIgnoreCase(scheme)) //$NON-NLS-1$ //$NON-NLS-2$
+			return true;
+		if (responseHeaders == null)
+			return false;
+		for (Map.Entry<?, ?> header : responseHeaders.entrySet()) {
+			if (!"Content-Range".equalsIgnoreCase(String.valueOf(header.getKey()))) //$NON-NLS-1$
+				continue;
+			Object value = header.getValue();
+			if (value instanceof List && !((List<?>) value).isEmpty())
+				value = ((List<?>) value).get(0);
+			String contentRange = String.valueOf(value).trim();
+			if (!contentRange.startsWith("bytes ")) //$NON-NLS-1$
+				return false;
+			int dash = contentRange.indexOf('-');
+			if (dash < 0)
+				return false;
+			try {
+				return Long.parseLong(contentRange.substring(6, dash).trim()) == rangeStart;
+			} catch (NumberFormatException e) {
+				return false;
+			}
+		}
+		return false;
+	}
+
 	private synchronized void pauseIfPossible(IIncomingFileTransfer source) {
 		if (isPaused() && !hasPaused) {
 			pasuable = source.getAdapter(IFileTransferPausable.class);
@@ -443,6 +483,7 @@ public final class FileReader extends FileTransferJob implements IFileTransferLi
 		this.monitorStarted = false;
 		this.theOutputStream = outputStream;
 		this.requestUri = uri;
+		this.rangeStart = range == null ? -1 : range.getStartPosition();
 
 		for (int retryCount = 0;; retryCount++) {
 			if (monitor != null && monitor.isCanceled())
@@ -518,6 +559,10 @@ public final class FileReader extends FileTransferJob implements IFileTransferLi
 			if (t instanceof SocketTimeoutException)
 				throw RepositoryStatusHelper.wrap(t);
 
+			// the server would ignore the range again
+			if (t instanceof RangeNotHonoredException)
+				throw RepositoryStatusHelper.wrap(t);
+
 			if (t instanceof IOException && attemptCounter < connectionRetryCount) {
 				// TODO: Retry only certain exceptions or filter out
 				// some exceptions not worth retrying
@@ -32,6 +32,55 @@ class ConfigApplier {
 	private static final String LAST_BUNDLES_INFO = "last.bundles.info"; //$NON-NLS-1$
 	private static final String PROP_DEVMODE = "osgi.dev"; //$NON-NLS-1$
 
+	/**
+	 * The installed bundles by symbolic name. The index is built once when a configuration
+	 * is applied and kept up to date as bundles are installed and uninstalled, so that each
+	 * bundle of a large configuration is found without asking the framework again.
+	 */
+	private static class BundleIndex {
+		private final Map<String, List<Bundle>> bundles = new HashMap<>();
+
+		BundleIndex(Bundle[] installed) {
+			for (Bundle bundle : installed)
+				add(bundle);
+		}
+
+		void add(Bundle bundle) {
+			String symbolicName = bundle.getSymbolicName();
+			if (symbolicName == null)
+				return;
+			List<Bundle> sameName = bundles.computeIfAbsent(symbolicName, name -> new ArrayList<>(1));
+			if (!sameName.contains(bundle))
+				sameName.add(bundle);
+		}
+
+		void remove(Bundle bundle) {
+			String symbolicName = bundle.getSymbolicName();
+			List<Bundle> sameName = symbolicName == null ? null : bundles.get(symbolicName);
+			if (sameName != null)
+				sameName.remove(bundle);
+		}
+
+		/**
+		 * Returns the bundles with the given symbolic name and version, or with any version
+		 * if the version is null. Like {@link PackageAdmin#getBundles(String, String)},
+		 * returns null if there is no such bundle.
+		 */
+		Bundle[] getBundles(String symbolicName, String version) {
+			List<Bundle> sameName = symbolicName == null ? null : bundles.get(symbolicName);
+			if (sameName == null || sameName.isEmpty())
+				return null;
+			if (version == null)
+				return sameName.toArray(new Bundle[sameName.size()]);
+			Version v = Version.parseVersion(version);
+			List<Bundle> matches = new ArrayList<>(1);
+			for (Bundle bundle : sameName)
+				if (v.equals(bundle.getVersion()))
+					matches.add(bundle);
+			return matches.isEmpty() ? null : matches.toArray(new Bundle[matches.size()]);
+		}
+	}
+
 	private final BundleContext manipulatingContext;
 	private final PackageAdmin packageAdminService;
 	private final FrameworkWiring frameworkWiring;
@@ -90,16 +139,18 @@ class ConfigApplier {
 			saveStateAsLast(url);
 		}
 
-		Set<Bundle> prevouslyResolved = getResolvedBundles();
+		Bundle[] installed = manipulatingContext.getBundles();
+		Set<Bundle> prevouslyResolved = getResolvedBundles(installed);
+		BundleIndex index = new BundleIndex(installed);
 		Collection<Bundle> toRefresh = new ArrayList<>();
 		Collection<Bundle> toStart = new ArrayList<>();
 		if (exclusiveMode) {
-			toRefresh.addAll(installBundles(expectedState, toStart));
-			toRefresh.addAll(uninstallBundles(expectedState, packageAdminService));
+			toRefresh.addAll(installBundles(expectedState, toStart, index));
+			toRefresh.addAll(uninstallBundles(expectedState, index));
 		} else {
-			toRefresh.addAll(installBundles(expectedState, toStart));
+			toRefresh.addAll(installBundles(expectedState, toStart, index));
 			if (toUninstall != null)
-				toRefresh.addAll(uninstallBundles(toUninstall));
+				toRefresh.addAll(uninstallBundles(toUninstall, index));
 		}
 		if (!toRefresh.isEmpty()) {
 			if (manipulatingContext.getBundle().getState() == Bundle.STARTING) {
@@ -109,11 +160,11 @@ class ConfigApplier {
 			} else {
 				// In this case the platform is up, we should try to do an incremental resolve
 				// TODO consider removing this case because it can cause inconsistent results.
-				refreshPackages(toRefresh.toArray(new Bundle[toRefresh.size()]), manipulatingContext);
+				refreshPackages(toRefresh.toArray(new Bundle[toRefresh.size()]), manipulatingContext, index);
 				if (toRefresh.size() > 0) {
 					Bundle[] additionalRefresh = getAdditionalRefresh(prevouslyResolved, toRefresh);
 					if (additionalRefresh.length > 0)
-						refreshPackages(additionalRefresh, manipulatingContext);
+						refreshPackages(additionalRefresh, manipulatingContext, index);
 				}
 		}
 
@@ -218,9 +269,8 @@ class ConfigApplier {
 		return hostWire.getProviderWiring();
 	}
 
-	private Set<Bundle> getResolvedBundles() {
+	private Set<Bundle> getResolvedBundles(Bundle[] allBundles) {
 		Set<Bundle> resolved = new HashSet<>();
-		Bundle[] allBundles = manipulatingContext.getBundles();
 		for (Bundle bundle : allBundles)
 			if ((bundle.getState() & (Bundle.INSTALLED | Bundle.UNINSTALLED)) == 0)
 				resolved.add(bundle);
@@ -268,14 +318,15 @@ class ConfigApplier {
 		return doNotRefresh;
 	}
 
-	private Collection<Bundle> uninstallBundles(HashSet<BundleInfo> toUninstall) {
+	private Collection<Bundle> uninstallBundles(HashSet<BundleInfo> toUninstall, BundleIndex index) {
 		Collection<Bundle> removedBundles = new ArrayList<>(toUninstall.size());
 		for (BundleInfo current : toUninstall) {
-			Bundle[] matchingBundles = packageAdminService.getBundles(current.getSymbolicName(), getVersionRange(current.getVersion()));
+			Bundle[] matchingBundles = index.getBundles(current.getSymbolicName(), current.getVersion());
 			for (int j = 0; matchingBundles != null && j < matchingBundles.length; j++) {
 				try {
 					removedBundles.add(matchingBundles[j]);
 					matchingBundles[j].uninstall();
+					index.remove(matchingBundles[j]);
 				} catch (BundleException e) {
 					//TODO log in debug mode...
 				}
@@ -319,7 +370,7 @@ class ConfigApplier {
 		}
 	}
 
-	private ArrayList<Bundle> installBundles(BundleInfo[] finalList, Collection<Bundle> toStart) {
+	private ArrayList<Bundle> installBundles(BundleInfo[] finalList, Collection<Bundle> toStart, BundleIndex index) {
 		ArrayList<Bundle> toRefresh = new ArrayList<>();
 
 		String useReferenceProperty = manipulatingContext.getProperty(SimpleConfiguratorConstants.PROP_KEY_USE_REFERENCE);
@@ -336,7 +387,7 @@ class ConfigApplier {
 
 			Bundle[] matches = null;
 			if (symbolicName != null && version != null)
-				matches = packageAdminService.getBundles(symbolicName, getVersionRange(version));
+				matches = index.getBundles(symbolicName, version);
 
 			String bundleLocation = SimpleConfiguratorUtils.getBundleLocation(element, useReference);
 
@@ -351,7 +402,14 @@ class ConfigApplier {
 							if (!symbolicName.equals(current.getSymbolicName()) || !v.equals(current.getVersion())) {
 								// can happen if, for example, the new version of the bundle is installed
 								// to the same bundle location as the old version
-								current.update();
+								// indexed again under the name and version it has after the update, or still has
+								// if the update fails
+								index.remove(current);
+								try {
+									current.update();
+								} finally {
+									index.add(current);
+								}
 							}
 						} catch (IllegalArgumentException e) {
 							// invalid version string; should log
@@ -360,6 +418,7 @@ class ConfigApplier {
 						}
 					}
 
+					index.add(current);
 					if (Activator.DEBUG)
 						System.out.println("installed bundle:" + element); //$NON-NLS-1$
 					toRefresh.add(current);
@@ -375,6 +434,7 @@ class ConfigApplier {
 				// The bundle exists; but the location is different. Uninstall the current and install the new one (bug 229700)
 				try {
 					current.uninstall();
+					index.remove(current);
 					toRefresh.add(current);
 				} catch (BundleException e) {
 					if (Activator.DEBUG) {
@@ -385,6 +445,7 @@ class ConfigApplier {
 				}
 				try {
 					current = manipulatingContext.installBundle(bundleLocation);
+					index.add(current);
 					if (Activator.DEBUG)
 						System.out.println("installed bundle:" + element); //$NON-NLS-1$
 					toRefresh.add(current);
@@ -427,7 +488,7 @@ class ConfigApplier {
 		return (revision != null) && ((revision.getTypes() & BundleRevision.TYPE_FRAGMENT) != 0);
 	}
 
-	private void refreshPackages(Bundle[] bundles, BundleContext context) {
+	private void refreshPackages(Bundle[] bundles, BundleContext context, BundleIndex index) {
 		if (bundles.length == 0 || packageAdminService == null)
 			return;
 
@@ -441,7 +502,7 @@ class ConfigApplier {
 			String bsn = bundle.getSymbolicName();
 			if (bsn != null) {
 				// look for others with same BSN
-				Bundle[] sameBSNs = packageAdminService.getBundles(bsn, null);
+				Bundle[] sameBSNs = index.getBundles(bsn, null);
 				if (sameBSNs != null) {
 					// likely contains the bundle we just added above but a set is used
 					allSameBSNs.addAll(Arrays.asList(sameBSNs));
@@ -501,10 +562,10 @@ class ConfigApplier {
 	 * Uninstall bundles which are not listed on finalList.
 	 *
 	 * @param finalList bundles list not to be uninstalled.
-	 * @param packageAdmin package admin service.
+	 * @param index the installed bundles.
 	 * @return Collection HashSet of bundles finally installed.
 	 */
-	private Collection<Bundle> uninstallBundles(BundleInfo[] finalList, PackageAdmin packageAdmin) {
+	private Collection<Bundle> uninstallBundles(BundleInfo[] finalList, BundleIndex index) {
 		Bundle[] allBundles = manipulatingContext.getBundles();
 
 		//Build a set with all the bundles from the system
@@ -521,7 +582,7 @@ class ConfigApplier {
 		for (BundleInfo element : finalList) {
 			if (element == null)
 				continue;
-			Bundle[] toAdd = packageAdmin.getBundles(element.getSymbolicName(), getVersionRange(element.getVersion()));
+			Bundle[] toAdd = index.getBundles(element.getSymbolicName(), element.getVersion());
 			for (int j = 0; toAdd != null && j < toAdd.length; j++) {
 				removedBundles.remove(toAdd[j]);
 			}
@@ -538,6 +599,7 @@ class ConfigApplier {
 					continue;
 				}
 				bundle.uninstall();
+				index.remove(bundle);
 				if (Activator.DEBUG)
 					System.out.println("uninstalled Bundle:" + bundle.getSymbolicName() + '(' + bundle.getLocation() + ':' + bundle.getBundleId() + ')'); //$NON-NLS-1$
 			} catch (BundleException e) {
@@ -548,8 +610,4 @@ class ConfigApplier {
 
 		return removedBundles;
 	}
-
-	private String getVersionRange(String version) {
-		return version == null ? null : new StringBuilder().append('[').append(version).append(',').append(version).append(']').toString();
-	}
 }